@@ -1,8 +1,11 @@
 //import myGUI.LibraryManager;
 import gui.LibraryManager;
+import gui.StartupTimeline;
+import javax.swing.SwingUtilities;
 
 public class Main {
     public static void main(String[] args) {
-        LibraryManager app = new LibraryManager();
+        StartupTimeline.begin();
+        SwingUtilities.invokeLater(() -> new LibraryManager());
     }
 }
\ No newline at end of file
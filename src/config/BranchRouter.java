@@ -0,0 +1,210 @@
+package config;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Knows the databases of the other library branches, so work can be sent to the branch that
+ * owns the data (see {@link DatabaseConnection#OnBranch}).
+ *
+ * Branches are listed in the library.branches system property as comma-separated name=url
+ * pairs (same user and password as the primary), e.g.
+ * "north=jdbc:mysql://north:3306/library,south=jdbc:library:data/south.db". The branch this
+ * client belongs to is named by library.branch (default "main") and is always the primary
+ * database; an entry with that name in the list is ignored. A branch whose connection fails
+ * is not tried again for library.branches.retryMs (default 30000), so a search over all
+ * branches does not wait for it every time.
+ *
+ * @author Darkuz69
+ */
+public class BranchRouter {
+    private final String home;
+    private final Map<String, Branch> branches;
+    private final String user;
+    private final String password;
+    private final long retryMillis = Long.getLong("library.branches.retryMs", 30000);
+
+    private static final class Branch {
+        private final String name;
+        private final String url;
+        private Connection connection;
+        private long downUntil;
+
+        Branch(String name, String url) {
+            this.name = name;
+            this.url = url;
+        }
+    }
+
+    /**
+     * @param home The name of this client's own branch (null for "main").
+     * @param branches Comma-separated name=url pairs of the other branches (null or empty for none).
+     * @param user The database user.
+     * @param password The database password.
+     * @throws IllegalArgumentException if an entry is not of the form name=url.
+     */
+    public BranchRouter(String home, String branches, String user, String password) {
+        this.home = (home == null || home.trim().isEmpty()) ? "main" : home.trim();
+        Map<String, Branch> map = new LinkedHashMap<>();
+        if(branches != null) {
+            for(String entry : branches.split(",")) {
+                if(entry.trim().isEmpty()) continue;
+                int equals = entry.indexOf('=');
+                if(equals <= 0 || equals == entry.length() - 1) throw new IllegalArgumentException("Branch must be name=url: " + entry.trim());
+                String name = entry.substring(0, equals).trim();
+                String url = entry.substring(equals + 1).trim();
+                if(url.startsWith(EmbeddedDriver.PREFIX)) EmbeddedDriver.Register();
+                if(!name.equalsIgnoreCase(this.home)) map.put(name, new Branch(name, url));
+            }
+        }
+        this.branches = Collections.unmodifiableMap(map);
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * @return true if at least one other branch is configured.
+     */
+    public boolean IsEnabled() {
+        return !this.branches.isEmpty();
+    }
+
+    /**
+     * @return The name of this client's own branch.
+     */
+    public String Home() {
+        return this.home;
+    }
+
+    /**
+     * @param name A branch name (null means the home branch).
+     * @return true if the name is the home branch.
+     */
+    public boolean IsHome(String name) {
+        return name == null || name.equalsIgnoreCase(this.home);
+    }
+
+    /**
+     * @param name A branch name.
+     * @return true if the name is the home branch or one of the configured branches.
+     */
+    public boolean IsKnown(String name) {
+        return IsHome(name) || this.branches.containsKey(name);
+    }
+
+    /**
+     * @return All branch names, the home branch first.
+     */
+    public List<String> Names() {
+        List<String> names = new ArrayList<>();
+        names.add(this.home);
+        names.addAll(this.branches.keySet());
+        return names;
+    }
+
+    /**
+     * Returns the shared connection of a branch, opening it if needed.
+     *
+     * @param name The branch name (not the home branch).
+     * @return The connection.
+     * @throws DatabaseUnavailableException if the branch is down or cannot be reached.
+     */
+    public Connection Shared(String name) {
+        Branch branch = get(name);
+        synchronized(branch) {
+            checkUp(branch);
+            try {
+                if(branch.connection == null || branch.connection.isClosed()) {
+                    branch.connection = DriverManager.getConnection(branch.url, this.user, this.password);
+                }
+                return branch.connection;
+            } catch(SQLException e) {
+                throw markDown(branch, e);
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection to a branch (for transactions and streamed reads).
+     * The caller owns the returned connection and must close it.
+     *
+     * @param name The branch name (not the home branch).
+     * @param options Driver options in URL query form (may be null).
+     * @return A new connection.
+     * @throws DatabaseUnavailableException if the branch is down or cannot be reached.
+     */
+    public Connection Open(String name, String options) {
+        Branch branch = get(name);
+        synchronized(branch) {
+            checkUp(branch);
+        }
+        String url = (options == null || options.isEmpty()) ? branch.url : branch.url + (branch.url.contains("?") ? "&" : "?") + options;
+        try {
+            return DriverManager.getConnection(url, this.user, this.password);
+        } catch(SQLException e) {
+            throw markDown(branch, e);
+        }
+    }
+
+    /**
+     * Takes a branch out of use for a while if a statement failed because it could not be reached.
+     *
+     * @param name The branch name.
+     * @param error The failure.
+     * @return true if the failure was an outage.
+     */
+    public boolean ReportFailure(String name, Throwable error) {
+        if(!CircuitBreaker.IsOutage(error)) return false;
+        Branch branch = this.branches.get(name);
+        if(branch != null) markDown(branch, error);
+        return true;
+    }
+
+    /**
+     * Closes all branch connections.
+     */
+    public void Close() {
+        for(Branch branch : this.branches.values()) {
+            synchronized(branch) {
+                closeQuietly(branch);
+            }
+        }
+    }
+
+    private Branch get(String name) {
+        Branch branch = this.branches.get(name);
+        if(branch == null) throw new IllegalArgumentException("Unknown branch: " + name);
+        return branch;
+    }
+
+    private static void checkUp(Branch branch) {
+        if(System.currentTimeMillis() < branch.downUntil) {
+            throw new DatabaseUnavailableException("Branch " + branch.name + " unavailable, not trying again for a few seconds");
+        }
+    }
+
+    private DatabaseUnavailableException markDown(Branch branch, Throwable e) {
+        synchronized(branch) {
+            System.err.println("Branch " + branch.name + " (" + branch.url + ") unavailable: " + e.getMessage());
+            branch.downUntil = System.currentTimeMillis() + this.retryMillis;
+            closeQuietly(branch);
+        }
+        return new DatabaseUnavailableException("Branch " + branch.name + " unavailable (" + e.getMessage() + ")", e);
+    }
+
+    private static void closeQuietly(Branch branch) {
+        if(branch.connection == null) return;
+        try {
+            branch.connection.close();
+        } catch(SQLException ignore) {
+            // already broken
+        }
+        branch.connection = null;
+    }
+}
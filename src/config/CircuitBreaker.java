@@ -0,0 +1,172 @@
+package config;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Stops sending statements to a database that is down, so callers fail at once instead of
+ * each waiting for the driver's timeouts.
+ *
+ * - CLOSED: statements go through. After library.db.breaker.failures (default 1) consecutive
+ *   outage failures (lost or refused connections and timeouts; not SQL errors such as a
+ *   duplicate key) the breaker opens.
+ * - OPEN: statements are rejected without touching the network. After
+ *   library.db.breaker.openMs (default 5000) the breaker lets one probe through (half-open).
+ * - HALF_OPEN: a single probe is in flight, everything else is still rejected. Success closes
+ *   the breaker, an outage failure opens it again. A probe that never reports back is
+ *   replaced after the same delay.
+ *
+ * @author Darkuz69
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final CopyOnWriteArrayList<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long changedAt = System.nanoTime();
+    private long rejected;
+    private long trips;
+
+    /**
+     * @param failureThreshold Consecutive outage failures that open the breaker.
+     * @param openMillis How long the breaker stays open before a probe is let through.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if(failureThreshold < 1) throw new IllegalArgumentException("Failure threshold must be at least 1");
+        if(openMillis < 0) throw new IllegalArgumentException("Open time cannot be negative");
+
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+    }
+
+    /**
+     * Asks whether a statement may be sent. A caller that gets true must report the outcome
+     * with {@link #RecordSuccess()} or {@link #RecordFailure()}.
+     *
+     * @return false if the statement must fail fast.
+     */
+    public boolean Allow() {
+        State changed = null;
+        synchronized(this) {
+            if(this.state != State.CLOSED) {
+                if(System.nanoTime() - this.changedAt < this.openNanos) {
+                    this.rejected++;
+                    return false;
+                }
+                // open long enough (or the previous probe never reported back): let one probe through
+                if(this.state == State.OPEN) changed = State.HALF_OPEN;
+                this.state = State.HALF_OPEN;
+                this.changedAt = System.nanoTime();
+            }
+        }
+        notifyListeners(changed);
+        return true;
+    }
+
+    /**
+     * Reports that the database answered (including with an SQL error).
+     */
+    public void RecordSuccess() {
+        State changed = null;
+        synchronized(this) {
+            this.failures = 0;
+            if(this.state != State.CLOSED) {
+                this.state = State.CLOSED;
+                this.changedAt = System.nanoTime();
+                changed = State.CLOSED;
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    /**
+     * Reports that the database could not be reached.
+     */
+    public void RecordFailure() {
+        State changed = null;
+        synchronized(this) {
+            this.failures++;
+            if(this.state == State.HALF_OPEN || (this.state == State.CLOSED && this.failures >= this.failureThreshold)) {
+                if(this.state == State.CLOSED) this.trips++;
+                changed = this.state == State.CLOSED ? State.OPEN : null;
+                this.state = State.OPEN;
+                this.changedAt = System.nanoTime();
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    /**
+     * Records the outcome of a statement that failed: outage failures count against the
+     * database, other SQL errors mean it answered.
+     *
+     * @param error The failure (its cause chain is searched for an SQLException).
+     * @return true if the failure was an outage.
+     */
+    public boolean Record(Throwable error) {
+        if(IsOutage(error)) {
+            RecordFailure();
+            return true;
+        }
+        RecordSuccess();
+        return false;
+    }
+
+    /**
+     * @param error A failure.
+     * @return true if it (or one of its causes) means the database could not be reached.
+     */
+    public static boolean IsOutage(Throwable error) {
+        for(Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if(cause instanceof DatabaseUnavailableException) return true;
+            if(cause instanceof SQLTimeoutException || cause instanceof SQLTransientConnectionException
+                || cause instanceof SQLNonTransientConnectionException) return true;
+            if(cause instanceof SQLException) {
+                // SQLState class 08: connection exception (refused, lost, communications link failure)
+                String sqlState = ((SQLException) cause).getSQLState();
+                if(sqlState != null && sqlState.startsWith("08")) return true;
+            }
+            if(cause.getCause() == cause) break;
+        }
+        return false;
+    }
+
+    /**
+     * Registers a callback run (on the thread that caused it) whenever the state changes.
+     *
+     * @param listener Receives the new state.
+     */
+    public void OnStateChange(Consumer<State> listener) {
+        if(listener != null) this.listeners.add(listener);
+    }
+
+    public synchronized State GetState() { return this.state; }
+    /** @return The number of statements rejected without being sent. */
+    public synchronized long Rejected() { return this.rejected; }
+    /** @return How many times the breaker opened after being closed. */
+    public synchronized long Trips() { return this.trips; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("breaker[%s failures=%d trips=%d rejected=%d]", this.state, this.failures, this.trips, this.rejected);
+    }
+
+    private void notifyListeners(State changed) {
+        if(changed == null) return;
+        for(Consumer<State> listener : this.listeners) {
+            try {
+                listener.accept(changed);
+            } catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
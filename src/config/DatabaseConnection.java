@@ -7,7 +7,11 @@ import java.util.List;
 import java.util.Map;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 /**
  * Singleton class for managing database connections and executing queries.
@@ -15,22 +19,239 @@ import java.util.HashMap;
  * @author Darkuz69
  */
 public class DatabaseConnection implements AutoCloseable {
-    private final String URL = "jdbc:mysql://localhost:3306/test";
-    private final String User = "root";
-    private final String Password = "";
+    // jdbc:library:<file> runs on the embedded store instead of MySQL (see EmbeddedDriver)
+    private final String URL = System.getProperty("library.db.url", "jdbc:mysql://localhost:3306/test");
+    private static final String User = "root";
+    private static final String Password = "";
     private static Connection connection;
 
-    private static DatabaseConnection instance;
+    private static volatile DatabaseConnection instance;
+    private final QueryCache queryCache = new QueryCache();
+    private final ReplicaRouter replicas;
+    // concurrent ExecuteUpdate calls share commits; off with -Dlibrary.groupcommit=false
+    private final WriteCoordinator writes = Boolean.parseBoolean(System.getProperty("library.groupcommit", "true"))
+        ? new WriteCoordinator(this::OpenConnection, this.queryCache, Integer.getInteger("library.groupcommit.maxGroup", 64), Long.getLong("library.groupcommit.windowMicros", 0))
+        : null;
+    // identical concurrent reads share one query; off with -Dlibrary.singleflight=false
+    private final SingleFlight flights = Boolean.parseBoolean(System.getProperty("library.singleflight", "true")) ? new SingleFlight() : null;
+    // fails statements at once while the primary is unreachable; reads fall back to their last result
+    private final CircuitBreaker breaker = new CircuitBreaker(Integer.getInteger("library.db.breaker.failures", 1), Long.getLong("library.db.breaker.openMs", 5000));
+    private final LastKnownResults lastKnown = new LastKnownResults(Boolean.getBoolean("library.db.stale") ? Long.getLong("library.db.stale.maxRows", 200000) : 0);
+    // writes made while the database is unreachable, replayed once it is back (see OfflineWriteLog)
+    private final OfflineWriteLog offline = OpenOfflineLog();
+
+    // idle connections kept for transactions, so a checkout does not pay for a new handshake
+    private static final int MAX_IDLE_TRANSACTION_CONNECTIONS = 4;
+    // deadlocks and lock wait timeouts are retried this many times before giving up
+    private static final int TRANSACTION_ATTEMPTS = 3;
+    private final ConcurrentLinkedDeque<Connection> idleConnections = new ConcurrentLinkedDeque<>();
+
+    // the other branches' databases; statements run inside OnBranch go to the routed branch instead of the primary
+    private final BranchRouter branches;
+    private static BranchRouter configuredBranches;  // created on first use, shared with the instance (see ConfiguredBranches)
+    private final ThreadLocal<String> routed = new ThreadLocal<>();
+    private final long branchTimeoutMillis = Long.getLong("library.branches.timeoutMs", 3000);
+    private final java.util.concurrent.ExecutorService branchPool;
+
+    /**
+     * Callback invoked for each row of a streamed query.
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * @param row The result set positioned on the current row.
+         * @return true to continue with the next row, false to stop streaming.
+         * @throws Exception if the row cannot be processed (aborts the stream).
+         */
+        boolean Handle(ResultSet row) throws Exception;
+    }
+
+    /**
+     * Work done inside a transaction; see {@link DatabaseConnection#ExecuteTransaction(TransactionWork)}.
+     *
+     * @param <R> The result type.
+     */
+    @FunctionalInterface
+    public interface TransactionWork<R> {
+        /**
+         * @param transaction The open transaction.
+         * @return The result of the work.
+         * @throws Exception if the work fails (the transaction is rolled back).
+         */
+        R Run(Transaction transaction) throws Exception;
+    }
+
+    /**
+     * Work run on one branch; see {@link DatabaseConnection#ForEachBranch(BranchWork, BranchResult)}.
+     *
+     * @param <R> The result type.
+     */
+    @FunctionalInterface
+    public interface BranchWork<R> {
+        /**
+         * @param branch The branch the work is routed to.
+         * @return The result of the work.
+         * @throws Exception if the work fails.
+         */
+        R Run(String branch) throws Exception;
+    }
+
+    /**
+     * Receives the outcome of {@link BranchWork} for one branch.
+     *
+     * @param <R> The result type.
+     */
+    @FunctionalInterface
+    public interface BranchResult<R> {
+        /**
+         * @param branch The branch.
+         * @param result The result of the work, or null if it failed.
+         * @param failure Why the work failed or timed out, or null if it succeeded.
+         */
+        void Accept(String branch, R result, Exception failure);
+    }
+
+    /**
+     * An open transaction on a dedicated connection. Statements run through it are committed
+     * together when the work returns, or rolled back if it throws or calls {@link #RollbackOnly()}.
+     */
+    public static final class Transaction {
+        private final Connection connection;
+        private final QueryCache queryCache;
+        private final Set<String> tables = new HashSet<>();
+        private boolean rollbackOnly;
+
+        private Transaction(Connection connection, QueryCache queryCache) {
+            this.connection = connection;
+            this.queryCache = queryCache;
+        }
+
+        /**
+         * Executes an INSERT, UPDATE or DELETE statement inside the transaction.
+         *
+         * @param statement The SQL statement.
+         * @param args The parameters for the SQL statement.
+         * @return The number of rows matched.
+         * @throws SQLException if the statement fails.
+         */
+        public int Update(String statement, Object... args) throws SQLException {
+            try(PreparedStatement newStatement = this.connection.prepareStatement(statement)) {
+                for(int i = 0; i < args.length; i++) Bind(newStatement, i + 1, args[i]);
+                int rows = newStatement.executeUpdate();
+                if(rows != 0) this.tables.addAll(this.queryCache.TablesOf(statement));
+                return rows;
+            }
+        }
+
+        /**
+         * Executes a query inside the transaction (never served from the query cache).
+         *
+         * @param statement The SQL query.
+         * @param args The parameters for the SQL query.
+         * @return A list of maps representing the query results.
+         * @throws SQLException if the query fails.
+         */
+        public List<Map<String, Object>> Query(String statement, Object... args) throws SQLException {
+            try(PreparedStatement newStatement = this.connection.prepareStatement(statement)) {
+                for(int i = 0; i < args.length; i++) Bind(newStatement, i + 1, args[i]);
+                try(ResultSet resultSet = newStatement.executeQuery()) {
+                    return ExtractResult(resultSet);
+                }
+            }
+        }
+
+        /**
+         * Marks the transaction to be rolled back instead of committed when the work returns,
+         * e.g. when a conditional update found the row in the wrong state.
+         */
+        public void RollbackOnly() {
+            this.rollbackOnly = true;
+        }
+
+        /**
+         * Marks a point the transaction can later be rolled back to without losing earlier work.
+         *
+         * @return The savepoint.
+         * @throws SQLException if the savepoint cannot be set.
+         */
+        public Savepoint SetSavepoint() throws SQLException {
+            return this.connection.setSavepoint();
+        }
+
+        /**
+         * Undoes everything done since the savepoint was set.
+         *
+         * @param savepoint A savepoint of this transaction.
+         * @throws SQLException if the rollback fails.
+         */
+        public void RollbackTo(Savepoint savepoint) throws SQLException {
+            this.connection.rollback(savepoint);
+        }
+
+        /**
+         * Forgets a savepoint that is no longer needed.
+         *
+         * @param savepoint A savepoint of this transaction.
+         * @throws SQLException if the savepoint cannot be released.
+         */
+        public void ReleaseSavepoint(Savepoint savepoint) throws SQLException {
+            this.connection.releaseSavepoint(savepoint);
+        }
+    }
 
     private DatabaseConnection() {
+        this.replicas = new ReplicaRouter(System.getProperty("library.db.replicas"), User, Password);
+        this.branches = ConfiguredBranches();
+        this.branchPool = this.branches.IsEnabled() ? java.util.concurrent.Executors.newCachedThreadPool(work -> {
+            Thread thread = new Thread(work, "branch-query");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        // every write invalidates the cache; reads then stay on the primary for a while (read-your-writes)
+        this.queryCache.OnInvalidate(this.replicas::RecordWrite);
+        this.breaker.OnStateChange(state -> {
+            if(state != CircuitBreaker.State.CLOSED) return;
+            this.lastKnown.ResetServed();
+            if(this.offline != null) this.offline.ReplayInBackground(this);
+        });
+        if(IsEmbedded()) EmbeddedDriver.Register();
         try {
-            connection = DriverManager.getConnection(this.URL, this.User, this.Password);
+            connection = DriverManager.getConnection(this.URL, User, Password);
         } catch(SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to connect to database: " + e.getMessage());
+            // the database may come back later: statements reconnect (see Primary), the breaker fails them fast until then
+            System.err.println("Failed to connect to database: " + e.getMessage());
+            this.breaker.Record(e);
+        }
+    }
+
+    // The shared connection, reopened if it was never opened or has been closed (e.g. after the server went away).
+    private Connection Primary() throws SQLException {
+        Connection current = connection;
+        if(current != null && !current.isClosed()) return current;
+
+        synchronized(DatabaseConnection.class) {
+            if(connection == null || connection.isClosed()) connection = DriverManager.getConnection(this.URL, User, Password);
+            return connection;
+        }
+    }
+
+    private static OfflineWriteLog OpenOfflineLog() {
+        if(!Boolean.parseBoolean(System.getProperty("library.offline", "true"))) return null;
+        try {
+            return new OfflineWriteLog(java.nio.file.Paths.get(System.getProperty("library.offline.path", "data/offline-writes.wal")),
+                Long.getLong("library.offline.syncMs", 10), Integer.getInteger("library.offline.batch", 100));
+        } catch(java.io.IOException | RuntimeException e) {
+            // without the log, writes simply fail while the database is unreachable
+            System.err.println("Failed to open offline write log: " + e.getMessage());
+            return null;
         }
     }
 
+    // Fails fast while the breaker is open. A caller that gets past this must report the outcome to the breaker.
+    private void CheckAvailable() {
+        if(!this.breaker.Allow()) throw new DatabaseUnavailableException("Database unavailable, not trying again for a few seconds");
+    }
+
     /**
      * Retrieves the singleton instance of DatabaseConnection.
      * 
@@ -41,6 +262,13 @@ public class DatabaseConnection implements AutoCloseable {
         return instance;
     }
 
+    /**
+     * @return The instance if it was already created, otherwise null (never connects).
+     */
+    public static DatabaseConnection GetExistingInstance() {
+        return instance;
+    }
+
     /**
      * Creates a prepared statement with the given SQL and parameters.
      * 
@@ -49,26 +277,46 @@ public class DatabaseConnection implements AutoCloseable {
      * @return The prepared statement.
      * @throws RuntimeException if statement creation fails.
      */
-    private static PreparedStatement CreateStatement(String statement, Object... args) {
+    private PreparedStatement CreateStatement(String statement, Object... args) {
         if(statement == null || statement.trim().isEmpty()) return null;
 
         try {
-            PreparedStatement newStatement = connection.prepareStatement(statement);
+            PreparedStatement newStatement = Primary().prepareStatement(statement);
             if(newStatement == null) return null;
             
             if(args.length > 0) {
                 for(int i = 0; i < args.length; i++) {
-                    newStatement.setObject(i + 1, args[i]);
+                    Bind(newStatement, i + 1, args[i]);
                 }
             }
 
             return newStatement;
         } catch(SQLException e) {
             e.printStackTrace();
-            throw new RuntimeException("Failed to create prepared statement: " + e.getMessage());
+            throw new RuntimeException("Failed to create prepared statement: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Binds one parameter with the typed setter for its value, so the common types skip the
+     * driver's generic setObject type dispatch.
+     * 
+     * @param statement The prepared statement.
+     * @param index The 1-based parameter index.
+     * @param value The value (null binds SQL NULL).
+     * @throws SQLException if binding fails.
+     */
+    static void Bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if(value == null) statement.setNull(index, Types.NULL);
+        else if(value instanceof String) statement.setString(index, (String) value);
+        else if(value instanceof Integer) statement.setInt(index, (Integer) value);
+        else if(value instanceof Long) statement.setLong(index, (Long) value);
+        else if(value instanceof Boolean) statement.setBoolean(index, (Boolean) value);
+        else if(value instanceof java.sql.Date) statement.setDate(index, (java.sql.Date) value);
+        else if(value instanceof Timestamp) statement.setTimestamp(index, (Timestamp) value);
+        else statement.setObject(index, value);
+    }
+
     /**
      * Extracts results from a ResultSet into a list of maps.
      * 
@@ -85,10 +333,14 @@ public class DatabaseConnection implements AutoCloseable {
             if(metaData == null) return null;
 
             int columnCount = metaData.getColumnCount();
+            // look the column names up once instead of once per row
+            String[] columns = new String[columnCount];
+            for(int i = 1; i <= columnCount; i++) columns[i - 1] = metaData.getColumnName(i);
+
             while(resultSet.next()) {
-                Map<String, Object> row = new HashMap<>();
+                Map<String, Object> row = new HashMap<>(columnCount * 2);
                 for(int i = 1; i <= columnCount; i++) {
-                    row.put(metaData.getColumnName(i), resultSet.getObject(i));
+                    row.put(columns[i - 1], resultSet.getObject(i));
                 }
                 results.add(row);
             }
@@ -100,9 +352,58 @@ public class DatabaseConnection implements AutoCloseable {
         }
     }
 
+    /**
+     * Opens (if needed) and validates the database connection.
+     * Meant to be called from a background thread during startup so the first
+     * query issued by the UI does not pay for the connection handshake.
+     * 
+     * @throws RuntimeException if the connection cannot be opened or is not valid.
+     */
+    public static void WarmUp() {
+        DatabaseConnection database = GetInstance();
+        try {
+            if(!database.Primary().isValid(5)) throw new RuntimeException("Database connection is not valid");
+            database.breaker.RecordSuccess();
+            // changes queued offline during an earlier run
+            if(database.offline != null) database.offline.ReplayInBackground(database);
+        } catch(SQLException e) {
+            database.breaker.Record(e);
+            e.printStackTrace();
+            throw new RuntimeException("Failed to validate database connection: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks whether the database answers, when the circuit breaker allows a probe.
+     * Used to notice that the database is back without waiting for the next user action.
+     *
+     * @return true if the database answered.
+     */
+    public boolean Ping() {
+        if(!this.breaker.Allow()) return false;
+        try {
+            boolean valid = Primary().isValid(2);
+            if(valid) this.breaker.RecordSuccess();
+            else this.breaker.RecordFailure();
+            return valid;
+        } catch(SQLException e) {
+            this.breaker.Record(e);
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves the query result cache used by ExecuteQuery.
+     * 
+     * @return The QueryCache instance.
+     */
+    public QueryCache GetQueryCache() {
+        return this.queryCache;
+    }
+
     /**
      * Executes a query and returns the results.
-     * Useful for SELECT statements.
+     * Useful for SELECT statements. Results are served from the query cache when enabled.
      * 
      * @param statement The SQL query to execute.
      * @param args The parameters for the SQL query.
@@ -110,63 +411,665 @@ public class DatabaseConnection implements AutoCloseable {
      * @throws RuntimeException if query execution fails.
      */
     public List<Map<String, Object>> ExecuteQuery(String statement, Object... args) {
-        PreparedStatement newStatement = CreateStatement(statement, args);
-        if(newStatement == null) return null;
+        return ExecuteQuery(true, statement, args);
+    }
 
-        ResultSet resultSet = null;
-        try {
-            resultSet = newStatement.executeQuery();
-            List<Map<String, Object>> extractedResults = ExtractResult(resultSet);
+    /**
+     * Executes a query and returns the results, optionally bypassing the query cache.
+     * 
+     * @param useCache true to read from and populate the query cache, false to always hit the database.
+     * @param statement The SQL query to execute.
+     * @param args The parameters for the SQL query.
+     * @return A list of maps representing the query results.
+     * @throws RuntimeException if query execution fails.
+     */
+    public List<Map<String, Object>> ExecuteQuery(boolean useCache, String statement, Object... args) {
+        if(statement == null) return null;
+        String branch = this.routed.get();
+        if(branch != null) return QueryBranch(branch, statement, args);
+        if(!useCache || !this.queryCache.IsEnabled()) return QueryShared(new QueryCache.Key(statement, args), statement, args);
+
+        QueryCache.Key key = new QueryCache.Key(statement, args);
+        List<Map<String, Object>> cached = this.queryCache.Get(key);
+        if(cached != null) return cached;
+
+        long[] versions = this.queryCache.Versions(this.queryCache.TablesOf(statement));
+        List<Map<String, Object>> results = QueryShared(key, versions, statement, args);
+        // rows from before an outage must not be served as fresh once the database is back
+        if(!(results instanceof LastKnownResults.StaleRows)) this.queryCache.Put(key, results, versions);
+        return results;
+    }
 
-            return extractedResults;
+    /**
+     * @return The read coalescer (its counters show how many queries were saved), or null if it is off.
+     */
+    public SingleFlight GetSingleFlight() {
+        return this.flights;
+    }
+
+    private List<Map<String, Object>> QueryShared(QueryCache.Key key, String statement, Object... args) {
+        if(this.flights == null) return QueryDatabase(statement, args);
+        return QueryShared(key, this.queryCache.Versions(this.queryCache.TablesOf(statement)), statement, args);
+    }
+
+    // Joins an identical query already in flight (same SQL, parameters and table versions) or runs it.
+    private List<Map<String, Object>> QueryShared(QueryCache.Key key, long[] versions, String statement, Object... args) {
+        if(this.flights == null) return QueryDatabase(statement, args);
+        return this.flights.Do(key, versions, () -> QueryDatabase(statement, args));
+    }
+
+    // Reads go to a replica when one is usable and fall back to the primary if it fails.
+    // While the primary is unreachable, the last result read for the same query is returned instead.
+    private List<Map<String, Object>> QueryDatabase(String statement, Object... args) {
+        if(statement == null || statement.trim().isEmpty()) return null;
+
+        Connection replica = this.replicas.ReadConnection();
+        if(replica != null) {
+            try {
+                List<Map<String, Object>> rows = RunQuery(replica, statement, args);
+                this.lastKnown.Remember(new QueryCache.Key(statement, args), rows);
+                return rows;
+            } catch(SQLException e) {
+                this.replicas.ReportFailure(replica, e);
+            }
+        }
+
+        if(!this.breaker.Allow()) return LastKnown(statement, args, null);
+        try {
+            List<Map<String, Object>> rows = RunQuery(Primary(), statement, args);
+            this.breaker.RecordSuccess();
+            this.lastKnown.Remember(new QueryCache.Key(statement, args), rows);
+            return rows;
         } catch(SQLException e) {
+            if(this.breaker.Record(e)) return LastKnown(statement, args, e);
             e.printStackTrace();
             throw new RuntimeException("Failed to execute query: " + e.getMessage());
+        }
+    }
+
+    // Reads of another branch skip the caches, which only hold the home branch's rows.
+    private List<Map<String, Object>> QueryBranch(String branch, String statement, Object... args) {
+        if(statement.trim().isEmpty()) return null;
+        try {
+            return RunQuery(this.branches.Shared(branch), statement, args);
+        } catch(SQLException e) {
+            throw BranchFailure(branch, "Failed to execute query", e);
+        }
+    }
+
+    private RuntimeException BranchFailure(String branch, String what, SQLException e) {
+        if(this.branches.ReportFailure(branch, e)) return new DatabaseUnavailableException("Branch " + branch + " unavailable (" + e.getMessage() + ")", e);
+        e.printStackTrace();
+        return new RuntimeException(what + " on branch " + branch + ": " + e.getMessage(), e);
+    }
+
+    // Answers a read from its last known result, or fails with DatabaseUnavailableException.
+    private List<Map<String, Object>> LastKnown(String statement, Object[] args, SQLException failure) {
+        LastKnownResults.Snapshot snapshot = this.lastKnown.Serve(new QueryCache.Key(statement, args));
+        if(snapshot != null) return snapshot.Rows();
+
+        String reason = failure == null ? "not trying again for a few seconds" : failure.getMessage();
+        throw new DatabaseUnavailableException("Database unavailable (" + reason + ") and no earlier result to show", failure);
+    }
+
+    /**
+     * @return The circuit breaker guarding the primary database.
+     */
+    public CircuitBreaker GetCircuitBreaker() {
+        return this.breaker;
+    }
+
+    /**
+     * @return The last known query results served while the database is unreachable.
+     */
+    public LastKnownResults GetLastKnownResults() {
+        return this.lastKnown;
+    }
+
+    private static List<Map<String, Object>> RunQuery(Connection target, String statement, Object... args) throws SQLException {
+        try(PreparedStatement newStatement = target.prepareStatement(statement)) {
+            for(int i = 0; i < args.length; i++) Bind(newStatement, i + 1, args[i]);
+            try(ResultSet resultSet = newStatement.executeQuery()) {
+                return ExtractResult(resultSet);
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection with the same settings as the shared one.
+     * The caller owns the returned connection and must close it.
+     * 
+     * @return A new database connection.
+     * @throws RuntimeException if the connection cannot be opened.
+     */
+    public Connection OpenConnection() {
+        return OpenConnection(null);
+    }
+
+    /**
+     * Opens a new connection with the same settings as the shared one plus extra driver options.
+     * Inside {@link #OnBranch} the connection goes to the routed branch.
+     * The caller owns the returned connection and must close it.
+     * 
+     * @param options Driver options in URL query form, e.g. "allowLoadLocalInfile=true" (may be null).
+     * @return A new database connection.
+     * @throws RuntimeException if the connection cannot be opened.
+     */
+    public Connection OpenConnection(String options) {
+        String branch = this.routed.get();
+        if(branch != null) return this.branches.Open(branch, options);
+        String url = (options == null || options.isEmpty()) ? this.URL : this.URL + (this.URL.contains("?") ? "&" : "?") + options;
+        try {
+            return DriverManager.getConnection(url, User, Password);
+        } catch(SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to connect to database: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Calls a stored procedure in one round trip and returns the rows of its first result set.
+     * Cached query results of the given tables are invalidated afterwards, since the cache
+     * cannot tell what the procedure changed.
+     * 
+     * @param procedure The procedure name.
+     * @param tables The tables the procedure may change.
+     * @param args The procedure's IN parameters, in order.
+     * @return The rows of the first result set (empty if the procedure returns none).
+     * @throws RuntimeException if the call fails.
+     */
+    public List<Map<String, Object>> ExecuteCall(String procedure, Collection<String> tables, Object... args) {
+        StringBuilder call = new StringBuilder("{CALL ").append(procedure).append('(');
+        for(int i = 0; i < args.length; i++) call.append(i == 0 ? "?" : ", ?");
+        call.append(")}");
+
+        String branch = this.routed.get();
+        if(branch == null) CheckAvailable();
+        try(CallableStatement newStatement = (branch == null ? Primary() : this.branches.Shared(branch)).prepareCall(call.toString())) {
+            for(int i = 0; i < args.length; i++) Bind(newStatement, i + 1, args[i]);
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            boolean hasResult = newStatement.execute();
+            if(hasResult) {
+                try(ResultSet resultSet = newStatement.getResultSet()) {
+                    results = ExtractResult(resultSet);
+                }
+            }
+            // read past the remaining results so the connection is ready for the next statement
+            while(newStatement.getMoreResults() || newStatement.getUpdateCount() != -1) {}
+            if(branch == null) this.breaker.RecordSuccess();
+            return results;
+        } catch(SQLException e) {
+            if(branch != null) throw BranchFailure(branch, "Failed to call procedure", e);
+            this.breaker.Record(e);
+            e.printStackTrace();
+            throw new RuntimeException("Failed to call procedure: " + e.getMessage());
         } finally {
+            if(branch == null) this.queryCache.InvalidateTables(tables);
+        }
+    }
+
+    /**
+     * Runs work in a single transaction on a dedicated connection, so the shared connection
+     * stays usable and concurrent transactions only contend for the rows they touch (no table
+     * locks). The work is committed when it returns and rolled back if it throws. A deadlock or
+     * lock wait timeout rolls back and runs the work again from the start (a few times), so
+     * the work must only change the database through the given transaction.
+     * Cached query results of the changed tables are invalidated after the commit.
+     *
+     * @param work The work to run.
+     * @param <R> The result type.
+     * @return The result of the work.
+     * @throws RuntimeException if the work fails or keeps conflicting with other transactions.
+     */
+    public <R> R ExecuteTransaction(TransactionWork<R> work) {
+        // another branch's transactions get a new connection each time and leave the caches and the breaker alone
+        String branch = this.routed.get();
+        if(branch == null) CheckAvailable();
+        for(int attempt = 1; ; attempt++) {
+            Connection transactionConnection = branch == null ? this.idleConnections.pollFirst() : null;
+            boolean reusable = false;
             try {
-                if(newStatement != null) newStatement.close();
-                if(resultSet != null) resultSet.close();
-            } catch(SQLException ex) {
-                ex.printStackTrace();
-                throw new RuntimeException("Failed to close resources: " + ex.getMessage());
+                if(transactionConnection == null || !transactionConnection.isValid(2)) transactionConnection = OpenConnection();
+                transactionConnection.setAutoCommit(false);
+
+                Transaction transaction = new Transaction(transactionConnection, this.queryCache);
+                R result;
+                try {
+                    result = work.Run(transaction);
+                } catch(Exception e) {
+                    transactionConnection.rollback();
+                    reusable = true;
+                    throw e;
+                }
+
+                if(transaction.rollbackOnly) transactionConnection.rollback();
+                else {
+                    transactionConnection.commit();
+                    if(branch == null) this.queryCache.InvalidateTables(transaction.tables);
+                }
+                reusable = branch == null;
+                if(branch == null) this.breaker.RecordSuccess();
+                return result;
+            } catch(SQLException e) {
+                if(branch == null ? this.breaker.Record(e) : this.branches.ReportFailure(branch, e)) reusable = false;
+                if(attempt < TRANSACTION_ATTEMPTS && IsRetryable(e)) {
+                    try { Thread.sleep(10L * attempt); } catch(InterruptedException ie) { Thread.currentThread().interrupt(); }
+                    continue;
+                }
+                e.printStackTrace();
+                throw new RuntimeException("Failed to execute transaction: " + e.getMessage(), e);
+            } catch(RuntimeException e) {
+                // an outage while opening the connection; errors thrown by the work itself mean the database answered
+                if(branch == null) this.breaker.Record(e);
+                throw e;
+            } catch(Exception e) {
+                if(branch == null) this.breaker.RecordSuccess();
+                e.printStackTrace();
+                throw new RuntimeException("Failed to execute transaction: " + e.getMessage(), e);
+            } finally {
+                Release(transactionConnection, reusable && branch == null);
+            }
+        }
+    }
+
+    // MySQL deadlock (1213, SQLState 40001) and lock wait timeout (1205)
+    private static boolean IsRetryable(SQLException e) {
+        return "40001".equals(e.getSQLState()) || e.getErrorCode() == 1213 || e.getErrorCode() == 1205;
+    }
+
+    private void Release(Connection transactionConnection, boolean reusable) {
+        if(transactionConnection == null) return;
+        try {
+            if(reusable && this.idleConnections.size() < MAX_IDLE_TRANSACTION_CONNECTIONS) {
+                transactionConnection.setAutoCommit(true);
+                this.idleConnections.offerFirst(transactionConnection);
+            } else {
+                transactionConnection.close();
+            }
+        } catch(SQLException e) {
+            // a broken connection is simply dropped
+            try { transactionConnection.close(); } catch(SQLException ignore) {}
+        }
+    }
+
+    /**
+     * Executes a query and hands its rows one by one to the given handler without
+     * materializing the result. Runs on a dedicated connection with a forward-only
+     * streaming cursor, so memory use does not depend on the size of the result and
+     * the shared connection stays usable while the stream is open.
+     * 
+     * @param statement The SQL query to execute.
+     * @param handler Receives each row; returning false stops the stream early.
+     * @param args The parameters for the SQL query.
+     * @return The number of rows handed to the handler.
+     * @throws RuntimeException if the query or the handler fails.
+     */
+    public long StreamQuery(String statement, RowHandler handler, Object... args) {
+        return StreamQuery(true, statement, handler, args);
+    }
+
+    /**
+     * Same as {@link #StreamQuery(String, RowHandler, Object...)}, optionally forcing the primary.
+     * 
+     * @param allowReplica true to read from a read replica when one is usable, false to always read the primary
+     *        (e.g. when the rows are about to be updated).
+     * @param statement The SQL query to execute.
+     * @param handler Receives each row; returning false stops the stream early.
+     * @param args The parameters for the SQL query.
+     * @return The number of rows handed to the handler.
+     * @throws RuntimeException if the query or the handler fails.
+     */
+    public long StreamQuery(boolean allowReplica, String statement, RowHandler handler, Object... args) {
+        String branch = this.routed.get();
+        if(branch != null) return Stream(this.branches.Open(branch, null), statement, handler, args);
+        if(allowReplica) {
+            Connection replica = this.replicas.OpenReadConnection();
+            if(replica != null) {
+                // only a failure before the first row can be retried on the primary
+                long[] handed = new long[1];
+                RowHandler counting = row -> { handed[0]++; return handler.Handle(row); };
+                try {
+                    return Stream(replica, statement, counting, args);
+                } catch(RuntimeException e) {
+                    if(handed[0] > 0 || !(e.getCause() instanceof SQLException)) throw e;
+                    this.replicas.ReportFailure(replica, (SQLException) e.getCause());
+                }
             }
         }
+        CheckAvailable();
+        Connection primary;
+        try {
+            primary = OpenConnection();
+        } catch(RuntimeException e) {
+            this.breaker.Record(e);
+            throw e;
+        }
+        this.breaker.RecordSuccess();
+        return Stream(primary, statement, handler, args);
+    }
+
+    // Streams the query on the given connection and closes it.
+    private long Stream(Connection target, String statement, RowHandler handler, Object... args) {
+        try(Connection streamConnection = target;
+            PreparedStatement newStatement = streamConnection.prepareStatement(statement, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Integer.MIN_VALUE makes Connector/J stream rows instead of buffering the whole result
+            newStatement.setFetchSize(Integer.MIN_VALUE);
+            for(int i = 0; i < args.length; i++) Bind(newStatement, i + 1, args[i]);
+
+            long rows = 0;
+            boolean stopped = false;
+            ResultSet resultSet = newStatement.executeQuery();
+            try {
+                while(resultSet.next()) {
+                    rows++;
+                    if(!handler.Handle(resultSet)) {
+                        // Closing a streamed result reads the remaining rows; cancel the query instead
+                        stopped = true;
+                        newStatement.cancel();
+                        break;
+                    }
+                }
+            } finally {
+                try {
+                    resultSet.close();
+                } catch(SQLException e) {
+                    // an interrupted query is expected after cancel()
+                    if(!stopped) throw e;
+                }
+            }
+            return rows;
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to stream query: " + e.getMessage(), e);
+        }
     }
 
     /**
      * Executes an update operation.
-     * Useful for INSERT, UPDATE, DELETE statements.
+     * Useful for INSERT, UPDATE, DELETE statements. With group commit on (the default) the
+     * statement is committed together with other concurrent writes; see {@link WriteCoordinator}.
      * 
      * @param statement The SQL statement to execute.
      * @param args The parameters for the SQL statement.
+     * While the database is unreachable (or earlier offline changes are still being replayed),
+     * INSERT, UPDATE and DELETE statements are queued in the offline write log instead and
+     * reported as 1 row affected; see {@link #QueueOffline(String, OfflineWriteLog.Step...)}.
+     * 
      * @return The number of rows affected, or -1 if an error occurred.
      * @throws RuntimeException if update execution fails.
      */
     public int ExecuteUpdate(String statement, Object... args) {
-        PreparedStatement newStatement = CreateStatement(statement, args);
+        try {
+            return SubmitUpdate(statement, args).join();
+        } catch(java.util.concurrent.CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException("Failed to execute update: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Queues an update for group commit without waiting for it.
+     * 
+     * @param statement The SQL statement to execute.
+     * @param args The parameters for the SQL statement.
+     * @return A future completed with the number of rows affected once committed, with 1 if the
+     *         statement was queued offline, or failed at once with a DatabaseUnavailableException
+     *         while the database is unreachable and the offline write log is off.
+     */
+    public java.util.concurrent.CompletableFuture<Integer> SubmitUpdate(String statement, Object... args) {
+        String branch = this.routed.get();
+        if(branch != null) {
+            // written straight to the owning branch: no group commit, and no offline queue (it replays to the primary)
+            try {
+                return java.util.concurrent.CompletableFuture.completedFuture(UpdateBranch(branch, statement, args));
+            } catch(RuntimeException e) {
+                return java.util.concurrent.CompletableFuture.failedFuture(e);
+            }
+        }
+        boolean queueable = this.offline != null && IsQueueable(statement);
+        // behind changes still waiting to be replayed, so they reach the database in order
+        if(queueable && this.offline.PendingCount() > 0) return Queued(statement, args);
+        if(!this.breaker.Allow()) {
+            if(queueable) return Queued(statement, args);
+            return java.util.concurrent.CompletableFuture.failedFuture(
+                new DatabaseUnavailableException("Database unavailable, changes cannot be saved right now"));
+        }
+
+        java.util.concurrent.CompletableFuture<Integer> result;
+        if(this.writes == null) {
+            try {
+                result = java.util.concurrent.CompletableFuture.completedFuture(ExecuteUpdateNow(statement, args));
+            } catch(RuntimeException e) {
+                result = java.util.concurrent.CompletableFuture.failedFuture(e);
+            }
+        } else {
+            result = this.writes.Submit(statement, args);
+        }
+        return result.whenComplete((rows, error) -> {
+            if(error == null) this.breaker.RecordSuccess();
+            else this.breaker.Record(error);
+        });
+    }
+
+    private java.util.concurrent.CompletableFuture<Integer> Queued(String statement, Object... args) {
+        QueueOffline("change", OfflineWriteLog.Step.Of(statement, args));
+        return java.util.concurrent.CompletableFuture.completedFuture(1);
+    }
+
+    // Only plain row changes are queued; anything else (DDL, calls) needs the database.
+    private static boolean IsQueueable(String statement) {
+        String start = statement.trim();
+        int space = start.indexOf(' ');
+        String verb = (space < 0 ? start : start.substring(0, space)).toUpperCase();
+        return verb.equals("INSERT") || verb.equals("UPDATE") || verb.equals("DELETE");
+    }
+
+    /**
+     * @return true if writes are currently queued in the offline write log instead of being sent
+     *         (the database is unreachable, or earlier offline changes are still being replayed).
+     */
+    public boolean IsQueueingWrites() {
+        return this.offline != null && (this.offline.PendingCount() > 0 || this.breaker.GetState() != CircuitBreaker.State.CLOSED);
+    }
+
+    /**
+     * Queues statements in the offline write log, to be applied together and in order once the
+     * database is reachable. Statements made with {@link OfflineWriteLog.Step#Required} must
+     * change a row on replay, otherwise the operation is dropped and reported as a conflict.
+     *
+     * @param label Short description shown if the operation conflicts on replay.
+     * @param steps The statements.
+     * @return The operation's sequence number in the log.
+     * @throws DatabaseUnavailableException if the offline write log is off.
+     */
+    public long QueueOffline(String label, OfflineWriteLog.Step... steps) {
+        if(this.offline == null) throw new DatabaseUnavailableException("Database unavailable, changes cannot be saved right now");
+
+        long seq = this.offline.Append(label, java.util.Arrays.asList(steps));
+        // the database may have come back while this was queued
+        if(this.breaker.GetState() == CircuitBreaker.State.CLOSED) this.offline.ReplayInBackground(this);
+        return seq;
+    }
+
+    /**
+     * @return The offline write log, or null if it is off (-Dlibrary.offline=false).
+     */
+    public OfflineWriteLog GetOfflineLog() {
+        return this.offline;
+    }
+
+    /**
+     * @return true if the application runs on the embedded store (library.db.url=jdbc:library:...)
+     *         rather than a MySQL server; MySQL-only features (LOAD DATA, stored procedures, ALTER TABLE) are unavailable.
+     */
+    public boolean IsEmbedded() {
+        return this.URL.startsWith(EmbeddedDriver.PREFIX);
+    }
+
+    /**
+     * @return The configured library branches (library.branches, library.branch).
+     */
+    public BranchRouter GetBranchRouter() {
+        return this.branches;
+    }
+
+    /**
+     * The same router as {@link #GetBranchRouter()}, available without creating the instance
+     * (which connects), e.g. while the GUI is laid out before the database is reached.
+     *
+     * @return The configured library branches (library.branches, library.branch).
+     * @throws IllegalArgumentException if library.branches is malformed.
+     */
+    public static synchronized BranchRouter ConfiguredBranches() {
+        if(configuredBranches == null) {
+            configuredBranches = new BranchRouter(System.getProperty("library.branch"), System.getProperty("library.branches"), User, Password);
+        }
+        return configuredBranches;
+    }
 
+    /**
+     * @return The branch statements of the current thread are routed to, or null for the home branch.
+     */
+    public String RoutedBranch() {
+        return this.routed.get();
+    }
+
+    /**
+     * Runs work with every statement of the current thread routed to a branch's database:
+     * queries, updates, transactions, streams and new connections go to that branch, and
+     * the query cache, read replicas, circuit breaker and offline write log (which all belong
+     * to the home branch) are bypassed. Work passed on to other threads is not routed.
+     *
+     * @param branch The branch name (null or the home branch runs the work as usual).
+     * @param work The work to run.
+     * @param <R> The result type.
+     * @return The result of the work.
+     * @throws IllegalArgumentException if the branch is not configured.
+     * @throws RuntimeException if the work fails; a branch that cannot be reached fails with a DatabaseUnavailableException.
+     */
+    public <R> R OnBranch(String branch, java.util.concurrent.Callable<R> work) {
+        if(!this.branches.IsKnown(branch)) throw new IllegalArgumentException("Unknown branch: " + branch);
+
+        String previous = this.routed.get();
+        if(this.branches.IsHome(branch)) this.routed.remove();
+        else this.routed.set(branch);
+        try {
+            return work.call();
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new RuntimeException("Failed to run on branch " + branch + ": " + e.getMessage(), e);
+        } finally {
+            if(previous == null) this.routed.remove();
+            else this.routed.set(previous);
+        }
+    }
+
+    /**
+     * Runs the same work on every branch in parallel (scatter-gather), each routed with
+     * {@link #OnBranch}, and hands every outcome to the given callback on the calling thread
+     * as soon as it arrives. A branch that has not answered within library.branches.timeoutMs
+     * (default 3000) is reported as failed and not waited for. Without other branches the work
+     * simply runs on the home branch on the calling thread.
+     *
+     * @param work The work to run on each branch.
+     * @param results Receives the result or failure of each branch, in the order they finish.
+     * @param <R> The result type.
+     */
+    public <R> void ForEachBranch(BranchWork<R> work, BranchResult<R> results) {
+        String home = this.branches.Home();
+        if(this.branchPool == null) {
+            R result;
+            try {
+                result = OnBranch(home, () -> work.Run(home));
+            } catch(RuntimeException e) {
+                results.Accept(home, null, e);
+                return;
+            }
+            results.Accept(home, result, null);
+            return;
+        }
+
+        java.util.concurrent.ExecutorCompletionService<R> done = new java.util.concurrent.ExecutorCompletionService<>(this.branchPool);
+        Map<java.util.concurrent.Future<R>, String> pending = new HashMap<>();
+        for(String name : this.branches.Names()) pending.put(done.submit(() -> OnBranch(name, () -> work.Run(name))), name);
+
+        long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(this.branchTimeoutMillis);
         try {
-            connection.setAutoCommit(false);
+            while(!pending.isEmpty()) {
+                java.util.concurrent.Future<R> next = done.poll(deadline - System.nanoTime(), java.util.concurrent.TimeUnit.NANOSECONDS);
+                if(next == null) break;
+                String name = pending.remove(next);
+                try {
+                    results.Accept(name, next.get(), null);
+                } catch(java.util.concurrent.ExecutionException e) {
+                    results.Accept(name, null, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+            }
+            for(String name : pending.values()) {
+                results.Accept(name, null, new DatabaseUnavailableException("Branch " + name + " did not answer within " + this.branchTimeoutMillis + " ms"));
+            }
+        } catch(InterruptedException e) {
+            // the caller gave up (e.g. a newer search)
+            Thread.currentThread().interrupt();
+        } finally {
+            for(java.util.concurrent.Future<R> late : pending.keySet()) late.cancel(true);
+        }
+    }
+
+    /**
+     * @return The group commit coordinator, or null if group commit is off.
+     */
+    public WriteCoordinator GetWriteCoordinator() {
+        return this.writes;
+    }
+
+    // Executes a single update on the branch's shared connection (auto-commit).
+    private int UpdateBranch(String branch, String statement, Object... args) {
+        try(PreparedStatement newStatement = this.branches.Shared(branch).prepareStatement(statement)) {
+            for(int i = 0; i < args.length; i++) Bind(newStatement, i + 1, args[i]);
+            return newStatement.executeUpdate();
+        } catch(SQLException e) {
+            throw BranchFailure(branch, "Failed to execute update", e);
+        }
+    }
+
+    // Executes and commits a single update on the shared connection.
+    private int ExecuteUpdateNow(String statement, Object... args) {
+        PreparedStatement newStatement = null;
+        Connection target = null;
+
+        try {
+            newStatement = CreateStatement(statement, args);
+            if(newStatement == null) return -1;
+            target = newStatement.getConnection();
+            target.setAutoCommit(false);
             int rowsAffected = newStatement.executeUpdate();
             
-            connection.commit();
+            target.commit();
+            // nothing matched (e.g. a conditional update that found the row already up to date),
+            // so cached results of the table are still valid
+            if(rowsAffected != 0) this.queryCache.InvalidateTables(this.queryCache.TablesOf(statement));
 
             if(rowsAffected == -1) return -1;
             return rowsAffected;
         } catch(SQLException e) {
             e.printStackTrace();
             try {
-                connection.rollback();
+                if(target != null) target.rollback();
             } catch(SQLException ex) {
                 ex.printStackTrace();
-                throw new RuntimeException("Failed to rollback transaction: " + ex.getMessage());
+                throw new RuntimeException("Failed to rollback transaction: " + ex.getMessage(), e);
             }
             
-            throw new RuntimeException("Failed to execute update: " + e.getMessage());
+            throw new RuntimeException("Failed to execute update: " + e.getMessage(), e);
         } finally {
             try {
                 if(newStatement != null) newStatement.close();
-                connection.setAutoCommit(true);
+                if(target != null) target.setAutoCommit(true);
             } catch(SQLException e) {
                 e.printStackTrace();
                 throw new RuntimeException("Failed to close resources: " + e.getMessage());
@@ -179,6 +1082,14 @@ public class DatabaseConnection implements AutoCloseable {
      */
     @Override
     public void close() {
+        if(this.writes != null) this.writes.close();
+        if(this.offline != null) this.offline.close();
+        this.replicas.Close();
+        if(this.branchPool != null) this.branchPool.shutdownNow();
+        this.branches.Close();
+        for(Connection idle; (idle = this.idleConnections.pollFirst()) != null; ) {
+            try { idle.close(); } catch(SQLException ignore) {}
+        }
         try {
             if(connection == null || connection.isClosed()) return;
             connection.close();
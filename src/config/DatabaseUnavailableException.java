@@ -0,0 +1,19 @@
+package config;
+
+/**
+ * Thrown instead of running a statement while the database is known to be unreachable
+ * (see {@link CircuitBreaker}), so the caller fails immediately.
+ *
+ * @author Darkuz69
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DatabaseUnavailableException(String message) {
+        super(message);
+    }
+
+    public DatabaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,598 @@
+package config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for the embedded store: jdbc:library:&lt;file&gt; (or jdbc:library:mem: for a
+ * store without a file). Registered with DriverManager when the class is loaded.
+ *
+ * Connections, statements and result sets are the plain JDBC interfaces, so everything above
+ * DatabaseConnection runs unchanged on either backend. Statements of one connection run one at
+ * a time, as on a MySQL connection. setFetchSize, setQueryTimeout and cancel are accepted and
+ * ignored (a statement runs in memory); prepareCall and vendor extensions are not supported.
+ *
+ * @author Darkuz69
+ */
+public final class EmbeddedDriver implements Driver {
+    public static final String PREFIX = "jdbc:library:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new EmbeddedDriver());
+        } catch(SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to register embedded database driver: " + e.getMessage(), e);
+        }
+    }
+
+    /** Makes sure the driver is registered (loading the class registers it). */
+    public static void Register() {}
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if(!acceptsURL(url)) return null;
+        String location = url.substring(PREFIX.length());
+        int options = location.indexOf('?');
+        if(options >= 0) location = location.substring(0, options);
+        if(location.isEmpty()) throw new SQLException("No database file in URL " + url, "08001");
+
+        EmbeddedStore store = EmbeddedStore.Open(location);
+        return Wrap(Connection.class, new ConnectionHandler(store, url));
+    }
+
+    @Override public boolean acceptsURL(String url) { return url != null && url.startsWith(PREFIX); }
+    @Override public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) { return new DriverPropertyInfo[0]; }
+    @Override public int getMajorVersion() { return 1; }
+    @Override public int getMinorVersion() { return 0; }
+    @Override public boolean jdbcCompliant() { return false; }
+    @Override public Logger getParentLogger() throws SQLFeatureNotSupportedException { throw new SQLFeatureNotSupportedException(); }
+
+    private static <T> T Wrap(Class<T> type, Handler handler) {
+        handler.self = Proxy.newProxyInstance(EmbeddedDriver.class.getClassLoader(), new Class<?>[] { type }, handler);
+        return type.cast(handler.self);
+    }
+
+    // Common part of the proxies: Object methods, unwrap, and a clear error for anything not implemented.
+    private abstract static class Handler implements InvocationHandler {
+        Object self;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object[] a = args == null ? new Object[0] : args;
+            switch(method.getName()) {
+                case "toString": if(a.length == 0) return Describe(); break;
+                case "hashCode": if(a.length == 0) return System.identityHashCode(proxy); break;
+                case "equals": if(a.length == 1) return proxy == a[0]; break;
+                case "unwrap": if(((Class<?>) a[0]).isInstance(proxy)) return proxy; throw new SQLException("Not a wrapper for " + a[0]);
+                case "isWrapperFor": return ((Class<?>) a[0]).isInstance(proxy);
+                case "getWarnings": return null;
+                case "clearWarnings": return null;
+                default: break;
+            }
+            try {
+                return Handle(method.getName(), a, method);
+            } catch(InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        abstract Object Handle(String name, Object[] args, Method method) throws Exception;
+
+        abstract String Describe();
+
+        static SQLException Unsupported(Method method) {
+            return new SQLFeatureNotSupportedException(method.getName() + " is not supported by the embedded database", "0A000");
+        }
+    }
+
+    private static final class EmbeddedSavepoint implements Savepoint {
+        private final int id;
+        private final String name;
+        final int changes;
+        boolean released;
+
+        EmbeddedSavepoint(int id, String name, int changes) {
+            this.id = id;
+            this.name = name;
+            this.changes = changes;
+        }
+
+        @Override
+        public int getSavepointId() throws SQLException {
+            if(this.name != null) throw new SQLException("Savepoint is named");
+            return this.id;
+        }
+
+        @Override
+        public String getSavepointName() throws SQLException {
+            if(this.name == null) throw new SQLException("Savepoint is not named");
+            return this.name;
+        }
+    }
+
+    private static final class ConnectionHandler extends Handler {
+        final EmbeddedStore store;
+        final EmbeddedStore.Session session;
+        final String url;
+        private boolean closed;
+        private boolean readOnly;
+        private int savepoints;
+
+        ConnectionHandler(EmbeddedStore store, String url) {
+            this.store = store;
+            this.session = new EmbeddedStore.Session(store);
+            this.url = url;
+        }
+
+        void CheckOpen() throws SQLException {
+            if(this.closed) throw new SQLException("No operations allowed after connection closed.", "08003");
+        }
+
+        @Override
+        Object Handle(String name, Object[] args, Method method) throws Exception {
+            switch(name) {
+                case "close":
+                case "abort":
+                    synchronized(this.session) {
+                        if(!this.closed) this.session.Rollback();
+                        this.closed = true;
+                    }
+                    return null;
+                case "isClosed": return this.closed;
+                case "isValid": return !this.closed;
+                default: break;
+            }
+            CheckOpen();
+            synchronized(this.session) {
+                switch(name) {
+                    case "createStatement":
+                        return Wrap(Statement.class, new StatementHandler(this, null));
+                    case "prepareStatement":
+                        return Wrap(PreparedStatement.class, new StatementHandler(this, (String) args[0]));
+                    case "nativeSQL": return args[0];
+                    case "setAutoCommit": this.session.SetAutoCommit((Boolean) args[0]); return null;
+                    case "getAutoCommit": return this.session.AutoCommit();
+                    case "commit": this.session.Commit(); return null;
+                    case "rollback":
+                        if(args.length == 0) {
+                            this.session.Rollback();
+                        } else {
+                            EmbeddedSavepoint savepoint = (EmbeddedSavepoint) args[0];
+                            if(savepoint.released) throw new SQLException("SAVEPOINT does not exist", "42000", 1305);
+                            this.session.RollbackTo(savepoint.changes);
+                        }
+                        return null;
+                    case "setSavepoint":
+                        if(this.session.AutoCommit()) throw new SQLException("Can't set savepoint when autocommit=true", "S1009");
+                        return new EmbeddedSavepoint(++this.savepoints, args.length == 0 ? null : (String) args[0], this.session.Savepoint());
+                    case "releaseSavepoint": ((EmbeddedSavepoint) args[0]).released = true; return null;
+                    case "setReadOnly": this.readOnly = (Boolean) args[0]; return null;
+                    case "isReadOnly": return this.readOnly;
+                    case "setTransactionIsolation": return null;
+                    // transactions are serialized by the store
+                    case "getTransactionIsolation": return Connection.TRANSACTION_SERIALIZABLE;
+                    case "getCatalog": return "library";
+                    case "setCatalog": case "setSchema": case "setClientInfo": case "setNetworkTimeout": case "setHoldability": case "setTypeMap": return null;
+                    case "getSchema": return null;
+                    case "getNetworkTimeout": return 0;
+                    case "getHoldability": return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+                    case "getClientInfo": return args.length == 0 ? new Properties() : null;
+                    case "getMetaData":
+                        return Wrap(DatabaseMetaData.class, new DatabaseMetaDataHandler(this));
+                    default:
+                        throw Unsupported(method);
+                }
+            }
+        }
+
+        @Override String Describe() { return "EmbeddedConnection[" + this.url + "]"; }
+    }
+
+    private static final class StatementHandler extends Handler {
+        private final ConnectionHandler connection;
+        private final String sql;
+        private final List<Object> params = new ArrayList<>();
+        private final List<Object> batch = new ArrayList<>();
+        private Object resultSet;
+        private int updateCount = -1;
+        private List<Long> generatedKeys = Collections.emptyList();
+        private int maxRows;
+        private int fetchSize;
+        private boolean closed;
+
+        StatementHandler(ConnectionHandler connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        @Override
+        Object Handle(String name, Object[] args, Method method) throws Exception {
+            switch(name) {
+                case "close": this.closed = true; this.resultSet = null; return null;
+                case "isClosed": return this.closed;
+                case "getConnection": return this.connection.self;
+                default: break;
+            }
+            if(this.closed) throw new SQLException("No operations allowed after statement closed.", "S1009");
+
+            if(name.startsWith("set") && args.length >= 2 && args[0] instanceof Integer && method.getParameterTypes()[0] == int.class && !name.equals("setObject") && !name.equals("setNull")) {
+                Parameter((Integer) args[0], args[1]);
+                return null;
+            }
+            switch(name) {
+                case "setNull": Parameter((Integer) args[0], null); return null;
+                case "setObject": Parameter((Integer) args[0], args[1]); return null;
+                case "clearParameters": this.params.clear(); return null;
+                case "executeQuery": {
+                    String text = args.length > 0 ? (String) args[0] : Prepared();
+                    if(!EmbeddedSql.IsQuery(text)) throw new SQLException("Can not issue data manipulation statements with executeQuery().", "S1009");
+                    Run(text, Parameters());
+                    return this.resultSet;
+                }
+                case "executeUpdate":
+                case "executeLargeUpdate": {
+                    String text = args.length > 0 ? (String) args[0] : Prepared();
+                    if(EmbeddedSql.IsQuery(text)) throw new SQLException("Can not issue executeUpdate() or executeLargeUpdate() for SELECTs", "S1009");
+                    Run(text, Parameters());
+                    return name.equals("executeUpdate") ? (Object) this.updateCount : (Object) (long) this.updateCount;
+                }
+                case "execute": {
+                    String text = args.length > 0 ? (String) args[0] : Prepared();
+                    Run(text, Parameters());
+                    return this.resultSet != null;
+                }
+                case "addBatch":
+                    this.batch.add(args.length > 0 ? args[0] : Parameters());
+                    return null;
+                case "clearBatch": this.batch.clear(); return null;
+                case "executeBatch":
+                case "executeLargeBatch": {
+                    int[] counts = new int[this.batch.size()];
+                    List<Long> keys = new ArrayList<>();
+                    try {
+                        for(int i = 0; i < counts.length; i++) {
+                            Object entry = this.batch.get(i);
+                            if(entry instanceof String) Run((String) entry, new Object[0]);
+                            else Run(Prepared(), (Object[]) entry);
+                            counts[i] = this.updateCount;
+                            keys.addAll(this.generatedKeys);
+                        }
+                    } catch(SQLException e) {
+                        throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), counts, e);
+                    } finally {
+                        this.batch.clear();
+                    }
+                    this.generatedKeys = keys;
+                    if(name.equals("executeBatch")) return counts;
+                    return Arrays.stream(counts).asLongStream().toArray();
+                }
+                case "getResultSet": return this.resultSet;
+                case "getUpdateCount": return this.updateCount;
+                case "getLargeUpdateCount": return (long) this.updateCount;
+                case "getMoreResults":
+                    this.resultSet = null;
+                    this.updateCount = -1;
+                    return false;
+                case "getGeneratedKeys": {
+                    List<Object[]> rows = new ArrayList<>(this.generatedKeys.size());
+                    for(Long key : this.generatedKeys) rows.add(new Object[] { key });
+                    String[] labels = { "GENERATED_KEY" };
+                    return Wrap(ResultSet.class, new ResultSetHandler(this, labels, labels, rows));
+                }
+                case "setFetchSize": this.fetchSize = (Integer) args[0]; return null;
+                case "getFetchSize": return this.fetchSize;
+                case "setMaxRows": this.maxRows = (Integer) args[0]; return null;
+                case "getMaxRows": return this.maxRows;
+                case "setQueryTimeout": case "setEscapeProcessing": case "setPoolable": case "closeOnCompletion": case "setFetchDirection": case "setCursorName": case "setMaxFieldSize":
+                    return null;
+                case "getQueryTimeout": case "getMaxFieldSize": return 0;
+                case "cancel": return null;
+                case "isPoolable": case "isCloseOnCompletion": return false;
+                case "getFetchDirection": return ResultSet.FETCH_FORWARD;
+                case "getResultSetType": return ResultSet.TYPE_FORWARD_ONLY;
+                case "getResultSetConcurrency": return ResultSet.CONCUR_READ_ONLY;
+                default: throw Unsupported(method);
+            }
+        }
+
+        private String Prepared() throws SQLException {
+            if(this.sql == null) throw new SQLException("No SQL given to the statement", "S1009");
+            return this.sql;
+        }
+
+        private void Parameter(int index, Object value) throws SQLException {
+            if(index < 1) throw new SQLException("Parameter index out of range (" + index + " < 1).", "S1009");
+            while(this.params.size() < index) this.params.add(Unset.VALUE);
+            this.params.set(index - 1, value);
+        }
+
+        private Object[] Parameters() throws SQLException {
+            Object[] values = this.params.toArray();
+            for(int i = 0; i < values.length; i++) {
+                if(values[i] == Unset.VALUE) throw new SQLException("No value specified for parameter " + (i + 1), "07001");
+            }
+            return values;
+        }
+
+        private void Run(String text, Object[] values) throws SQLException {
+            this.connection.CheckOpen();
+            this.resultSet = null;
+            this.updateCount = -1;
+            this.generatedKeys = Collections.emptyList();
+            EmbeddedSql.Result result;
+            synchronized(this.connection.session) {
+                result = EmbeddedSql.Execute(this.connection.session, text, values);
+            }
+            if(result.IsQuery()) {
+                List<Object[]> rows = this.maxRows > 0 && result.rows.size() > this.maxRows ? result.rows.subList(0, this.maxRows) : result.rows;
+                this.resultSet = Wrap(ResultSet.class, new ResultSetHandler(this, result.labels, result.names, rows));
+            } else {
+                this.updateCount = result.updateCount;
+                this.generatedKeys = result.generatedKeys;
+            }
+        }
+
+        @Override String Describe() { return "EmbeddedStatement[" + (this.sql == null ? "" : this.sql) + "]"; }
+    }
+
+    // Marks a parameter that was never set.
+    private enum Unset { VALUE }
+
+    private static final class ResultSetHandler extends Handler {
+        private final StatementHandler statement;
+        private final String[] labels;
+        private final String[] names;
+        private final List<Object[]> rows;
+        private int cursor = -1;
+        private boolean wasNull;
+        private boolean closed;
+
+        ResultSetHandler(StatementHandler statement, String[] labels, String[] names, List<Object[]> rows) {
+            this.statement = statement;
+            this.labels = labels;
+            this.names = names;
+            this.rows = rows;
+        }
+
+        @Override
+        Object Handle(String name, Object[] args, Method method) throws Exception {
+            switch(name) {
+                case "close": this.closed = true; return null;
+                case "isClosed": return this.closed;
+                default: break;
+            }
+            if(this.closed) throw new SQLException("Operation not allowed after ResultSet closed", "S1000");
+
+            if(name.startsWith("get") && args.length >= 1 && (args[0] instanceof Integer || args[0] instanceof String) && !name.equals("getStatement")) {
+                int column = args[0] instanceof Integer ? (Integer) args[0] : Find((String) args[0]);
+                if(name.equals("getObject") && args.length == 2 && args[1] instanceof Class) return Get(column, (Class<?>) args[1]);
+                if(Getter(name) != null) return Get(column, Getter(name));
+            }
+            switch(name) {
+                case "next":
+                    if(this.cursor < this.rows.size()) this.cursor++;
+                    return this.cursor < this.rows.size();
+                case "wasNull": return this.wasNull;
+                case "findColumn": return Find((String) args[0]);
+                case "getMetaData": return Wrap(ResultSetMetaData.class, new MetaDataHandler(this.labels, this.names, this.rows));
+                case "getStatement": return this.statement.self;
+                case "getRow": return this.cursor >= 0 && this.cursor < this.rows.size() ? this.cursor + 1 : 0;
+                case "isBeforeFirst": return this.cursor < 0 && !this.rows.isEmpty();
+                case "isAfterLast": return this.cursor >= this.rows.size() && !this.rows.isEmpty();
+                case "isFirst": return this.cursor == 0 && !this.rows.isEmpty();
+                case "isLast": return this.cursor == this.rows.size() - 1 && !this.rows.isEmpty();
+                case "beforeFirst": this.cursor = -1; return null;
+                case "afterLast": this.cursor = this.rows.size(); return null;
+                case "first": this.cursor = 0; return !this.rows.isEmpty();
+                case "last": this.cursor = this.rows.size() - 1; return !this.rows.isEmpty();
+                case "absolute": {
+                    int row = (Integer) args[0];
+                    this.cursor = row > 0 ? Math.min(row - 1, this.rows.size()) : Math.max(-1, this.rows.size() + row);
+                    return this.cursor >= 0 && this.cursor < this.rows.size();
+                }
+                case "setFetchSize": case "setFetchDirection": return null;
+                case "getFetchSize": return 0;
+                case "getFetchDirection": return ResultSet.FETCH_FORWARD;
+                case "getType": return ResultSet.TYPE_SCROLL_INSENSITIVE;
+                case "getConcurrency": return ResultSet.CONCUR_READ_ONLY;
+                case "getHoldability": return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+                default: throw Unsupported(method);
+            }
+        }
+
+        private static Class<?> Getter(String name) {
+            switch(name) {
+                case "getObject": return Object.class;
+                case "getString": case "getNString": return String.class;
+                case "getInt": return Integer.class;
+                case "getLong": return Long.class;
+                case "getShort": return Short.class;
+                case "getByte": return Byte.class;
+                case "getBoolean": return Boolean.class;
+                case "getDouble": return Double.class;
+                case "getFloat": return Float.class;
+                case "getBigDecimal": return BigDecimal.class;
+                case "getTimestamp": return Timestamp.class;
+                case "getDate": return java.sql.Date.class;
+                case "getTime": return Time.class;
+                case "getBytes": return byte[].class;
+                default: return null;
+            }
+        }
+
+        private int Find(String label) throws SQLException {
+            for(int i = 0; i < this.labels.length; i++) if(this.labels[i].equalsIgnoreCase(label)) return i + 1;
+            for(int i = 0; i < this.names.length; i++) if(this.names[i].equalsIgnoreCase(label)) return i + 1;
+            throw new SQLException("Column '" + label + "' not found.", "S0022");
+        }
+
+        private Object Get(int column, Class<?> type) throws SQLException {
+            if(this.cursor < 0 || this.cursor >= this.rows.size()) throw new SQLException("Illegal operation on empty result set.", "S1000");
+            if(column < 1 || column > this.labels.length) throw new SQLException("Column Index out of range, " + column + " > " + this.labels.length + ".", "S1009");
+            Object value = this.rows.get(this.cursor)[column - 1];
+            this.wasNull = value == null;
+            return Convert(value, type, this.labels[column - 1]);
+        }
+
+        @Override String Describe() { return "EmbeddedResultSet[" + this.rows.size() + " rows]"; }
+    }
+
+    // Converts a stored value for a ResultSet getter (null becomes 0/false for primitive getters, as in JDBC).
+    private static Object Convert(Object value, Class<?> type, String column) throws SQLException {
+        if(type == Object.class) return value;
+        boolean primitive = type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+            || type == Double.class || type == Float.class || type == Boolean.class;
+        if(value == null) {
+            if(!primitive) return null;
+            if(type == Boolean.class) return false;
+            if(type == Double.class) return 0.0;
+            if(type == Float.class) return 0.0f;
+            if(type == Long.class) return 0L;
+            if(type == Short.class) return (short) 0;
+            if(type == Byte.class) return (byte) 0;
+            return 0;
+        }
+        if(type.isInstance(value)) return value;
+        if(type == String.class) return EmbeddedSql.ToText(value);
+        if(type == byte[].class) return EmbeddedSql.ToText(value).getBytes(StandardCharsets.UTF_8);
+        if(type == Boolean.class) return Boolean.TRUE.equals(EmbeddedSql.Truth(value));
+
+        if(type == Timestamp.class || type == java.sql.Date.class || type == Time.class || type == LocalDateTime.class || type == LocalDate.class) {
+            LocalDateTime time = value instanceof Number ? null : EmbeddedSql.ToDateTime(value);
+            if(time == null) throw new SQLException("Cannot convert value '" + EmbeddedSql.ToText(value) + "' from column " + column + " to " + type.getSimpleName() + ".", "S1009");
+            if(type == Timestamp.class) return Timestamp.valueOf(time);
+            if(type == java.sql.Date.class) return java.sql.Date.valueOf(time.toLocalDate());
+            if(type == LocalDate.class) return time.toLocalDate();
+            if(type == LocalDateTime.class) return time;
+            return Time.valueOf(time.toLocalTime());
+        }
+
+        BigDecimal number;
+        try {
+            number = value instanceof Boolean ? ((Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO) : new BigDecimal(EmbeddedSql.ToText(value).trim());
+        } catch(NumberFormatException e) {
+            throw new SQLException("Value '" + EmbeddedSql.ToText(value) + "' can not be represented as " + type.getSimpleName(), "22003");
+        }
+        if(type == BigDecimal.class) return number;
+        if(type == Double.class) return number.doubleValue();
+        if(type == Float.class) return number.floatValue();
+        if(type == Long.class) return number.longValue();
+        if(type == Integer.class) return number.intValue();
+        if(type == Short.class) return number.shortValue();
+        if(type == Byte.class) return number.byteValue();
+        throw new SQLException("Conversion to " + type.getName() + " is not supported", "S1009");
+    }
+
+    private static final class MetaDataHandler extends Handler {
+        private final String[] labels;
+        private final String[] names;
+        private final List<Object[]> rows;
+
+        MetaDataHandler(String[] labels, String[] names, List<Object[]> rows) {
+            this.labels = labels;
+            this.names = names;
+            this.rows = rows;
+        }
+
+        @Override
+        Object Handle(String name, Object[] args, Method method) throws Exception {
+            if(name.equals("getColumnCount")) return this.labels.length;
+            int column = (Integer) args[0];
+            if(column < 1 || column > this.labels.length) throw new SQLException("Column index out of range.", "S1002");
+            switch(name) {
+                case "getColumnLabel": return this.labels[column - 1];
+                case "getColumnName": return this.names[column - 1];
+                case "getColumnType": return SqlType(Sample(column))[0];
+                case "getColumnTypeName": return SqlType(Sample(column))[1];
+                case "getColumnClassName": {
+                    Object sample = Sample(column);
+                    return sample == null ? String.class.getName() : sample.getClass().getName();
+                }
+                case "getTableName": case "getSchemaName": case "getCatalogName": return "";
+                case "isNullable": return ResultSetMetaData.columnNullableUnknown;
+                case "getPrecision": case "getScale": case "getColumnDisplaySize": return 0;
+                case "isAutoIncrement": case "isCaseSensitive": case "isCurrency": case "isWritable": case "isDefinitelyWritable": return false;
+                case "isSearchable": case "isSigned": case "isReadOnly": return true;
+                default: throw Unsupported(method);
+            }
+        }
+
+        private Object Sample(int column) {
+            for(Object[] row : this.rows) if(row[column - 1] != null) return row[column - 1];
+            return null;
+        }
+
+        private static Object[] SqlType(Object sample) {
+            if(sample instanceof Integer) return new Object[] { Types.INTEGER, "INT" };
+            if(sample instanceof Long) return new Object[] { Types.BIGINT, "BIGINT" };
+            if(sample instanceof Boolean) return new Object[] { Types.BOOLEAN, "BOOLEAN" };
+            if(sample instanceof LocalDateTime) return new Object[] { Types.TIMESTAMP, "DATETIME" };
+            if(sample instanceof Timestamp) return new Object[] { Types.TIMESTAMP, "TIMESTAMP" };
+            if(sample instanceof java.sql.Date) return new Object[] { Types.DATE, "DATE" };
+            if(sample instanceof Double) return new Object[] { Types.DOUBLE, "DOUBLE" };
+            if(sample instanceof BigDecimal) return new Object[] { Types.DECIMAL, "DECIMAL" };
+            return new Object[] { Types.VARCHAR, "VARCHAR" };
+        }
+
+        @Override String Describe() { return "EmbeddedResultSetMetaData" + Arrays.toString(this.labels); }
+    }
+
+    private static final class DatabaseMetaDataHandler extends Handler {
+        private final ConnectionHandler connection;
+
+        DatabaseMetaDataHandler(ConnectionHandler connection) { this.connection = connection; }
+
+        @Override
+        Object Handle(String name, Object[] args, Method method) throws Exception {
+            switch(name) {
+                case "getConnection": return this.connection.self;
+                case "getURL": return this.connection.url;
+                case "getUserName": return null;
+                case "getDatabaseProductName": return "Library embedded";
+                case "getDatabaseProductVersion": return "1.0";
+                case "getDriverName": return "Library embedded JDBC driver";
+                case "getDriverVersion": return "1.0";
+                case "getDriverMajorVersion": case "getDatabaseMajorVersion": return 1;
+                case "getDriverMinorVersion": case "getDatabaseMinorVersion": return 0;
+                case "getJDBCMajorVersion": return 4;
+                case "getJDBCMinorVersion": return 2;
+                case "getIdentifierQuoteString": return "`";
+                case "getDefaultTransactionIsolation": return Connection.TRANSACTION_SERIALIZABLE;
+                case "supportsTransactions": case "supportsSavepoints": case "supportsGetGeneratedKeys": case "supportsBatchUpdates": return true;
+                case "supportsStoredProcedures": case "supportsOuterJoins": case "supportsUnion": case "isReadOnly": return false;
+                default: throw Unsupported(method);
+            }
+        }
+
+        @Override String Describe() { return "EmbeddedDatabaseMetaData[" + this.connection.url + "]"; }
+    }
+}
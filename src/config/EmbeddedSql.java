@@ -0,0 +1,2666 @@
+package config;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import config.EmbeddedStore.Column;
+import config.EmbeddedStore.Index;
+import config.EmbeddedStore.Session;
+import config.EmbeddedStore.Table;
+import config.EmbeddedStore.TableDefinition;
+import config.EmbeddedStore.Type;
+
+/**
+ * The SQL dialect of the embedded store: the subset of MySQL the application sends.
+ *
+ * Supported: single-table SELECT (with WHERE, GROUP BY, HAVING, ORDER BY, LIMIT, DISTINCT,
+ * FOR UPDATE, aggregates including GROUP_CONCAT), scalar and IN subqueries (correlated or not),
+ * INSERT with several rows and ON DUPLICATE KEY UPDATE, UPDATE, DELETE, CREATE TABLE, and the
+ * usual operators and functions (LIKE, BETWEEN, IN with tuples, IS NULL, &lt;=&gt;, CASE, CAST,
+ * COALESCE, IF, CONCAT, CURDATE, NOW, LAST_INSERT_ID, ...). Joins, INSERT ... SELECT, ALTER
+ * TABLE and stored procedures are not; they fail with SQLFeatureNotSupportedException.
+ *
+ * Comparisons follow MySQL: strings compare case-insensitively, numbers compare with strings
+ * numerically, NULL makes a comparison unknown. WHERE conditions on the primary key or an
+ * indexed column (=, IN, LIKE 'prefix%') are answered from the index; anything else scans the
+ * table. Parsed statements are cached by their SQL text.
+ *
+ * @author Darkuz69
+ */
+final class EmbeddedSql {
+    private static final int MAX_CACHED = 4096;
+    private static final Map<String, Statement> parsed = new ConcurrentHashMap<>();
+
+    private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+        .appendPattern("uuuu-MM-dd[[ ]['T']HH:mm[:ss]]")
+        .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+        .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+        .toFormatter(Locale.ROOT);
+    private static final Pattern LEADING_NUMBER = Pattern.compile("^\\s*[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+    private EmbeddedSql() {}
+
+    /**
+     * The outcome of a statement: rows for a query, a count (and generated keys) otherwise.
+     */
+    static final class Result {
+        final String[] labels;
+        final String[] names;
+        final List<Object[]> rows;
+        final int updateCount;
+        final List<Long> generatedKeys;
+
+        Result(String[] labels, String[] names, List<Object[]> rows) {
+            this.labels = labels;
+            this.names = names;
+            this.rows = rows;
+            this.updateCount = -1;
+            this.generatedKeys = Collections.emptyList();
+        }
+
+        Result(int updateCount, List<Long> generatedKeys) {
+            this.labels = null;
+            this.names = null;
+            this.rows = null;
+            this.updateCount = updateCount;
+            this.generatedKeys = generatedKeys;
+        }
+
+        boolean IsQuery() { return this.rows != null; }
+    }
+
+    /**
+     * Runs one statement.
+     *
+     * @param session The connection's session.
+     * @param sql The SQL text.
+     * @param params The values of the ? placeholders, in order.
+     * @return The result.
+     * @throws SQLException if the statement is invalid, unsupported or fails.
+     */
+    static Result Execute(Session session, String sql, Object[] params) throws SQLException {
+        Statement statement = Parse(sql);
+        if(params.length < statement.parameters) throw new SQLException("No value specified for parameter " + (params.length + 1), "07001");
+        return statement.Run(new Exec(session, params));
+    }
+
+    /** @return True if the statement is a query (returns rows). */
+    static boolean IsQuery(String sql) throws SQLException {
+        return Parse(sql) instanceof Select;
+    }
+
+    static TableDefinition ParseCreateTable(String sql) throws SQLException {
+        Statement statement = new Parser(sql).ParseStatement();
+        if(!(statement instanceof CreateTable)) throw new SQLException("Not a CREATE TABLE statement: " + sql, "42000", 1064);
+        return ((CreateTable) statement).definition;
+    }
+
+    private static Statement Parse(String sql) throws SQLException {
+        Statement statement = parsed.get(sql);
+        if(statement != null) return statement;
+        statement = new Parser(sql).ParseStatement();
+        if(parsed.size() < MAX_CACHED) parsed.putIfAbsent(sql, statement);
+        return statement;
+    }
+
+    // ===== values =====
+
+    /** @return The value as MySQL would print it (dates as "yyyy-MM-dd HH:mm:ss", booleans as 1/0). */
+    static String ToText(Object value) {
+        if(value == null) return null;
+        if(value instanceof String) return (String) value;
+        if(value instanceof Boolean) return (Boolean) value ? "1" : "0";
+        if(value instanceof java.sql.Date) return value.toString();
+        if(value instanceof LocalDate) return value.toString();
+        if(value instanceof BigDecimal) return ((BigDecimal) value).toPlainString();
+        if(value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return d == Math.rint(d) && Math.abs(d) < 1e15 ? Long.toString((long) d) : Double.toString(d);
+        }
+        LocalDateTime time = value instanceof Number ? null : ToDateTime(value);
+        if(time != null) {
+            String text = time.truncatedTo(ChronoUnit.SECONDS).toString().replace('T', ' ');
+            if(time.getSecond() == 0 && time.getNano() == 0) text += ":00";
+            if(time.getNano() != 0) text += String.format(".%06d", time.getNano() / 1000);
+            return text;
+        }
+        return value.toString();
+    }
+
+    /** @return The value as a date-time, or null if it is not one (strings are parsed). */
+    static LocalDateTime ToDateTime(Object value) {
+        if(value instanceof LocalDateTime) return (LocalDateTime) value;
+        if(value instanceof Timestamp) return ((Timestamp) value).toLocalDateTime();
+        if(value instanceof java.sql.Date) return ((java.sql.Date) value).toLocalDate().atStartOfDay();
+        if(value instanceof java.util.Date) return LocalDateTime.ofInstant(((java.util.Date) value).toInstant(), ZoneId.systemDefault());
+        if(value instanceof LocalDate) return ((LocalDate) value).atStartOfDay();
+        if(value instanceof String) {
+            String text = ((String) value).trim();
+            if(text.length() < 10 || !Character.isDigit(text.charAt(0))) return null;
+            try {
+                return LocalDateTime.parse(text, DATE_TIME);
+            } catch(RuntimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean IsTemporal(Object value) {
+        return value instanceof java.util.Date || value instanceof LocalDateTime || value instanceof LocalDate;
+    }
+
+    private static boolean IsIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static double ToDouble(Object value) {
+        if(value instanceof Number) return ((Number) value).doubleValue();
+        if(value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        Matcher matcher = LEADING_NUMBER.matcher(String.valueOf(ToText(value)));
+        return matcher.find() ? Double.parseDouble(matcher.group()) : 0;
+    }
+
+    /** @return The value as a number: Long when it is integral, else Double or BigDecimal. */
+    private static Object ToNumber(Object value) {
+        if(value == null) return null;
+        if(IsIntegral(value)) return ((Number) value).longValue();
+        if(value instanceof Boolean) return (Boolean) value ? 1L : 0L;
+        if(value instanceof Number) return value;
+        double d = ToDouble(value);
+        return d == Math.rint(d) && Math.abs(d) < 9e15 ? (Object) (long) d : (Object) d;
+    }
+
+    /** @return MySQL's three-valued truth of the value (null is unknown). */
+    static Boolean Truth(Object value) {
+        if(value == null) return null;
+        if(value instanceof Boolean) return (Boolean) value;
+        if(value instanceof Number) return ((Number) value).doubleValue() != 0;
+        return ToDouble(value) != 0;
+    }
+
+    /** @return The comparison of two values as MySQL does it, or null if either is NULL. */
+    static Integer Compare(Object a, Object b) {
+        if(a == null || b == null) return null;
+        if(a instanceof Boolean) a = (Boolean) a ? 1L : 0L;
+        if(b instanceof Boolean) b = (Boolean) b ? 1L : 0L;
+
+        if(IsTemporal(a) || IsTemporal(b)) {
+            LocalDateTime x = ToDateTime(a), y = ToDateTime(b);
+            if(x != null && y != null) return x.compareTo(y);
+            return CompareText(ToText(a), ToText(b));
+        }
+        if(a instanceof Number && b instanceof Number) {
+            if(IsIntegral(a) && IsIntegral(b)) return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            if(a instanceof BigDecimal || b instanceof BigDecimal) return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if(a instanceof Number || b instanceof Number) return Double.compare(ToDouble(a), ToDouble(b));
+        return CompareText(ToText(a), ToText(b));
+    }
+
+    private static int CompareText(String a, String b) {
+        return String.CASE_INSENSITIVE_ORDER.compare(StripTrailing(a), StripTrailing(b));
+    }
+
+    private static String StripTrailing(String text) {
+        int end = text.length();
+        while(end > 0 && text.charAt(end - 1) == ' ') end--;
+        return end == text.length() ? text : text.substring(0, end);
+    }
+
+    /** Orders values for ORDER BY: NULL first, then by {@link #Compare(Object, Object)}. */
+    private static final Comparator<Object> SORT_ORDER = (a, b) -> {
+        if(a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+        return Compare(a, b);
+    };
+
+    /**
+     * Converts a value to what a column of the given type stores.
+     *
+     * @throws SQLException if the value does not fit the type.
+     */
+    static Object Coerce(Object value, Type type, String column) throws SQLException {
+        if(value == null) return null;
+        switch(type) {
+            case INT: {
+                long number = ToLong(value, column);
+                if(number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) throw new SQLException("Out of range value for column '" + column + "'", "22003", 1264);
+                return (int) number;
+            }
+            case BIGINT: return ToLong(value, column);
+            case TEXT: return ToText(value);
+            case BOOLEAN: {
+                if(value instanceof Boolean) return value;
+                if(value instanceof String && ((String) value).trim().equalsIgnoreCase("true")) return true;
+                if(value instanceof String && ((String) value).trim().equalsIgnoreCase("false")) return false;
+                return ToLong(value, column) != 0;
+            }
+            case DATETIME:
+            case TIMESTAMP:
+            case DATE: {
+                LocalDateTime time = value instanceof Number ? null : ToDateTime(value);
+                if(time == null) throw new SQLException("Incorrect datetime value: '" + ToText(value) + "' for column '" + column + "'", "22007", 1292);
+                if(type == Type.DATE) return java.sql.Date.valueOf(time.toLocalDate());
+                // no fractional seconds are kept, rounded as MySQL does
+                time = time.plusNanos(500_000_000).truncatedTo(ChronoUnit.SECONDS);
+                return type == Type.TIMESTAMP ? Timestamp.valueOf(time) : time;
+            }
+            case DOUBLE: return ToDouble(value);
+            case DECIMAL: return value instanceof BigDecimal ? value : new BigDecimal(ToText(ToNumber(value)));
+            default: return value;
+        }
+    }
+
+    private static long ToLong(Object value, String column) throws SQLException {
+        if(IsIntegral(value)) return ((Number) value).longValue();
+        if(value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        if(value instanceof Number) return Math.round(((Number) value).doubleValue());
+        if(value instanceof String) {
+            String text = ((String) value).trim();
+            try {
+                return text.contains(".") || text.contains("e") || text.contains("E") ? Math.round(Double.parseDouble(text)) : Long.parseLong(text);
+            } catch(NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new SQLException("Incorrect integer value: '" + ToText(value) + "' for column '" + column + "'", "HY000", 1366);
+    }
+
+    // ===== LIKE =====
+
+    private static final class LikePattern {
+        private static final char ONE = 1;
+        private static final char MANY = 2;
+        final String source;
+        final char[] tokens;   // folded literal characters, or ONE / MANY
+        final boolean[] wild;
+
+        LikePattern(String source, char escape) {
+            this.source = source;
+            StringBuilder chars = new StringBuilder(source.length());
+            List<Boolean> wildcards = new ArrayList<>(source.length());
+            for(int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if(c == escape && i + 1 < source.length()) {
+                    chars.append(Character.toLowerCase(source.charAt(++i)));
+                    wildcards.add(false);
+                } else if(c == '%') {
+                    // consecutive % are one
+                    if(!(wildcards.size() > 0 && wildcards.get(wildcards.size() - 1) && chars.charAt(chars.length() - 1) == MANY)) {
+                        chars.append(MANY);
+                        wildcards.add(true);
+                    }
+                } else if(c == '_') {
+                    chars.append(ONE);
+                    wildcards.add(true);
+                } else {
+                    chars.append(Character.toLowerCase(c));
+                    wildcards.add(false);
+                }
+            }
+            this.tokens = chars.toString().toCharArray();
+            this.wild = new boolean[wildcards.size()];
+            for(int i = 0; i < this.wild.length; i++) this.wild[i] = wildcards.get(i);
+        }
+
+        /** @return The literal text every match starts with (folded), possibly empty. */
+        String Prefix() {
+            StringBuilder prefix = new StringBuilder();
+            for(int i = 0; i < this.tokens.length && !this.wild[i]; i++) prefix.append(this.tokens[i]);
+            return prefix.toString();
+        }
+
+        boolean Matches(String value) {
+            int p = 0, s = 0, star = -1, resume = 0;
+            int m = this.tokens.length, n = value.length();
+            while(s < n) {
+                if(p < m && (this.wild[p] ? this.tokens[p] == ONE : this.tokens[p] == Character.toLowerCase(value.charAt(s)))) {
+                    p++;
+                    s++;
+                } else if(p < m && this.wild[p] && this.tokens[p] == MANY) {
+                    star = p++;
+                    resume = s;
+                } else if(star >= 0) {
+                    p = star + 1;
+                    s = ++resume;
+                } else {
+                    return false;
+                }
+            }
+            while(p < m && this.wild[p] && this.tokens[p] == MANY) p++;
+            return p == m;
+        }
+    }
+
+    // ===== execution context =====
+
+    private static final class Exec {
+        final Session session;
+        final Object[] params;
+        final IdentityHashMap<Object, Object> cache = new IdentityHashMap<>();
+
+        Exec(Session session, Object[] params) {
+            this.session = session;
+            this.params = params;
+        }
+    }
+
+    // The row being evaluated, with the rows of the enclosing queries (for correlated subqueries).
+    private static final class Scope {
+        final Table table;
+        final String alias;
+        final Scope outer;
+        final Exec exec;
+        Object[] row;
+        List<Object[]> group;  // rows of the current group, for aggregates
+        Object[] inserting;    // the row an INSERT ... ON DUPLICATE KEY UPDATE tried to insert
+        String[] labels;       // the select list, for HAVING to refer to its aliases
+        Object[] output;
+
+        Scope(Table table, String alias, Scope outer, Exec exec) {
+            this.table = table;
+            this.alias = alias;
+            this.outer = outer;
+            this.exec = exec;
+        }
+
+        boolean Names(String qualifier) {
+            return this.table != null && (qualifier.equalsIgnoreCase(this.alias) || qualifier.equalsIgnoreCase(this.table.name));
+        }
+    }
+
+    // ===== expressions =====
+
+    private abstract static class Expr {
+        abstract Object Eval(Scope scope) throws SQLException;
+
+        /** @return True if the expression reads a column of the given table (unqualified columns count). */
+        boolean DependsOn(String alias, String table) { return false; }
+
+        /** @return True if the expression contains an aggregate (outside subqueries). */
+        boolean HasAggregate() { return false; }
+
+        /** @return True if the expression reads any column (of any table). */
+        boolean ReadsColumns() { return false; }
+    }
+
+    private static final class Literal extends Expr {
+        final Object value;
+
+        Literal(Object value) { this.value = value; }
+
+        @Override Object Eval(Scope scope) { return this.value; }
+    }
+
+    private static final class Param extends Expr {
+        final int index;
+
+        Param(int index) { this.index = index; }
+
+        @Override Object Eval(Scope scope) { return scope.exec.params[this.index]; }
+    }
+
+    private static final class ColumnRef extends Expr {
+        final String qualifier;
+        final String name;
+        private volatile Object[] resolved;  // { Table, position }
+
+        ColumnRef(String qualifier, String name) {
+            this.qualifier = qualifier;
+            this.name = name;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            for(Scope current = scope; current != null; current = current.outer) {
+                if(current.table == null) continue;
+                if(this.qualifier != null && !current.Names(this.qualifier)) continue;
+
+                int position = Position(current.table);
+                if(position >= 0) return current.row == null ? null : current.row[position];
+                if(this.qualifier != null) break;
+            }
+            for(Scope current = scope; this.qualifier == null && current != null; current = current.outer) {
+                if(current.output == null) continue;
+                for(int i = 0; i < current.labels.length; i++) if(current.labels[i].equalsIgnoreCase(this.name)) return current.output[i];
+            }
+            throw new SQLException("Unknown column '" + (this.qualifier == null ? "" : this.qualifier + ".") + this.name + "' in 'field list'", "42S22", 1054);
+        }
+
+        int Position(Table table) {
+            Object[] cached = this.resolved;
+            if(cached != null && cached[0] == table) return (Integer) cached[1];
+            int position = table.Position(this.name);
+            this.resolved = new Object[] { table, position };
+            return position;
+        }
+
+        @Override
+        boolean DependsOn(String alias, String table) {
+            return this.qualifier == null || this.qualifier.equalsIgnoreCase(alias) || this.qualifier.equalsIgnoreCase(table);
+        }
+
+        @Override boolean ReadsColumns() { return true; }
+    }
+
+    private static final class Unary extends Expr {
+        final String operator;
+        final Expr operand;
+
+        Unary(String operator, Expr operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object value = this.operand.Eval(scope);
+            if(this.operator.equals("NOT")) {
+                Boolean truth = Truth(value);
+                return truth == null ? null : (Object) (truth ? 0L : 1L);
+            }
+            Object number = ToNumber(value);
+            if(number == null) return null;
+            if(number instanceof Long) return -(Long) number;
+            if(number instanceof BigDecimal) return ((BigDecimal) number).negate();
+            return -((Number) number).doubleValue();
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.operand.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return this.operand.HasAggregate(); }
+        @Override boolean ReadsColumns() { return this.operand.ReadsColumns(); }
+    }
+
+    private static final class Binary extends Expr {
+        final String operator;
+        final Expr left;
+        final Expr right;
+        final Expr escape;
+        private volatile LikePattern like;
+
+        Binary(String operator, Expr left, Expr right, Expr escape) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.escape = escape;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            switch(this.operator) {
+                case "AND": {
+                    Boolean a = Truth(this.left.Eval(scope));
+                    if(Boolean.FALSE.equals(a)) return 0L;
+                    Boolean b = Truth(this.right.Eval(scope));
+                    if(Boolean.FALSE.equals(b)) return 0L;
+                    return a == null || b == null ? null : (Object) 1L;
+                }
+                case "OR": {
+                    Boolean a = Truth(this.left.Eval(scope));
+                    if(Boolean.TRUE.equals(a)) return 1L;
+                    Boolean b = Truth(this.right.Eval(scope));
+                    if(Boolean.TRUE.equals(b)) return 1L;
+                    return a == null || b == null ? null : (Object) 0L;
+                }
+                case "XOR": {
+                    Boolean a = Truth(this.left.Eval(scope)), b = Truth(this.right.Eval(scope));
+                    return a == null || b == null ? null : (Object) (a != b ? 1L : 0L);
+                }
+                default:
+                    break;
+            }
+
+            Object a = this.left.Eval(scope);
+            Object b = this.right.Eval(scope);
+            switch(this.operator) {
+                case "<=>": {
+                    if(a == null || b == null) return a == null && b == null ? 1L : 0L;
+                    return Compare(a, b) == 0 ? 1L : 0L;
+                }
+                case "=": case "<>": case "<": case "<=": case ">": case ">=": {
+                    Integer c = Compare(a, b);
+                    if(c == null) return null;
+                    boolean result;
+                    switch(this.operator) {
+                        case "=": result = c == 0; break;
+                        case "<>": result = c != 0; break;
+                        case "<": result = c < 0; break;
+                        case "<=": result = c <= 0; break;
+                        case ">": result = c > 0; break;
+                        default: result = c >= 0; break;
+                    }
+                    return result ? 1L : 0L;
+                }
+                case "LIKE": {
+                    if(a == null || b == null) return null;
+                    return Pattern(ToText(b), scope).Matches(ToText(a)) ? 1L : 0L;
+                }
+                default:
+                    return Arithmetic(this.operator, a, b);
+            }
+        }
+
+        LikePattern Pattern(String source, Scope scope) throws SQLException {
+            LikePattern cached = this.like;
+            if(cached != null && cached.source.equals(source)) return cached;
+            char escapeChar = '\\';
+            if(this.escape != null) {
+                String text = ToText(this.escape.Eval(scope));
+                if(text != null && !text.isEmpty()) escapeChar = text.charAt(0);
+            }
+            LikePattern pattern = new LikePattern(source, escapeChar);
+            this.like = pattern;
+            return pattern;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.left.DependsOn(alias, table) || this.right.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return this.left.HasAggregate() || this.right.HasAggregate(); }
+        @Override boolean ReadsColumns() { return this.left.ReadsColumns() || this.right.ReadsColumns(); }
+    }
+
+    private static Object Arithmetic(String operator, Object a, Object b) {
+        Object x = ToNumber(a), y = ToNumber(b);
+        if(x == null || y == null) return null;
+        if(operator.equals("/") || operator.equals("DIV") || operator.equals("%") || operator.equals("MOD")) {
+            if(ToDouble(y) == 0) return null;
+        }
+        if(x instanceof Long && y instanceof Long) {
+            long p = (Long) x, q = (Long) y;
+            switch(operator) {
+                case "+": return p + q;
+                case "-": return p - q;
+                case "*": return p * q;
+                case "DIV": return p / q;
+                case "%": case "MOD": return p % q;
+                default: return new BigDecimal(p).divide(new BigDecimal(q), 4, RoundingMode.HALF_UP);
+            }
+        }
+        BigDecimal p = new BigDecimal(x.toString()), q = new BigDecimal(y.toString());
+        switch(operator) {
+            case "+": return p.add(q);
+            case "-": return p.subtract(q);
+            case "*": return p.multiply(q);
+            case "DIV": return p.divideToIntegralValue(q).longValue();
+            case "%": case "MOD": return p.remainder(q);
+            default: return p.divide(q, 4, RoundingMode.HALF_UP);
+        }
+    }
+
+    private static final class Between extends Expr {
+        final Expr value;
+        final Expr low;
+        final Expr high;
+        final boolean not;
+
+        Between(Expr value, Expr low, Expr high, boolean not) {
+            this.value = value;
+            this.low = low;
+            this.high = high;
+            this.not = not;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object v = this.value.Eval(scope);
+            Integer a = Compare(v, this.low.Eval(scope));
+            Integer b = Compare(v, this.high.Eval(scope));
+            if(a == null || b == null) return null;
+            return (a >= 0 && b <= 0) != this.not ? 1L : 0L;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.value.DependsOn(alias, table) || this.low.DependsOn(alias, table) || this.high.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return this.value.HasAggregate() || this.low.HasAggregate() || this.high.HasAggregate(); }
+        @Override boolean ReadsColumns() { return this.value.ReadsColumns() || this.low.ReadsColumns() || this.high.ReadsColumns(); }
+    }
+
+    private static final class Tuple extends Expr {
+        final List<Expr> items;
+
+        Tuple(List<Expr> items) { this.items = items; }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object[] values = new Object[this.items.size()];
+            for(int i = 0; i < values.length; i++) values[i] = this.items.get(i).Eval(scope);
+            return values;
+        }
+
+        @Override
+        boolean DependsOn(String alias, String table) {
+            for(Expr item : this.items) if(item.DependsOn(alias, table)) return true;
+            return false;
+        }
+
+        @Override
+        boolean ReadsColumns() {
+            for(Expr item : this.items) if(item.ReadsColumns()) return true;
+            return false;
+        }
+    }
+
+    private static final class InList extends Expr {
+        final Expr value;
+        final List<Expr> items;
+        final boolean not;
+
+        InList(Expr value, List<Expr> items, boolean not) {
+            this.value = value;
+            this.items = items;
+            this.not = not;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object v = this.value.Eval(scope);
+            if(v == null) return null;
+
+            // a long list of constants is looked up in a set built once per execution
+            if(this.items.size() > 8 && !(v instanceof Object[])) {
+                Object members = scope.exec.cache.get(this);
+                if(members == null) {
+                    members = Members(scope);
+                    scope.exec.cache.put(this, members);
+                }
+                if(members instanceof Set) {
+                    Object key = EmbeddedStore.Key(v);
+                    Set<?> set = (Set<?>) members;
+                    if(key instanceof Long || key instanceof String) {
+                        if(set.contains(key)) return this.not ? 0L : 1L;
+                        return set.contains(null) ? null : (Object) (this.not ? 1L : 0L);
+                    }
+                }
+            }
+
+            boolean unknown = false;
+            for(Expr item : this.items) {
+                Object candidate = item.Eval(scope);
+                Integer c = v instanceof Object[] ? CompareTuple((Object[]) v, (Object[]) candidate) : Compare(v, candidate);
+                if(c == null) unknown = true;
+                else if(c == 0) return this.not ? 0L : 1L;
+            }
+            return unknown ? null : (Object) (this.not ? 1L : 0L);
+        }
+
+        // The list's keys if all items are constants of one kind (numbers or strings); otherwise a marker.
+        private Object Members(Scope scope) throws SQLException {
+            Set<Object> keys = new HashSet<>();
+            Class<?> kind = null;
+            for(Expr item : this.items) {
+                if(item.ReadsColumns()) return Boolean.FALSE;
+                Object key = EmbeddedStore.Key(item.Eval(scope));
+                if(key != null) {
+                    if(!(key instanceof Long || key instanceof String) || (kind != null && kind != key.getClass())) return Boolean.FALSE;
+                    kind = key.getClass();
+                }
+                keys.add(key);
+            }
+            return keys;
+        }
+
+        @Override
+        boolean DependsOn(String alias, String table) {
+            if(this.value.DependsOn(alias, table)) return true;
+            for(Expr item : this.items) if(item.DependsOn(alias, table)) return true;
+            return false;
+        }
+
+        boolean DependsOnItems(String alias, String table) {
+            for(Expr item : this.items) if(item.DependsOn(alias, table)) return true;
+            return false;
+        }
+
+        @Override boolean HasAggregate() { return this.value.HasAggregate(); }
+
+        @Override
+        boolean ReadsColumns() {
+            if(this.value.ReadsColumns()) return true;
+            for(Expr item : this.items) if(item.ReadsColumns()) return true;
+            return false;
+        }
+    }
+
+    private static Integer CompareTuple(Object[] a, Object[] b) throws SQLException {
+        if(b == null || a.length != b.length) throw new SQLException("Operand should contain " + a.length + " column(s)", "21000", 1241);
+        boolean unknown = false;
+        for(int i = 0; i < a.length; i++) {
+            Integer c = Compare(a[i], b[i]);
+            if(c == null) unknown = true;
+            else if(c != 0) return c;
+        }
+        return unknown ? null : 0;
+    }
+
+    private static final class InSubquery extends Expr {
+        final Expr value;
+        final Select query;
+        final boolean not;
+
+        InSubquery(Expr value, Select query, boolean not) {
+            this.value = value;
+            this.query = query;
+            this.not = not;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object v = this.value.Eval(scope);
+            if(v == null) return null;
+
+            List<Object[]> rows;
+            if(this.query.correlated) {
+                rows = this.query.Rows(scope.exec, scope).rows;
+            } else {
+                @SuppressWarnings("unchecked")
+                List<Object[]> cached = (List<Object[]>) scope.exec.cache.get(this);
+                if(cached == null) {
+                    cached = this.query.Rows(scope.exec, scope).rows;
+                    scope.exec.cache.put(this, cached);
+                    // the keys of an uncorrelated subquery are looked up in a set
+                    Set<Object> keys = new HashSet<>();
+                    boolean simple = true;
+                    for(Object[] row : cached) {
+                        Object key = EmbeddedStore.Key(row[0]);
+                        if(key != null && !(key instanceof Long || key instanceof String)) simple = false;
+                        keys.add(key);
+                    }
+                    if(simple) scope.exec.cache.put(this.query, keys);
+                }
+                rows = cached;
+                Object key = EmbeddedStore.Key(v);
+                @SuppressWarnings("unchecked")
+                Set<Object> keys = (Set<Object>) scope.exec.cache.get(this.query);
+                if(keys != null && (key instanceof Long || key instanceof String)) {
+                    boolean sameKinds = true;
+                    for(Object k : keys) { if(k != null && k.getClass() != key.getClass()) { sameKinds = false; break; } }
+                    if(sameKinds) {
+                        if(keys.contains(key)) return this.not ? 0L : 1L;
+                        return keys.contains(null) ? null : (Object) (this.not ? 1L : 0L);
+                    }
+                }
+            }
+
+            boolean unknown = false;
+            for(Object[] row : rows) {
+                Integer c = Compare(v, row[0]);
+                if(c == null) unknown = true;
+                else if(c == 0) return this.not ? 0L : 1L;
+            }
+            return unknown ? null : (Object) (this.not ? 1L : 0L);
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.value.DependsOn(alias, table) || this.query.DependsOnOuter(alias, table); }
+        @Override boolean HasAggregate() { return this.value.HasAggregate(); }
+        @Override boolean ReadsColumns() { return true; }
+    }
+
+    private static final class ScalarSubquery extends Expr {
+        final Select query;
+
+        ScalarSubquery(Select query) { this.query = query; }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            if(!this.query.correlated && scope.exec.cache.containsKey(this)) return scope.exec.cache.get(this);
+
+            List<Object[]> rows = this.query.Rows(scope.exec, scope).rows;
+            if(rows.size() > 1) throw new SQLException("Subquery returns more than 1 row", "21000", 1242);
+            Object value = rows.isEmpty() ? null : rows.get(0)[0];
+            if(!this.query.correlated) scope.exec.cache.put(this, value);
+            return value;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.query.DependsOnOuter(alias, table); }
+        @Override boolean ReadsColumns() { return true; }
+    }
+
+    private static final class Exists extends Expr {
+        final Select query;
+        final boolean not;
+
+        Exists(Select query, boolean not) {
+            this.query = query;
+            this.not = not;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            return this.query.Rows(scope.exec, scope).rows.isEmpty() == this.not ? 1L : 0L;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.query.DependsOnOuter(alias, table); }
+        @Override boolean ReadsColumns() { return true; }
+    }
+
+    private static final class IsNull extends Expr {
+        final Expr value;
+        final boolean not;
+
+        IsNull(Expr value, boolean not) {
+            this.value = value;
+            this.not = not;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            return (this.value.Eval(scope) == null) != this.not ? 1L : 0L;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.value.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return this.value.HasAggregate(); }
+        @Override boolean ReadsColumns() { return this.value.ReadsColumns(); }
+    }
+
+    private static final class IsTruth extends Expr {
+        final Expr value;
+        final boolean expected;
+        final boolean not;
+
+        IsTruth(Expr value, boolean expected, boolean not) {
+            this.value = value;
+            this.expected = expected;
+            this.not = not;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Boolean truth = Truth(this.value.Eval(scope));
+            return (truth != null && truth == this.expected) != this.not ? 1L : 0L;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.value.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return this.value.HasAggregate(); }
+        @Override boolean ReadsColumns() { return this.value.ReadsColumns(); }
+    }
+
+    private static final class Case extends Expr {
+        final Expr operand;
+        final List<Expr> conditions;
+        final List<Expr> results;
+        final Expr otherwise;
+
+        Case(Expr operand, List<Expr> conditions, List<Expr> results, Expr otherwise) {
+            this.operand = operand;
+            this.conditions = conditions;
+            this.results = results;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object subject = this.operand == null ? null : this.operand.Eval(scope);
+            for(int i = 0; i < this.conditions.size(); i++) {
+                Object condition = this.conditions.get(i).Eval(scope);
+                boolean hit = this.operand == null ? Boolean.TRUE.equals(Truth(condition)) : Integer.valueOf(0).equals(Compare(subject, condition));
+                if(hit) return this.results.get(i).Eval(scope);
+            }
+            return this.otherwise == null ? null : this.otherwise.Eval(scope);
+        }
+
+        private List<Expr> Parts() {
+            List<Expr> parts = new ArrayList<>(this.conditions);
+            parts.addAll(this.results);
+            if(this.operand != null) parts.add(this.operand);
+            if(this.otherwise != null) parts.add(this.otherwise);
+            return parts;
+        }
+
+        @Override
+        boolean DependsOn(String alias, String table) {
+            for(Expr part : Parts()) if(part.DependsOn(alias, table)) return true;
+            return false;
+        }
+
+        @Override
+        boolean HasAggregate() {
+            for(Expr part : Parts()) if(part.HasAggregate()) return true;
+            return false;
+        }
+
+        @Override
+        boolean ReadsColumns() {
+            for(Expr part : Parts()) if(part.ReadsColumns()) return true;
+            return false;
+        }
+    }
+
+    private static final class Cast extends Expr {
+        final Expr value;
+        final String type;
+
+        Cast(Expr value, String type) {
+            this.value = value;
+            this.type = type;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            Object v = this.value.Eval(scope);
+            if(v == null) return null;
+            switch(this.type) {
+                case "CHAR": case "VARCHAR": case "NCHAR": return ToText(v);
+                case "SIGNED": case "UNSIGNED": case "INTEGER": case "INT": {
+                    Object number = ToNumber(v);
+                    return number instanceof Long ? number : (Object) Math.round(((Number) number).doubleValue());
+                }
+                case "DECIMAL": return new BigDecimal(ToText(ToNumber(v)));
+                case "DOUBLE": case "FLOAT": case "REAL": return ToDouble(v);
+                case "DATE": {
+                    LocalDateTime time = ToDateTime(v);
+                    return time == null ? null : java.sql.Date.valueOf(time.toLocalDate());
+                }
+                case "DATETIME": return ToDateTime(v);
+                default: throw new SQLFeatureNotSupportedException("CAST to " + this.type + " is not supported by the embedded database", "0A000");
+            }
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.value.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return this.value.HasAggregate(); }
+        @Override boolean ReadsColumns() { return this.value.ReadsColumns(); }
+    }
+
+    private static final class Function extends Expr {
+        final String name;
+        final List<Expr> args;
+
+        Function(String name, List<Expr> args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        private Object Arg(Scope scope, int index) throws SQLException {
+            return this.args.get(index).Eval(scope);
+        }
+
+        private void Arity(int min, int max) throws SQLException {
+            if(this.args.size() < min || this.args.size() > max) throw new SQLException("Incorrect parameter count in the call to native function '" + this.name + "'", "42000", 1582);
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            switch(this.name) {
+                case "COALESCE": {
+                    for(Expr arg : this.args) {
+                        Object value = arg.Eval(scope);
+                        if(value != null) return value;
+                    }
+                    return null;
+                }
+                case "IFNULL": {
+                    Arity(2, 2);
+                    Object value = Arg(scope, 0);
+                    return value != null ? value : Arg(scope, 1);
+                }
+                case "NULLIF": {
+                    Arity(2, 2);
+                    Object value = Arg(scope, 0);
+                    return Integer.valueOf(0).equals(Compare(value, Arg(scope, 1))) ? null : value;
+                }
+                case "IF": {
+                    Arity(3, 3);
+                    return Boolean.TRUE.equals(Truth(Arg(scope, 0))) ? Arg(scope, 1) : Arg(scope, 2);
+                }
+                case "LOWER": case "LCASE": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : s.toLowerCase(Locale.ROOT); }
+                case "UPPER": case "UCASE": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : s.toUpperCase(Locale.ROOT); }
+                case "TRIM": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : s.trim(); }
+                case "LTRIM": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : s.replaceAll("^\\s+", ""); }
+                case "RTRIM": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : s.replaceAll("\\s+$", ""); }
+                case "CHAR_LENGTH": case "CHARACTER_LENGTH": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : (Object) (long) s.codePointCount(0, s.length()); }
+                case "LENGTH": { Arity(1, 1); String s = ToText(Arg(scope, 0)); return s == null ? null : (Object) (long) s.getBytes(StandardCharsets.UTF_8).length; }
+                case "CONCAT": {
+                    StringBuilder text = new StringBuilder();
+                    for(Expr arg : this.args) {
+                        Object value = arg.Eval(scope);
+                        if(value == null) return null;
+                        text.append(ToText(value));
+                    }
+                    return text.toString();
+                }
+                case "CONCAT_WS": {
+                    String separator = ToText(Arg(scope, 0));
+                    if(separator == null) return null;
+                    StringBuilder text = new StringBuilder();
+                    for(int i = 1; i < this.args.size(); i++) {
+                        Object value = Arg(scope, i);
+                        if(value == null) continue;
+                        if(text.length() > 0) text.append(separator);
+                        text.append(ToText(value));
+                    }
+                    return text.toString();
+                }
+                case "SUBSTRING": case "SUBSTR": case "MID": {
+                    Arity(2, 3);
+                    String s = ToText(Arg(scope, 0));
+                    Object start = ToNumber(Arg(scope, 1));
+                    if(s == null || start == null) return null;
+                    int from = ((Number) start).intValue();
+                    from = from > 0 ? from - 1 : from < 0 ? Math.max(0, s.length() + from) : s.length();
+                    int to = s.length();
+                    if(this.args.size() == 3) {
+                        Object length = ToNumber(Arg(scope, 2));
+                        if(length == null) return null;
+                        to = Math.min(s.length(), from + Math.max(0, ((Number) length).intValue()));
+                    }
+                    return from >= to ? "" : s.substring(from, to);
+                }
+                case "LEFT": case "RIGHT": {
+                    Arity(2, 2);
+                    String s = ToText(Arg(scope, 0));
+                    Object length = ToNumber(Arg(scope, 1));
+                    if(s == null || length == null) return null;
+                    int n = Math.max(0, Math.min(s.length(), ((Number) length).intValue()));
+                    return this.name.equals("LEFT") ? s.substring(0, n) : s.substring(s.length() - n);
+                }
+                case "REPLACE": {
+                    Arity(3, 3);
+                    String s = ToText(Arg(scope, 0)), from = ToText(Arg(scope, 1)), to = ToText(Arg(scope, 2));
+                    if(s == null || from == null || to == null) return null;
+                    return from.isEmpty() ? s : s.replace(from, to);
+                }
+                case "GREATEST": case "LEAST": {
+                    Object best = null;
+                    for(Expr arg : this.args) {
+                        Object value = arg.Eval(scope);
+                        if(value == null) return null;
+                        if(best == null || (this.name.equals("GREATEST") ? Compare(value, best) > 0 : Compare(value, best) < 0)) best = value;
+                    }
+                    return best;
+                }
+                case "ABS": {
+                    Arity(1, 1);
+                    Object number = ToNumber(Arg(scope, 0));
+                    if(number == null) return null;
+                    if(number instanceof Long) return Math.abs((Long) number);
+                    if(number instanceof BigDecimal) return ((BigDecimal) number).abs();
+                    return Math.abs(((Number) number).doubleValue());
+                }
+                case "MOD": {
+                    Arity(2, 2);
+                    return Arithmetic("%", Arg(scope, 0), Arg(scope, 1));
+                }
+                case "ROUND": case "FLOOR": case "CEIL": case "CEILING": {
+                    Arity(1, 2);
+                    Object number = ToNumber(Arg(scope, 0));
+                    if(number == null) return null;
+                    if(number instanceof Long) return number;
+                    BigDecimal value = new BigDecimal(number.toString());
+                    int digits = this.args.size() == 2 ? ((Number) ToNumber(Arg(scope, 1))).intValue() : 0;
+                    RoundingMode mode = this.name.equals("ROUND") ? RoundingMode.HALF_UP : this.name.equals("FLOOR") ? RoundingMode.FLOOR : RoundingMode.CEILING;
+                    BigDecimal rounded = value.setScale(this.name.equals("ROUND") ? digits : 0, mode);
+                    return rounded.scale() <= 0 ? (Object) rounded.longValue() : rounded;
+                }
+                case "NOW": case "CURRENT_TIMESTAMP": case "SYSDATE": case "LOCALTIME": case "LOCALTIMESTAMP":
+                    return LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+                case "CURDATE": case "CURRENT_DATE":
+                    return java.sql.Date.valueOf(LocalDate.now());
+                case "DATE": {
+                    Arity(1, 1);
+                    LocalDateTime time = ToDateTime(Arg(scope, 0));
+                    return time == null ? null : java.sql.Date.valueOf(time.toLocalDate());
+                }
+                case "YEAR": {
+                    Arity(1, 1);
+                    LocalDateTime time = ToDateTime(Arg(scope, 0));
+                    return time == null ? null : (Object) (long) time.getYear();
+                }
+                case "LAST_INSERT_ID":
+                    return scope.exec.session.lastInsertId;
+                case "DATABASE": case "SCHEMA":
+                    return "library";
+                case "VERSION":
+                    return "8.0.0-library-embedded";
+                case "CONNECTION_ID":
+                    return (long) System.identityHashCode(scope.exec.session);
+                default:
+                    throw new SQLFeatureNotSupportedException("FUNCTION " + this.name + " is not supported by the embedded database", "0A000");
+            }
+        }
+
+        @Override
+        boolean DependsOn(String alias, String table) {
+            for(Expr arg : this.args) if(arg.DependsOn(alias, table)) return true;
+            return false;
+        }
+
+        @Override
+        boolean HasAggregate() {
+            for(Expr arg : this.args) if(arg.HasAggregate()) return true;
+            return false;
+        }
+
+        @Override
+        boolean ReadsColumns() {
+            if(this.name.equals("LAST_INSERT_ID")) return true;  // changes as the statement runs
+            for(Expr arg : this.args) if(arg.ReadsColumns()) return true;
+            return false;
+        }
+    }
+
+    private static final class InsertedValue extends Expr {
+        final String column;
+
+        InsertedValue(String column) { this.column = column; }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            for(Scope current = scope; current != null; current = current.outer) {
+                if(current.inserting == null) continue;
+                int position = current.table.Position(this.column);
+                if(position < 0) break;
+                return current.inserting[position];
+            }
+            throw new SQLException("Unknown column '" + this.column + "' in 'field list'", "42S22", 1054);
+        }
+
+        @Override boolean ReadsColumns() { return true; }
+    }
+
+    private static final class Aggregate extends Expr {
+        final String name;
+        final Expr arg;       // null for COUNT(*)
+        final boolean distinct;
+        final Expr orderBy;
+        final boolean descending;
+        final String separator;
+
+        Aggregate(String name, Expr arg, boolean distinct, Expr orderBy, boolean descending, String separator) {
+            this.name = name;
+            this.arg = arg;
+            this.distinct = distinct;
+            this.orderBy = orderBy;
+            this.descending = descending;
+            this.separator = separator;
+        }
+
+        @Override
+        Object Eval(Scope scope) throws SQLException {
+            if(scope.group == null) throw new SQLException("Invalid use of group function", "HY000", 1111);
+
+            Scope each = new Scope(scope.table, scope.alias, scope.outer, scope.exec);
+            List<Object> values = new ArrayList<>(scope.group.size());
+            List<Object> keys = this.orderBy == null ? null : new ArrayList<>(scope.group.size());
+            for(Object[] row : scope.group) {
+                each.row = row;
+                Object value = this.arg == null ? Boolean.TRUE : this.arg.Eval(each);
+                if(value == null) continue;
+                values.add(value);
+                if(keys != null) keys.add(this.orderBy.Eval(each));
+            }
+            if(this.distinct) values = Distinct(values, keys);
+
+            switch(this.name) {
+                case "COUNT":
+                    return (long) values.size();
+                case "MIN": case "MAX": {
+                    Object best = null;
+                    for(Object value : values) {
+                        if(best == null || (this.name.equals("MAX") ? Compare(value, best) > 0 : Compare(value, best) < 0)) best = value;
+                    }
+                    return best;
+                }
+                case "SUM": case "AVG": {
+                    if(values.isEmpty()) return null;
+                    BigDecimal total = BigDecimal.ZERO;
+                    for(Object value : values) total = total.add(new BigDecimal(ToNumber(value).toString()));
+                    return this.name.equals("SUM") ? total : total.divide(BigDecimal.valueOf(values.size()), 4, RoundingMode.HALF_UP);
+                }
+                case "GROUP_CONCAT": {
+                    if(values.isEmpty()) return null;
+                    List<Integer> order = new ArrayList<>(values.size());
+                    for(int i = 0; i < values.size(); i++) order.add(i);
+                    if(keys != null && !this.distinct) {
+                        List<Object> sortKeys = keys;
+                        order.sort((a, b) -> this.descending ? SORT_ORDER.compare(sortKeys.get(b), sortKeys.get(a)) : SORT_ORDER.compare(sortKeys.get(a), sortKeys.get(b)));
+                    }
+                    StringBuilder text = new StringBuilder();
+                    for(int i : order) {
+                        if(text.length() > 0) text.append(this.separator);
+                        text.append(ToText(values.get(i)));
+                    }
+                    return text.toString();
+                }
+                default:
+                    throw new SQLFeatureNotSupportedException("FUNCTION " + this.name + " is not supported by the embedded database", "0A000");
+            }
+        }
+
+        private static List<Object> Distinct(List<Object> values, List<Object> keys) {
+            List<Object> unique = new ArrayList<>();
+            Set<Object> seen = new HashSet<>();
+            for(int i = 0; i < values.size(); i++) {
+                if(seen.add(EmbeddedStore.Key(values.get(i)))) unique.add(values.get(i));
+            }
+            return unique;
+        }
+
+        @Override boolean DependsOn(String alias, String table) { return this.arg == null || this.arg.DependsOn(alias, table); }
+        @Override boolean HasAggregate() { return true; }
+        @Override boolean ReadsColumns() { return true; }
+    }
+
+    // ===== statements =====
+
+    private abstract static class Statement {
+        int parameters;
+
+        abstract Result Run(Exec exec) throws SQLException;
+    }
+
+    private static final class Item {
+        final Expr expr;     // null for * / t.*
+        final String qualifier;
+        final String label;
+        final String name;
+
+        Item(Expr expr, String qualifier, String label, String name) {
+            this.expr = expr;
+            this.qualifier = qualifier;
+            this.label = label;
+            this.name = name;
+        }
+    }
+
+    private static final class Order {
+        final Expr expr;
+        final boolean descending;
+
+        Order(Expr expr, boolean descending) {
+            this.expr = expr;
+            this.descending = descending;
+        }
+    }
+
+    private static final class Output {
+        final String[] labels;
+        final String[] names;
+        final List<Object[]> rows;
+
+        Output(String[] labels, String[] names, List<Object[]> rows) {
+            this.labels = labels;
+            this.names = names;
+            this.rows = rows;
+        }
+    }
+
+    private static final class Select extends Statement {
+        final List<Item> items = new ArrayList<>();
+        String table;
+        String alias;
+        Expr where;
+        final List<Expr> groupBy = new ArrayList<>();
+        Expr having;
+        final List<Order> orderBy = new ArrayList<>();
+        Expr limit;
+        Expr offset;
+        boolean distinct;
+        boolean forUpdate;
+        boolean aggregate;
+        boolean correlated;
+        // every column reference of the query (including nested subqueries), to tell whether it is correlated
+        final List<ColumnRef> references = new ArrayList<>();
+
+        @Override
+        Result Run(Exec exec) throws SQLException {
+            return exec.session.Run(false, session -> {
+                Output output = Rows(exec, null);
+                return new Result(output.labels, output.names, output.rows);
+            });
+        }
+
+        /** @return True if the query reads columns of an enclosing query's table. */
+        boolean DependsOnOuter(String alias, String table) {
+            for(ColumnRef reference : this.references) {
+                if(reference.qualifier == null || Owns(reference.qualifier)) continue;
+                if(reference.qualifier.equalsIgnoreCase(alias) || reference.qualifier.equalsIgnoreCase(table)) return true;
+            }
+            return false;
+        }
+
+        boolean Owns(String qualifier) {
+            return qualifier.equalsIgnoreCase(this.alias) || qualifier.equalsIgnoreCase(this.table);
+        }
+
+        Output Rows(Exec exec, Scope outer) throws SQLException {
+            Table source = this.table == null ? null : ResolveTable(exec.session, this.table);
+            Scope scope = new Scope(source, this.alias, outer, exec);
+
+            // column labels
+            List<String> labels = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            List<Integer> starColumns = new ArrayList<>();
+            for(Item item : this.items) {
+                if(item.expr != null) {
+                    labels.add(item.label);
+                    names.add(item.name);
+                    starColumns.add(-1);
+                    continue;
+                }
+                if(source == null) throw new SQLException("No tables used", "HY000", 1096);
+                if(item.qualifier != null && !scope.Names(item.qualifier)) throw new SQLException("Unknown table '" + item.qualifier + "'", "42S02", 1051);
+                for(int c = 0; c < source.columns.length; c++) {
+                    labels.add(source.columns[c].name);
+                    names.add(source.columns[c].name);
+                    starColumns.add(c);
+                }
+            }
+
+            long offsetRows = this.offset == null ? 0 : ((Number) ToNumber(this.offset.Eval(scope))).longValue();
+            long limitRows = this.limit == null ? Long.MAX_VALUE : ((Number) ToNumber(this.limit.Eval(scope))).longValue();
+            boolean grouped = this.aggregate || !this.groupBy.isEmpty();
+            // without sorting or grouping, stop reading once the LIMIT is reached
+            long wanted = grouped || !this.orderBy.isEmpty() || this.distinct || limitRows == Long.MAX_VALUE ? Long.MAX_VALUE : offsetRows + limitRows;
+
+            List<Object[]> matched = new ArrayList<>();
+            if(source == null) {
+                if(this.where == null || Boolean.TRUE.equals(Truth(this.where.Eval(scope)))) matched.add(new Object[0]);
+            } else {
+                for(Object[] row : Candidates(source, this.alias, this.where, scope)) {
+                    scope.row = row;
+                    if(this.where != null && !Boolean.TRUE.equals(Truth(this.where.Eval(scope)))) continue;
+                    matched.add(row);
+                    if(matched.size() >= wanted) break;
+                }
+            }
+
+            int width = labels.size();
+            List<Object[]> rows = new ArrayList<>();
+            List<Object[]> sortKeys = this.orderBy.isEmpty() ? null : new ArrayList<>();
+            if(grouped) {
+                Map<List<Object>, List<Object[]>> groups = new LinkedHashMap<>();
+                if(this.groupBy.isEmpty()) {
+                    groups.put(Collections.emptyList(), matched);
+                } else {
+                    for(Object[] row : matched) {
+                        scope.row = row;
+                        List<Object> key = new ArrayList<>(this.groupBy.size());
+                        for(Expr expr : this.groupBy) key.add(EmbeddedStore.Key(expr.Eval(scope)));
+                        groups.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+                    }
+                }
+                for(List<Object[]> group : groups.values()) {
+                    scope.row = group.isEmpty() ? null : group.get(0);
+                    scope.group = group;
+                    Object[] output = Project(scope, starColumns, width);
+                    if(!Having(scope, output, labels)) continue;
+                    rows.add(output);
+                    if(sortKeys != null) sortKeys.add(SortKey(scope, output, labels));
+                }
+                scope.group = null;
+            } else {
+                for(Object[] row : matched) {
+                    scope.row = row;
+                    Object[] output = Project(scope, starColumns, width);
+                    if(!Having(scope, output, labels)) continue;
+                    rows.add(output);
+                    if(sortKeys != null) sortKeys.add(SortKey(scope, output, labels));
+                }
+            }
+
+            if(sortKeys != null) {
+                Integer[] order = new Integer[rows.size()];
+                for(int i = 0; i < order.length; i++) order[i] = i;
+                List<Object[]> keys = sortKeys;
+                Arrays.sort(order, (a, b) -> {
+                    Object[] x = keys.get(a), y = keys.get(b);
+                    for(int k = 0; k < x.length; k++) {
+                        int c = SORT_ORDER.compare(x[k], y[k]);
+                        if(c != 0) return this.orderBy.get(k).descending ? -c : c;
+                    }
+                    return 0;
+                });
+                List<Object[]> sorted = new ArrayList<>(rows.size());
+                for(int i : order) sorted.add(rows.get(i));
+                rows = sorted;
+            }
+            if(this.distinct) {
+                Set<List<Object>> seen = new HashSet<>();
+                List<Object[]> unique = new ArrayList<>();
+                for(Object[] row : rows) {
+                    List<Object> key = new ArrayList<>(row.length);
+                    for(Object value : row) key.add(EmbeddedStore.Key(value));
+                    if(seen.add(key)) unique.add(row);
+                }
+                rows = unique;
+            }
+            if(offsetRows > 0 || limitRows < rows.size()) {
+                int from = (int) Math.min(rows.size(), offsetRows);
+                int to = (int) Math.min(rows.size(), from + Math.min(limitRows, Integer.MAX_VALUE));
+                rows = new ArrayList<>(rows.subList(from, to));
+            }
+            return new Output(labels.toArray(new String[0]), names.toArray(new String[0]), rows);
+        }
+
+        private boolean Having(Scope scope, Object[] output, List<String> labels) throws SQLException {
+            if(this.having == null) return true;
+            scope.labels = labels.toArray(new String[0]);
+            scope.output = output;
+            try {
+                return Boolean.TRUE.equals(Truth(this.having.Eval(scope)));
+            } finally {
+                scope.output = null;
+            }
+        }
+
+        private Object[] Project(Scope scope, List<Integer> starColumns, int width) throws SQLException {
+            Object[] output = new Object[width];
+            int at = 0;
+            for(Item item : this.items) {
+                if(item.expr != null) {
+                    output[at] = item.expr.Eval(scope);
+                    at++;
+                    continue;
+                }
+                for(int c = 0; c < scope.table.columns.length; c++) {
+                    output[at] = scope.row == null ? null : scope.row[starColumns.get(at)];
+                    at++;
+                }
+            }
+            return output;
+        }
+
+        private Object[] SortKey(Scope scope, Object[] output, List<String> labels) throws SQLException {
+            Object[] key = new Object[this.orderBy.size()];
+            for(int i = 0; i < key.length; i++) {
+                Expr expr = this.orderBy.get(i).expr;
+                if(expr instanceof Literal && IsIntegral(((Literal) expr).value)) {
+                    int position = ((Number) ((Literal) expr).value).intValue();
+                    if(position < 1 || position > output.length) throw new SQLException("Unknown column '" + position + "' in 'order clause'", "42S22", 1054);
+                    key[i] = output[position - 1];
+                    continue;
+                }
+                if(expr instanceof ColumnRef && ((ColumnRef) expr).qualifier == null) {
+                    // an output alias wins over a column of the same name
+                    int label = AliasPosition(((ColumnRef) expr).name);
+                    if(label >= 0) {
+                        key[i] = output[label];
+                        continue;
+                    }
+                }
+                key[i] = expr.Eval(scope);
+            }
+            return key;
+        }
+
+        private int AliasPosition(String name) {
+            int at = 0;
+            for(Item item : this.items) {
+                if(item.expr == null) return -1;  // positions after * are not known here
+                if(item.label.equalsIgnoreCase(name) && !(item.expr instanceof ColumnRef)) return at;
+                at++;
+            }
+            return -1;
+        }
+    }
+
+    private static final class Insert extends Statement {
+        String table;
+        final List<String> columns = new ArrayList<>();
+        final List<List<Expr>> rows = new ArrayList<>();
+        final List<String> updateColumns = new ArrayList<>();
+        final List<Expr> updateValues = new ArrayList<>();
+        boolean ignore;
+        boolean replace;
+
+        @Override
+        Result Run(Exec exec) throws SQLException {
+            return exec.session.Run(true, session -> {
+                EmbeddedStore store = session.Store();
+                Table target = ResolveTable(session, this.table);
+                int[] positions = new int[this.columns.isEmpty() ? target.columns.length : this.columns.size()];
+                for(int i = 0; i < positions.length; i++) {
+                    positions[i] = this.columns.isEmpty() ? i : target.Position(this.columns.get(i));
+                    if(positions[i] < 0) throw new SQLException("Unknown column '" + this.columns.get(i) + "' in 'field list'", "42S22", 1054);
+                }
+
+                Scope values = new Scope(null, null, null, exec);
+                List<Long> generated = new ArrayList<>();
+                int count = 0;
+                long firstGenerated = 0;
+                for(List<Expr> exprs : this.rows) {
+                    if(exprs.size() != positions.length) throw new SQLException("Column count doesn't match value count at row " + (count + 1), "21S01", 1136);
+
+                    Object[] row = new Object[target.Width()];
+                    boolean[] given = new boolean[target.columns.length];
+                    for(int c = 0; c < target.columns.length; c++) row[c] = target.columns[c].defaultValue;
+                    for(int i = 0; i < positions.length; i++) {
+                        Column column = target.columns[positions[i]];
+                        row[positions[i]] = Coerce(exprs.get(i).Eval(values), column.type, column.name);
+                        given[positions[i]] = true;
+                    }
+
+                    Long id = null;
+                    if(target.autoIncrement) {
+                        Object key = row[target.primaryKey];
+                        if(key == null || (key instanceof Number && ((Number) key).longValue() == 0)) {
+                            id = store.NextId(target);
+                            row[target.primaryKey] = Coerce(id, target.columns[target.primaryKey].type, target.columns[target.primaryKey].name);
+                        }
+                    } else if(target.primaryKey < 0) {
+                        row[row.length - 1] = store.NextId(target);
+                    }
+                    for(int c = 0; c < target.columns.length; c++) {
+                        Column column = target.columns[c];
+                        if(row[c] != null || !column.notNull) continue;
+                        if(given[c]) throw new SQLException("Column '" + column.name + "' cannot be null", "23000", 1048);
+                        throw new SQLException("Field '" + column.name + "' doesn't have a default value", "HY000", 1364);
+                    }
+
+                    try {
+                        store.Put(session, target, null, row);
+                        count++;
+                        if(id != null) {
+                            generated.add(id);
+                            if(firstGenerated == 0) firstGenerated = id;
+                        }
+                    } catch(SQLException e) {
+                        if(e.getErrorCode() != 1062) throw e;
+                        if(this.ignore) continue;
+                        if(this.updateColumns.isEmpty() && !this.replace) throw e;
+                        count += this.Resolve(session, target, row, exec);
+                    }
+                }
+                if(firstGenerated != 0) session.lastInsertId = firstGenerated;
+                return new Result(count, generated);
+            });
+        }
+
+        // ON DUPLICATE KEY UPDATE (or REPLACE): applies to the row holding the conflicting key.
+        private int Resolve(Session session, Table target, Object[] row, Exec exec) throws SQLException {
+            Object existingKey = null;
+            Object key = target.KeyOf(row);
+            if(target.rows.containsKey(key)) existingKey = key;
+            for(Index index : target.indexes) {
+                if(existingKey != null) break;
+                if(!index.unique) continue;
+                TreeSet<Object> owners = index.Get(EmbeddedStore.Key(row[index.column]));
+                if(owners != null && !owners.isEmpty()) existingKey = owners.first();
+            }
+            if(existingKey == null) throw new SQLException("Duplicate entry", "23000", 1062);
+            Object[] existing = target.rows.get(existingKey);
+
+            if(this.replace) {
+                session.Store().Delete(session, target, existingKey);
+                session.Store().Put(session, target, null, row);
+                return 2;
+            }
+
+            Object[] updated = existing.clone();
+            Scope scope = new Scope(target, target.name, null, exec);
+            scope.row = updated;
+            scope.inserting = row;
+            for(int i = 0; i < this.updateColumns.size(); i++) {
+                int position = target.Position(this.updateColumns.get(i));
+                if(position < 0) throw new SQLException("Unknown column '" + this.updateColumns.get(i) + "' in 'field list'", "42S22", 1054);
+                Column column = target.columns[position];
+                updated[position] = Coerce(this.updateValues.get(i).Eval(scope), column.type, column.name);
+            }
+            if(Arrays.equals(existing, updated)) return 1;
+            session.Store().Put(session, target, existingKey, updated);
+            return 2;
+        }
+    }
+
+    private static final class Update extends Statement {
+        String table;
+        String alias;
+        final List<String> columns = new ArrayList<>();
+        final List<Expr> values = new ArrayList<>();
+        Expr where;
+        final List<Order> orderBy = new ArrayList<>();
+        Expr limit;
+
+        @Override
+        Result Run(Exec exec) throws SQLException {
+            return exec.session.Run(true, session -> {
+                Table target = ResolveTable(session, this.table);
+                int[] positions = new int[this.columns.size()];
+                for(int i = 0; i < positions.length; i++) {
+                    positions[i] = target.Position(this.columns.get(i));
+                    if(positions[i] < 0) throw new SQLException("Unknown column '" + this.columns.get(i) + "' in 'field list'", "42S22", 1054);
+                }
+
+                Scope scope = new Scope(target, this.alias, null, exec);
+                List<Object[]> matched = Matching(target, this.alias, this.where, this.orderBy, this.limit, scope);
+                int count = 0;
+                for(Object[] row : matched) {
+                    Object[] updated = row.clone();
+                    scope.row = updated;
+                    // assignments see the values assigned before them, as in MySQL
+                    for(int i = 0; i < positions.length; i++) {
+                        Column column = target.columns[positions[i]];
+                        Object value = Coerce(this.values.get(i).Eval(scope), column.type, column.name);
+                        if(value == null && column.notNull) throw new SQLException("Column '" + column.name + "' cannot be null", "23000", 1048);
+                        updated[positions[i]] = value;
+                    }
+                    count++;
+                    if(!Arrays.equals(row, updated)) session.Store().Put(session, target, target.KeyOf(row), updated);
+                }
+                return new Result(count, Collections.emptyList());
+            });
+        }
+    }
+
+    private static final class Delete extends Statement {
+        String table;
+        String alias;
+        Expr where;
+        final List<Order> orderBy = new ArrayList<>();
+        Expr limit;
+
+        @Override
+        Result Run(Exec exec) throws SQLException {
+            return exec.session.Run(true, session -> {
+                Table target = ResolveTable(session, this.table);
+                Scope scope = new Scope(target, this.alias, null, exec);
+                List<Object[]> matched = Matching(target, this.alias, this.where, this.orderBy, this.limit, scope);
+                for(Object[] row : matched) session.Store().Delete(session, target, target.KeyOf(row));
+                return new Result(matched.size(), Collections.emptyList());
+            });
+        }
+    }
+
+    private static final class CreateTable extends Statement {
+        final TableDefinition definition;
+        final boolean ifNotExists;
+        final String sql;
+
+        CreateTable(TableDefinition definition, boolean ifNotExists, String sql) {
+            this.definition = definition;
+            this.ifNotExists = ifNotExists;
+            this.sql = sql;
+        }
+
+        @Override
+        Result Run(Exec exec) throws SQLException {
+            if(!exec.session.Store().CreateTable(exec.session, this.definition, this.sql) && !this.ifNotExists) {
+                throw new SQLException("Table '" + this.definition.name + "' already exists", "42S01", 1050);
+            }
+            return new Result(0, Collections.emptyList());
+        }
+    }
+
+    // START TRANSACTION / BEGIN / COMMIT / ROLLBACK / SET (ignored)
+    private static final class Control extends Statement {
+        final String action;
+
+        Control(String action) { this.action = action; }
+
+        @Override
+        Result Run(Exec exec) throws SQLException {
+            switch(this.action) {
+                case "BEGIN": exec.session.SetAutoCommit(false); break;
+                case "COMMIT": exec.session.Commit(); break;
+                case "ROLLBACK": exec.session.Rollback(); break;
+                default: break;
+            }
+            return new Result(0, Collections.emptyList());
+        }
+    }
+
+    private static Table ResolveTable(Session session, String name) throws SQLException {
+        Table table = session.Store().GetTable(name);
+        if(table == null) throw new SQLException("Table 'library." + name + "' doesn't exist", "42S02", 1146);
+        return table;
+    }
+
+    // Rows an UPDATE or DELETE applies to, collected before anything is changed.
+    private static List<Object[]> Matching(Table table, String alias, Expr where, List<Order> orderBy, Expr limit, Scope scope) throws SQLException {
+        List<Object[]> matched = new ArrayList<>();
+        for(Object[] row : Candidates(table, alias, where, scope)) {
+            scope.row = row;
+            if(where == null || Boolean.TRUE.equals(Truth(where.Eval(scope)))) matched.add(row);
+        }
+        if(!orderBy.isEmpty()) {
+            List<Object[]> keys = new ArrayList<>(matched.size());
+            for(Object[] row : matched) {
+                scope.row = row;
+                Object[] key = new Object[orderBy.size()];
+                for(int i = 0; i < key.length; i++) key[i] = orderBy.get(i).expr.Eval(scope);
+                keys.add(key);
+            }
+            Integer[] order = new Integer[matched.size()];
+            for(int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> {
+                for(int k = 0; k < orderBy.size(); k++) {
+                    int c = SORT_ORDER.compare(keys.get(a)[k], keys.get(b)[k]);
+                    if(c != 0) return orderBy.get(k).descending ? -c : c;
+                }
+                return 0;
+            });
+            List<Object[]> sorted = new ArrayList<>(matched.size());
+            for(int i : order) sorted.add(matched.get(i));
+            matched = sorted;
+        }
+        if(limit != null) {
+            long n = ((Number) ToNumber(limit.Eval(scope))).longValue();
+            if(n < matched.size()) matched = new ArrayList<>(matched.subList(0, (int) n));
+        }
+        return matched;
+    }
+
+    // ===== access paths =====
+
+    /**
+     * Picks the rows worth checking against the WHERE condition: the rows found through the
+     * primary key or an index when a top-level AND term allows it, otherwise the whole table.
+     * The caller still evaluates the full condition on every row returned.
+     */
+    private static Iterable<Object[]> Candidates(Table table, String alias, Expr where, Scope scope) throws SQLException {
+        if(where == null) return table.rows.values();
+
+        List<Expr> terms = new ArrayList<>();
+        Conjuncts(where, terms);
+        // constants (and columns of enclosing queries) are evaluated outside the table's row
+        Scope outside = new Scope(null, null, scope.outer, scope.exec);
+        TreeSet<Object> best = null;
+        for(Expr term : terms) {
+            TreeSet<Object> keys = Lookup(table, alias, term, outside);
+            if(keys != null && (best == null || keys.size() < best.size())) best = keys;
+            if(best != null && best.size() <= 1) break;
+        }
+        if(best == null) return table.rows.values();
+
+        List<Object[]> rows = new ArrayList<>(best.size());
+        for(Object key : best) {
+            Object[] row = table.rows.get(key);
+            if(row != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    private static void Conjuncts(Expr expr, List<Expr> terms) {
+        if(expr instanceof Binary && ((Binary) expr).operator.equals("AND")) {
+            Conjuncts(((Binary) expr).left, terms);
+            Conjuncts(((Binary) expr).right, terms);
+        } else {
+            terms.add(expr);
+        }
+    }
+
+    // The primary keys of the rows a term can match, or null if no index helps.
+    private static TreeSet<Object> Lookup(Table table, String alias, Expr term, Scope outside) throws SQLException {
+        int column = -1;
+        List<Expr> values = null;
+        Expr pattern = null;
+        if(term instanceof Binary) {
+            Binary binary = (Binary) term;
+            if(binary.operator.equals("=") || binary.operator.equals("<=>")) {
+                if(binary.left instanceof ColumnRef && !binary.right.DependsOn(alias, table.name)) {
+                    column = ColumnOf(table, alias, (ColumnRef) binary.left);
+                    values = Collections.singletonList(binary.right);
+                } else if(binary.right instanceof ColumnRef && !binary.left.DependsOn(alias, table.name)) {
+                    column = ColumnOf(table, alias, (ColumnRef) binary.right);
+                    values = Collections.singletonList(binary.left);
+                }
+            } else if(binary.operator.equals("LIKE") && binary.escape == null && binary.left instanceof ColumnRef && !binary.right.DependsOn(alias, table.name)) {
+                column = ColumnOf(table, alias, (ColumnRef) binary.left);
+                pattern = binary.right;
+            }
+        } else if(term instanceof InList) {
+            InList in = (InList) term;
+            if(!in.not && in.value instanceof ColumnRef && !in.DependsOnItems(alias, table.name)) {
+                column = ColumnOf(table, alias, (ColumnRef) in.value);
+                values = in.items;
+            }
+        }
+        if(column < 0) return null;
+
+        Index index = column == table.primaryKey ? null : table.IndexOn(column);
+        if(column != table.primaryKey && index == null) return null;
+        Column definition = table.columns[column];
+
+        TreeSet<Object> keys = new TreeSet<>(EmbeddedStore.KEY_ORDER);
+        if(pattern != null) {
+            if(index == null || definition.type != Type.TEXT) return null;
+            String source = ToText(pattern.Eval(outside));
+            if(source == null) return keys;
+            String prefix = new LikePattern(source, '\\').Prefix();
+            if(prefix.isEmpty()) return null;
+            for(TreeSet<Object> owners : EmbeddedStore.Range(index, prefix, prefix + Character.MAX_VALUE).values()) keys.addAll(owners);
+            return keys;
+        }
+
+        for(Expr valueExpr : values) {
+            Object value = valueExpr.Eval(outside);
+            if(value == null) continue;
+            Object key;
+            try {
+                // compare as the column would: '5' finds id 5, 'ABC' finds 'abc'
+                key = EmbeddedStore.Key(Coerce(value, definition.type, definition.name));
+            } catch(SQLException e) {
+                return null;
+            }
+            if(definition.type == Type.TEXT && !(value instanceof String)) return null;
+            if(index == null) {
+                if(table.rows.containsKey(key)) keys.add(key);
+            } else {
+                TreeSet<Object> owners = index.Get(key);
+                if(owners != null) keys.addAll(owners);
+            }
+        }
+        return keys;
+    }
+
+    private static int ColumnOf(Table table, String alias, ColumnRef reference) {
+        if(reference.qualifier != null && !reference.qualifier.equalsIgnoreCase(alias) && !reference.qualifier.equalsIgnoreCase(table.name)) return -1;
+        return reference.Position(table);
+    }
+
+    // ===== parsing =====
+
+    private static final int WORD = 0;
+    private static final int QUOTED = 1;
+    private static final int STRING = 2;
+    private static final int NUMBER = 3;
+    private static final int PARAM = 4;
+    private static final int SYMBOL = 5;
+    private static final int END = 6;
+
+    private static final class Token {
+        final int kind;
+        final String text;
+        final int start;
+        final int end;
+
+        Token(int kind, String text, int start, int end) {
+            this.kind = kind;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean Is(String word) { return this.kind == WORD && this.text.equalsIgnoreCase(word); }
+        boolean IsSymbol(String symbol) { return this.kind == SYMBOL && this.text.equals(symbol); }
+    }
+
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+        "SELECT", "FROM", "WHERE", "GROUP", "HAVING", "ORDER", "LIMIT", "OFFSET", "FOR", "AND", "OR", "NOT", "XOR",
+        "ON", "JOIN", "INNER", "LEFT", "RIGHT", "CROSS", "UNION", "AS", "SET", "VALUES", "INTO", "IS", "IN", "LIKE",
+        "BETWEEN", "BY", "ASC", "DESC", "CASE", "WHEN", "THEN", "ELSE", "END", "LOCK", "DIV", "MOD", "ESCAPE", "USING",
+        "STRAIGHT_JOIN", "NATURAL", "SEPARATOR"));
+
+    private static final class Parser {
+        private final String sql;
+        private final List<Token> tokens = new ArrayList<>();
+        private int at;
+        private int parameters;
+        private final List<List<ColumnRef>> references = new ArrayList<>();
+
+        Parser(String sql) throws SQLException {
+            this.sql = sql;
+            Tokenize();
+        }
+
+        private SQLException Error(String message) {
+            Token token = Peek();
+            String near = token.kind == END ? "end of statement" : "'" + this.sql.substring(token.start, Math.min(this.sql.length(), token.start + 40)) + "'";
+            return new SQLException(message + " near " + near, "42000", 1064);
+        }
+
+        private static SQLException Unsupported(String what) {
+            return new SQLFeatureNotSupportedException(what + " is not supported by the embedded database", "0A000");
+        }
+
+        private void Tokenize() throws SQLException {
+            int i = 0, n = this.sql.length();
+            while(i < n) {
+                char c = this.sql.charAt(i);
+                if(Character.isWhitespace(c)) { i++; continue; }
+                if(c == '#' || (c == '-' && i + 2 <= n && this.sql.startsWith("--", i) && (i + 2 == n || Character.isWhitespace(this.sql.charAt(i + 2))))) {
+                    while(i < n && this.sql.charAt(i) != '\n') i++;
+                    continue;
+                }
+                if(c == '/' && this.sql.startsWith("/*", i)) {
+                    int close = this.sql.indexOf("*/", i + 2);
+                    i = close < 0 ? n : close + 2;
+                    continue;
+                }
+                int start = i;
+                if(Character.isLetter(c) || c == '_' || c == '$') {
+                    while(i < n && (Character.isLetterOrDigit(this.sql.charAt(i)) || this.sql.charAt(i) == '_' || this.sql.charAt(i) == '$')) i++;
+                    this.tokens.add(new Token(WORD, this.sql.substring(start, i), start, i));
+                } else if(Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(this.sql.charAt(i + 1)))) {
+                    while(i < n && (Character.isDigit(this.sql.charAt(i)) || this.sql.charAt(i) == '.')) i++;
+                    if(i < n && (this.sql.charAt(i) == 'e' || this.sql.charAt(i) == 'E')) {
+                        int exponent = i + 1;
+                        if(exponent < n && (this.sql.charAt(exponent) == '+' || this.sql.charAt(exponent) == '-')) exponent++;
+                        if(exponent < n && Character.isDigit(this.sql.charAt(exponent))) {
+                            i = exponent;
+                            while(i < n && Character.isDigit(this.sql.charAt(i))) i++;
+                        }
+                    }
+                    this.tokens.add(new Token(NUMBER, this.sql.substring(start, i), start, i));
+                } else if(c == '\'' || c == '"') {
+                    StringBuilder text = new StringBuilder();
+                    i++;
+                    while(true) {
+                        if(i >= n) throw new SQLException("Unterminated string in SQL", "42000", 1064);
+                        char d = this.sql.charAt(i);
+                        if(d == c) {
+                            if(i + 1 < n && this.sql.charAt(i + 1) == c) { text.append(c); i += 2; continue; }
+                            i++;
+                            break;
+                        }
+                        if(d == '\\' && i + 1 < n) {
+                            char e = this.sql.charAt(i + 1);
+                            switch(e) {
+                                case 'n': text.append('\n'); break;
+                                case 't': text.append('\t'); break;
+                                case 'r': text.append('\r'); break;
+                                case '0': text.append('\0'); break;
+                                case '%': case '_': text.append('\\').append(e); break;  // kept for LIKE
+                                default: text.append(e); break;
+                            }
+                            i += 2;
+                            continue;
+                        }
+                        text.append(d);
+                        i++;
+                    }
+                    this.tokens.add(new Token(STRING, text.toString(), start, i));
+                } else if(c == '`') {
+                    int close = this.sql.indexOf('`', i + 1);
+                    if(close < 0) throw new SQLException("Unterminated identifier in SQL", "42000", 1064);
+                    this.tokens.add(new Token(QUOTED, this.sql.substring(i + 1, close), start, close + 1));
+                    i = close + 1;
+                } else if(c == '?') {
+                    this.tokens.add(new Token(PARAM, "?", start, ++i));
+                } else {
+                    String symbol = null;
+                    for(String candidate : new String[] { "<=>", "<=", ">=", "<>", "!=", "||", "&&" }) {
+                        if(this.sql.startsWith(candidate, i)) { symbol = candidate; break; }
+                    }
+                    if(symbol == null) {
+                        if("(),.*+-/=<>;%!".indexOf(c) < 0) throw new SQLException("Unexpected character '" + c + "' in SQL", "42000", 1064);
+                        symbol = String.valueOf(c);
+                    }
+                    i += symbol.length();
+                    this.tokens.add(new Token(SYMBOL, symbol, start, i));
+                }
+            }
+            this.tokens.add(new Token(END, "", n, n));
+        }
+
+        private Token Peek() { return this.tokens.get(this.at); }
+        private Token Peek(int ahead) { return this.tokens.get(Math.min(this.tokens.size() - 1, this.at + ahead)); }
+        private Token Next() { return this.tokens.get(this.at++); }
+
+        private boolean Accept(String word) {
+            if(!Peek().Is(word)) return false;
+            this.at++;
+            return true;
+        }
+
+        private boolean AcceptSymbol(String symbol) {
+            if(!Peek().IsSymbol(symbol)) return false;
+            this.at++;
+            return true;
+        }
+
+        private void Expect(String word) throws SQLException {
+            if(!Accept(word)) throw Error("Expected " + word);
+        }
+
+        private void ExpectSymbol(String symbol) throws SQLException {
+            if(!AcceptSymbol(symbol)) throw Error("Expected '" + symbol + "'");
+        }
+
+        private String Identifier() throws SQLException {
+            Token token = Peek();
+            if(token.kind == QUOTED || (token.kind == WORD && !RESERVED.contains(token.text.toUpperCase(Locale.ROOT)))) {
+                this.at++;
+                return token.text;
+            }
+            throw Error("Expected a name");
+        }
+
+        private boolean AtIdentifier() {
+            Token token = Peek();
+            return token.kind == QUOTED || (token.kind == WORD && !RESERVED.contains(token.text.toUpperCase(Locale.ROOT)));
+        }
+
+        // a table name, possibly qualified with a schema (which is ignored)
+        private String TableName() throws SQLException {
+            String name = Identifier();
+            if(AcceptSymbol(".")) name = Identifier();
+            return name;
+        }
+
+        Statement ParseStatement() throws SQLException {
+            Statement statement;
+            Token first = Peek();
+            if(first.Is("SELECT")) statement = ParseSelect();
+            else if(first.Is("INSERT") || first.Is("REPLACE")) statement = ParseInsert();
+            else if(first.Is("UPDATE")) statement = ParseUpdate();
+            else if(first.Is("DELETE")) statement = ParseDelete();
+            else if(first.Is("CREATE")) statement = ParseCreate();
+            else if(first.Is("START") || first.Is("BEGIN")) { this.at = this.tokens.size() - 1; statement = new Control("BEGIN"); }
+            else if(first.Is("COMMIT")) { this.at = this.tokens.size() - 1; statement = new Control("COMMIT"); }
+            else if(first.Is("ROLLBACK")) { this.at = this.tokens.size() - 1; statement = new Control("ROLLBACK"); }
+            else if(first.Is("SET")) { this.at = this.tokens.size() - 1; statement = new Control("SET"); }
+            else if(first.kind == END) throw new SQLException("Query was empty", "42000", 1065);
+            else throw Unsupported(first.text.toUpperCase(Locale.ROOT) + " statement");
+
+            AcceptSymbol(";");
+            if(Peek().kind != END) throw Error("Unexpected text");
+            statement.parameters = this.parameters;
+            return statement;
+        }
+
+        private Select ParseSelect() throws SQLException {
+            Expect("SELECT");
+            Select select = new Select();
+            this.references.add(select.references);
+            if(Accept("DISTINCT")) select.distinct = true;
+            else Accept("ALL");
+
+            do {
+                select.items.add(ParseItem());
+            } while(AcceptSymbol(","));
+
+            if(Accept("FROM")) {
+                select.table = TableName();
+                if(Accept("AS")) select.alias = Identifier();
+                else if(AtIdentifier()) select.alias = Identifier();
+                Token next = Peek();
+                if(next.IsSymbol(",") || next.Is("JOIN") || next.Is("INNER") || next.Is("LEFT") || next.Is("RIGHT") || next.Is("CROSS") || next.Is("STRAIGHT_JOIN") || next.Is("NATURAL")) {
+                    throw Unsupported("JOIN");
+                }
+            }
+            if(Accept("WHERE")) select.where = ParseExpr();
+            if(Accept("GROUP")) {
+                Expect("BY");
+                do {
+                    select.groupBy.add(ParseExpr());
+                    if(!Accept("ASC")) Accept("DESC");
+                } while(AcceptSymbol(","));
+            }
+            if(Accept("HAVING")) select.having = ParseExpr();
+            ParseOrderBy(select.orderBy);
+            if(Accept("LIMIT")) {
+                Expr first = ParsePrimary();
+                if(AcceptSymbol(",")) {
+                    select.offset = first;
+                    select.limit = ParsePrimary();
+                } else {
+                    select.limit = first;
+                    if(Accept("OFFSET")) select.offset = ParsePrimary();
+                }
+            }
+            if(Accept("FOR")) {
+                if(Accept("UPDATE")) select.forUpdate = true;
+                else { Expect("SHARE"); }
+            } else if(Accept("LOCK")) {
+                Expect("IN"); Expect("SHARE"); Expect("MODE");
+            }
+            if(Peek().Is("UNION")) throw Unsupported("UNION");
+
+            for(Item item : select.items) if(item.expr != null && item.expr.HasAggregate()) select.aggregate = true;
+            if(select.having != null && select.having.HasAggregate()) select.aggregate = true;
+            for(Order order : select.orderBy) if(order.expr.HasAggregate()) select.aggregate = true;
+
+            this.references.remove(this.references.size() - 1);
+            // correlated: reads a table qualifier that is not its own
+            for(ColumnRef reference : select.references) {
+                if(reference.qualifier != null && !select.Owns(reference.qualifier)) select.correlated = true;
+            }
+            // the enclosing query sees these references too (for its own correlation check)
+            if(!this.references.isEmpty()) this.references.get(this.references.size() - 1).addAll(select.references);
+            return select;
+        }
+
+        private void ParseOrderBy(List<Order> orderBy) throws SQLException {
+            if(!Accept("ORDER")) return;
+            Expect("BY");
+            do {
+                Expr expr = ParseExpr();
+                boolean descending = Accept("DESC");
+                if(!descending) Accept("ASC");
+                orderBy.add(new Order(expr, descending));
+            } while(AcceptSymbol(","));
+        }
+
+        private Item ParseItem() throws SQLException {
+            if(AcceptSymbol("*")) return new Item(null, null, "*", "*");
+            if(AtIdentifier() && Peek(1).IsSymbol(".") && Peek(2).IsSymbol("*")) {
+                String qualifier = Identifier();
+                this.at += 2;
+                return new Item(null, qualifier, "*", "*");
+            }
+
+            int start = Peek().start;
+            Expr expr = ParseExpr();
+            int end = this.tokens.get(this.at - 1).end;
+            String label;
+            if(Accept("AS")) {
+                label = Peek().kind == STRING ? Next().text : Identifier();
+            } else if(AtIdentifier()) {
+                label = Identifier();
+            } else if(Peek().kind == STRING) {
+                label = Next().text;
+            } else if(expr instanceof ColumnRef) {
+                label = ((ColumnRef) expr).name;
+            } else {
+                label = this.sql.substring(start, end);
+            }
+            String name = expr instanceof ColumnRef ? ((ColumnRef) expr).name : label;
+            return new Item(expr, null, label, name);
+        }
+
+        private Insert ParseInsert() throws SQLException {
+            Insert insert = new Insert();
+            if(Accept("REPLACE")) insert.replace = true;
+            else Expect("INSERT");
+            while(Accept("LOW_PRIORITY") || Accept("DELAYED") || Accept("HIGH_PRIORITY")) {}
+            if(Accept("IGNORE")) insert.ignore = true;
+            Accept("INTO");
+            insert.table = TableName();
+
+            if(AcceptSymbol("(")) {
+                do {
+                    insert.columns.add(Identifier());
+                } while(AcceptSymbol(","));
+                ExpectSymbol(")");
+            }
+            if(Peek().Is("SELECT")) throw Unsupported("INSERT ... SELECT");
+            if(Accept("SET")) {
+                List<Expr> row = new ArrayList<>();
+                do {
+                    insert.columns.add(Identifier());
+                    ExpectSymbol("=");
+                    row.add(ParseExpr());
+                } while(AcceptSymbol(","));
+                insert.rows.add(row);
+            } else {
+                if(!Accept("VALUES")) Expect("VALUE");
+                do {
+                    ExpectSymbol("(");
+                    List<Expr> row = new ArrayList<>();
+                    if(!Peek().IsSymbol(")")) {
+                        do {
+                            row.add(Accept("DEFAULT") ? new Literal(null) : ParseExpr());
+                        } while(AcceptSymbol(","));
+                    }
+                    ExpectSymbol(")");
+                    insert.rows.add(row);
+                } while(AcceptSymbol(","));
+            }
+            if(Accept("ON")) {
+                Expect("DUPLICATE"); Expect("KEY"); Expect("UPDATE");
+                do {
+                    String column = Identifier();
+                    if(AcceptSymbol(".")) column = Identifier();
+                    ExpectSymbol("=");
+                    insert.updateColumns.add(column);
+                    insert.updateValues.add(ParseExpr());
+                } while(AcceptSymbol(","));
+            }
+            return insert;
+        }
+
+        private Update ParseUpdate() throws SQLException {
+            Expect("UPDATE");
+            Accept("LOW_PRIORITY");
+            Accept("IGNORE");
+            Update update = new Update();
+            update.table = TableName();
+            if(Accept("AS")) update.alias = Identifier();
+            else if(AtIdentifier()) update.alias = Identifier();
+            if(Peek().IsSymbol(",") || Peek().Is("JOIN") || Peek().Is("INNER") || Peek().Is("LEFT")) throw Unsupported("Multi-table UPDATE");
+            Expect("SET");
+            do {
+                String column = Identifier();
+                if(AcceptSymbol(".")) column = Identifier();
+                ExpectSymbol("=");
+                update.columns.add(column);
+                update.values.add(ParseExpr());
+            } while(AcceptSymbol(","));
+            if(Accept("WHERE")) update.where = ParseExpr();
+            ParseOrderBy(update.orderBy);
+            if(Accept("LIMIT")) update.limit = ParsePrimary();
+            return update;
+        }
+
+        private Delete ParseDelete() throws SQLException {
+            Expect("DELETE");
+            while(Accept("LOW_PRIORITY") || Accept("QUICK") || Accept("IGNORE")) {}
+            Expect("FROM");
+            Delete delete = new Delete();
+            delete.table = TableName();
+            if(Accept("AS")) delete.alias = Identifier();
+            else if(AtIdentifier()) delete.alias = Identifier();
+            if(Peek().IsSymbol(",") || Peek().Is("USING") || Peek().Is("JOIN")) throw Unsupported("Multi-table DELETE");
+            if(Accept("WHERE")) delete.where = ParseExpr();
+            ParseOrderBy(delete.orderBy);
+            if(Accept("LIMIT")) delete.limit = ParsePrimary();
+            return delete;
+        }
+
+        private CreateTable ParseCreate() throws SQLException {
+            Expect("CREATE");
+            Accept("TEMPORARY");
+            if(!Accept("TABLE")) throw Unsupported("CREATE " + Peek().text.toUpperCase(Locale.ROOT));
+            boolean ifNotExists = false;
+            if(Accept("IF")) {
+                Expect("NOT");
+                Expect("EXISTS");
+                ifNotExists = true;
+            }
+            TableDefinition definition = new TableDefinition(TableName());
+            ExpectSymbol("(");
+            do {
+                ParseTableElement(definition);
+            } while(AcceptSymbol(","));
+            ExpectSymbol(")");
+            // table options (ENGINE=..., CHARSET=...) do not matter here
+            while(Peek().kind != END && !Peek().IsSymbol(";")) Next();
+            if(definition.columns.isEmpty()) throw Error("A table must have at least 1 column");
+            return new CreateTable(definition, ifNotExists, this.sql);
+        }
+
+        private void ParseTableElement(TableDefinition definition) throws SQLException {
+            if(Accept("CONSTRAINT")) {
+                if(AtIdentifier()) Identifier();
+            }
+            if(Accept("PRIMARY")) {
+                Expect("KEY");
+                definition.primaryKey = KeyColumns().get(0);
+                return;
+            }
+            if(Peek().Is("UNIQUE") || Peek().Is("KEY") || Peek().Is("INDEX") || Peek().Is("FULLTEXT")) {
+                boolean unique = Accept("UNIQUE");
+                Accept("FULLTEXT");
+                if(!Accept("KEY")) Accept("INDEX");
+                String name = AtIdentifier() ? Identifier() : null;
+                // only the first column of a composite index is indexed here
+                String column = KeyColumns().get(0);
+                definition.indexes.add(new String[] { name == null ? column : name, column, unique ? "unique" : null });
+                return;
+            }
+            if(Accept("FOREIGN") || Accept("CHECK")) {
+                // not enforced: skip to the end of the element
+                int depth = 0;
+                while(Peek().kind != END) {
+                    if(Peek().IsSymbol("(")) depth++;
+                    else if(Peek().IsSymbol(")")) { if(depth == 0) break; depth--; }
+                    else if(Peek().IsSymbol(",") && depth == 0) break;
+                    Next();
+                }
+                return;
+            }
+
+            String name = Identifier();
+            String typeName = Next().text.toUpperCase(Locale.ROOT);
+            List<String> size = new ArrayList<>();
+            if(AcceptSymbol("(")) {
+                do { size.add(Next().text); } while(AcceptSymbol(","));
+                ExpectSymbol(")");
+            }
+            Type type = ColumnType(typeName, size);
+            boolean notNull = false;
+            Object defaultValue = null;
+            boolean unique = false;
+            while(true) {
+                if(Accept("NOT")) { Expect("NULL"); notNull = true; }
+                else if(Accept("NULL")) notNull = false;
+                else if(Accept("UNSIGNED") || Accept("SIGNED") || Accept("ZEROFILL") || Accept("BINARY")) {}
+                else if(Accept("DEFAULT")) defaultValue = ParsePrimary().Eval(new Scope(null, null, null, new Exec(null, new Object[0])));
+                else if(Accept("AUTO_INCREMENT")) definition.autoIncrement = true;
+                else if(Accept("PRIMARY")) { Expect("KEY"); definition.primaryKey = name; }
+                else if(Accept("UNIQUE")) { Accept("KEY"); unique = true; }
+                else if(Accept("KEY")) definition.primaryKey = name;
+                else if(Accept("COLLATE")) Next();
+                else if(Accept("CHARACTER")) { Expect("SET"); Next(); }
+                else if(Accept("CHARSET")) Next();
+                else if(Accept("COMMENT")) Next();
+                else if(Accept("ON")) { Expect("UPDATE"); ParsePrimary(); }
+                else break;
+            }
+            definition.columns.add(new Column(name, type, notNull, defaultValue == null ? null : Coerce(defaultValue, type, name)));
+            if(unique) definition.indexes.add(new String[] { name, name, "unique" });
+        }
+
+        private List<String> KeyColumns() throws SQLException {
+            ExpectSymbol("(");
+            List<String> columns = new ArrayList<>();
+            do {
+                columns.add(Identifier());
+                if(AcceptSymbol("(")) { Next(); ExpectSymbol(")"); }  // prefix length
+                if(!Accept("ASC")) Accept("DESC");
+            } while(AcceptSymbol(","));
+            ExpectSymbol(")");
+            return columns;
+        }
+
+        private static Type ColumnType(String name, List<String> size) {
+            switch(name) {
+                case "TINYINT":
+                    return size.size() == 1 && size.get(0).equals("1") ? Type.BOOLEAN : Type.INT;
+                case "BOOL": case "BOOLEAN": case "BIT":
+                    return Type.BOOLEAN;
+                case "SMALLINT": case "MEDIUMINT": case "INT": case "INTEGER": case "YEAR":
+                    return Type.INT;
+                case "BIGINT": case "SERIAL":
+                    return Type.BIGINT;
+                case "DATETIME": return Type.DATETIME;
+                case "TIMESTAMP": return Type.TIMESTAMP;
+                case "DATE": return Type.DATE;
+                case "FLOAT": case "DOUBLE": case "REAL": return Type.DOUBLE;
+                case "DECIMAL": case "NUMERIC": case "DEC": return Type.DECIMAL;
+                default: return Type.TEXT;
+            }
+        }
+
+        // ===== expressions, lowest precedence first =====
+
+        Expr ParseExpr() throws SQLException {
+            Expr left = ParseXor();
+            while(Accept("OR") || AcceptSymbol("||")) left = new Binary("OR", left, ParseXor(), null);
+            return left;
+        }
+
+        private Expr ParseXor() throws SQLException {
+            Expr left = ParseAnd();
+            while(Accept("XOR")) left = new Binary("XOR", left, ParseAnd(), null);
+            return left;
+        }
+
+        private Expr ParseAnd() throws SQLException {
+            Expr left = ParseNot();
+            while(Accept("AND") || AcceptSymbol("&&")) left = new Binary("AND", left, ParseNot(), null);
+            return left;
+        }
+
+        private Expr ParseNot() throws SQLException {
+            if(Accept("NOT")) return new Unary("NOT", ParseNot());
+            return ParsePredicate();
+        }
+
+        private Expr ParsePredicate() throws SQLException {
+            Expr left = ParseAdditive();
+            while(true) {
+                Token token = Peek();
+                if(token.kind == SYMBOL && (token.text.equals("=") || token.text.equals("<>") || token.text.equals("!=") || token.text.equals("<")
+                    || token.text.equals("<=") || token.text.equals(">") || token.text.equals(">=") || token.text.equals("<=>"))) {
+                    Next();
+                    String operator = token.text.equals("!=") ? "<>" : token.text;
+                    if(Peek().Is("ANY") || Peek().Is("ALL") || Peek().Is("SOME")) throw Unsupported("ANY/ALL subquery");
+                    left = new Binary(operator, left, ParseAdditive(), null);
+                    continue;
+                }
+                if(token.Is("IS")) {
+                    Next();
+                    boolean not = Accept("NOT");
+                    if(Accept("NULL")) left = new IsNull(left, not);
+                    else if(Accept("TRUE")) left = new IsTruth(left, true, not);
+                    else if(Accept("FALSE")) left = new IsTruth(left, false, not);
+                    else throw Error("Expected NULL, TRUE or FALSE");
+                    continue;
+                }
+                boolean not = false;
+                if(token.Is("NOT") && (Peek(1).Is("LIKE") || Peek(1).Is("IN") || Peek(1).Is("BETWEEN") || Peek(1).Is("REGEXP"))) {
+                    Next();
+                    not = true;
+                }
+                if(Accept("LIKE")) {
+                    Expr pattern = ParseAdditive();
+                    Expr escape = Accept("ESCAPE") ? ParsePrimary() : null;
+                    Expr like = new Binary("LIKE", left, pattern, escape);
+                    left = not ? new Unary("NOT", like) : like;
+                    continue;
+                }
+                if(Accept("BETWEEN")) {
+                    Expr low = ParseAdditive();
+                    Expect("AND");
+                    left = new Between(left, low, ParseAdditive(), not);
+                    continue;
+                }
+                if(Accept("IN")) {
+                    ExpectSymbol("(");
+                    if(Peek().Is("SELECT")) {
+                        Select query = ParseSelect();
+                        ExpectSymbol(")");
+                        left = new InSubquery(left, query, not);
+                    } else {
+                        List<Expr> items = new ArrayList<>();
+                        do {
+                            items.add(ParseExpr());
+                        } while(AcceptSymbol(","));
+                        ExpectSymbol(")");
+                        left = new InList(left, items, not);
+                    }
+                    continue;
+                }
+                if(Peek().Is("REGEXP") || Peek().Is("RLIKE")) throw Unsupported("REGEXP");
+                if(not) throw Error("Expected LIKE, IN or BETWEEN");
+                return left;
+            }
+        }
+
+        private Expr ParseAdditive() throws SQLException {
+            Expr left = ParseMultiplicative();
+            while(true) {
+                if(AcceptSymbol("+")) left = new Binary("+", left, ParseMultiplicative(), null);
+                else if(AcceptSymbol("-")) left = new Binary("-", left, ParseMultiplicative(), null);
+                else return left;
+            }
+        }
+
+        private Expr ParseMultiplicative() throws SQLException {
+            Expr left = ParseUnary();
+            while(true) {
+                if(AcceptSymbol("*")) left = new Binary("*", left, ParseUnary(), null);
+                else if(AcceptSymbol("/")) left = new Binary("/", left, ParseUnary(), null);
+                else if(AcceptSymbol("%") || Accept("MOD")) left = new Binary("%", left, ParseUnary(), null);
+                else if(Accept("DIV")) left = new Binary("DIV", left, ParseUnary(), null);
+                else return left;
+            }
+        }
+
+        private Expr ParseUnary() throws SQLException {
+            if(AcceptSymbol("-")) return new Unary("-", ParseUnary());
+            if(AcceptSymbol("+")) return ParseUnary();
+            if(AcceptSymbol("!")) return new Unary("NOT", ParseUnary());
+            if(Accept("BINARY")) return ParseUnary();
+            return ParsePrimary();
+        }
+
+        private Expr ParsePrimary() throws SQLException {
+            Token token = Next();
+            switch(token.kind) {
+                case PARAM:
+                    return new Param(this.parameters++);
+                case STRING:
+                    return new Literal(token.text);
+                case NUMBER: {
+                    String text = token.text;
+                    if(text.contains(".") || text.contains("e") || text.contains("E")) return new Literal(new BigDecimal(text));
+                    try {
+                        return new Literal(Long.parseLong(text));
+                    } catch(NumberFormatException e) {
+                        return new Literal(new BigDecimal(text));
+                    }
+                }
+                case SYMBOL:
+                    if(token.text.equals("(")) {
+                        if(Peek().Is("SELECT")) {
+                            Select query = ParseSelect();
+                            ExpectSymbol(")");
+                            return new ScalarSubquery(query);
+                        }
+                        Expr first = ParseExpr();
+                        if(AcceptSymbol(",")) {
+                            List<Expr> items = new ArrayList<>();
+                            items.add(first);
+                            do {
+                                items.add(ParseExpr());
+                            } while(AcceptSymbol(","));
+                            ExpectSymbol(")");
+                            return new Tuple(items);
+                        }
+                        ExpectSymbol(")");
+                        return first;
+                    }
+                    this.at--;
+                    throw Error("Unexpected symbol");
+                case QUOTED:
+                    return ColumnAfter(token.text);
+                case WORD:
+                    break;
+                default:
+                    this.at--;
+                    throw Error("Unexpected end of statement");
+            }
+
+            String word = token.text.toUpperCase(Locale.ROOT);
+            switch(word) {
+                case "NULL": return new Literal(null);
+                case "TRUE": return new Literal(1L);
+                case "FALSE": return new Literal(0L);
+                case "CASE": return ParseCase();
+                case "EXISTS": {
+                    ExpectSymbol("(");
+                    Select query = ParseSelect();
+                    ExpectSymbol(")");
+                    return new Exists(query, false);
+                }
+                case "CAST": case "CONVERT": {
+                    ExpectSymbol("(");
+                    Expr value = ParseExpr();
+                    if(!Accept("AS")) ExpectSymbol(",");
+                    String type = Next().text.toUpperCase(Locale.ROOT);
+                    if(AcceptSymbol("(")) { do { Next(); } while(AcceptSymbol(",")); ExpectSymbol(")"); }
+                    if(Accept("CHARACTER")) { Expect("SET"); Next(); }
+                    ExpectSymbol(")");
+                    return new Cast(value, type);
+                }
+                case "INTERVAL": throw Unsupported("INTERVAL");
+                case "CURRENT_DATE": case "CURRENT_TIMESTAMP": case "LOCALTIME": case "LOCALTIMESTAMP":
+                    if(AcceptSymbol("(")) ExpectSymbol(")");
+                    return new Function(word, new ArrayList<>());
+                default:
+                    break;
+            }
+
+            boolean callable = !RESERVED.contains(word) || word.equals("VALUES") || word.equals("LEFT") || word.equals("RIGHT") || word.equals("MOD");
+            if(Peek().IsSymbol("(") && callable) {
+                Next();
+                return ParseCall(word);
+            }
+            if(RESERVED.contains(word)) {
+                this.at--;
+                throw Error("Unexpected keyword");
+            }
+            return ColumnAfter(token.text);
+        }
+
+        // a column name, possibly qualified: name or qualifier.name (the first part was just read)
+        private Expr ColumnAfter(String first) throws SQLException {
+            ColumnRef reference;
+            if(AcceptSymbol(".")) {
+                String second = Identifier();
+                if(AcceptSymbol(".")) reference = new ColumnRef(second, Identifier());  // schema.table.column
+                else reference = new ColumnRef(first, second);
+            } else {
+                reference = new ColumnRef(null, first);
+            }
+            if(!this.references.isEmpty()) this.references.get(this.references.size() - 1).add(reference);
+            return reference;
+        }
+
+        private Expr ParseCall(String name) throws SQLException {
+            switch(name) {
+                case "COUNT": case "SUM": case "AVG": case "MIN": case "MAX": case "GROUP_CONCAT": {
+                    boolean distinct = Accept("DISTINCT");
+                    Expr arg = null;
+                    if(name.equals("COUNT") && AcceptSymbol("*")) {
+                        ExpectSymbol(")");
+                        return new Aggregate(name, null, false, null, false, null);
+                    }
+                    arg = ParseExpr();
+                    if(name.equals("GROUP_CONCAT") && Peek().IsSymbol(",")) {
+                        List<Expr> parts = new ArrayList<>();
+                        parts.add(arg);
+                        while(AcceptSymbol(",")) parts.add(ParseExpr());
+                        arg = new Function("CONCAT", parts);
+                    }
+                    Expr orderBy = null;
+                    boolean descending = false;
+                    String separator = ",";
+                    if(name.equals("GROUP_CONCAT")) {
+                        if(Accept("ORDER")) {
+                            Expect("BY");
+                            orderBy = ParseExpr();
+                            descending = Accept("DESC");
+                            if(!descending) Accept("ASC");
+                            if(Peek().IsSymbol(",")) throw Unsupported("GROUP_CONCAT with several ORDER BY expressions");
+                        }
+                        if(Accept("SEPARATOR")) {
+                            Token text = Next();
+                            if(text.kind != STRING) throw Error("Expected a string");
+                            separator = text.text;
+                        }
+                    }
+                    ExpectSymbol(")");
+                    return new Aggregate(name, arg, distinct, orderBy, descending, separator);
+                }
+                case "VALUES": {
+                    String column = Identifier();
+                    ExpectSymbol(")");
+                    return new InsertedValue(column);
+                }
+                default: {
+                    List<Expr> args = new ArrayList<>();
+                    if(!Peek().IsSymbol(")")) {
+                        do {
+                            args.add(ParseExpr());
+                        } while(AcceptSymbol(","));
+                    }
+                    ExpectSymbol(")");
+                    return new Function(name, args);
+                }
+            }
+        }
+
+        private Expr ParseCase() throws SQLException {
+            Expr operand = Peek().Is("WHEN") ? null : ParseExpr();
+            List<Expr> conditions = new ArrayList<>();
+            List<Expr> results = new ArrayList<>();
+            while(Accept("WHEN")) {
+                conditions.add(ParseExpr());
+                Expect("THEN");
+                results.add(ParseExpr());
+            }
+            if(conditions.isEmpty()) throw Error("Expected WHEN");
+            Expr otherwise = Accept("ELSE") ? ParseExpr() : null;
+            Expect("END");
+            return new Case(operand, conditions, results, otherwise);
+        }
+    }
+}
@@ -0,0 +1,832 @@
+package config;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded storage engine used instead of a MySQL server on standalone branches
+ * (library.db.url=jdbc:library:&lt;file&gt;, see {@link EmbeddedDriver}).
+ *
+ * All rows live in memory, in a tree per table ordered by primary key, with a tree per
+ * secondary index (value to primary keys). String keys are case-folded like MySQL's default
+ * collation. Every committed transaction is appended to the file as one record of row images
+ * ([length][CRC32][kind][payload]) through a memory-mapped window, so a commit is a memory copy
+ * plus an msync (library.embedded.sync, default true). On open the log is read back; a record
+ * cut short by a crash fails its CRC and is dropped together with everything after it. When the
+ * log has grown to several times the size of the live rows, it is rewritten as a snapshot before
+ * it is mapped (compaction happens at startup, where no mapping is open yet).
+ *
+ * Transactions are serialized: a connection in a transaction holds the store's write lock from
+ * its first statement until it commits or rolls back; statements outside transactions take the
+ * read lock (queries) or the write lock (changes) just for the statement. Changes are applied in
+ * place with an undo log, so rollbacks and savepoints only walk back that log.
+ *
+ * A store named "mem:" (optionally "mem:name") has no file; it is meant for tests and benchmarks.
+ *
+ * @author Darkuz69
+ */
+public final class EmbeddedStore {
+    private static final int MAGIC = 0x4C444231;  // "LDB1"
+    private static final int HEADER_BYTES = 8;
+    private static final int MAP_CHUNK = 8 * 1024 * 1024;
+    private static final byte CREATE = 'T';
+    private static final byte COMMIT = 'C';
+    private static final byte COUNTER = 'N';
+    private static final byte PUT = 'P';
+    private static final byte DELETE = 'D';
+
+    /** The schema of the application's tables, created in an empty store. */
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS books (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), title_key VARCHAR(255),"
+            + " author VARCHAR(255), author_key VARCHAR(255), isbn VARCHAR(32), isbn_key CHAR(13), year_published INT,"
+            + " is_available BOOLEAN NOT NULL DEFAULT 1, UNIQUE KEY uq_books_isbn_key (isbn_key), KEY idx_books_title_key (title_key),"
+            + " KEY idx_books_author_key (author_key))",
+        "CREATE TABLE IF NOT EXISTS book_genres (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, book_id INT NOT NULL, genre VARCHAR(255),"
+            + " KEY idx_book_genres_book_id (book_id))",
+        "CREATE TABLE IF NOT EXISTS borrowers (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, first_name VARCHAR(255), middle_name VARCHAR(255),"
+            + " last_name VARCHAR(255), contact_num VARCHAR(64))",
+        "CREATE TABLE IF NOT EXISTS book_loans (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, book_id INT NOT NULL, borrower_id INT NOT NULL,"
+            + " borrowed_at DATETIME, due_date DATETIME, returned_at DATETIME, KEY idx_book_loans_book_id (book_id),"
+            + " KEY idx_book_loans_borrower_id (borrower_id))"
+    };
+
+    /** Column types, as stored and returned. */
+    enum Type { INT, BIGINT, TEXT, BOOLEAN, DATETIME, TIMESTAMP, DATE, DOUBLE, DECIMAL }
+
+    static final class Column {
+        final String name;
+        final Type type;
+        final boolean notNull;
+        final Object defaultValue;
+
+        Column(String name, Type type, boolean notNull, Object defaultValue) {
+            this.name = name;
+            this.type = type;
+            this.notNull = notNull;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    static final class Index {
+        final String name;
+        final int column;
+        final boolean unique;
+        final TreeMap<Object, TreeSet<Object>> entries = new TreeMap<>(KEY_ORDER);
+
+        Index(String name, int column, boolean unique) {
+            this.name = name;
+            this.column = column;
+            this.unique = unique;
+        }
+
+        /** @return The primary keys of the rows whose indexed value is the given key, or null. */
+        TreeSet<Object> Get(Object key) {
+            return key == null ? null : this.entries.get(key);
+        }
+
+        void Add(Object value, Object pk) {
+            if(value != null) this.entries.computeIfAbsent(value, v -> new TreeSet<>(KEY_ORDER)).add(pk);
+        }
+
+        void Remove(Object value, Object pk) {
+            if(value == null) return;
+            TreeSet<Object> pks = this.entries.get(value);
+            if(pks == null) return;
+            pks.remove(pk);
+            if(pks.isEmpty()) this.entries.remove(value);
+        }
+    }
+
+    static final class Table {
+        final int id;
+        final String name;
+        final String createSql;
+        final Column[] columns;
+        final Map<String, Integer> positions = new HashMap<>();
+        final int primaryKey;  // -1: rows are keyed by a hidden row number
+        final boolean autoIncrement;
+        final List<Index> indexes = new ArrayList<>();
+        final TreeMap<Object, Object[]> rows = new TreeMap<>(KEY_ORDER);
+        long nextId = 1;
+        long bytes;  // approximate size of the live rows in the log
+
+        Table(int id, String name, String createSql, Column[] columns, int primaryKey, boolean autoIncrement) {
+            this.id = id;
+            this.name = name;
+            this.createSql = createSql;
+            this.columns = columns;
+            this.primaryKey = primaryKey;
+            this.autoIncrement = autoIncrement;
+            for(int i = 0; i < columns.length; i++) this.positions.put(columns[i].name.toLowerCase(Locale.ROOT), i);
+        }
+
+        /** @return The position of the column, or -1. */
+        int Position(String column) {
+            Integer position = this.positions.get(column.toLowerCase(Locale.ROOT));
+            return position == null ? -1 : position;
+        }
+
+        /** @return The index on the column (the primary key is not one), or null. */
+        Index IndexOn(int column) {
+            for(Index index : this.indexes) if(index.column == column) return index;
+            return null;
+        }
+
+        Object KeyOf(Object[] row) {
+            return this.primaryKey < 0 ? row[row.length - 1] : Key(row[this.primaryKey]);
+        }
+
+        /** @return The number of stored values per row (one more than the columns without a primary key). */
+        int Width() {
+            return this.primaryKey < 0 ? this.columns.length + 1 : this.columns.length;
+        }
+    }
+
+    /** A table definition parsed from CREATE TABLE, before it gets an id. */
+    static final class TableDefinition {
+        final String name;
+        final List<Column> columns = new ArrayList<>();
+        String primaryKey;
+        boolean autoIncrement;
+        final List<String[]> indexes = new ArrayList<>();  // name, column, "unique" or null
+
+        TableDefinition(String name) { this.name = name; }
+    }
+
+    /**
+     * One connection's view: its transaction state and LAST_INSERT_ID().
+     */
+    static final class Session {
+        private final EmbeddedStore store;
+        private boolean autoCommit = true;
+        private boolean inTransaction;
+        private final List<Change> changes = new ArrayList<>();
+        long lastInsertId;
+
+        Session(EmbeddedStore store) { this.store = store; }
+
+        EmbeddedStore Store() { return this.store; }
+        boolean AutoCommit() { return this.autoCommit; }
+
+        void SetAutoCommit(boolean autoCommit) throws SQLException {
+            if(autoCommit && !this.autoCommit) Commit();
+            this.autoCommit = autoCommit;
+        }
+
+        /** @return A savepoint: the number of changes made so far in the transaction. */
+        int Savepoint() throws SQLException {
+            Begin();
+            return this.changes.size();
+        }
+
+        void RollbackTo(int savepoint) {
+            if(!this.inTransaction) return;
+            this.store.Undo(this.changes, savepoint);
+        }
+
+        void Commit() throws SQLException {
+            if(!this.inTransaction) return;
+            try {
+                this.store.Log(this.changes);
+            } catch(IOException e) {
+                // the changes are in memory but not in the log: take them back
+                this.store.Undo(this.changes, 0);
+                End();
+                throw new SQLException("Failed to write the embedded database log: " + e.getMessage(), "HY000", e);
+            }
+            End();
+        }
+
+        void Rollback() {
+            if(!this.inTransaction) return;
+            this.store.Undo(this.changes, 0);
+            End();
+        }
+
+        // Runs one statement: inside the transaction, or as its own transaction in auto-commit mode.
+        <R> R Run(boolean writes, StoreWork<R> work) throws SQLException {
+            if(!this.autoCommit) {
+                // a failed statement takes back its own changes, not the whole transaction
+                Begin();
+                int savepoint = this.changes.size();
+                try {
+                    return work.Run(this);
+                } catch(SQLException | RuntimeException e) {
+                    this.store.Undo(this.changes, savepoint);
+                    throw e;
+                }
+            }
+            if(!writes) {
+                this.store.LockRead();
+                try {
+                    return work.Run(this);
+                } finally {
+                    this.store.lock.readLock().unlock();
+                }
+            }
+            Begin();
+            try {
+                R result = work.Run(this);
+                Commit();
+                return result;
+            } finally {
+                Rollback();
+            }
+        }
+
+        private void Begin() throws SQLException {
+            if(this.inTransaction) return;
+            this.store.LockWrite();
+            this.inTransaction = true;
+        }
+
+        private void End() {
+            this.changes.clear();
+            this.inTransaction = false;
+            this.store.lock.writeLock().unlock();
+        }
+
+        void Record(Change change) { this.changes.add(change); }
+    }
+
+    @FunctionalInterface
+    interface StoreWork<R> {
+        R Run(Session session) throws SQLException;
+    }
+
+    // A row put or deleted in a transaction, with what it replaced (for undo).
+    static final class Change {
+        final Table table;
+        final Object key;
+        final Object[] before;  // null: the row did not exist
+        final Object[] after;   // null: the row was deleted
+        final long nextIdBefore;
+
+        Change(Table table, Object key, Object[] before, Object[] after, long nextIdBefore) {
+            this.table = table;
+            this.key = key;
+            this.before = before;
+            this.after = after;
+            this.nextIdBefore = nextIdBefore;
+        }
+    }
+
+    /** Orders index keys: NULL first, then numbers, strings, dates (mixed types by kind). */
+    static final Comparator<Object> KEY_ORDER = (a, b) -> {
+        if(a == b) return 0;
+        if(a == null) return -1;
+        if(b == null) return 1;
+        int kindA = Kind(a), kindB = Kind(b);
+        if(kindA != kindB) return Integer.compare(kindA, kindB);
+        if(a instanceof Long && b instanceof Long) return Long.compare((Long) a, (Long) b);
+        if(kindA == 1) return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        @SuppressWarnings("unchecked")
+        Comparable<Object> comparable = (Comparable<Object>) a;
+        return comparable.compareTo(b);
+    };
+
+    private static int Kind(Object key) {
+        if(key instanceof Number) return 1;
+        if(key instanceof String) return 2;
+        return 3;
+    }
+
+    /**
+     * Normalizes a value for an index: integers become Long, strings are case-folded, dates
+     * become LocalDateTime, booleans 1/0.
+     */
+    static Object Key(Object value) {
+        if(value == null) return null;
+        if(value instanceof Long) return value;
+        if(value instanceof Integer || value instanceof Short || value instanceof Byte) return ((Number) value).longValue();
+        if(value instanceof Boolean) return (Boolean) value ? 1L : 0L;
+        if(value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            try {
+                return decimal.longValueExact();
+            } catch(ArithmeticException e) {
+                return decimal.doubleValue();
+            }
+        }
+        if(value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return d == Math.rint(d) && Math.abs(d) < 9e15 ? (Object) (long) d : (Object) d;
+        }
+        if(value instanceof String) return ((String) value).toLowerCase(Locale.ROOT);
+        LocalDateTime temporal = EmbeddedSql.ToDateTime(value);
+        if(temporal != null) return temporal;
+        return value.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Map<String, EmbeddedStore> open = new HashMap<>();
+
+    private final String name;
+    private final Path path;
+    private final boolean sync;
+    private final long lockWaitMillis;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final Map<String, Table> tables = new LinkedHashMap<>();
+    private final List<Table> tableIds = new ArrayList<>();
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long end;
+    private long commits;
+    private long syncs;
+
+    private EmbeddedStore(String name, Path path) {
+        this.name = name;
+        this.path = path;
+        this.sync = Boolean.parseBoolean(System.getProperty("library.embedded.sync", "true"));
+        this.lockWaitMillis = Long.getLong("library.embedded.lockWaitMs", 50_000);
+    }
+
+    /**
+     * Opens the store for a location, once per JVM; later calls share the same store.
+     *
+     * @param location A file path, or "mem:" / "mem:name" for a store without a file.
+     * @return The store.
+     * @throws SQLException if the file cannot be opened or read.
+     */
+    public static EmbeddedStore Open(String location) throws SQLException {
+        String key = location.startsWith("mem:") ? location : Path.of(location).toAbsolutePath().normalize().toString();
+        synchronized(open) {
+            EmbeddedStore store = open.get(key);
+            if(store != null) return store;
+
+            store = new EmbeddedStore(location, location.startsWith("mem:") ? null : Path.of(location));
+            try {
+                store.Load();
+                for(String create : SCHEMA) EmbeddedSql.Execute(new Session(store), create, new Object[0]);
+            } catch(IOException e) {
+                throw new SQLException("Failed to open embedded database " + location + ": " + e.getMessage(), "08001", e);
+            }
+            open.put(key, store);
+            return store;
+        }
+    }
+
+    /** @return The table, or null. */
+    Table GetTable(String name) {
+        return this.tables.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    Collection<Table> Tables() {
+        return this.tables.values();
+    }
+
+    /** @return The number of transactions committed since the store was opened. */
+    public long Commits() { return this.commits; }
+    /** @return The number of msyncs done. */
+    public long Syncs() { return this.syncs; }
+    /** @return The size of the log in bytes. */
+    public long LogBytes() { return this.end; }
+
+    @Override
+    public String toString() {
+        StringBuilder rows = new StringBuilder();
+        for(Table table : this.tables.values()) rows.append(rows.length() == 0 ? "" : " ").append(table.name).append('=').append(table.rows.size());
+        return String.format("embedded[%s %s log=%dKB commits=%d syncs=%d]", this.name, rows, this.end / 1024, this.commits, this.syncs);
+    }
+
+    // ===== schema =====
+
+    /**
+     * Creates a table (committed at once, as DDL is in MySQL).
+     *
+     * @return false if the table already exists.
+     */
+    boolean CreateTable(Session session, TableDefinition definition, String createSql) throws SQLException {
+        session.Commit();
+        LockWrite();
+        try {
+            if(GetTable(definition.name) != null) return false;
+            Table table = Define(definition, createSql);
+            try {
+                Append(CREATE, out -> Write(out, createSql));
+            } catch(IOException e) {
+                this.tables.remove(table.name.toLowerCase(Locale.ROOT));
+                this.tableIds.remove(table);
+                throw new SQLException("Failed to write the embedded database log: " + e.getMessage(), "HY000", e);
+            }
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private Table Define(TableDefinition definition, String createSql) throws SQLException {
+        Column[] columns = definition.columns.toArray(new Column[0]);
+        int primaryKey = -1;
+        if(definition.primaryKey != null) {
+            for(int i = 0; i < columns.length; i++) if(columns[i].name.equalsIgnoreCase(definition.primaryKey)) primaryKey = i;
+            if(primaryKey < 0) throw new SQLException("Key column '" + definition.primaryKey + "' doesn't exist in table", "42000", 1072);
+        }
+        Table table = new Table(this.tableIds.size(), definition.name, createSql, columns, primaryKey, definition.autoIncrement && primaryKey >= 0);
+        for(String[] index : definition.indexes) {
+            int column = table.Position(index[1]);
+            if(column < 0) throw new SQLException("Key column '" + index[1] + "' doesn't exist in table", "42000", 1072);
+            if(column == primaryKey) continue;
+            table.indexes.add(new Index(index[0], column, index[2] != null));
+        }
+        this.tables.put(table.name.toLowerCase(Locale.ROOT), table);
+        this.tableIds.add(table);
+        return table;
+    }
+
+    // ===== changes (caller holds the write lock through its session) =====
+
+    /**
+     * Inserts or replaces a row. Unique keys are checked before anything is changed.
+     *
+     * @param replacing The primary key of the row being replaced (may differ from the new one), or null for a new row.
+     */
+    void Put(Session session, Table table, Object replacing, Object[] row) throws SQLException {
+        Object key = table.KeyOf(row);
+        Object[] before = replacing == null ? null : table.rows.get(replacing);
+        if(replacing == null || KEY_ORDER.compare(replacing, key) != 0) {
+            if(table.rows.containsKey(key)) throw Duplicate(row[Math.max(table.primaryKey, 0)], "PRIMARY");
+        }
+        for(Index index : table.indexes) {
+            if(!index.unique) continue;
+            TreeSet<Object> owners = index.Get(Key(row[index.column]));
+            if(owners != null && !(owners.size() == 1 && replacing != null && KEY_ORDER.compare(owners.first(), replacing) == 0)) {
+                throw Duplicate(row[index.column], index.name);
+            }
+        }
+
+        long nextIdBefore = table.nextId;
+        if(before != null) Unlink(table, replacing, before);
+        Link(table, key, row);
+        if(table.autoIncrement && key instanceof Long) table.nextId = Math.max(table.nextId, (Long) key + 1);
+        if(before != null && KEY_ORDER.compare(replacing, key) != 0) {
+            // a changed primary key is a delete of the old row plus a put of the new one
+            session.Record(new Change(table, replacing, before, null, nextIdBefore));
+            session.Record(new Change(table, key, null, row, nextIdBefore));
+        } else {
+            session.Record(new Change(table, key, before, row, nextIdBefore));
+        }
+    }
+
+    void Delete(Session session, Table table, Object key) {
+        Object[] before = table.rows.get(key);
+        if(before == null) return;
+        Unlink(table, key, before);
+        session.Record(new Change(table, key, before, null, table.nextId));
+    }
+
+    /** @return The next auto-increment value of the table (consumed). */
+    long NextId(Table table) {
+        return table.nextId++;
+    }
+
+    private static void Link(Table table, Object key, Object[] row) {
+        table.rows.put(key, row);
+        for(Index index : table.indexes) index.Add(Key(row[index.column]), key);
+    }
+
+    private static void Unlink(Table table, Object key, Object[] row) {
+        table.rows.remove(key);
+        for(Index index : table.indexes) index.Remove(Key(row[index.column]), key);
+    }
+
+    private void Undo(List<Change> changes, int savepoint) {
+        for(int i = changes.size() - 1; i >= savepoint; i--) {
+            Change change = changes.get(i);
+            if(change.after != null) Unlink(change.table, change.key, change.after);
+            if(change.before != null) Link(change.table, change.key, change.before);
+            change.table.nextId = change.nextIdBefore;
+            changes.remove(i);
+        }
+    }
+
+    private static SQLException Duplicate(Object value, String key) {
+        return new SQLException("Duplicate entry '" + EmbeddedSql.ToText(value) + "' for key '" + key + "'", "23000", 1062);
+    }
+
+    // ===== locking =====
+
+    private void LockWrite() throws SQLException {
+        try {
+            if(this.lock.writeLock().tryLock(this.lockWaitMillis, TimeUnit.MILLISECONDS)) return;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new SQLException("Lock wait timeout exceeded; try restarting transaction", "HY000", 1205);
+    }
+
+    private void LockRead() throws SQLException {
+        try {
+            if(this.lock.readLock().tryLock(this.lockWaitMillis, TimeUnit.MILLISECONDS)) return;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new SQLException("Lock wait timeout exceeded; try restarting transaction", "HY000", 1205);
+    }
+
+    // ===== log =====
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void Write(DataOutputStream out) throws IOException;
+    }
+
+    // Appends the committed changes as one record (caller holds the write lock).
+    private void Log(List<Change> changes) throws IOException {
+        if(changes.isEmpty()) return;
+        this.commits++;
+        Append(COMMIT, out -> {
+            out.writeInt(changes.size());
+            for(Change change : changes) {
+                out.writeInt(change.table.id);
+                if(change.after == null) {
+                    out.writeByte(DELETE);
+                    WriteValue(out, change.key);
+                } else {
+                    out.writeByte(PUT);
+                    for(Object value : change.after) WriteValue(out, value);
+                }
+            }
+        });
+    }
+
+    private void Append(byte kind, RecordWriter writer) throws IOException {
+        if(this.path == null) return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        writer.Write(out);
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        int length = 8 + payload.length;
+        if(this.window == null || this.end + length > this.windowStart + this.window.capacity()) Remap(length);
+        int at = (int) (this.end - this.windowStart);
+        // the length goes in last: a record cut short by a crash still reads as the end of the log
+        this.window.put(at + 8, payload);
+        this.window.putInt(at + 4, (int) crc.getValue());
+        this.window.putInt(at, payload.length);
+        if(this.sync) {
+            this.window.force(at, length);
+            this.syncs++;
+        }
+        this.end += length;
+    }
+
+    private void Remap(int needed) throws IOException {
+        // the old mapping is released by the garbage collector
+        this.windowStart = this.end;
+        this.window = this.channel.map(FileChannel.MapMode.READ_WRITE, this.windowStart, Math.max(MAP_CHUNK, needed));
+    }
+
+    private void Load() throws IOException {
+        if(this.path == null) return;
+        if(this.path.getParent() != null) Files.createDirectories(this.path.getParent());
+
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(this.channel.size() < HEADER_BYTES) {
+            WriteHeader(this.channel);
+            this.end = HEADER_BYTES;
+        } else {
+            this.end = Replay();
+            long live = 0;
+            for(Table table : this.tables.values()) live += table.bytes;
+            // compact once most of the log is superseded rows
+            if(this.end > 4L * 1024 * 1024 && this.end > 3 * (live + 64 * 1024)) Compact();
+        }
+
+        // clear whatever a crash left after the last complete record
+        long size = this.channel.size();
+        ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+        for(long at = this.end; at < size; at += zeros.capacity()) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), size - at));
+            this.channel.write(zeros, at);
+        }
+        this.channel.force(true);
+    }
+
+    private static void WriteHeader(FileChannel target) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(1).flip();
+        while(header.hasRemaining()) target.write(header, target.position());
+        target.position(HEADER_BYTES);
+    }
+
+    // Reads the log back into memory; returns where the last complete record ends.
+    private long Replay() throws IOException {
+        this.channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel), 1 << 20));
+        if(in.readInt() != MAGIC) throw new IOException(this.path + " is not an embedded library database");
+        in.readInt();
+
+        long at = HEADER_BYTES;
+        Session loader = new Session(this);
+        CRC32 crc = new CRC32();
+        while(true) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                if(length <= 0 || length > 256 * 1024 * 1024) break;
+                checksum = in.readInt();
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch(EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload);
+            if((int) crc.getValue() != checksum) break;
+
+            try {
+                Apply(loader, payload);
+            } catch(SQLException e) {
+                throw new IOException("Corrupt record at offset " + at + ": " + e.getMessage(), e);
+            }
+            at += 8 + payload.length;
+        }
+        return at;
+    }
+
+    private void Apply(Session loader, byte[] payload) throws IOException, SQLException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = data.readByte();
+        if(kind == CREATE) {
+            String createSql = ReadString(data);
+            TableDefinition definition = EmbeddedSql.ParseCreateTable(createSql);
+            if(GetTable(definition.name) == null) Define(definition, createSql);
+        } else if(kind == COUNTER) {
+            Table table = this.tableIds.get(data.readInt());
+            table.nextId = Math.max(table.nextId, data.readLong());
+        } else if(kind == COMMIT) {
+            int count = data.readInt();
+            for(int i = 0; i < count; i++) {
+                Table table = this.tableIds.get(data.readInt());
+                byte op = data.readByte();
+                if(op == DELETE) {
+                    Object key = ReadValue(data);
+                    Object[] before = table.rows.get(key);
+                    if(before != null) {
+                        Unlink(table, key, before);
+                        table.bytes -= RowBytes(before);
+                    }
+                } else {
+                    Object[] row = new Object[table.Width()];
+                    for(int c = 0; c < row.length; c++) row[c] = ReadValue(data);
+                    Object key = table.KeyOf(row);
+                    Object[] before = table.rows.get(key);
+                    if(before != null) {
+                        Unlink(table, key, before);
+                        table.bytes -= RowBytes(before);
+                    }
+                    Link(table, key, row);
+                    table.bytes += RowBytes(row);
+                    if(table.autoIncrement && key instanceof Long) table.nextId = Math.max(table.nextId, (Long) key + 1);
+                    if(table.primaryKey < 0) table.nextId = Math.max(table.nextId, (Long) key + 1);
+                }
+            }
+        } else {
+            throw new SQLException("Unknown record kind " + kind);
+        }
+    }
+
+    // Rewrites the log as table definitions, counters and the live rows, then swaps it in.
+    private void Compact() throws IOException {
+        Path compacted = this.path.resolveSibling(this.path.getFileName() + ".compact");
+        try(FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            WriteHeader(target);
+            DataOutputStream out = new DataOutputStream(new java.io.BufferedOutputStream(Channels.newOutputStream(target), 1 << 20));
+            for(Table table : this.tableIds) {
+                WriteRecord(out, CREATE, o -> Write(o, table.createSql));
+                WriteRecord(out, COUNTER, o -> { o.writeInt(table.id); o.writeLong(table.nextId); });
+                List<Object[]> rows = new ArrayList<>(table.rows.values());
+                for(int from = 0; from < rows.size(); from += 10_000) {
+                    List<Object[]> slice = rows.subList(from, Math.min(rows.size(), from + 10_000));
+                    WriteRecord(out, COMMIT, o -> {
+                        o.writeInt(slice.size());
+                        for(Object[] row : slice) {
+                            o.writeInt(table.id);
+                            o.writeByte(PUT);
+                            for(Object value : row) WriteValue(o, value);
+                        }
+                    });
+                }
+            }
+            out.flush();
+            target.force(true);
+        }
+
+        this.channel.close();
+        Files.move(compacted, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.end = this.channel.size();
+    }
+
+    private static void WriteRecord(DataOutputStream out, byte kind, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(kind);
+        writer.Write(record);
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static long RowBytes(Object[] row) {
+        long bytes = 9;
+        for(Object value : row) bytes += value instanceof String ? 5 + ((String) value).length() : 9;
+        return bytes;
+    }
+
+    private static void Write(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String ReadString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void WriteValue(DataOutputStream out, Object value) throws IOException {
+        if(value == null) out.writeByte(0);
+        else if(value instanceof String) { out.writeByte(1); Write(out, (String) value); }
+        else if(value instanceof Integer) { out.writeByte(2); out.writeInt((Integer) value); }
+        else if(value instanceof Long) { out.writeByte(3); out.writeLong((Long) value); }
+        else if(value instanceof Boolean) { out.writeByte(4); out.writeBoolean((Boolean) value); }
+        else if(value instanceof LocalDateTime) {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeByte(5);
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+        else if(value instanceof Timestamp) { out.writeByte(6); out.writeLong(((Timestamp) value).getTime()); out.writeInt(((Timestamp) value).getNanos()); }
+        else if(value instanceof java.sql.Date) { out.writeByte(7); out.writeLong(((java.sql.Date) value).toLocalDate().toEpochDay()); }
+        else if(value instanceof Double) { out.writeByte(8); out.writeDouble((Double) value); }
+        else if(value instanceof BigDecimal) { out.writeByte(9); Write(out, ((BigDecimal) value).toPlainString()); }
+        else { out.writeByte(1); Write(out, value.toString()); }
+    }
+
+    private static Object ReadValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch(tag) {
+            case 0: return null;
+            case 1: return ReadString(in);
+            case 2: return in.readInt();
+            case 3: return in.readLong();
+            case 4: return in.readBoolean();
+            case 5: return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            case 6: { Timestamp t = new Timestamp(in.readLong()); t.setNanos(in.readInt()); return t; }
+            case 7: return java.sql.Date.valueOf(LocalDate.ofEpochDay(in.readLong()));
+            case 8: return in.readDouble();
+            case 9: return new BigDecimal(ReadString(in));
+            default: throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /** @return The rows of the table whose key lies in the range (for prefix scans on an index). */
+    static NavigableMap<Object, TreeSet<Object>> Range(Index index, Object from, Object to) {
+        return index.entries.subMap(from, true, to, false);
+    }
+}
@@ -0,0 +1,132 @@
+package config;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The last result read from the database for each recent query, kept so reads can still be
+ * answered (with possibly outdated rows) while the database is unreachable.
+ *
+ * Unlike the {@link QueryCache}, entries are not dropped when their tables are written to:
+ * they are only ever served when the fresh answer cannot be had. Off unless
+ * library.db.stale=true, since it keeps a copy of every recent result whether or not an
+ * outage ever comes; then bounded by a total row count (library.db.stale.maxRows, default
+ * 200000), least recently used entries going first.
+ *
+ * @author Darkuz69
+ */
+public class LastKnownResults {
+    /**
+     * Rows answered from a snapshot instead of the database. Callers that care (the query cache,
+     * the UI) can tell them apart from fresh results with instanceof.
+     */
+    public static final class StaleRows extends ArrayList<Map<String, Object>> {
+        private static final long serialVersionUID = 1L;
+
+        private final long readAt;
+
+        StaleRows(List<Map<String, Object>> rows, long readAt) {
+            super(rows);
+            this.readAt = readAt;
+        }
+
+        /** @return When the rows were read (epoch milliseconds). */
+        public long ReadAt() { return this.readAt; }
+        /** @return A copy that is still marked as stale. */
+        public StaleRows Copy() { return new StaleRows(this, this.readAt); }
+    }
+
+    /**
+     * A remembered result and when it was read.
+     */
+    public static final class Snapshot {
+        private final List<Map<String, Object>> rows;
+        private final long readAt;
+
+        Snapshot(List<Map<String, Object>> rows, long readAt) {
+            this.rows = rows;
+            this.readAt = readAt;
+        }
+
+        /** @return A copy of the row list, marked as stale. */
+        public StaleRows Rows() { return new StaleRows(this.rows, this.readAt); }
+        /** @return When the rows were read (epoch milliseconds). */
+        public long ReadAt() { return this.readAt; }
+    }
+
+    private final long maxRows;
+    private final LinkedHashMap<QueryCache.Key, Snapshot> snapshots = new LinkedHashMap<>(64, 0.75f, true);
+    private long rows;
+    private long served;
+    private volatile long oldestServedReadAt;
+
+    /**
+     * @param maxRows Maximum number of rows kept over all snapshots (0 keeps nothing).
+     */
+    public LastKnownResults(long maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Remembers a fresh result.
+     *
+     * @param key The query.
+     * @param result The rows read.
+     */
+    public synchronized void Remember(QueryCache.Key key, List<Map<String, Object>> result) {
+        if(this.maxRows <= 0 || result == null || result.size() > this.maxRows) return;
+
+        Snapshot previous = this.snapshots.put(key, new Snapshot(new ArrayList<>(result), System.currentTimeMillis()));
+        if(previous != null) this.rows -= previous.rows.size();
+        this.rows += result.size();
+
+        Iterator<Snapshot> eldest = this.snapshots.values().iterator();
+        while(this.rows > this.maxRows && eldest.hasNext()) {
+            this.rows -= eldest.next().rows.size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Looks up the last result of a query, counting it as a stale read.
+     *
+     * @param key The query.
+     * @return The snapshot, or null if the query was never read (or was evicted).
+     */
+    public synchronized Snapshot Serve(QueryCache.Key key) {
+        Snapshot snapshot = this.snapshots.get(key);
+        if(snapshot == null) return null;
+
+        this.served++;
+        if(snapshot.readAt < this.oldestServedReadAt || this.oldestServedReadAt == 0) this.oldestServedReadAt = snapshot.readAt;
+        return snapshot;
+    }
+
+    /**
+     * @return The oldest read time (epoch ms) of the snapshots served since the last {@link #ResetServed()}, or 0 if none.
+     */
+    public long OldestServed() {
+        return this.oldestServedReadAt;
+    }
+
+    /**
+     * Forgets which snapshots were served (called once the database is reachable again).
+     */
+    public void ResetServed() {
+        this.oldestServedReadAt = 0;
+    }
+
+    /** @return true if results are remembered at all. */
+    public boolean IsEnabled() { return this.maxRows > 0; }
+    /** @return The number of reads answered from a snapshot. */
+    public synchronized long Served() { return this.served; }
+    public synchronized int Size() { return this.snapshots.size(); }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("lastknown[entries=%d rows=%d served=%d]", this.snapshots.size(), this.rows, this.served);
+    }
+}
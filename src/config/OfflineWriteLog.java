@@ -0,0 +1,658 @@
+package config;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Local write-ahead log of the writes made while the database is unreachable, replayed in
+ * order once it is back.
+ *
+ * An operation is one or more statements that must be applied together (e.g. a checkout:
+ * claim the book, then insert the loan). Statements marked as required must change at least
+ * one row when replayed; if one does not (the book was lent by another desk in the meantime),
+ * the whole operation is rolled back and reported as a conflict instead of being applied.
+ * Statements that fail with an SQL error (e.g. a duplicate key) are reported the same way.
+ * Conflicts are also appended to a text file next to the log (&lt;log&gt;.conflicts).
+ *
+ * File format (binary, append-only): a header (magic, version, log id), then records of
+ * [length][kind][payload][CRC32]. The SQL text of each statement (and each conflict message) is
+ * written once and later records refer to it by number, so a queued checkout takes a few dozen bytes. Appending only
+ * serializes into memory; a background thread writes and fsyncs whatever accumulated every
+ * library.offline.syncMs (default 10), so many appends share one fsync. A record cut short by a
+ * crash fails its CRC and is dropped when the log is reopened.
+ *
+ * Replay runs in batches (library.offline.batch, default 100 operations per transaction) with a
+ * savepoint per operation. The sequence number of the last replayed operation is stored in the
+ * offline_write_replay table in the same transaction, so an operation is never applied twice,
+ * even if the application stops between the commit and updating the local file. Once
+ * everything has been replayed the file is truncated back to its header.
+ *
+ * @author Darkuz69
+ */
+public class OfflineWriteLog implements AutoCloseable {
+    private static final int MAGIC = 0x4C57414C;  // "LWAL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 16;
+    private static final byte DEFINE = 'S';
+    private static final byte OPERATION = 'O';
+    private static final byte APPLIED = 'A';
+
+    private static final String REPLAY_TABLE =
+        "CREATE TABLE IF NOT EXISTS offline_write_replay (log_id CHAR(36) NOT NULL PRIMARY KEY, last_seq BIGINT NOT NULL)";
+
+    /**
+     * One statement of an operation.
+     */
+    public static final class Step {
+        private final String statement;
+        private final Object[] args;
+        private final String conflict;
+
+        private Step(String statement, String conflict, Object[] args) {
+            if(statement == null || statement.trim().isEmpty()) throw new IllegalArgumentException("Statement cannot be null or empty");
+            this.statement = statement;
+            this.conflict = conflict;
+            this.args = args == null ? new Object[0] : args.clone();
+        }
+
+        /**
+         * @return A statement that may change any number of rows.
+         */
+        public static Step Of(String statement, Object... args) {
+            return new Step(statement, null, args);
+        }
+
+        /**
+         * @param conflict What it means when the statement changes no row (reported to the user).
+         * @return A statement that must change at least one row, or the operation is a conflict.
+         */
+        public static Step Required(String statement, String conflict, Object... args) {
+            return new Step(statement, conflict == null ? "nothing to change any more" : conflict, args);
+        }
+    }
+
+    /**
+     * A queued operation.
+     */
+    public static final class Operation {
+        private final long seq;
+        private final long createdAt;
+        private final String label;
+        private final List<Step> steps;
+
+        Operation(long seq, long createdAt, String label, List<Step> steps) {
+            this.seq = seq;
+            this.createdAt = createdAt;
+            this.label = label;
+            this.steps = steps;
+        }
+
+        public long Seq() { return this.seq; }
+        /** @return When the operation was queued (epoch milliseconds). */
+        public long CreatedAt() { return this.createdAt; }
+        public String Label() { return this.label; }
+    }
+
+    /**
+     * An operation that could not be applied on replay.
+     */
+    public static final class Conflict {
+        private final Operation operation;
+        private final String reason;
+
+        Conflict(Operation operation, String reason) {
+            this.operation = operation;
+            this.reason = reason;
+        }
+
+        public Operation Operation() { return this.operation; }
+        public String Reason() { return this.reason; }
+
+        @Override
+        public String toString() {
+            return String.format("%tF %<tT %s: %s", new Date(this.operation.createdAt), this.operation.label, this.reason);
+        }
+    }
+
+    private final Path path;
+    private final long syncNanos;
+    private final int batchSize;
+    private final FileChannel channel;
+    private final UUID logId;
+
+    // appends only take lock; writing the file takes fileLock first, then lock (never the other way round)
+    private final Object lock = new Object();
+    private final Object fileLock = new Object();
+    private final Map<String, Integer> statementIds = new HashMap<>();
+    private final List<String> statements = new ArrayList<>();
+    private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+    private final List<Conflict> conflicts = new ArrayList<>();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final CRC32 crc = new CRC32();
+    private ByteArrayOutputStream unsynced = new ByteArrayOutputStream(4096);
+    private long nextSeq = 1;
+    private long appended;
+    private long replayed;
+    private long syncs;
+    private boolean replaying;
+    private volatile boolean closed;
+    private final Thread flusher;
+
+    /**
+     * Opens the log, creating it if needed. Operations still pending in it are queued again.
+     *
+     * @param path The log file.
+     * @param syncMillis How long appends are collected before they are written and fsynced.
+     * @param batchSize Operations per replay transaction.
+     * @throws IOException if the file cannot be opened.
+     */
+    public OfflineWriteLog(Path path, long syncMillis, int batchSize) throws IOException {
+        if(batchSize < 1) throw new IllegalArgumentException("Batch size must be at least 1");
+
+        this.path = path;
+        this.syncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, syncMillis));
+        this.batchSize = batchSize;
+        if(path.getParent() != null) Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.logId = this.channel.size() >= HEADER_BYTES ? load() : writeHeader(UUID.randomUUID());
+
+        this.flusher = new Thread(this::flushLoop, "offline-log-sync");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues an operation. Only serializes it into memory: it reaches the disk with the next
+     * batched fsync (within library.offline.syncMs).
+     *
+     * @param label Short description shown if the operation conflicts on replay.
+     * @param steps The statements, applied in order and all or nothing.
+     * @return The operation's sequence number.
+     */
+    public long Append(String label, List<Step> steps) {
+        if(steps == null || steps.isEmpty()) throw new IllegalArgumentException("An operation needs at least one statement");
+        if(this.closed) throw new IllegalStateException("Offline write log is closed");
+
+        synchronized(this.lock) {
+            Operation operation = new Operation(this.nextSeq++, System.currentTimeMillis(), label == null ? "change" : label, new ArrayList<>(steps));
+            try {
+                int[] ids = new int[steps.size()];
+                int[] conflictIds = new int[steps.size()];
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = statementId(steps.get(i).statement);
+                    conflictIds[i] = steps.get(i).conflict == null ? -1 : statementId(steps.get(i).conflict);
+                }
+
+                DataOutputStream out = begin(OPERATION);
+                out.writeLong(operation.seq);
+                out.writeLong(operation.createdAt);
+                writeString(out, operation.label);
+                out.writeShort(steps.size());
+                for(int i = 0; i < ids.length; i++) {
+                    Step step = steps.get(i);
+                    out.writeInt(ids[i]);
+                    out.writeInt(conflictIds[i]);
+                    out.writeShort(step.args.length);
+                    for(Object arg : step.args) writeValue(out, arg);
+                }
+                end();
+            } catch(IOException e) {
+                // only in-memory streams are written here
+                throw new RuntimeException("Failed to queue offline write: " + e.getMessage(), e);
+            }
+
+            this.pending.add(operation);
+            this.appended++;
+            this.lock.notifyAll();
+            return operation.seq;
+        }
+    }
+
+    /** @return The number of operations waiting to be replayed. */
+    public int PendingCount() { synchronized(this.lock) { return this.pending.size(); } }
+    /** @return The number of operations queued since the log was opened. */
+    public long Appended() { synchronized(this.lock) { return this.appended; } }
+    /** @return The number of operations replayed (applied or reported as conflicts) since the log was opened. */
+    public long Replayed() { synchronized(this.lock) { return this.replayed; } }
+    /** @return The number of fsyncs done. */
+    public long Syncs() { synchronized(this.lock) { return this.syncs; } }
+    public Path GetPath() { return this.path; }
+
+    /**
+     * Returns and forgets the conflicts found by replays so far.
+     *
+     * @return The conflicts, oldest first.
+     */
+    public List<Conflict> TakeConflicts() {
+        synchronized(this.lock) {
+            if(this.conflicts.isEmpty()) return Collections.emptyList();
+            List<Conflict> taken = new ArrayList<>(this.conflicts);
+            this.conflicts.clear();
+            return taken;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized(this.lock) {
+            return String.format("offlinelog[pending=%d appended=%d replayed=%d syncs=%d]", this.pending.size(), this.appended, this.replayed, this.syncs);
+        }
+    }
+
+    /**
+     * Replays every pending operation, in order and in batches. Stops at the first failure that
+     * is not a conflict (e.g. the database went away again); the rest stays queued.
+     *
+     * @param db The database to replay against.
+     * @return The number of operations applied (conflicts not counted).
+     * @throws RuntimeException if a batch could not be committed.
+     */
+    public int Replay(DatabaseConnection db) {
+        db.ExecuteUpdate(REPLAY_TABLE);
+
+        int applied = 0;
+        while(true) {
+            List<Operation> batch = new ArrayList<>(this.batchSize);
+            synchronized(this.lock) {
+                Iterator<Operation> queued = this.pending.iterator();
+                while(queued.hasNext() && batch.size() < this.batchSize) batch.add(queued.next());
+            }
+            if(batch.isEmpty()) break;
+
+            List<Conflict> found = new ArrayList<>();
+            db.ExecuteTransaction(transaction -> {
+                found.clear();  // the transaction may be run again after a deadlock
+                List<Map<String, Object>> row = transaction.Query("SELECT last_seq FROM offline_write_replay WHERE log_id = ? FOR UPDATE", this.logId.toString());
+                long done = row.isEmpty() ? 0 : ((Number) row.get(0).get("last_seq")).longValue();
+
+                for(Operation operation : batch) {
+                    if(operation.seq <= done) continue;  // applied before the local file was updated
+                    String conflict = apply(transaction, operation);
+                    if(conflict != null) found.add(new Conflict(operation, conflict));
+                }
+
+                long last = batch.get(batch.size() - 1).seq;
+                transaction.Update("INSERT INTO offline_write_replay (log_id, last_seq) VALUES (?, ?) ON DUPLICATE KEY UPDATE last_seq = GREATEST(last_seq, VALUES(last_seq))",
+                    this.logId.toString(), last);
+                return null;
+            });
+
+            synchronized(this.lock) {
+                for(int i = 0; i < batch.size(); i++) this.pending.pollFirst();
+                this.replayed += batch.size();
+                this.conflicts.addAll(found);
+                try {
+                    DataOutputStream out = begin(APPLIED);
+                    out.writeLong(batch.get(batch.size() - 1).seq);
+                    end();
+                } catch(IOException e) {
+                    throw new RuntimeException("Failed to record replay: " + e.getMessage(), e);
+                }
+                this.lock.notifyAll();
+            }
+            report(found);
+            applied += batch.size() - found.size();
+        }
+
+        compactIfEmpty();
+        return applied;
+    }
+
+    /**
+     * Replays the pending operations on a background thread, unless a replay is already running.
+     *
+     * @param db The database to replay against.
+     */
+    public void ReplayInBackground(DatabaseConnection db) {
+        synchronized(this.lock) {
+            if(this.replaying || this.pending.isEmpty() || this.closed) return;
+            this.replaying = true;
+        }
+
+        Thread replay = new Thread(() -> {
+            while(true) {
+                try {
+                    Replay(db);
+                } catch(RuntimeException e) {
+                    System.err.println("Offline replay stopped, will retry when the database is back: " + e.getMessage());
+                    synchronized(this.lock) { this.replaying = false; }
+                    return;
+                }
+                synchronized(this.lock) {
+                    // something may have been queued while the last batch ran
+                    if(this.pending.isEmpty() || this.closed) {
+                        this.replaying = false;
+                        return;
+                    }
+                }
+            }
+        }, "offline-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    /**
+     * Writes and fsyncs what is still in memory and closes the file.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        synchronized(this.lock) { this.lock.notifyAll(); }
+        try {
+            this.flusher.join(5000);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync();
+            this.channel.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Keeps a record of the conflicts next to the log, so they are not lost with the dialog.
+    private void report(List<Conflict> found) {
+        if(found.isEmpty()) return;
+        List<String> lines = new ArrayList<>();
+        for(Conflict conflict : found) {
+            System.err.println("Offline change not applied: " + conflict);
+            lines.add(conflict.toString());
+        }
+        try {
+            Files.write(this.path.resolveSibling(this.path.getFileName() + ".conflicts"), lines, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch(IOException e) {
+            System.err.println("Failed to write offline conflict report: " + e.getMessage());
+        }
+    }
+
+    // Runs one operation inside a savepoint. Returns null if it was applied, or why it was not.
+    private static String apply(DatabaseConnection.Transaction transaction, Operation operation) throws SQLException {
+        Savepoint savepoint = transaction.SetSavepoint();
+        String conflict = null;
+        for(Step step : operation.steps) {
+            try {
+                int rows = transaction.Update(step.statement, step.args);
+                if(rows == 0 && step.conflict != null) conflict = step.conflict;
+            } catch(SQLException e) {
+                // the connection is gone or the transaction must be retried: not this operation's fault
+                if(CircuitBreaker.IsOutage(e) || "40001".equals(e.getSQLState()) || e.getErrorCode() == 1213 || e.getErrorCode() == 1205) throw e;
+                conflict = e.getMessage();
+            }
+            if(conflict != null) break;
+        }
+
+        if(conflict != null) transaction.RollbackTo(savepoint);
+        else transaction.ReleaseSavepoint(savepoint);
+        return conflict;
+    }
+
+    private void flushLoop() {
+        while(true) {
+            synchronized(this.lock) {
+                while(this.unsynced.size() == 0 && !this.closed) {
+                    try {
+                        this.lock.wait();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                }
+                if(this.closed) return;
+            }
+            // let more appends join this fsync
+            if(this.syncNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(this.syncNanos);
+                } catch(InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                sync();
+            } catch(IOException e) {
+                System.err.println("Failed to sync offline write log: " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes the records collected in memory and fsyncs them.
+    private void sync() throws IOException {
+        synchronized(this.fileLock) {
+            ByteArrayOutputStream chunk;
+            synchronized(this.lock) {
+                if(this.unsynced.size() == 0) return;
+                chunk = this.unsynced;
+                this.unsynced = new ByteArrayOutputStream(4096);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(chunk.toByteArray());
+            this.channel.position(this.channel.size());
+            while(bytes.hasRemaining()) this.channel.write(bytes);
+            this.channel.force(false);
+            synchronized(this.lock) { this.syncs++; }
+        }
+    }
+
+    // Once everything was replayed, shrink the file back to its header (plus the last sequence number).
+    private void compactIfEmpty() {
+        synchronized(this.fileLock) {
+            synchronized(this.lock) {
+                if(!this.pending.isEmpty()) return;
+                try {
+                    this.unsynced.reset();
+                    this.statementIds.clear();
+                    this.statements.clear();
+                    DataOutputStream out = begin(APPLIED);
+                    out.writeLong(this.nextSeq - 1);
+                    end();
+
+                    this.channel.truncate(HEADER_BYTES);
+                    ByteBuffer bytes = ByteBuffer.wrap(this.unsynced.toByteArray());
+                    this.unsynced.reset();
+                    this.channel.position(HEADER_BYTES);
+                    while(bytes.hasRemaining()) this.channel.write(bytes);
+                    this.channel.force(false);
+                    this.syncs++;
+                } catch(IOException e) {
+                    System.err.println("Failed to compact offline write log: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private UUID writeHeader(UUID id) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).flip();
+        this.channel.truncate(0);
+        this.channel.position(0);
+        while(header.hasRemaining()) this.channel.write(header);
+        this.channel.force(true);
+        return id;
+    }
+
+    // Reads the log back: statement texts, operations and replay marks. A torn tail is cut off.
+    private UUID load() throws IOException {
+        this.channel.position(0);
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(this.channel), 64 * 1024);
+        DataInputStream in = new DataInputStream(stream);
+        if(in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException(this.path + " is not an offline write log");
+        UUID id = new UUID(in.readLong(), in.readLong());
+
+        long validEnd = HEADER_BYTES;
+        long appliedUpTo = 0;
+        List<Operation> operations = new ArrayList<>();
+        CRC32 check = new CRC32();
+        while(true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                if(length <= 0 || length > 64 * 1024 * 1024) break;
+                payload = new byte[length];
+                in.readFully(payload);
+                check.reset();
+                check.update(payload);
+                if(in.readInt() != (int) check.getValue()) break;
+            } catch(EOFException e) {
+                break;
+            }
+
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+            byte kind = data.readByte();
+            if(kind == DEFINE) {
+                int statementId = data.readInt();
+                String text = readString(data);
+                while(this.statements.size() <= statementId) this.statements.add(null);
+                this.statements.set(statementId, text);
+                this.statementIds.put(text, statementId);
+            } else if(kind == OPERATION) {
+                operations.add(readOperation(data));
+            } else if(kind == APPLIED) {
+                appliedUpTo = Math.max(appliedUpTo, data.readLong());
+            } else {
+                break;
+            }
+            validEnd += 4 + payload.length + 4;
+        }
+
+        // drop a record cut short by a crash, so new records follow the last good one
+        if(this.channel.size() > validEnd) this.channel.truncate(validEnd);
+
+        long last = appliedUpTo;
+        for(Operation operation : operations) {
+            last = Math.max(last, operation.seq);
+            if(operation.seq > appliedUpTo) this.pending.add(operation);
+        }
+        this.nextSeq = last + 1;
+        return id;
+    }
+
+    private Operation readOperation(DataInputStream data) throws IOException {
+        long seq = data.readLong();
+        long createdAt = data.readLong();
+        String label = readString(data);
+        int stepCount = data.readShort();
+        List<Step> steps = new ArrayList<>(stepCount);
+        for(int i = 0; i < stepCount; i++) {
+            int statementId = data.readInt();
+            int conflictId = data.readInt();
+            Object[] args = new Object[data.readShort()];
+            for(int a = 0; a < args.length; a++) args[a] = readValue(data);
+            String statement = text(statementId);
+            String conflict = conflictId < 0 ? null : text(conflictId);
+            steps.add(new Step(statement, conflict, args));
+        }
+        return new Operation(seq, createdAt, label, steps);
+    }
+
+    private String text(int id) throws IOException {
+        String text = id < this.statements.size() ? this.statements.get(id) : null;
+        if(text == null) throw new IOException("Offline write log refers to an unknown statement " + id);
+        return text;
+    }
+
+    // Caller holds lock. Writes a statement's (or conflict message's) text the first time it is used.
+    private int statementId(String statement) throws IOException {
+        Integer id = this.statementIds.get(statement);
+        if(id != null) return id;
+
+        int newId = this.statements.size();
+        DataOutputStream out = begin(DEFINE);
+        out.writeInt(newId);
+        writeString(out, statement);
+        end();
+        this.statements.add(statement);
+        this.statementIds.put(statement, newId);
+        return newId;
+    }
+
+    // Caller holds lock. Starts a record; end() frames it and adds it to the unsynced bytes.
+    private DataOutputStream begin(byte kind) throws IOException {
+        this.record.reset();
+        DataOutputStream out = new DataOutputStream(this.record);
+        out.writeByte(kind);
+        return out;
+    }
+
+    private void end() throws IOException {
+        byte[] payload = this.record.toByteArray();
+        this.crc.reset();
+        this.crc.update(payload);
+        DataOutputStream out = new DataOutputStream(this.unsynced);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) this.crc.getValue());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // One tag byte per value; dates keep their exact class so they bind the same way on replay.
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if(value == null) out.writeByte(0);
+        else if(value instanceof Integer) { out.writeByte(2); out.writeInt((Integer) value); }
+        else if(value instanceof Long) { out.writeByte(3); out.writeLong((Long) value); }
+        else if(value instanceof Boolean) { out.writeByte(4); out.writeBoolean((Boolean) value); }
+        else if(value instanceof java.sql.Date) { out.writeByte(5); out.writeLong(((java.sql.Date) value).getTime()); }
+        else if(value instanceof Timestamp) { out.writeByte(6); out.writeLong(((Timestamp) value).getTime()); out.writeInt(((Timestamp) value).getNanos()); }
+        else if(value instanceof Date) { out.writeByte(7); out.writeLong(((Date) value).getTime()); }
+        else if(value instanceof Double) { out.writeByte(8); out.writeDouble((Double) value); }
+        else if(value instanceof BigDecimal) { out.writeByte(9); writeString(out, value.toString()); }
+        else if(value instanceof java.time.LocalDate) { out.writeByte(10); out.writeLong(((java.time.LocalDate) value).toEpochDay()); }
+        else { out.writeByte(1); writeString(out, String.valueOf(value)); }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch(tag) {
+            case 0: return null;
+            case 1: return readString(in);
+            case 2: return in.readInt();
+            case 3: return in.readLong();
+            case 4: return in.readBoolean();
+            case 5: return new java.sql.Date(in.readLong());
+            case 6: { Timestamp t = new Timestamp(in.readLong()); t.setNanos(in.readInt()); return t; }
+            case 7: return new Date(in.readLong());
+            case 8: return in.readDouble();
+            case 9: return new BigDecimal(readString(in));
+            case 10: return java.time.LocalDate.ofEpochDay(in.readLong());
+            default: throw new IOException("Unknown value tag " + tag + " in offline write log");
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory cache of SELECT results keyed by SQL text plus parameters.
+ *
+ * Entries expire after a TTL, the cache is bounded by an estimated memory budget
+ * (least recently used entries go first) and every write through
+ * {@link DatabaseConnection#ExecuteUpdate(String, Object...)} invalidates the entries
+ * that read from the tables it touched.
+ *
+ * Off unless library.querycache.enabled=true: writes made by other clients only reach it
+ * through the change log (see lib.Cache.ChangeLog), so without that a result can be up to
+ * one TTL stale. Tunable with the library.querycache.ttlMs and library.querycache.maxBytes
+ * system properties.
+ *
+ * @author Darkuz69
+ */
+public class QueryCache {
+    private static final Pattern TABLE_PATTERN =
+        Pattern.compile("\\b(?:FROM|JOIN|INTO|UPDATE)\\s+`?([A-Za-z_][A-Za-z0-9_]*)`?", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_PARSED_STATEMENTS = 1024;
+
+    // told about every invalidation, i.e. every write the application knows of
+    private volatile Runnable onInvalidate;
+
+    /**
+     * Cache key made of the SQL text and its bound parameters.
+     */
+    public static final class Key {
+        private final String statement;
+        private final Object[] args;
+        private final int hash;
+
+        public Key(String statement, Object[] args) {
+            this.statement = statement;
+            this.args = args == null ? new Object[0] : args.clone();
+            this.hash = 31 * statement.hashCode() + Arrays.hashCode(this.args);
+        }
+
+        public String Statement() { return this.statement; }
+        public Object[] Args() { return this.args.clone(); }
+
+        @Override
+        public boolean equals(Object other) {
+            if(this == other) return true;
+            if(!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return this.hash == key.hash && this.statement.equals(key.statement) && Arrays.equals(this.args, key.args);
+        }
+
+        @Override
+        public int hashCode() { return this.hash; }
+    }
+
+    private static final class Entry {
+        final List<Map<String, Object>> rows;
+        final Set<String> tables;
+        final long storedAt;
+        final long bytes;
+
+        Entry(List<Map<String, Object>> rows, Set<String> tables, long bytes) {
+            this.rows = rows;
+            this.tables = tables;
+            this.storedAt = System.nanoTime();
+            this.bytes = bytes;
+        }
+    }
+
+    private final Map<String, Set<String>> parsedTables = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Set<Key>> keysByTable = new HashMap<>();
+    private final Map<String, Long> tableVersions = new HashMap<>();
+
+    private volatile boolean enabled;
+    private volatile long ttlNanos;
+    private volatile long maxBytes;
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryCache() {
+        this.enabled = Boolean.parseBoolean(System.getProperty("library.querycache.enabled", "false"));
+        this.ttlNanos = Long.getLong("library.querycache.ttlMs", 30_000L) * 1_000_000L;
+        this.maxBytes = Long.getLong("library.querycache.maxBytes", 16L * 1024 * 1024);
+    }
+
+    public boolean IsEnabled() { return this.enabled; }
+
+    public void SetEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if(!enabled) Clear();
+    }
+
+    public void SetTtlMillis(long ttlMillis) { this.ttlNanos = ttlMillis * 1_000_000L; }
+
+    public synchronized void SetMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictOverBudget();
+    }
+
+    /**
+     * Extracts the table names a statement reads from or writes to.
+     *
+     * @param statement The SQL statement.
+     * @return The lower-cased table names referenced by the statement.
+     */
+    public Set<String> TablesOf(String statement) {
+        Set<String> tables = this.parsedTables.get(statement);
+        if(tables != null) return tables;
+
+        Set<String> found = new HashSet<>();
+        Matcher matcher = TABLE_PATTERN.matcher(statement);
+        while(matcher.find()) found.add(matcher.group(1).toLowerCase(Locale.ROOT));
+        tables = java.util.Collections.unmodifiableSet(found);
+
+        if(this.parsedTables.size() >= MAX_PARSED_STATEMENTS) this.parsedTables.clear();
+        this.parsedTables.put(statement, tables);
+        return tables;
+    }
+
+    /**
+     * Captures the write versions of the tables a query depends on. Pass the result to
+     * {@link #Put(Key, List, long[])} so a result read concurrently with a write is not cached.
+     *
+     * @param tables The tables the query reads.
+     * @return The observed versions, in iteration order of the given set.
+     */
+    public synchronized long[] Versions(Set<String> tables) {
+        long[] versions = new long[tables.size()];
+        int i = 0;
+        for(String table : tables) versions[i++] = this.tableVersions.getOrDefault(table, 0L);
+        return versions;
+    }
+
+    /**
+     * Looks up a cached result.
+     *
+     * @param key The query key.
+     * @return A copy of the cached rows, or null on a miss or expired entry.
+     */
+    public synchronized List<Map<String, Object>> Get(Key key) {
+        if(!this.enabled) return null;
+
+        Entry entry = this.entries.get(key);
+        if(entry == null) {
+            this.misses++;
+            return null;
+        }
+
+        if(System.nanoTime() - entry.storedAt > this.ttlNanos) {
+            remove(key, entry);
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return new ArrayList<>(entry.rows);
+    }
+
+    /**
+     * Stores a result unless one of its tables was written since the versions were observed.
+     *
+     * @param key The query key.
+     * @param rows The result rows.
+     * @param observedVersions The versions returned by {@link #Versions(Set)} before the query ran.
+     */
+    public synchronized void Put(Key key, List<Map<String, Object>> rows, long[] observedVersions) {
+        if(!this.enabled || rows == null) return;
+
+        Set<String> tables = TablesOf(key.Statement());
+        if(!Arrays.equals(Versions(tables), observedVersions)) return;
+
+        long bytes = estimateBytes(key, rows);
+        if(bytes > this.maxBytes) return;
+
+        Entry previous = this.entries.get(key);
+        if(previous != null) remove(key, previous);
+
+        this.entries.put(key, new Entry(new ArrayList<>(rows), tables, bytes));
+        this.currentBytes += bytes;
+        for(String table : tables) this.keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+
+        evictOverBudget();
+    }
+
+    /**
+     * Drops every entry that depends on one of the given tables.
+     *
+     * @param tables The tables that were written to.
+     */
+    public synchronized void InvalidateTables(Collection<String> tables) {
+        notifyInvalidate();
+        drop(tables);
+    }
+
+    /**
+     * Drops every entry that depends on one of the given tables after another client wrote to
+     * them (see lib.Cache.ChangeLog). Unlike {@link #InvalidateTables(Collection)} this is not a
+     * write of this session, so reads may stay on the read replicas.
+     *
+     * @param tables The tables another client wrote to.
+     */
+    public synchronized void InvalidateExternal(Collection<String> tables) {
+        drop(tables);
+    }
+
+    private void drop(Collection<String> tables) {
+        for(String table : tables) {
+            this.tableVersions.merge(table, 1L, Long::sum);
+
+            Set<Key> keys = this.keysByTable.remove(table);
+            if(keys == null) continue;
+            for(Key key : keys) {
+                Entry entry = this.entries.get(key);
+                if(entry != null) {
+                    remove(key, entry);
+                    this.invalidations++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void Clear() {
+        notifyInvalidate();
+        for(String table : new ArrayList<>(this.keysByTable.keySet())) this.tableVersions.merge(table, 1L, Long::sum);
+        this.entries.clear();
+        this.keysByTable.clear();
+        this.currentBytes = 0;
+    }
+
+    /**
+     * Sets a callback run whenever entries are invalidated or cleared, which happens after every
+     * write (including writes made on separate connections, which invalidate explicitly).
+     *
+     * @param onInvalidate The callback (null for none).
+     */
+    void OnInvalidate(Runnable onInvalidate) {
+        this.onInvalidate = onInvalidate;
+    }
+
+    private void notifyInvalidate() {
+        Runnable callback = this.onInvalidate;
+        if(callback != null) callback.run();
+    }
+
+    public synchronized int Size() { return this.entries.size(); }
+    public synchronized long Bytes() { return this.currentBytes; }
+    public synchronized long Hits() { return this.hits; }
+    public synchronized long Misses() { return this.misses; }
+
+    public synchronized double HitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("QueryCache[entries=%d, bytes=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, invalidations=%d]",
+            this.entries.size(), this.currentBytes, this.maxBytes, this.hits, this.misses, HitRate() * 100, this.evictions, this.invalidations);
+    }
+
+    private void remove(Key key, Entry entry) {
+        this.entries.remove(key);
+        this.currentBytes -= entry.bytes;
+        for(String table : entry.tables) {
+            Set<Key> keys = this.keysByTable.get(table);
+            if(keys == null) continue;
+            keys.remove(key);
+            if(keys.isEmpty()) this.keysByTable.remove(table);
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<Key, Entry>> eldest = this.entries.entrySet().iterator();
+        while(this.currentBytes > this.maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> next = eldest.next();
+            eldest.remove();
+            Entry entry = next.getValue();
+            this.currentBytes -= entry.bytes;
+            for(String table : entry.tables) {
+                Set<Key> keys = this.keysByTable.get(table);
+                if(keys != null) keys.remove(next.getKey());
+            }
+            this.evictions++;
+        }
+    }
+
+    // Rough heap footprint, good enough to keep the cache inside its budget.
+    private static long estimateBytes(Key key, List<Map<String, Object>> rows) {
+        long bytes = 64 + 2L * key.Statement().length() + 16L * key.args.length;
+        for(Map<String, Object> row : rows) {
+            bytes += 64;
+            for(Map.Entry<String, Object> column : row.entrySet()) {
+                bytes += 48 + sizeOf(column.getValue());
+            }
+        }
+        return bytes;
+    }
+
+    private static long sizeOf(Object value) {
+        if(value == null) return 0;
+        if(value instanceof CharSequence) return 40 + 2L * ((CharSequence) value).length();
+        if(value instanceof byte[]) return 16 + ((byte[]) value).length;
+        return 24;
+    }
+}
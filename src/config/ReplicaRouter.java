@@ -0,0 +1,226 @@
+package config;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the connection a read should use: one of the configured read replicas, or the
+ * primary when there is none that can be trusted.
+ *
+ * Replicas are listed in the library.db.replicas system property as comma-separated JDBC
+ * URLs (same user and password as the primary) and are used round-robin. A replica is
+ * skipped when:
+ * - this session wrote to the primary recently (read-your-writes): reads stay on the
+ *   primary for library.db.replica.stickyMs (default 5000) after every write,
+ * - its replication lag exceeds library.db.replica.maxLagSeconds (default 5) or its
+ *   replication thread is stopped; lag is checked at most every two seconds per replica,
+ * - it could not be reached (a failed connection attempt, or a query that failed with a
+ *   connection error); it is retried after library.db.replica.retryMs (default 30000).
+ *   Errors the primary would report as well (syntax, constraints) leave it in rotation.
+ * A server that is not configured as a replica at all (e.g. a second local instance used
+ * for testing) counts as having no lag.
+ *
+ * @author Darkuz69
+ */
+public class ReplicaRouter {
+    private static final long LAG_CHECK_INTERVAL_MS = 2000;
+
+    private final List<Replica> replicas;
+    private final String user;
+    private final String password;
+    private final long maxLagSeconds = Long.getLong("library.db.replica.maxLagSeconds", 5);
+    private final long stickyMillis = Long.getLong("library.db.replica.stickyMs", 5000);
+    private final long retryMillis = Long.getLong("library.db.replica.retryMs", 30000);
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile long primaryUntil;
+    // connections handed out by OpenReadConnection, so a failure on one can be traced to its replica
+    private final Map<Connection, Replica> opened = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final class Replica {
+        private final String url;
+        private Connection connection;
+        private long downUntil;
+        private long lagCheckedAt;
+        private boolean lagging;
+
+        Replica(String url) { this.url = url; }
+    }
+
+    /**
+     * @param urls Comma-separated JDBC URLs of the replicas (null or empty for none).
+     * @param user The database user.
+     * @param password The database password.
+     */
+    public ReplicaRouter(String urls, String user, String password) {
+        List<Replica> list = new ArrayList<>();
+        if(urls != null) {
+            for(String url : urls.split(",")) {
+                if(!url.trim().isEmpty()) list.add(new Replica(url.trim()));
+            }
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * @return true if at least one replica is configured.
+     */
+    public boolean IsEnabled() {
+        return !this.replicas.isEmpty();
+    }
+
+    /**
+     * Records that this session wrote to the primary, so the following reads see the write.
+     */
+    public void RecordWrite() {
+        if(IsEnabled()) this.primaryUntil = System.currentTimeMillis() + this.stickyMillis;
+    }
+
+    /**
+     * Returns the shared connection of a usable replica.
+     *
+     * @return A replica connection, or null if the read should go to the primary.
+     */
+    public Connection ReadConnection() {
+        Replica replica = pick();
+        return replica == null ? null : replica.connection;
+    }
+
+    /**
+     * Opens a new connection to a usable replica (for long reads such as exports).
+     * The caller owns the returned connection and must close it.
+     *
+     * @return A new replica connection, or null if the read should go to the primary.
+     */
+    public Connection OpenReadConnection() {
+        Replica replica = pick();
+        if(replica == null) return null;
+        try {
+            Connection connection = DriverManager.getConnection(replica.url, this.user, this.password);
+            this.opened.put(connection, replica);
+            return connection;
+        } catch(SQLException e) {
+            markDown(replica, e);
+            return null;
+        }
+    }
+
+    /**
+     * Takes a replica out of rotation after a read on one of its connections failed because
+     * the replica could not be reached. Other failures are only logged: the primary would
+     * report them too.
+     *
+     * @param connection The connection the read failed on (shared or opened by OpenReadConnection).
+     * @param e The failure.
+     */
+    public void ReportFailure(Connection connection, SQLException e) {
+        if(!CircuitBreaker.IsOutage(e)) {
+            System.err.println("Replica read failed, trying the primary: " + e.getMessage());
+            return;
+        }
+
+        if(connection == null) return;
+        Replica owner = this.opened.remove(connection);
+        for(Replica replica : this.replicas) {
+            if(owner != null) break;
+            synchronized(replica) {
+                if(replica.connection == connection) owner = replica;
+            }
+        }
+        if(owner != null) markDown(owner, e);
+        else System.err.println("Replica read failed, using the primary: " + e.getMessage());
+    }
+
+    /**
+     * Closes all replica connections.
+     */
+    public void Close() {
+        for(Replica replica : this.replicas) {
+            synchronized(replica) {
+                closeQuietly(replica);
+            }
+        }
+    }
+
+    private Replica pick() {
+        if(this.replicas.isEmpty() || System.currentTimeMillis() < this.primaryUntil) return null;
+
+        int start = Math.floorMod(this.next.getAndIncrement(), this.replicas.size());
+        for(int i = 0; i < this.replicas.size(); i++) {
+            Replica replica = this.replicas.get((start + i) % this.replicas.size());
+            if(usable(replica)) return replica;
+        }
+        return null;
+    }
+
+    private boolean usable(Replica replica) {
+        synchronized(replica) {
+            long now = System.currentTimeMillis();
+            if(now < replica.downUntil) return false;
+
+            try {
+                if(replica.connection == null || replica.connection.isClosed()) {
+                    replica.connection = DriverManager.getConnection(replica.url, this.user, this.password);
+                    replica.lagCheckedAt = 0;
+                }
+                if(now - replica.lagCheckedAt >= LAG_CHECK_INTERVAL_MS) {
+                    replica.lagging = isLagging(replica.connection);
+                    replica.lagCheckedAt = now;
+                }
+                return !replica.lagging;
+            } catch(SQLException e) {
+                markDown(replica, e);
+                return false;
+            }
+        }
+    }
+
+    private boolean isLagging(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement()) {
+            ResultSet status;
+            String column;
+            try {
+                status = statement.executeQuery("SHOW REPLICA STATUS");
+                column = "Seconds_Behind_Source";
+            } catch(SQLException e) {
+                // servers before MySQL 8.0.22
+                status = statement.executeQuery("SHOW SLAVE STATUS");
+                column = "Seconds_Behind_Master";
+            }
+            try(ResultSet rs = status) {
+                if(!rs.next()) return false;
+                long lag = rs.getLong(column);
+                // NULL: the replication threads are not running, so the data may be arbitrarily old
+                return rs.wasNull() || lag > this.maxLagSeconds;
+            }
+        }
+    }
+
+    private void markDown(Replica replica, SQLException e) {
+        synchronized(replica) {
+            System.err.println("Replica " + replica.url + " unavailable, using the primary: " + e.getMessage());
+            replica.downUntil = System.currentTimeMillis() + this.retryMillis;
+            closeQuietly(replica);
+        }
+    }
+
+    private static void closeQuietly(Replica replica) {
+        if(replica.connection == null) return;
+        try {
+            replica.connection.close();
+        } catch(SQLException ignore) {
+            // already broken
+        }
+        replica.connection = null;
+    }
+}
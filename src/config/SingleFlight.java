@@ -0,0 +1,100 @@
+package config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent reads: while a query is running, other callers with the same
+ * SQL text and parameters wait for it and get its result instead of sending their own.
+ *
+ * A caller only joins a query that observed the same write versions of its tables (see
+ * {@link QueryCache#Versions(java.util.Set)}), so a read issued after a write never gets a
+ * result that may predate the write; it starts a new query instead, which later callers join.
+ *
+ * Every caller gets its own copy of the row list (the rows themselves are shared, as with
+ * the query cache). If the query fails, every caller waiting for it gets the failure.
+ *
+ * @author Darkuz69
+ */
+public class SingleFlight {
+    private static final class Flight {
+        private final long[] versions;
+        private final CompletableFuture<List<Map<String, Object>>> result = new CompletableFuture<>();
+
+        Flight(long[] versions) { this.versions = versions; }
+    }
+
+    private final ConcurrentHashMap<QueryCache.Key, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Runs the query, or waits for an identical one already in flight.
+     *
+     * @param key The SQL text and parameters.
+     * @param versions The write versions of the query's tables, observed before calling.
+     * @param query Runs the query against the database.
+     * @return The result rows.
+     * @throws RuntimeException if the query failed.
+     */
+    public List<Map<String, Object>> Do(QueryCache.Key key, long[] versions, Supplier<List<Map<String, Object>>> query) {
+        Flight mine = new Flight(versions);
+        while(true) {
+            Flight current = this.flights.putIfAbsent(key, mine);
+            if(current == null) break;
+            if(Arrays.equals(current.versions, versions)) {
+                this.shared.incrementAndGet();
+                return copy(await(current));
+            }
+            // in flight since before a write: later callers should join our query instead
+            if(this.flights.replace(key, current, mine)) break;
+        }
+
+        this.executed.incrementAndGet();
+        try {
+            List<Map<String, Object>> rows = query.get();
+            mine.result.complete(rows);
+            return rows;
+        } catch(RuntimeException e) {
+            mine.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.flights.remove(key, mine);
+        }
+    }
+
+    /** @return The number of queries that were sent to the database. */
+    public long Executed() { return this.executed.get(); }
+    /** @return The number of reads answered by joining a query already in flight (queries saved). */
+    public long Shared() { return this.shared.get(); }
+    /** @return The number of queries currently in flight. */
+    public int InFlight() { return this.flights.size(); }
+
+    @Override
+    public String toString() {
+        long saved = Shared();
+        long total = saved + Executed();
+        return String.format("singleflight[executed=%d saved=%d (%.1f%%) inflight=%d]", Executed(), saved, total == 0 ? 0.0 : saved * 100.0 / total, InFlight());
+    }
+
+    private static List<Map<String, Object>> await(Flight flight) {
+        try {
+            return flight.result.join();
+        } catch(CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException("Failed to execute query: " + e.getMessage(), e);
+        }
+    }
+
+    private static List<Map<String, Object>> copy(List<Map<String, Object>> rows) {
+        if(rows instanceof LastKnownResults.StaleRows) return ((LastKnownResults.StaleRows) rows).Copy();
+        return rows == null ? null : new ArrayList<>(rows);
+    }
+}
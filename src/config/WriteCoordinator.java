@@ -0,0 +1,275 @@
+package config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for small single-statement writes.
+ *
+ * Writes are queued and executed by one writer thread on its own connection. Every write that
+ * arrived while the previous group was being committed (up to a size cap) goes into the next
+ * group, which runs as one transaction with a single commit, so concurrent writers share the
+ * cost of the commit's flush instead of each paying for it. A lone writer is not delayed:
+ * its group simply has one statement. An optional window (library.groupcommit.windowMicros,
+ * default 0) waits a little longer for more writes before committing.
+ *
+ * Each caller's future completes after the commit with its own row count. A statement that
+ * fails (e.g. a duplicate key) is left out and the rest of the group is run again, so only
+ * that caller sees the error. Deadlocks and lock wait timeouts rerun the group a few times;
+ * if it keeps failing, its statements are run one transaction each.
+ *
+ * @author Darkuz69
+ */
+public class WriteCoordinator implements AutoCloseable {
+    private static final int CONFLICT_RETRIES = 3;
+
+    private static final class Write {
+        private final String statement;
+        private final Object[] args;
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Write(String statement, Object[] args) {
+            this.statement = statement;
+            this.args = args;
+        }
+    }
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Supplier<Connection> connect;
+    private final QueryCache queryCache;
+    private final int maxGroup;
+    private final long windowNanos;
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    private Thread writer;
+    private Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * @param connect Opens a new connection for the writer thread.
+     * @param queryCache The cache whose entries are invalidated after each commit.
+     * @param maxGroup Maximum number of statements per transaction.
+     * @param windowMicros How long to wait for more writes once a group has started (0 for no wait).
+     */
+    public WriteCoordinator(Supplier<Connection> connect, QueryCache queryCache, int maxGroup, long windowMicros) {
+        if(maxGroup < 1) throw new IllegalArgumentException("Group size must be at least 1");
+        if(windowMicros < 0) throw new IllegalArgumentException("Window cannot be negative");
+
+        this.connect = connect;
+        this.queryCache = queryCache;
+        this.maxGroup = maxGroup;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Queues a write.
+     *
+     * @param statement The INSERT, UPDATE or DELETE statement.
+     * @param args The parameters for the statement.
+     * @return A future completed with the number of rows affected once the write is committed,
+     *         or exceptionally with a RuntimeException if it failed.
+     */
+    public CompletableFuture<Integer> Submit(String statement, Object... args) {
+        if(statement == null || statement.trim().isEmpty()) throw new IllegalArgumentException("Statement cannot be null or empty");
+        if(this.closed) throw new IllegalStateException("Write coordinator is closed");
+
+        Write write = new Write(statement, args == null ? new Object[0] : args.clone());
+        startWriter();
+        this.queue.add(write);
+        return write.result;
+    }
+
+    /** @return The number of transactions committed (or attempted). */
+    public long Groups() { return this.groups.get(); }
+    /** @return The number of writes processed. */
+    public long Writes() { return this.writes.get(); }
+
+    @Override
+    public String toString() {
+        long groupCount = Groups();
+        return String.format("groupcommit[writes=%d groups=%d avg=%.1f]", Writes(), groupCount, groupCount == 0 ? 0.0 : (double) Writes() / groupCount);
+    }
+
+    /**
+     * Stops the writer thread once the queued writes are done and closes its connection.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized(this) {
+            this.closed = true;
+            thread = this.writer;
+        }
+        if(thread == null) return;
+
+        thread.interrupt();
+        try {
+            thread.join(5000);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void startWriter() {
+        if(this.writer != null) return;
+
+        this.writer = new Thread(this::run, "group-commit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private void run() {
+        List<Write> group = new ArrayList<>(this.maxGroup);
+        try {
+            while(true) {
+                Write first;
+                try {
+                    first = this.closed ? this.queue.poll() : this.queue.take();
+                } catch(InterruptedException e) {
+                    if(!this.closed) continue;
+                    first = this.queue.poll();
+                }
+                if(first == null) break;
+
+                group.add(first);
+                this.queue.drainTo(group, this.maxGroup - 1);
+                if(this.windowNanos > 0) collectWithin(group);
+
+                this.groups.incrementAndGet();
+                this.writes.addAndGet(group.size());
+                process(group);
+                group.clear();
+            }
+        } finally {
+            dropConnection();
+        }
+    }
+
+    private void collectWithin(List<Write> group) {
+        long deadline = System.nanoTime() + this.windowNanos;
+        while(group.size() < this.maxGroup) {
+            long left = deadline - System.nanoTime();
+            if(left <= 0) return;
+            try {
+                Write more = this.queue.poll(left, TimeUnit.NANOSECONDS);
+                if(more == null) return;
+                group.add(more);
+                this.queue.drainTo(group, this.maxGroup - group.size());
+            } catch(InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void process(List<Write> group) {
+        List<Write> pending = new ArrayList<>(group);
+        int conflicts = 0;
+
+        while(!pending.isEmpty()) {
+            int[] rows = new int[pending.size()];
+            try {
+                Connection target = connection();
+                int failed = -1;
+                SQLException failure = null;
+                for(int i = 0; i < pending.size() && failed < 0; i++) {
+                    try {
+                        rows[i] = execute(target, pending.get(i));
+                    } catch(SQLException e) {
+                        if(isConflict(e) || isConnectionFailure(e)) throw e;
+                        failed = i;
+                        failure = e;
+                    }
+                }
+
+                if(failed >= 0) {
+                    // leave the bad statement out and run the rest again
+                    target.rollback();
+                    pending.remove(failed).result.completeExceptionally(
+                        new RuntimeException("Failed to execute update: " + failure.getMessage(), failure));
+                    continue;
+                }
+                target.commit();
+            } catch(SQLException e) {
+                if(isConnectionFailure(e)) dropConnection();
+                else rollbackQuietly();
+
+                if(isConflict(e) && ++conflicts < CONFLICT_RETRIES) continue;
+                if(pending.size() > 1) {
+                    // stop grouping these: one transaction each, so they cannot sink each other
+                    for(Write write : pending) process(List.of(write));
+                    return;
+                }
+                e.printStackTrace();
+                pending.get(0).result.completeExceptionally(new RuntimeException("Failed to execute update: " + e.getMessage(), e));
+                return;
+            } catch(RuntimeException e) {
+                // the connection could not be opened
+                for(Write write : pending) write.result.completeExceptionally(e);
+                return;
+            }
+
+            Set<String> tables = new HashSet<>();
+            for(int i = 0; i < pending.size(); i++) {
+                if(rows[i] != 0) tables.addAll(this.queryCache.TablesOf(pending.get(i).statement));
+            }
+            if(!tables.isEmpty()) this.queryCache.InvalidateTables(tables);
+            for(int i = 0; i < pending.size(); i++) pending.get(i).result.complete(rows[i]);
+            return;
+        }
+    }
+
+    private static int execute(Connection target, Write write) throws SQLException {
+        try(PreparedStatement statement = target.prepareStatement(write.statement)) {
+            for(int i = 0; i < write.args.length; i++) DatabaseConnection.Bind(statement, i + 1, write.args[i]);
+            return statement.executeUpdate();
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if(this.connection == null) {
+            this.connection = this.connect.get();
+            this.connection.setAutoCommit(false);
+        }
+        return this.connection;
+    }
+
+    private void rollbackQuietly() {
+        try {
+            if(this.connection != null) this.connection.rollback();
+        } catch(SQLException e) {
+            dropConnection();
+        }
+    }
+
+    private void dropConnection() {
+        if(this.connection == null) return;
+        try {
+            this.connection.close();
+        } catch(SQLException ignore) {
+            // already broken
+        }
+        this.connection = null;
+    }
+
+    // MySQL deadlock (1213, SQLState 40001) and lock wait timeout (1205)
+    private static boolean isConflict(SQLException e) {
+        return "40001".equals(e.getSQLState()) || e.getErrorCode() == 1213 || e.getErrorCode() == 1205;
+    }
+
+    // SQLState class 08: the connection is gone, nothing about the statement itself
+    private static boolean isConnectionFailure(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+}
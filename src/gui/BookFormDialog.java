@@ -2,6 +2,8 @@ package gui;
 
 import service.BookService;
 import service.BookGenreService;
+import lib.Cache.EntityCache;
+import config.DatabaseConnection;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -19,7 +21,6 @@ import java.util.Map;
 public class BookFormDialog extends JDialog {
     private DefaultListModel<String> genreListModel;
     private JList<String> genreList;
-    private List<Integer> genreRecordIds; // Track genre record IDs for updates
     
     public BookFormDialog(JFrame owner, Runnable onSuccess) {
         super(owner, "Add New Book", true);
@@ -27,8 +28,18 @@ public class BookFormDialog extends JDialog {
     }
 
     public BookFormDialog(JFrame owner, int id, String title, String author, String isbn, String year, Runnable onSuccess) {
-        super(owner, "Update Book", true);
-        init(new BookData(id, title, author, isbn, year), onSuccess);
+        this(owner, null, id, title, author, isbn, year, onSuccess);
+    }
+
+    /**
+     * Update dialog for a book that lives in another branch's database (from a search over all branches).
+     * Loading its genres and saving go to that branch, since the ID only means something there.
+     *
+     * @param branch The branch that owns the book (null for this client's own branch)
+     */
+    public BookFormDialog(JFrame owner, String branch, int id, String title, String author, String isbn, String year, Runnable onSuccess) {
+        super(owner, branch == null ? "Update Book" : "Update Book (" + branch + ")", true);
+        init(new BookData(branch, id, title, author, isbn, year), onSuccess);
     }
 
     private void init(BookData data, Runnable onSuccess) {
@@ -86,7 +97,6 @@ public class BookFormDialog extends JDialog {
         
         // Genre list
         genreListModel = new DefaultListModel<>();
-        genreRecordIds = new ArrayList<>();
         genreList = new JList<>(genreListModel);
         genreList.setVisibleRowCount(4);
         JScrollPane genreScrollPane = new JScrollPane(genreList);
@@ -105,7 +115,7 @@ public class BookFormDialog extends JDialog {
 
         // Load existing genres if updating
         if(data != null) {
-            loadExistingGenres(data.id);
+            DatabaseConnection.GetInstance().OnBranch(data.branch, () -> { loadExistingGenres(data.id); return null; });
         }
 
         // Add genre button action
@@ -126,7 +136,6 @@ public class BookFormDialog extends JDialog {
                         }
                     }
                     genreListModel.addElement(genre);
-                    genreRecordIds.add(-1); // -1 indicates new genre (not yet in DB)
                 }
             }
         });
@@ -138,7 +147,6 @@ public class BookFormDialog extends JDialog {
                 int selectedIndex = genreList.getSelectedIndex();
                 if(selectedIndex >= 0) {
                     genreListModel.remove(selectedIndex);
-                    genreRecordIds.remove(selectedIndex);
                 } else {
                     JOptionPane.showMessageDialog(BookFormDialog.this, 
                         "Please select a genre to remove.", "No Selection", JOptionPane.WARNING_MESSAGE);
@@ -177,42 +185,40 @@ public class BookFormDialog extends JDialog {
 
                 try {
                     boolean ok;
-                    int bookId;
                     
                     if(data == null) {
-                        // Insert new book
-                        ok = BookService.InsertBook()
+                        // Insert the book and its genres in one go; the builder hands back the new ID
+                        // so there is no need to look the book up again by ISBN
+                        BookService.InsertBook()
                                 .SetTitle(title)
                                 .SetAuthor(author)
                                 .SetIsbn(isbn)
                                 .SetYearPublished(year)
-                                .Insert();
-                        
-                        if(ok) {
-                            // Get the newly inserted book ID
-                            List<Map<String, Object>> books = BookService.ReadBook()
-                                .WhereIsbn(isbn)
-                                .Read();
-                            if(!books.isEmpty()) {
-                                bookId = (Integer) books.get(0).get("id");
-                                // Insert genres
-                                saveGenres(bookId);
-                            }
-                        }
+                                .SetGenres(currentGenres())
+                                .InsertReturningID();
+                        ok = true;
                     } else {
-                        // Update existing book
-                        ok = BookService.UpdateBook()
-                                .SetTitle(title)
-                                .SetAuthor(author)
-                                .SetIsbn(isbn)
-                                .SetYearPublished(year)
-                                .WhereBookID(data.id)
-                                .Update();
-                        
-                        if(ok) {
-                            // Update genres
-                            updateGenres(data.id);
-                        }
+                        // Update existing book.
+                        // From() gives the builder the values the dialog was opened with, so only
+                        // the fields the user actually edited are written (and nothing at all if
+                        // they just pressed Save).
+                        // Both writes go to the branch that owns the book
+                        ok = DatabaseConnection.GetInstance().OnBranch(data.branch, () -> {
+                            boolean updated = BookService.UpdateBook()
+                                    .From(data.toRow())
+                                    .SetTitle(title)
+                                    .SetAuthor(author)
+                                    .SetIsbn(isbn)
+                                    .SetYearPublished(year)
+                                    .WhereBookID(data.id)
+                                    .Update();
+
+                            if(updated) {
+                                // Update genres
+                                updateGenres(data.id);
+                            }
+                            return updated;
+                        });
                     }
 
                     if(ok) {
@@ -255,24 +261,17 @@ public class BookFormDialog extends JDialog {
      * Load existing genres for a book when the dialog is opened in UPDATE mode.
      * This populates the genre list UI with genres already associated with the book.
      * 
-     * We also track the genre record IDs (from the database) so we know which ones
-     * are existing vs. new when we update later.
-     * 
      * @param bookId The ID of the book to load genres for
      */
     private void loadExistingGenres(int bookId) {
         try {
-            // Query the database for all genres linked to this book
-            List<Map<String, Object>> genres = BookGenreService.ReadBookGenre()
-                .WhereBookID(bookId)
-                .Read();
+            // Look up all genres linked to this book (shared cache, DB on a miss)
+            List<Map<String, Object>> genres = EntityCache.GetGenres(bookId);
             
-            // Add each genre to the UI list and remember its database ID
+            // Add each genre to the UI list
             for(Map<String, Object> genreRecord : genres) {
                 String genre = (String) genreRecord.get("genre");      // The genre name
-                Integer id = (Integer) genreRecord.get("id");          // The database record ID
                 genreListModel.addElement(genre);                      // Show in list
-                genreRecordIds.add(id);                                // Track database ID
             }
         } catch(Exception e) {
             System.err.println("Error loading genres: " + e.getMessage());
@@ -280,119 +279,61 @@ public class BookFormDialog extends JDialog {
         }
     }
 
-    /**
-     * Save genres for a newly created book (INSERT mode).
-     * 
-     * When a new book is added, the genres don't exist yet in the database.
-     * This method inserts each genre as a new record linked to the book.
-     * 
-     * @param bookId The ID of the newly inserted book
-     */
-    private void saveGenres(int bookId) {
-        // Iterate through all genres in the list
-        for(int i = 0; i < genreListModel.size(); i++) {
-            String genre = genreListModel.get(i);
-            
-            // Skip empty genres (validation)
-            if(genre == null || genre.trim().isEmpty()) {
-                System.err.println("Skipping empty genre");
-                continue;
-            }
-            
-            try {
-                // Insert a new BookGenre record linking this book to this genre
-                BookGenreService.InsertBookGenre()
-                    .SetBookID(bookId)
-                    .SetGenre(genre.trim())
-                    .Insert();
-            } catch(Exception e) {
-                System.err.println("Error inserting genre '" + genre + "': " + e.getMessage());
-                e.printStackTrace();
-            }
-        }
-    }
-
     /**
      * Update genres for an existing book (UPDATE mode).
      * 
-     * This method handles the complex logic of:
-     * 1. Deleting genres that were removed by the user
-     * 2. Keeping genres that weren't changed
-     * 3. Adding new genres that the user added
-     * 
-     * How does it know what's new vs. existing?
-     * - genreRecordIds stores the database ID for each genre
-     * - New genres have ID = -1 (special marker we set in the "Add Genre" code)
-     * - Existing genres have a real ID (> 0)
+     * The genre list in the dialog is the full set the book should end up with, so we
+     * just hand it over: genres the user removed are deleted, new ones are inserted and
+     * unchanged ones are left alone. While the database is unreachable the whole
+     * replacement is queued offline; any other failure is thrown so the dialog reports
+     * it instead of saying everything was saved.
      * 
      * @param bookId The ID of the book to update genres for
      */
     private void updateGenres(int bookId) {
         try {
-            // Get all genres currently in the database for this book
-            List<Map<String, Object>> dbGenres = BookGenreService.ReadBookGenre()
+            // Hand the complete list over; deleting removed genres and inserting new ones
+            // happens in one transaction (one round trip with stored procedures enabled)
+            BookGenreService.ReplaceBookGenres()
                 .WhereBookID(bookId)
-                .Read();
-            
-            /**
-             * STEP 1: Find and delete genres that were removed
-             * 
-             * Scenario: Book had genres "Sci-Fi" and "Fiction".
-             * User removes "Fiction" and saves.
-             * We need to delete the "Fiction" record from the database.
-             */
-            for(Map<String, Object> dbGenre : dbGenres) {
-                Integer dbId = (Integer) dbGenre.get("id");  // Database record ID
-                
-                // Is this ID still in our current list?
-                if(!genreRecordIds.contains(dbId)) {
-                    // No - user removed it, so delete it from database
-                    BookGenreService.DeleteBookGenre()
-                        .WhereID(dbId)
-                        .Delete();
-                }
-            }
-            
-            /**
-             * STEP 2: Add new genres that the user added
-             * 
-             * Scenario: User adds "Adventure" and "Mystery" to the list.
-             * These have ID = -1 (our marker for "not yet in database").
-             * We need to insert them as new records.
-             */
-            for(int i = 0; i < genreListModel.size(); i++) {
-                // Check if this is a new genre (marked with ID = -1)
-                if(genreRecordIds.get(i) == -1) {
-                    String genre = genreListModel.get(i);
-                    
-                    // Skip empty genres (validation)
-                    if(genre == null || genre.trim().isEmpty()) {
-                        System.err.println("Skipping empty genre");
-                        continue;
-                    }
-                    
-                    // Insert the new genre into the database
-                    BookGenreService.InsertBookGenre()
-                        .SetBookID(bookId)
-                        .SetGenre(genre.trim())
-                        .Insert();
-                }
-            }
-        } catch(Exception e) {
-            System.err.println("Error updating genres: " + e.getMessage());
-            e.printStackTrace();
+                .SetGenres(currentGenres())
+                .Replace();
+        } catch(RuntimeException e) {
+            // The book's own fields are already saved at this point, so say what was lost
+            throw new RuntimeException("The book was saved, but its genres were not: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * @return The genres currently shown in the genre list.
+     */
+    private List<String> currentGenres() {
+        List<String> genres = new ArrayList<>();
+        for(int i = 0; i < genreListModel.size(); i++) genres.add(genreListModel.get(i));
+        return genres;
+    }
+
     private static class BookData {
+        String branch;  // null: this client's own branch
         int id;
         String title, author, isbn, year;
-        BookData(int id, String t, String a, String i, String y) { 
+        BookData(String branch, int id, String t, String a, String i, String y) { 
+            this.branch = branch;
             this.id = id; 
             title = t; 
             author = a; 
             isbn = i; 
             year = y; 
         }
+
+        /** The original values as a books row, for UpdateBookBuilder.From. */
+        Map<String, Object> toRow() {
+            Map<String, Object> row = new java.util.HashMap<>();
+            row.put("title", title);
+            row.put("author", author);
+            row.put("isbn", isbn);
+            try { row.put("year_published", Integer.parseInt(year.trim())); } catch(Exception ignore) {}  // unknown year counts as changed
+            return row;
+        }
     }
 }
\ No newline at end of file
@@ -2,6 +2,9 @@ package gui;
 
 import service.BookService;
 import service.BookGenreService;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import config.DatabaseConnection;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
@@ -28,6 +31,24 @@ public class BookTablePanel extends JPanel {
     private JTable table;                   // The table that displays book data
     private DefaultTableModel tableModel;   // The data model behind the table (holds rows/columns)
     private JFrame owner;                   // Reference to parent frame (used for dialogs)
+    private TaskScheduler.Task<java.util.List<Map<String, Object>>> currentSearch;  // Search still running (UI thread only)
+
+    // Other branches are configured (-Dlibrary.branches=name=url,...): searches then cover every branch,
+    // and a Branch column shows which branches hold each book
+    // (asked of the router without connecting: the panel is built before the database is reached)
+    private final boolean multiBranch = DatabaseConnection.ConfiguredBranches().IsEnabled();
+    private final java.util.List<String> rowBranches = new ArrayList<>();  // branch that owns each table row (null: this client's branch)
+
+    // What the table shows, so changes made by other clients can be applied to it (UI thread only)
+    private String shownCriteria;  // criteria of the shown search
+    private String shownTerm;      // term of the shown search (null: the full list)
+
+    // Export query: genres are joined in SQL so rows can be streamed without per-book lookups
+    private static final String BOOK_EXPORT_SQL =
+        "SELECT b.id, b.title, b.author, b.isbn, b.year_published, " +
+        "COALESCE((SELECT GROUP_CONCAT(g.genre ORDER BY g.id SEPARATOR ', ') FROM book_genres g WHERE g.book_id = b.id), ''), " +
+        "CASE WHEN b.is_available THEN 'Yes' ELSE 'No' END " +
+        "FROM books b ORDER BY b.id";
 
     /**
      * Constructor: Builds the entire Books panel with header, buttons, search, and table.
@@ -87,22 +108,30 @@ public class BookTablePanel extends JPanel {
             int rv = fc.showOpenDialog(BookTablePanel.this);  // Show dialog and wait for user choice
             if(rv == JFileChooser.APPROVE_OPTION) {  // User clicked "Open"
                 File f = fc.getSelectedFile();
-                importBooksFromCSV(f);  // Process the CSV file
+                // Bulk load is much faster for big initial migrations but needs local_infile enabled on the server
+                // Dry run only reports what an import would change, without touching the database
+                String[] modes = {"Standard import", "Bulk load (large files)", "Dry run (no changes)"};
+                int mode = JOptionPane.showOptionDialog(BookTablePanel.this,
+                    "How should " + f.getName() + " be imported?", "Import Mode",
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, modes, modes[0]);
+                if(mode < 0) return;  // Dialog closed
+                if(mode == 2) previewBooksCSV(f);  // Only report what would change
+                else importBooksFromCSV(f, mode == 1);  // Process the CSV file
             }
         });
         rightWrap.add(importBtn);
 
         /**
          * EXPORT CSV button:
-         * Exports all currently displayed table rows to a CSV file.
+         * Exports all books from the database to a CSV file in the background (with progress and cancel).
          * The user chooses where to save it via a file chooser dialog.
          */
         JButton exportBtn = new JButton("Export CSV");
         exportBtn.setBorder(BorderFactory.createEmptyBorder(6,10,6,10));
         exportBtn.addActionListener(e -> {
             JFileChooser fc = new JFileChooser();
-            fc.setFileFilter(new FileNameExtensionFilter("CSV files", "csv"));
-            fc.setSelectedFile(new File("books_export.csv"));  // Default filename suggestion
+            fc.setFileFilter(new FileNameExtensionFilter("CSV files (*.csv, *.csv.gz)", "csv", "gz"));
+            fc.setSelectedFile(new File("books_export.csv"));  // Default filename suggestion (add .gz to compress)
             int rv = fc.showSaveDialog(BookTablePanel.this);   // Show save dialog
             if(rv == JFileChooser.APPROVE_OPTION) {
                 File f = fc.getSelectedFile();
@@ -134,7 +163,9 @@ public class BookTablePanel extends JPanel {
          * Define table columns: ID, Title, Author, ISBN, Year, Genres, Available
          * These will appear as column headers in the table.
          */
-        String[] columns = new String[] {"ID", "Title", "Author", "ISBN", "Year", "Genres", "Available"};
+        String[] columns = multiBranch
+            ? new String[] {"ID", "Title", "Author", "ISBN", "Year", "Genres", "Available", "Branch"}
+            : new String[] {"ID", "Title", "Author", "ISBN", "Year", "Genres", "Available"};
         
         /**
          * DefaultTableModel is the data structure behind the JTable.
@@ -213,16 +244,21 @@ public class BookTablePanel extends JPanel {
          * Without it, if the table is bigger than the panel, content would be clipped.
          */
         add(new JScrollPane(table), BorderLayout.CENTER);
+
+        /**
+         * CHANGES OF OTHER CLIENTS:
+         * The ChangeLog poller tells us which books other clients changed (on its own thread).
+         * We hop to the UI thread and update just those rows instead of reloading the whole table.
+         */
+        ChangeLog.AddListener(changes -> SwingUtilities.invokeLater(() -> applyRemoteChanges(changes)));
     }
 
     /**
-     * Fetch genres for a specific book ID.
+     * Fetch genres for a specific book ID (served from the shared EntityCache when possible).
      */
     private String getGenresForBook(int bookId) {
         try {
-            List<Map<String, Object>> genres = BookGenreService.ReadBookGenre()
-                .WhereBookID(bookId)
-                .Read();
+            List<Map<String, Object>> genres = EntityCache.GetGenres(bookId);
             
             if(genres.isEmpty()) return "";
             
@@ -239,101 +275,192 @@ public class BookTablePanel extends JPanel {
     /**
      * Load all books from the database and populate the table.
      * 
-     * This method demonstrates the SWINGWORKER pattern - a special Swing pattern for running
-     * long operations (like database queries) without freezing the UI.
-     * 
-     * Why SwingWorker?
-     * If we directly call BookService.ReadBook().Read() here, the UI thread blocks while waiting
-     * for the database to return data. This freezes the entire application - user can't click buttons,
-     * resize windows, etc. SwingWorker solves this by:
-     * 1. Running the database query on a background thread (doInBackground)
-     * 2. Automatically switching back to the UI thread to display results (done)
+     * The query runs as a BULK task on the TaskScheduler (a refresh; searches and form lookups go
+     * first), so the UI thread never waits for the database. The callback passed to whenDone
+     * runs on the UI thread again, where it is safe to fill the table.
      */
     public void loadBooks() {
+        loadBooks(null);
+    }
+
+    /**
+     * Load all books and run the given callback on the UI thread once the rows are shown
+     * (used at startup to record when the first rows became visible).
+     *
+     * @param onLoaded Callback to run after the table was filled (may be null)
+     */
+    public void loadBooks(Runnable onLoaded) {
+        shownCriteria = null;
+        shownTerm = null;
+
         // Show a "wait" cursor (spinning circle icon) to indicate the app is working
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        
-        /**
-         * SwingWorker<ResultType, ProgressType>:
-         * - ResultType = List<Map<String, Object>> (the data the background task returns)
-         * - ProgressType = Void (we don't use progress updates in this case)
-         */
-        new javax.swing.SwingWorker<java.util.List<Map<String, Object>>, Void>() {
-            Exception error = null;  // Store any error that occurs in the background thread
-            
-            /**
-             * doInBackground: This runs on a BACKGROUND THREAD (not the UI thread).
-             * Long operations like database queries should be here to keep the UI responsive.
-             * 
-             * IMPORTANT: Never update UI components directly from here! UI updates must happen
-             * on the UI thread (which is done in the done() method instead).
-             * 
-             * @return The list of all books from the database
-             */
-            @Override 
-            protected java.util.List<Map<String, Object>> doInBackground() {
-                try {
-                    // Query database for all books
-                    return BookService.ReadBook().Read();
-                } catch(Exception ex) { 
-                    // Store error to throw later in done() method
-                    error = ex; 
-                    // Return empty list so done() doesn't crash
-                    return java.util.Collections.emptyList(); 
+
+        TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "load books", token -> {
+            // Query database for all books
+            java.util.List<Map<String, Object>> rows = BookService.ReadBook().Read();
+            // Fetch the genres of every listed book with one query instead of one per row
+            EntityCache.WarmGenres(rows);
+            return rows;
+        }).whenDone((rows, error) -> {
+            try {
+                if(error != null) {
+                    // Show error dialog to user (unless the database is down: the status banner says so already)
+                    if(!DatabaseStatusBanner.isUnavailable(error)) {
+                        JOptionPane.showMessageDialog(BookTablePanel.this, 
+                            "Failed to load books: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                } else {
+                    fillTable(rows);
                 }
+            } finally {
+                // Always restore normal cursor (not wait cursor) when done
+                setCursor(Cursor.getDefaultCursor());
+                if(onLoaded != null) onLoaded.run();
             }
-            
-            /**
-             * done: This is called automatically after doInBackground finishes.
-             * It runs on the UI THREAD, so we can safely update UI components here.
-             * 
-             * This is where we populate the table with the results from doInBackground.
-             */
-            @Override 
-            protected void done() {
+        });
+    }
+
+    /**
+     * Replaces the table rows with the given books (call on the UI thread).
+     * Genres were warmed in the background, so looking them up here hits the cache.
+     * Rows of other branches bring their genres along ("genres") and name their branch ("branch").
+     */
+    private void fillTable(java.util.List<Map<String, Object>> rows) {
+        // Clear all existing rows in the table model
+        tableModel.setRowCount(0);
+        rowBranches.clear();
+
+        // Add each book as a new row in the table
+        for(Map<String, Object> r : rows) {
+            // Remember which database the row came from, so edits and deletes go there
+            rowBranches.add((String) r.get("branch"));
+            tableModel.addRow(toCells(r));
+        }
+    }
+
+    /**
+     * Turns one book into the cells of a table row:
+     * [ID, Title, Author, ISBN, Year, Genres, Available(, Branch)]
+     */
+    private Object[] toCells(Map<String, Object> r) {
+        // Extract fields from the book record, with fallback names for different DB schemas
+        Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
+        Object title = r.getOrDefault("title", "");
+        Object author = r.getOrDefault("author", "");
+        Object isbn = r.getOrDefault("isbn", "");
+        Object year = r.getOrDefault("year_published", r.getOrDefault("year", ""));
+        Object rawAvailable = r.getOrDefault("is_available", r.getOrDefault("is_avaible", null));
+        String available = formatAvailable(rawAvailable);  // Convert boolean/int to "Yes"/"No"
+
+        String genres = "";
+        if(r.get("genres") != null) {
+            // Book of another branch: its ID means nothing to our genre cache
+            genres = String.valueOf(r.get("genres"));
+        } else {
+            try {
+                int bookId = Integer.parseInt(String.valueOf(id));
+                genres = getGenresForBook(bookId);
+            } catch(Exception ex) {
+                System.err.println("Error getting genres: " + ex.getMessage());
+            }
+        }
+
+        if(multiBranch) {
+            Object branches = r.getOrDefault("branches", DatabaseConnection.GetInstance().GetBranchRouter().Home());
+            return new Object[] { id, title, author, isbn, year, genres, available, branches };
+        }
+        return new Object[] { id, title, author, isbn, year, genres, available };
+    }
+
+    /**
+     * Applies books changed by other clients to the table (call on the UI thread).
+     *
+     * Only the changed rows are read again (one query for all of them) and patched in place;
+     * deleted books disappear. New books are appended when the full list is shown (a search
+     * result only changes when it is run again). Changes to many books at once (e.g. an import)
+     * reload what is shown. Rows of other branches are left alone: the change log only covers
+     * this client's branch.
+     */
+    private void applyRemoteChanges(java.util.List<ChangeLog.Change> changes) {
+        Set<Integer> ids = new HashSet<>();
+        boolean inserted = false;
+        for(ChangeLog.Change change : changes) {
+            if(!"books".equals(change.Entity()) && !"book_genres".equals(change.Entity())) continue;
+            if(change.ID() > 0) ids.add(change.ID());
+            else if(change.Op() == ChangeLog.INSERT) inserted = true;
+            else {
+                // too many to patch: show the current list or search again
+                if(shownTerm == null) loadBooks();
+                else performSearch(shownCriteria, shownTerm);
+                return;
+            }
+            if("books".equals(change.Entity()) && change.Op() == ChangeLog.INSERT) inserted = true;
+        }
+        boolean appendNew = inserted && shownTerm == null;
+        if(ids.isEmpty() && !appendNew) return;
+
+        // Highest ID shown: books above it are new to this table
+        int shownMax = 0;
+        for(int row = 0; row < tableModel.getRowCount(); row++) {
+            if(rowBranches.get(row) != null) continue;
+            try {
+                shownMax = Math.max(shownMax, Integer.parseInt(String.valueOf(tableModel.getValueAt(row, 0))));
+            } catch(NumberFormatException ex) {
+                // not a book row
+            }
+        }
+        final int newAbove = appendNew ? shownMax : Integer.MAX_VALUE;
+
+        TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "apply book changes", token -> {
+            Map<Integer, Map<String, Object>> fresh = new LinkedHashMap<>();
+            java.util.List<Map<String, Object>> rows = new ArrayList<>();
+            if(!ids.isEmpty()) rows.addAll(BookService.ReadBook().Where(lib.Query.Criteria.In("id", ids)).Read());
+            if(newAbove != Integer.MAX_VALUE) rows.addAll(BookService.ReadBook().Where(lib.Query.Criteria.Gt("id", newAbove)).Read());
+            EntityCache.WarmGenres(rows);
+            for(Map<String, Object> row : rows) fresh.put(((Number) row.get("id")).intValue(), row);
+            return fresh;
+        }).whenDone((fresh, error) -> {
+            if(error != null) {
+                // nothing lost: the next full load shows the changes
+                System.err.println("Failed to apply book changes of other clients: " + error.getMessage());
+                return;
+            }
+
+            // Patch or drop the rows already shown (backwards, so removing keeps the indexes valid)
+            Set<Integer> seen = new HashSet<>();
+            for(int row = tableModel.getRowCount() - 1; row >= 0; row--) {
+                if(rowBranches.get(row) != null) continue;
+                int id;
                 try {
-                    // Get the result from doInBackground (this will block if not done yet, but it should be)
-                    java.util.List<Map<String, Object>> rows = get();
-                    
-                    // Clear all existing rows in the table model
-                    tableModel.setRowCount(0);
-                    
-                    // Add each book as a new row in the table
-                    for(Map<String, Object> r : rows) {
-                        // Extract fields from the book record, with fallback names for different DB schemas
-                        Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
-                        Object title = r.getOrDefault("title", "");
-                        Object author = r.getOrDefault("author", "");
-                        Object isbn = r.getOrDefault("isbn", "");
-                        Object year = r.getOrDefault("year_published", r.getOrDefault("year", ""));
-                        Object rawAvailable = r.getOrDefault("is_available", r.getOrDefault("is_avaible", null));
-                        String available = formatAvailable(rawAvailable);  // Convert boolean/int to "Yes"/"No"
-                        
-                        // Fetch genres for this book (separate DB query, could be optimized)
-                        String genres = "";
-                        try {
-                            int bookId = Integer.parseInt(String.valueOf(id));
-                            genres = getGenresForBook(bookId);
-                        } catch(Exception ex) {
-                            System.err.println("Error getting genres: " + ex.getMessage());
-                        }
-                        
-                        // Add row to table: [ID, Title, Author, ISBN, Year, Genres, Available]
-                        tableModel.addRow(new Object[] { id, title, author, isbn, year, genres, available });
-                    }
-                    
-                    // If an error occurred in the background, throw it now to show error dialog
-                    if(error != null) throw error;
-                } catch(Exception ex) {
-                    // Show error dialog to user
-                    JOptionPane.showMessageDialog(BookTablePanel.this, 
-                        "Failed to load books: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                } finally {
-                    // Always restore normal cursor (not wait cursor) when done
-                    setCursor(Cursor.getDefaultCursor());
+                    id = Integer.parseInt(String.valueOf(tableModel.getValueAt(row, 0)));
+                } catch(NumberFormatException ex) {
+                    continue;
+                }
+                seen.add(id);
+                if(!ids.contains(id) && !fresh.containsKey(id)) continue;
+                Map<String, Object> book = fresh.get(id);
+                if(book == null) {
+                    tableModel.removeRow(row);
+                    rowBranches.remove(row);
+                    continue;
+                }
+                Object[] cells = toCells(book);
+                for(int col = 0; col < cells.length; col++) {
+                    if(multiBranch && col == cells.length - 1) continue;  // keep the merged branch list
+                    tableModel.setValueAt(cells[col], row, col);
+                }
+            }
+
+            // Books added by other clients since the list was loaded
+            if(appendNew && shownTerm == null) {
+                for(Map.Entry<Integer, Map<String, Object>> entry : fresh.entrySet()) {
+                    if(entry.getKey() <= newAbove || seen.contains(entry.getKey())) continue;
+                    rowBranches.add(null);
+                    tableModel.addRow(toCells(entry.getValue()));
                 }
             }
-        }.execute();  // Start the background worker thread
+        });
     }
 
     public void performSearch(String criteria, String term) {
@@ -341,82 +468,187 @@ public class BookTablePanel extends JPanel {
             loadBooks(); 
             return; 
         }
+        shownCriteria = criteria;
+        shownTerm = term;
         
+        // A newer search makes the previous one pointless
+        if(currentSearch != null) currentSearch.cancel();
+
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        new javax.swing.SwingWorker<java.util.List<Map<String, Object>>, Void>() {
-            Exception error = null;
-            
-            @Override 
-            protected java.util.List<Map<String, Object>> doInBackground() {
-                try {
-                    // Handle genre search separately
-                    if("Genre".equalsIgnoreCase(criteria)) {
-                        return searchByGenre(term);
-                    }
-                    
-                    // Handle other criteria
-                    if("Title".equalsIgnoreCase(criteria)) {
-                        return BookService.ReadBook().WhereTitle(term).Read();
-                    }
-                    if("Author".equalsIgnoreCase(criteria)) {
-                        return BookService.ReadBook().WhereAuthor(term).Read();
-                    }
-                    if("ISBN".equalsIgnoreCase(criteria)) {
-                        return BookService.ReadBook().WhereIsbn(term).Read();
-                    }
-                    if("Year".equalsIgnoreCase(criteria)) {
-                        int y; 
-                        try { 
-                            y = Integer.parseInt(term); 
-                        } catch(Exception ex) { 
-                            throw new RuntimeException("Year must be a number."); 
-                        }
-                        return BookService.ReadBook().WhereYearPublished(y).Read();
-                    }
-                    
-                    // "All" criteria - search across all fields including genres
-                    return searchAll(term);
-                    
-                } catch(Exception ex) { 
-                    error = ex; 
-                    return java.util.Collections.emptyList(); 
-                }
+        TaskScheduler.Task<java.util.List<Map<String, Object>>> search = TaskScheduler.get().submit(TaskScheduler.Lane.INTERACTIVE, "search books", token -> {
+            if(multiBranch) {
+                // Show what the fastest branches found while the others are still searching
+                java.util.function.Consumer<java.util.List<Map<String, Object>>> partial = TaskScheduler.onUiThread(shown -> {
+                    if(!token.isCancelled()) fillTable(shown);
+                });
+                return searchAllBranches(criteria, term, token, partial);
             }
-            
-            @Override 
-            protected void done() {
-                try {
-                    java.util.List<Map<String, Object>> rows = get();
-                    tableModel.setRowCount(0);
-                    for(Map<String, Object> r : rows) {
-                        Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
-                        Object title = r.getOrDefault("title", "");
-                        Object author = r.getOrDefault("author", "");
-                        Object isbn = r.getOrDefault("isbn", "");
-                        Object year = r.getOrDefault("year_published", r.getOrDefault("year", ""));
-                        Object rawAvailable = r.getOrDefault("is_available", r.getOrDefault("is_avaible", null));
-                        String available = formatAvailable(rawAvailable);
-                        
-                        // Fetch genres for this book
-                        String genres = "";
-                        try {
-                            int bookId = Integer.parseInt(String.valueOf(id));
-                            genres = getGenresForBook(bookId);
-                        } catch(Exception ex) {
-                            System.err.println("Error getting genres: " + ex.getMessage());
-                        }
-                        
-                        tableModel.addRow(new Object[] { id, title, author, isbn, year, genres, available });
-                    }
-                    if(error != null) throw error;
-                } catch(Exception ex) {
-                    JOptionPane.showMessageDialog(BookTablePanel.this, 
-                        "Search failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                } finally { 
-                    setCursor(Cursor.getDefaultCursor()); 
-                }
+            java.util.List<Map<String, Object>> rows = searchRows(criteria, term);
+            token.throwIfCancelled();
+            EntityCache.WarmGenres(rows);
+            return rows;
+        });
+        currentSearch = search;
+        search.whenDone((rows, error) -> {
+            if(search != currentSearch) return;  // superseded by a newer search
+            currentSearch = null;
+            setCursor(Cursor.getDefaultCursor());
+            if(TaskScheduler.isCancellation(error) || DatabaseStatusBanner.isUnavailable(error)) return;
+            if(error != null) {
+                JOptionPane.showMessageDialog(BookTablePanel.this, 
+                    "Search failed: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            fillTable(rows);
+        });
+    }
+
+    /**
+     * Runs the search on every branch at once (on a background thread) and merges the answers as
+     * they arrive. A book held by several branches (same ISBN, or same title, author and year when
+     * it has none) is listed once, with all its branches; the copy in this client's own branch is
+     * the one that opens for editing. The merged rows so far go to the partial callback after each
+     * branch answers. A branch that fails or does not answer in time (library.branches.timeoutMs)
+     * is left out, so one slow branch cannot hold up the search.
+     */
+    private java.util.List<Map<String, Object>> searchAllBranches(String criteria, String term, TaskScheduler.CancellationToken token,
+            java.util.function.Consumer<java.util.List<Map<String, Object>>> partial) throws Exception {
+        DatabaseConnection database = DatabaseConnection.GetInstance();
+        Map<String, Map<String, Object>> merged = new LinkedHashMap<>();
+        List<Exception> failures = new ArrayList<>();
+
+        // The callback runs on this thread, one branch at a time, so merged needs no locking
+        database.<java.util.List<Map<String, Object>>>ForEachBranch(branch -> withGenres(searchRows(criteria, term)), (branch, rows, failure) -> {
+            if(failure != null) {
+                System.err.println("Branch " + branch + " left out of the search: " + failure.getMessage());
+                failures.add(failure);
+                return;
+            }
+            String owner = database.GetBranchRouter().IsHome(branch) ? null : branch;
+            for(Map<String, Object> row : rows) mergeRow(merged, branch, owner, row);
+            if(token.isCancelled()) return;
+
+            // Copies: the merged rows keep changing while the UI thread shows them
+            java.util.List<Map<String, Object>> shown = new ArrayList<>(merged.size());
+            for(Map<String, Object> row : merged.values()) shown.add(new HashMap<>(row));
+            partial.accept(shown);
+        });
+        token.throwIfCancelled();
+
+        // Nothing answered at all: report why (e.g. this client's own database is down too)
+        if(merged.isEmpty() && failures.size() == database.GetBranchRouter().Names().size()) throw failures.get(0);
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Adds one branch's row to the merged search result (see searchAllBranches).
+     */
+    private static void mergeRow(Map<String, Map<String, Object>> merged, String branch, String owner, Map<String, Object> row) {
+        Object isbnKey = row.get("isbn_key");
+        String key = (isbnKey != null && !String.valueOf(isbnKey).isEmpty())
+            ? "isbn:" + isbnKey
+            : "book:" + String.valueOf(row.get("title")).trim().toLowerCase() + "|"
+                + String.valueOf(row.get("author")).trim().toLowerCase() + "|" + row.get("year_published");
+
+        Map<String, Object> existing = merged.get(key);
+        if(existing != null && Arrays.asList(String.valueOf(existing.get("branches")).split(", ")).contains(branch)) {
+            // Two different books of the same branch that happen to look alike: keep both
+            key = key + "|" + branch + "#" + row.get("id");
+            existing = merged.get(key);
+        }
+
+        if(existing == null) {
+            // Copy: the row may be shared with the query cache
+            Map<String, Object> copy = new HashMap<>(row);
+            copy.put("branch", owner);
+            copy.put("branches", branch);
+            merged.put(key, copy);
+            return;
+        }
+
+        String branches = existing.get("branches") + ", " + branch;
+        if(owner == null && existing.get("branch") != null) {
+            // Our own copy of the book arrived after another branch's: show and edit that one instead
+            existing.clear();
+            existing.putAll(row);
+            existing.put("branch", null);
+        }
+        existing.put("branches", branches);
+    }
+
+    /**
+     * Makes the genres of searched books available to fillTable. For this client's branch they are
+     * warmed in the shared cache; another branch's IDs would clash with ours in that cache, so its
+     * genres are looked up in that branch (one query, like WarmGenres) and travel with the rows.
+     * Must run inside the branch's routing (see DatabaseConnection.OnBranch).
+     */
+    private java.util.List<Map<String, Object>> withGenres(java.util.List<Map<String, Object>> rows) {
+        if(DatabaseConnection.GetInstance().RoutedBranch() == null) {
+            EntityCache.WarmGenres(rows);
+            return rows;
+        }
+        if(rows.isEmpty()) return rows;
+
+        Set<Object> ids = new HashSet<>();
+        for(Map<String, Object> row : rows) ids.add(row.get("id"));
+
+        Map<Object, java.util.List<String>> byBook = new HashMap<>();
+        for(Map<String, Object> genre : BookGenreService.ReadBookGenre().Where(lib.Query.Criteria.In("book_id", ids)).Read()) {
+            Object name = genre.get("genre");
+            if(name != null && !String.valueOf(name).trim().isEmpty()) {
+                byBook.computeIfAbsent(genre.get("book_id"), k -> new ArrayList<>()).add(String.valueOf(name));
             }
-        }.execute();
+        }
+
+        java.util.List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for(Map<String, Object> row : rows) {
+            Map<String, Object> copy = new HashMap<>(row);
+            copy.put("genres", String.join(", ", byBook.getOrDefault(row.get("id"), Collections.emptyList())));
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the query for a search (on a background thread).
+     */
+    private java.util.List<Map<String, Object>> searchRows(String criteria, String term) throws Exception {
+        // Handle genre search separately
+        if("Genre".equalsIgnoreCase(criteria)) {
+            return searchByGenre(term);
+        }
+        
+        // Handle other criteria
+        if("Title".equalsIgnoreCase(criteria)) {
+            return BookService.ReadBook().WhereTitle(term).Read();
+        }
+        if("Author".equalsIgnoreCase(criteria)) {
+            return BookService.ReadBook().WhereAuthor(term).Read();
+        }
+        if("ISBN".equalsIgnoreCase(criteria)) {
+            return BookService.ReadBook().WhereIsbn(term).Read();
+        }
+        if("Year".equalsIgnoreCase(criteria)) {
+            // A range like "1990-1999" is matched with BETWEEN in the database
+            java.util.regex.Matcher range = java.util.regex.Pattern.compile("(\\d+)\\s*-\\s*(\\d+)").matcher(term.trim());
+            if(range.matches()) {
+                int from = Integer.parseInt(range.group(1));
+                int to = Integer.parseInt(range.group(2));
+                return BookService.ReadBook()
+                    .Where(lib.Query.Criteria.Between("year_published", Math.min(from, to), Math.max(from, to)))
+                    .Read();
+            }
+            int y; 
+            try { 
+                y = Integer.parseInt(term); 
+            } catch(Exception ex) { 
+                throw new RuntimeException("Year must be a number (or a range like 1990-1999)."); 
+            }
+            return BookService.ReadBook().WhereYearPublished(y).Read();
+        }
+        
+        // "All" criteria - search across all fields including genres
+        return searchAll(term);
     }
 
     /**
@@ -440,15 +672,11 @@ public class BookTablePanel extends JPanel {
      * Search books by genre.
      */
     private java.util.List<Map<String, Object>> searchByGenre(String genreTerm) throws Exception {
-        System.out.println("Searching by genre: '" + genreTerm + "'");
-        
         // First find all genres matching the term
         List<Map<String, Object>> matchingGenres = BookGenreService.ReadBookGenre()
             .WhereGenre(genreTerm)
             .Read();
         
-        System.out.println("Found " + matchingGenres.size() + " matching genre records");
-        
         if(matchingGenres.isEmpty()) {
             return java.util.Collections.emptyList();
         }
@@ -462,49 +690,19 @@ public class BookTablePanel extends JPanel {
             }
         }
         
-        System.out.println("Found " + bookIds.size() + " unique books with matching genres");
-        
-        // Fetch full book details for these IDs
-        java.util.List<Map<String, Object>> results = new ArrayList<>();
-        for(Integer bookId : bookIds) {
-            List<Map<String, Object>> books = BookService.ReadBook()
-                .WhereBookID(bookId)
-                .Read();
-            results.addAll(books);
-        }
-        
-        return results;
+        // Fetch full book details for all these IDs with one query
+        return BookService.ReadBook()
+            .Where(lib.Query.Criteria.In("id", bookIds))
+            .Read();
     }
 
     /**
      * Search across all fields including genres.
+     * The database does the matching (title/author on their indexed search keys), so we
+     * no longer pull every book and lowercase every field here.
      */
     private java.util.List<Map<String, Object>> searchAll(String term) throws Exception {
-        java.util.List<Map<String, Object>> all = BookService.ReadBook().Read();
-        String lower = term.toLowerCase();
-        java.util.List<Map<String, Object>> out = new java.util.ArrayList<>();
-        
-        for(Map<String, Object> r : all) {
-            String title = String.valueOf(r.getOrDefault("title", "")).toLowerCase();
-            String author = String.valueOf(r.getOrDefault("author", "")).toLowerCase();
-            String isbn = String.valueOf(r.getOrDefault("isbn", "")).toLowerCase();
-            String year = String.valueOf(r.getOrDefault("year_published", r.getOrDefault("year", ""))).toLowerCase();
-            
-            // Also check genres
-            String genres = "";
-            try {
-                int bookId = Integer.parseInt(String.valueOf(r.getOrDefault("id", r.getOrDefault("book_id", "0"))));
-                genres = getGenresForBook(bookId).toLowerCase();
-            } catch(Exception ex) {
-                // Ignore
-            }
-            
-            if(title.contains(lower) || author.contains(lower) || 
-               isbn.contains(lower) || year.contains(lower) || genres.contains(lower)) {
-                out.add(r);
-            }
-        }
-        return out;
+        return BookService.ReadBook().WhereAnyFieldContains(term).Read();
     }
 
     private void showRowPopup(MouseEvent e, int row) {
@@ -539,8 +737,9 @@ public class BookTablePanel extends JPanel {
         String curAuthor = String.valueOf(tableModel.getValueAt(row, 2));
         String curIsbn = String.valueOf(tableModel.getValueAt(row, 3));
         String curYear = String.valueOf(tableModel.getValueAt(row, 4));
+        String branch = row < rowBranches.size() ? rowBranches.get(row) : null;  // save to the branch that owns the book
 
-        BookFormDialog d = new BookFormDialog(owner, id, curTitle, curAuthor, curIsbn, curYear, new Runnable() {
+        BookFormDialog d = new BookFormDialog(owner, branch, id, curTitle, curAuthor, curIsbn, curYear, new Runnable() {
             @Override public void run() { loadBooks(); }
         });
         d.setVisible(true);
@@ -569,8 +768,11 @@ public class BookTablePanel extends JPanel {
                 continue; 
             }
             
+            String branch = row < rowBranches.size() ? rowBranches.get(row) : null;
             try { 
-                boolean ok = BookService.DeleteBook().WhereBookID(id).Delete(); 
+                // Genres and loans go with the book, in one transaction (in the branch that owns it)
+                boolean ok = DatabaseConnection.GetInstance().OnBranch(branch, 
+                    () -> BookService.DeleteBook().WhereBookID(id).WithGenresAndLoans().Delete()); 
                 if(!ok) { 
                     anyFailed = true; 
                     errors.append("Failed to delete id: ").append(id).append("\n"); 
@@ -592,264 +794,143 @@ public class BookTablePanel extends JPanel {
         loadBooks();
     }
 
-    private void importBooksFromCSV(File file) {
+    /**
+     * Imports books from a CSV file in the background with a progress dialog (cancellable).
+     * The heavy lifting (parallel parsing, chunked transactions, error report) is done by BookCsvImport,
+     * or by BookBulkLoad (LOAD DATA into a staging table, then a set-based merge) when bulk is true.
+     * 
+     * @param file The CSV file to import.
+     * @param bulk true to use the native bulk-load path.
+     */
+    private void importBooksFromCSV(File file, boolean bulk) {
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        new javax.swing.SwingWorker<Void, Void>() {
-            Exception error = null;
-            int success = 0;
-            int skipped = 0;
-            int duplicatesSkipped = 0;
-            java.util.List<String> failures = new ArrayList<>();
-
-            private String trimQuotes(String s) {
-                if(s == null) return "";
-                s = s.trim();
-                if(s.startsWith("\"") && s.endsWith("\"")) {
-                    s = s.substring(1, s.length()-1);
-                }
-                return s;
+
+        // Progress is measured in bytes of the file so the bar is meaningful before the row count is known
+        ProgressMonitor monitor = new ProgressMonitor(this, "Importing " + file.getName(), "Starting...", 0, 1000);
+        monitor.setMillisToDecideToPopup(200);
+        monitor.setMillisToPopup(500);
+
+        java.util.function.Consumer<long[]> showProgress = TaskScheduler.onUiThread(last -> {
+            monitor.setNote(String.format("%,d rows processed", last[0]));
+            monitor.setProgress(last[2] <= 0 ? 0 : (int) Math.min(999, last[1] * 1000 / last[2]));
+        });
+
+        // Bulk lane: the importer checks the token between batches, which also lets searches go first
+        TaskScheduler.Task<lib.Csv.BookCsvImport.Result> task = TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "import " + file.getName(), token -> {
+            lib.Csv.BookCsvImport.Progress progress = (rows, bytes, total) -> showProgress.accept(new long[] { rows, bytes, total });
+            // LOAD DATA needs a MySQL server; on the embedded store the regular importer is just as fast
+            if(bulk && !config.DatabaseConnection.GetInstance().IsEmbedded()) {
+                return new lib.Csv.BookBulkLoad(file.toPath())
+                    .OnProgress(progress)
+                    .CancelWhen(token::checkpoint)
+                    .Run();
             }
+            return new lib.Csv.BookCsvImport(file.toPath())
+                .OnProgress(progress)
+                .CancelWhen(token::checkpoint)
+                .Run();
+        });
 
-            @Override
-            protected Void doInBackground() {
-                try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    boolean first = true;
-                    while((line = br.readLine()) != null) {
-                        if(line.trim().isEmpty()) continue;
-                        String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-                        for(int i=0;i<parts.length;i++) parts[i] = trimQuotes(parts[i]);
-
-                        // detect header line
-                        if(first) {
-                            first = false;
-                            String low = String.join("|", parts).toLowerCase();
-                            if(low.contains("title") || low.contains("author") || low.contains("isbn")) {
-                                // assume header, skip
-                                continue;
-                            }
-                        }
-
-                        // Expect at least 4 columns: title, author, isbn, year
-                        if(parts.length < 4) { skipped++; failures.add("Too few columns: " + line); continue; }
-                        String title = parts[0].trim();
-                        String author = parts[1].trim();
-                        String isbn = parts[2].trim();
-                        String yearStr = parts[3].trim();
-                        int year = 0;
-                        try { year = Integer.parseInt(yearStr); } catch(Exception ex) { skipped++; failures.add("Invalid year for: " + title); continue; }
-
-                        String genresCol = (parts.length >= 5) ? parts[4].trim() : "";
-                        try {
-                            int bookId = 0;
-                            boolean matchedExisting = false;
-                            boolean exactMatch = false;
-
-                            // 1) If ISBN is present, try to find by ISBN first
-                            if(isbn != null && !isbn.isEmpty()) {
-                                try {
-                                    java.util.List<Map<String,Object>> found = BookService.ReadBook().WhereIsbn(isbn).Read();
-                                    if(found != null && !found.isEmpty()) {
-                                        Object bidObj = found.get(0).getOrDefault("id", found.get(0).getOrDefault("book_id", "0"));
-                                        try { bookId = Integer.parseInt(String.valueOf(bidObj)); } catch(Exception ignore) { bookId = 0; }
-                                        if(bookId != 0) {
-                                            // compare fields to determine if it's the same data
-                                            String existingTitle = String.valueOf(found.get(0).getOrDefault("title", "")).trim();
-                                            String existingAuthor = String.valueOf(found.get(0).getOrDefault("author", "")).trim();
-                                            String existingYear = String.valueOf(found.get(0).getOrDefault("year_published", found.get(0).getOrDefault("year", ""))).trim();
-                                            if(existingTitle.equalsIgnoreCase(title.trim()) && existingAuthor.equalsIgnoreCase(author.trim()) && existingYear.equals(String.valueOf(year))) {
-                                                matchedExisting = true; // exact same data present
-                                                exactMatch = true;
-                                            } else {
-                                                // found by ISBN but data differs; treat as existing to avoid duplicate inserts
-                                                matchedExisting = true;
-                                            }
-                                        }
-                                    }
-                                } catch(Exception ex) {
-                                    // ignore
-                                }
-                            }
-
-                            // 2) If still not found, try match by title+author+year
-                            if(bookId == 0) {
-                                try {
-                                    java.util.List<Map<String,Object>> byFields = BookService.ReadBook()
-                                            .WhereTitle(title)
-                                            .WhereAuthor(author)
-                                            .WhereYearPublished(year)
-                                            .Read();
-                                    if(byFields != null && !byFields.isEmpty()) {
-                                        Object bidObj = byFields.get(0).getOrDefault("id", byFields.get(0).getOrDefault("book_id", "0"));
-                                        try { bookId = Integer.parseInt(String.valueOf(bidObj)); } catch(Exception ignore) { bookId = 0; }
-                                        if(bookId != 0) { matchedExisting = true; exactMatch = true; }
-                                    }
-                                } catch(Exception ex) {
-                                    // ignore
-                                }
-                            }
-
-                            // 3) If still not found, insert the book
-                            boolean inserted = false;
-                            if(bookId == 0) {
-                                try {
-                                    inserted = BookService.InsertBook()
-                                            .SetTitle(title)
-                                            .SetAuthor(author)
-                                            .SetIsbn(isbn)
-                                            .SetYearPublished(year)
-                                            .Insert();
-                                } catch(Exception insEx) {
-                                    inserted = false;
-                                }
-
-                                // try to locate the inserted book (prefer by ISBN if available)
-                                if(isbn != null && !isbn.isEmpty()) {
-                                    try {
-                                        java.util.List<Map<String,Object>> found = BookService.ReadBook().WhereIsbn(isbn).Read();
-                                        if(found != null && !found.isEmpty()) {
-                                            Object bidObj = found.get(0).getOrDefault("id", found.get(0).getOrDefault("book_id", "0"));
-                                            try { bookId = Integer.parseInt(String.valueOf(bidObj)); } catch(Exception ignore) { bookId = 0; }
-                                        }
-                                    } catch(Exception ignore) {}
-                                }
-                                if(bookId == 0) {
-                                    try {
-                                        java.util.List<Map<String,Object>> byFields = BookService.ReadBook()
-                                                .WhereTitle(title)
-                                                .WhereAuthor(author)
-                                                .WhereYearPublished(year)
-                                                .Read();
-                                        if(byFields != null && !byFields.isEmpty()) {
-                                            Object bidObj = byFields.get(0).getOrDefault("id", byFields.get(0).getOrDefault("book_id", "0"));
-                                            try { bookId = Integer.parseInt(String.valueOf(bidObj)); } catch(Exception ignore) { bookId = 0; }
-                                        }
-                                    } catch(Exception ignore) {}
-                                }
-
-                                if(bookId == 0 && !inserted) {
-                                    skipped++; failures.add("DB insert failed and could not locate book: " + title);
-                                    continue;
-                                }
-                            }
-
-                            // At this point bookId should be set (either found or inserted)
-                            if(bookId == 0) {
-                                skipped++; failures.add("Could not determine book id for: " + title);
-                                continue;
-                            }
-
-                            // 4) Insert genres if provided, with dedup logic
-                            if(genresCol != null && !genresCol.isEmpty()) {
-                                Set<String> existingGenresNorm = new HashSet<>();
-                                try {
-                                    java.util.List<Map<String,Object>> eg = BookGenreService.ReadBookGenre()
-                                            .WhereBookID(bookId)
-                                            .Read();
-                                    for(Map<String,Object> ge : eg) {
-                                        Object gv = ge.getOrDefault("genre", "");
-                                        String gn = String.valueOf(gv).trim().toLowerCase();
-                                        if(!gn.isEmpty()) existingGenresNorm.add(gn);
-                                    }
-                                } catch(Exception ex) {
-                                    // ignore failures fetching existing genres; we'll still attempt inserts
-                                }
-
-                                String[] genreParts = genresCol.split("[;,]");
-                                Set<String> addedThisRow = new HashSet<>();
-                                for(String g : genreParts) {
-                                    String gm = g.trim();
-                                    if(gm.isEmpty()) continue;
-                                    String gmNorm = gm.toLowerCase();
-                                    if(existingGenresNorm.contains(gmNorm) || addedThisRow.contains(gmNorm)) continue;
-                                    try {
-                                        boolean gok = BookGenreService.InsertBookGenre()
-                                            .SetBookID(bookId)
-                                            .SetGenre(gm)
-                                            .Insert();
-                                        if(!gok) {
-                                            failures.add("Failed to insert genre '" + gm + "' for book: " + title);
-                                        } else {
-                                            existingGenresNorm.add(gmNorm);
-                                            addedThisRow.add(gmNorm);
-                                        }
-                                    } catch(Exception ge) {
-                                        failures.add("Error inserting genre '" + gm + "' for book: " + title + " -> " + ge.getMessage());
-                                    }
-                                }
-                            }
-
-                            // Count as duplicate if exactMatch (same data already present)
-                            if(exactMatch) {
-                                duplicatesSkipped++;
-                            } else if(bookId != 0) {
-                                success++;
-                            } else {
-                                skipped++;
-                            }
-                        } catch(Exception ex) {
-                            skipped++; failures.add("Error inserting: " + title + " -> " + ex.getMessage());
-                        }
-                    }
-                } catch(Exception ex) {
-                    error = ex;
-                }
-                return null;
+        // ProgressMonitor must be polled on the UI thread, so check the Cancel button with a timer
+        javax.swing.Timer cancelPoll = new javax.swing.Timer(200, e -> { if(monitor.isCanceled()) task.cancel(); });
+        cancelPoll.start();
+
+        task.whenDone((result, error) -> {
+            cancelPoll.stop();
+            monitor.close();
+            setCursor(Cursor.getDefaultCursor());
+
+            if(TaskScheduler.isCancellation(error)) {
+                JOptionPane.showMessageDialog(BookTablePanel.this, "Import cancelled before it started.", "Import", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            if(error != null) {
+                JOptionPane.showMessageDialog(BookTablePanel.this, "Import failed: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                loadBooks();
+                return;
             }
 
-            @Override
-            protected void done() {
-                setCursor(Cursor.getDefaultCursor());
-                if(error != null) {
-                    JOptionPane.showMessageDialog(BookTablePanel.this, "Import failed: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
+            StringBuilder msg = new StringBuilder();
+            if(result.Cancelled()) msg.append("Import cancelled; rows below were committed before stopping.\n");
+            msg.append("Imported: ").append(result.Imported()).append("\n");
+            msg.append("Skipped: ").append(result.Skipped()).append("\n");
+            if(result.Duplicates() > 0) msg.append("Duplicates skipped: ").append(result.Duplicates()).append("\n");
+            if(result.Failures() > 0) {
+                msg.append("Failures:\n");
+                for(String f : result.SampleFailures()) msg.append(" - ").append(f).append("\n");
+                if(result.Failures() > result.SampleFailures().size()) {
+                    msg.append(" ... and ").append(result.Failures() - result.SampleFailures().size()).append(" more\n");
                 }
-                StringBuilder msg = new StringBuilder();
-                msg.append("Imported: ").append(success).append("\n");
-                msg.append("Skipped: ").append(skipped).append("\n");
-                if(duplicatesSkipped > 0) msg.append("Duplicates skipped: ").append(duplicatesSkipped).append("\n");
-                if(!failures.isEmpty()) {
-                    msg.append("Failures:\n");
-                    for(String f : failures) msg.append(" - ").append(f).append("\n");
-                }
-                JOptionPane.showMessageDialog(BookTablePanel.this, msg.toString(), "Import Summary", JOptionPane.INFORMATION_MESSAGE);
-                loadBooks();
+                msg.append("Full error report: ").append(result.ErrorReport()).append("\n");
             }
-        }.execute();
+            JOptionPane.showMessageDialog(BookTablePanel.this, msg.toString(), "Import Summary", JOptionPane.INFORMATION_MESSAGE);
+            loadBooks();
+        });
     }
 
     /**
-     * Exports the currently displayed table data to a CSV file.
+     * Dry run of a CSV import: shows how many rows would be new, identical, conflicting or invalid
+     * without writing anything. The comparison against the catalog is done by BookCsvDiff.
      * 
-     * @param file The file to save the CSV data to.
+     * @param file The CSV file to check.
      */
-    private void exportTableToCSV(File file) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
-            // Write header
-            StringBuilder header = new StringBuilder();
-            for(int i = 0; i < tableModel.getColumnCount(); i++) {
-                if(i > 0) header.append(",");
-                header.append("\"").append(tableModel.getColumnName(i)).append("\"");
+    private void previewBooksCSV(File file) {
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        ProgressMonitor monitor = new ProgressMonitor(this, "Checking " + file.getName(), "Loading catalog keys...", 0, 1000);
+        monitor.setMillisToDecideToPopup(200);
+        monitor.setMillisToPopup(500);
+
+        java.util.function.Consumer<long[]> showProgress = TaskScheduler.onUiThread(last -> {
+            monitor.setNote(String.format("%,d rows checked", last[0]));
+            monitor.setProgress(last[2] <= 0 ? 0 : (int) Math.min(999, last[1] * 1000 / last[2]));
+        });
+
+        TaskScheduler.Task<lib.Csv.BookCsvDiff.Result> task = TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "dry run " + file.getName(), token ->
+            new lib.Csv.BookCsvDiff(file.toPath())
+                .OnProgress((rows, bytes, total) -> showProgress.accept(new long[] { rows, bytes, total }))
+                .CancelWhen(token::checkpoint)
+                .Run());
+
+        javax.swing.Timer cancelPoll = new javax.swing.Timer(200, e -> { if(monitor.isCanceled()) task.cancel(); });
+        cancelPoll.start();
+
+        task.whenDone((result, error) -> {
+            cancelPoll.stop();
+            monitor.close();
+            setCursor(Cursor.getDefaultCursor());
+
+            if(TaskScheduler.isCancellation(error)) return;
+            if(error != null) {
+                JOptionPane.showMessageDialog(BookTablePanel.this, "Dry run failed: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
-            writer.println(header.toString());
-
-            // Write data rows
-            for(int row = 0; row < tableModel.getRowCount(); row++) {
-                StringBuilder rowData = new StringBuilder();
-                for(int col = 0; col < tableModel.getColumnCount(); col++) {
-                    if(col > 0) rowData.append(",");
-                    Object value = tableModel.getValueAt(row, col);
-                    String strValue = value != null ? value.toString() : "";
-                    // Escape quotes and wrap in quotes
-                    strValue = strValue.replace("\"", "\"\"");
-                    rowData.append("\"").append(strValue).append("\"");
-                }
-                writer.println(rowData.toString());
+
+            StringBuilder msg = new StringBuilder();
+            if(result.Cancelled()) msg.append("Dry run cancelled; counts cover the rows checked so far.\n");
+            msg.append("Nothing was written to the database.\n\n");
+            msg.append(String.format("New books: %,d%n", result.NewRows()));
+            msg.append(String.format("Identical (already present): %,d%n", result.Identical()));
+            msg.append(String.format("Conflicting (same ISBN, different data): %,d%n", result.Conflicting()));
+            msg.append(String.format("Invalid (would be skipped): %,d%n", result.Invalid()));
+            if(!result.Samples().isEmpty()) {
+                msg.append("\nExamples:\n");
+                for(String s : result.Samples()) msg.append(" - ").append(s).append("\n");
+                msg.append("Full report: ").append(result.Report()).append("\n");
             }
+            JOptionPane.showMessageDialog(BookTablePanel.this, msg.toString(), "Dry Run Summary", JOptionPane.INFORMATION_MESSAGE);
+        });
+    }
 
-            JOptionPane.showMessageDialog(this, "Books exported successfully to:\n" + file.getAbsolutePath(), "Export Complete", JOptionPane.INFORMATION_MESSAGE);
-        } catch(IOException ex) {
-            JOptionPane.showMessageDialog(this, "Failed to export: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+    /**
+     * Exports every book (with its genres) to a CSV file, or a gzip-compressed CSV
+     * file when the name ends in ".gz". Same columns as the table.
+     * 
+     * @param file The file to save the CSV data to.
+     */
+    private void exportTableToCSV(File file) {
+        // Export straight from the database (not just the rows currently shown) on a background thread
+        new CsvExportWorker(this, new lib.Csv.CsvExport(BOOK_EXPORT_SQL)
+            .Headers("ID", "Title", "Author", "ISBN", "Year", "Genres", "Available"), file, "SELECT COUNT(*) FROM books").start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package gui;
+
+import lib.Csv.CsvExport;
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs a {@link CsvExport} as a bulk task on the {@link TaskScheduler} and shows its progress.
+ *
+ * A ProgressMonitor pops up if the export takes longer than half a second; its Cancel
+ * button stops the export (the partial file is deleted). When done, a message tells the
+ * user how many rows were written or why the export failed.
+ *
+ * Files ending in ".gz" are written gzip-compressed.
+ *
+ * @author AI
+ */
+public class CsvExportWorker {
+    private final Component parent;
+    private final CsvExport export;
+    private final File file;
+    private final String countStatement;
+    private final Object[] countArgs;
+    private final ProgressMonitor monitor;
+    private final Consumer<Long> showProgress;
+    private volatile long expectedRows;
+    private volatile TaskScheduler.CancellationToken token;
+
+    /**
+     * @param parent Component the progress and result dialogs are shown over
+     * @param export The configured export (progress, cancel and gzip are set here)
+     * @param file Target file
+     * @param countStatement Optional "SELECT COUNT(*) ..." used to size the progress bar (may be null)
+     * @param countArgs Parameters for the count statement
+     */
+    public CsvExportWorker(Component parent, CsvExport export, File file, String countStatement, Object... countArgs) {
+        this.parent = parent;
+        this.file = file;
+        this.countStatement = countStatement;
+        this.countArgs = countArgs;
+        this.showProgress = TaskScheduler.onUiThread(this::process);
+        this.export = export
+            .Gzip(file.getName().toLowerCase().endsWith(".gz"))
+            .OnProgress(showProgress::accept)
+            .CancelWhen(() -> token.checkpoint());
+
+        this.monitor = new ProgressMonitor(parent, "Exporting to " + file.getName(), "Starting...", 0, 100);
+        this.monitor.setMillisToDecideToPopup(200);
+        this.monitor.setMillisToPopup(500);
+    }
+
+    /**
+     * Queues the export in the scheduler's bulk lane (call on the UI thread).
+     */
+    public void start() {
+        TaskScheduler.Task<Long> task = TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "export " + file.getName(), this::run);
+
+        // ProgressMonitor must be polled on the UI thread, so check the Cancel button with a timer
+        Timer cancelPoll = new Timer(200, e -> { if(monitor.isCanceled()) task.cancel(); });
+        cancelPoll.start();
+        task.whenDone((rows, error) -> {
+            cancelPoll.stop();
+            done(rows, error);
+        });
+    }
+
+    private Long run(TaskScheduler.CancellationToken token) throws Exception {
+        this.token = token;
+        if(countStatement != null) {
+            try {
+                List<Map<String, Object>> rows = config.DatabaseConnection.GetInstance().ExecuteQuery(false, countStatement, countArgs);
+                Object total = rows.isEmpty() ? null : rows.get(0).values().iterator().next();
+                if(total instanceof Number) {
+                    expectedRows = ((Number) total).longValue();
+                    showProgress.accept(0L);
+                }
+            } catch(Exception ex) {
+                // progress bar stays indeterminate
+                System.err.println("Could not count rows for export: " + ex.getMessage());
+            }
+        }
+        return export.WriteTo(file.toPath());
+    }
+
+    private void process(long written) {
+        if(expectedRows > 0) {
+            monitor.setMaximum((int) Math.min(Integer.MAX_VALUE, expectedRows));
+            monitor.setNote(String.format("%,d of %,d rows written", written, expectedRows));
+        } else {
+            monitor.setNote(String.format("%,d rows written", written));
+        }
+        monitor.setProgress((int) Math.min(Integer.MAX_VALUE, written));
+    }
+
+    private void done(Long rows, Throwable error) {
+        monitor.close();
+        if(error == null) {
+            JOptionPane.showMessageDialog(parent, String.format("Exported %,d rows to:%n%s", rows, file.getAbsolutePath()),
+                "Export Complete", JOptionPane.INFORMATION_MESSAGE);
+        } else if(TaskScheduler.isCancellation(error)) {
+            JOptionPane.showMessageDialog(parent, "Export cancelled.", "Export", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            error.printStackTrace();
+            JOptionPane.showMessageDialog(parent, "Failed to export: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
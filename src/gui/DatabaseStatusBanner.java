@@ -0,0 +1,104 @@
+package gui;
+
+import config.CircuitBreaker;
+import config.DatabaseConnection;
+import config.OfflineWriteLog;
+import lib.Cache.EntityCache;
+
+import javax.swing.*;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Banner shown above the tabs while the database is unreachable.
+ *
+ * While the circuit breaker is open, reads are answered from the last results read before the
+ * outage (see LastKnownResults) and changes are queued in the offline write log. The banner tells
+ * the user that what they see may be out of date and since when, and how many changes are still
+ * waiting to be sent; it disappears once the database answers again and the queue is empty.
+ * Queued changes that could not be applied (e.g. a book lent by another desk meanwhile) are
+ * listed in a dialog once the replay finds them.
+ * The panels use {@link #isUnavailable(Throwable)} to skip their error dialogs for failures the
+ * banner already explains, so an outage does not stack up one dialog per refresh.
+ *
+ * @author AI
+ */
+public class DatabaseStatusBanner extends JLabel {
+    private static final long serialVersionUID = 1L;
+
+    private final SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss");
+    private boolean wasDown = false;
+    private boolean probing = false;
+    private int lastPending = 0;
+
+    public DatabaseStatusBanner() {
+        setOpaque(true);
+        setBackground(new Color(255, 236, 179));
+        setForeground(new Color(102, 60, 0));
+        setBorder(BorderFactory.createEmptyBorder(6, 10, 6, 10));
+        setVisible(false);
+
+        // Poll once a second on the UI thread; cheaper and simpler than hopping threads on every state change
+        new Timer(1000, e -> refresh()).start();
+    }
+
+    /**
+     * @return true if the failure means the database was unreachable (the banner already shows that).
+     */
+    public static boolean isUnavailable(Throwable error) {
+        return CircuitBreaker.IsOutage(error);
+    }
+
+    private void refresh() {
+        // never create the connection from here: that would block the UI thread on the handshake
+        DatabaseConnection db = DatabaseConnection.GetExistingInstance();
+        if(db == null) return;
+
+        boolean down = db.GetCircuitBreaker().GetState() != CircuitBreaker.State.CLOSED;
+        OfflineWriteLog offline = db.GetOfflineLog();
+        int pending = offline == null ? 0 : offline.PendingCount();
+        String queued = pending == 0 ? "" : " " + pending + (pending == 1 ? " change is" : " changes are") + " waiting to be sent.";
+        if(down) {
+            long since = db.GetLastKnownResults().OldestServed();
+            String shown = since > 0
+                ? "Data shown was last read at " + time.format(new Date(since)) + " and may be out of date."
+                : "Data shown may be out of date.";
+            String saving = offline != null
+                ? " Changes are kept on this computer and sent when the connection is back; retrying automatically."
+                : " Changes cannot be saved until the connection is back; retrying automatically.";
+            setText("<html><b>Database unreachable.</b> " + shown + saving + queued + "</html>");
+        } else if(pending > 0) {
+            setText("<html><b>Connection is back.</b> Sending changes made while offline..." + queued + "</html>");
+        }
+        if(!down && (wasDown || (lastPending > 0 && pending == 0))) {
+            // anything cached during the outage (or before the queued changes landed) may be out of date
+            EntityCache.ClearAll();
+        }
+        lastPending = pending;
+        if(offline != null) showConflicts(offline.TakeConflicts());
+        if(down && !probing) {
+            // ask the database again in the background (the breaker only lets a probe through every few seconds)
+            probing = true;
+            TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "database probe", token -> db.Ping())
+                .whenDone((ok, error) -> probing = false);
+        }
+        wasDown = down;
+        boolean show = down || pending > 0;
+        if(isVisible() != show) {
+            setVisible(show);
+            revalidate();
+        }
+    }
+
+    private void showConflicts(List<OfflineWriteLog.Conflict> conflicts) {
+        if(conflicts.isEmpty()) return;
+
+        StringBuilder message = new StringBuilder("These changes made while offline could not be applied:\n\n");
+        int listed = Math.min(conflicts.size(), 20);
+        for(int i = 0; i < listed; i++) message.append("- ").append(conflicts.get(i)).append('\n');
+        if(conflicts.size() > listed) message.append("... and ").append(conflicts.size() - listed).append(" more\n");
+        JOptionPane.showMessageDialog(SwingUtilities.getWindowAncestor(this), message.toString(), "Offline changes not applied", JOptionPane.WARNING_MESSAGE);
+    }
+}
@@ -19,6 +19,7 @@ import java.awt.*;
 public class LibraryManager extends JFrame {
     private BookTablePanel tablePanel;  // Tab for viewing and managing books
     private LoanPanel loanPanel;        // Tab for viewing and managing book loans
+    private JTabbedPane tabs;           // Holds the Books and Loans tabs
 
     /**
      * Constructor: Sets up the main window with a title, size, and initial UI.
@@ -39,15 +40,88 @@ public class LibraryManager extends JFrame {
         // Center the window on the screen (setLocationRelativeTo(null) means use screen center)
         setLocationRelativeTo(null);
         
+        // Initialize all the UI components (tabs, panels, buttons, etc) before showing the
+        // window so the first paint already contains the full layout
+        initUI();
+
         // Make the window visible to the user
         setVisible(true);
+        StartupTimeline.mark("frame shown");
 
-        // Initialize all the UI components (tabs, panels, buttons, etc)
-        initUI();
-        
-        // Load initial data from database for both tabs
-        tablePanel.loadBooks();
-        loanPanel.loadLoans();
+        // Connect and load data in the background so the window never waits for MySQL
+        startBackgroundWarmUp();
+    }
+
+    /**
+     * STARTUP WARM-UP:
+     * Opens and validates the database connection on a background thread, then loads only
+     * the tab the user is looking at. While that tab loads, the borrower and book caches are
+     * filled in parallel so the other tab (and the loan renderers) are fast when first opened.
+     * The other tab is loaded lazily by the tab change listener.
+     */
+    private void startBackgroundWarmUp() {
+        Thread warmUp = new Thread(() -> {
+            try {
+                config.DatabaseConnection.WarmUp();
+                StartupTimeline.mark("database connected");
+            } catch(Exception ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "Failed to connect to the database: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+                return;
+            }
+
+            try {
+                // Add any missing columns/indexes (e.g. the normalized ISBN key) before the first reads
+                lib.Book.BookSchema.Upgrade();
+                StartupTimeline.mark("schema checked");
+            } catch(Exception ex) {
+                // Not fatal: searches keep using the plain title/author/ISBN columns until it works
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "Failed to upgrade the books table: " + ex.getMessage() + "\nSearches will be slower and less forgiving until it is fixed.",
+                    "Warning", JOptionPane.WARNING_MESSAGE));
+            }
+
+            try {
+                // Install the stored procedures now (if enabled) rather than on the first delete/return
+                if(lib.Procedure.StoredProcedures.IsAvailable()) StartupTimeline.mark("procedures installed");
+                // Start hearing about books, borrowers and loans other clients change
+                lib.Cache.ChangeLog.Start();
+            } catch(Exception ex) {
+                // Also not fatal: deletes/returns fall back to plain statements, other clients' changes show up on reload
+                ex.printStackTrace();
+            }
+
+            boolean loansVisible = isSelected(loanPanel);
+            SwingUtilities.invokeLater(() -> {
+                Runnable firstRows = () -> {
+                    StartupTimeline.mark("first rows");
+                    StartupTimeline.report();
+                };
+                if(loansVisible) loanPanel.loadLoans(firstRows);
+                else tablePanel.loadBooks(firstRows);
+            });
+
+            // Reads populate the entity and query caches, so the hidden tab opens from memory.
+            // Bulk lane: anything the user starts meanwhile goes first.
+            TaskScheduler scheduler = TaskScheduler.get();
+            scheduler.submit(TaskScheduler.Lane.BULK, "prewarm borrowers", token -> service.BorrowerService.ReadBorrower().Read());
+            if(loansVisible) scheduler.submit(TaskScheduler.Lane.BULK, "prewarm books", token -> service.BookService.ReadBook().Read());
+            else scheduler.submit(TaskScheduler.Lane.BULK, "prewarm loans", token -> new service.BookLoanService().ReadBookLoan().Read());
+        }, "db-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    private boolean isSelected(Component panel) {
+        final boolean[] selected = new boolean[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> selected[0] = tabs.getSelectedComponent() == panel);
+        } catch(Exception ex) {
+            ex.printStackTrace();
+        }
+        return selected[0];
     }
 
     /**
@@ -66,7 +140,7 @@ public class LibraryManager extends JFrame {
          * JTabbedPane creates the tabs you see at the top. Users can click on tabs to switch views.
          * BorderLayout organizes the components: tabs will appear at the top, main content below.
          */
-        JTabbedPane tabs = new JTabbedPane();
+        tabs = new JTabbedPane();
 
         /**
          * Create the Books tab: This is a BookTablePanel instance which handles all book-related UI
@@ -120,6 +194,8 @@ public class LibraryManager extends JFrame {
 
         // Add the tabbed pane to the center of the main panel
         main.add(tabs, BorderLayout.CENTER);
+        // Shown only while the database is unreachable (stale data, writes disabled)
+        main.add(new DatabaseStatusBanner(), BorderLayout.NORTH);
 
         // Add the main panel to the frame's content pane (the actual viewable area of the frame)
         getContentPane().add(main);
@@ -2,6 +2,7 @@ package gui;
 
 import service.BookLoanService;
 import service.BookService;
+import lib.Cache.EntityCache;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -126,6 +127,11 @@ public class LoanFormDialog extends JDialog {
         selectedTitle.setWrapStyleWord(true);    // Wrap at word boundaries, not mid-word
         selectedTitle.setEditable(false);        // User can't type here
         selectedTitle.setText("(no book selected)");  // Default text
+        if(data != null) {
+            // Show the current book right away from the shared cache; the list below preselects it once loaded
+            java.util.Map<String, Object> cachedBook = EntityCache.Books().Peek(data.bookId);
+            if(cachedBook != null) selectedTitle.setText(String.valueOf(cachedBook.getOrDefault("title", "")));
+        }
         gbc.gridx = 0; gbc.gridy = 3; gbc.gridwidth = 2; gbc.weightx = 1.0; 
         gbc.weighty = 0.0; gbc.anchor = GridBagConstraints.CENTER; gbc.fill = GridBagConstraints.BOTH;
         form.add(new JScrollPane(selectedTitle), gbc);
@@ -135,102 +141,55 @@ public class LoanFormDialog extends JDialog {
          * When the dialog opens, load all books from database in background thread.
          * This doesn't freeze the UI while we wait for database results.
          * 
-         * SwingWorker pattern:
-         * - doInBackground: runs on background thread, queries database
-         * - done: runs on UI thread, populates the list with results
+         * The lookup is an INTERACTIVE task on the TaskScheduler, so it is never stuck behind
+         * an import or export:
+         * - the work passed to submit runs on a background thread and queries the database
+         * - the whenDone callback runs on the UI thread and populates the list with results
          */
-        Runnable doLoadAll = () -> new javax.swing.SwingWorker<java.util.List<BookItem>, Void>() {
-            Exception error = null;
-            
-            @Override 
-            protected java.util.List<BookItem> doInBackground() {
-                try {
-                    java.util.List<BookItem> out = new java.util.ArrayList<>();
-                    // Query database for all books
-                    java.util.List<java.util.Map<String, Object>> rows = BookService.ReadBook().Read();
-                    
-                    // Convert each database record to a BookItem (id + title)
-                    for(java.util.Map<String, Object> r : rows) {
-                        Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
-                        Object title = r.getOrDefault("title", "");
-                        try { 
-                            int iid = Integer.parseInt(String.valueOf(id)); 
-                            out.add(new BookItem(iid, String.valueOf(title))); 
-                        } catch(Exception ignore) { }
-                    }
-                    return out;
-                } catch(Exception ex) { 
-                    error = ex; 
-                    return java.util.Collections.emptyList(); 
+        Runnable doLoadAll = () -> TaskScheduler.get().submit(TaskScheduler.Lane.INTERACTIVE, "load books for loan",
+            token -> toBookItems(BookService.ReadBook().Read())
+        ).whenDone((items, error) -> {
+            if(error != null) {
+                if(!DatabaseStatusBanner.isUnavailable(error)) {
+                    JOptionPane.showMessageDialog(LoanFormDialog.this, 
+                        "Failed to load books: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
+                return;
             }
+            listModel.clear();  // Clear any old items
             
-            @Override 
-            protected void done() {
-                try {
-                    // Get results from background thread
-                    java.util.List<BookItem> items = get();
-                    listModel.clear();  // Clear any old items
-                    
-                    // Add all books to the list
-                    for(BookItem it : items) {
-                        listModel.addElement(it);
-                    }
-                    
-                    // If updating an existing loan, pre-select the current book
-                    if(data != null) {
-                        for(int i=0; i<listModel.getSize(); i++) {
-                            if(listModel.get(i).id == data.bookId) {
-                                resultsList.setSelectedIndex(i);           // Highlight it
-                                selectedTitle.setText(listModel.get(i).title);  // Show title
-                                break;
-                            }
-                        }
+            // Add all books to the list
+            for(BookItem it : items) {
+                listModel.addElement(it);
+            }
+            
+            // If updating an existing loan, pre-select the current book
+            if(data != null) {
+                for(int i=0; i<listModel.getSize(); i++) {
+                    if(listModel.get(i).id == data.bookId) {
+                        resultsList.setSelectedIndex(i);           // Highlight it
+                        selectedTitle.setText(listModel.get(i).title);  // Show title
+                        break;
                     }
-                    
-                    if(error != null) throw error;
-                } catch(Exception ex) {
-                    JOptionPane.showMessageDialog(LoanFormDialog.this, 
-                        "Failed to load books: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
-        }.execute();
+        });
 
         doLoadAll.run();  // Start loading books
 
-        // debounce search
+        // debounce search; a newer search cancels the one still running
+        java.util.concurrent.atomic.AtomicReference<TaskScheduler.Task<java.util.List<BookItem>>> bookSearch = new java.util.concurrent.atomic.AtomicReference<>();
         final javax.swing.Timer searchTimer = new javax.swing.Timer(300, ev -> {
             String q = searchField.getText().trim();
-            new javax.swing.SwingWorker<java.util.List<BookItem>, Void>() {
-                Exception error = null;
-                @Override protected java.util.List<BookItem> doInBackground() {
-                    try {
-                        java.util.List<BookItem> out = new java.util.ArrayList<>();
-                        if(q.isEmpty()) {
-                            java.util.List<java.util.Map<String, Object>> rows = BookService.ReadBook().Read();
-                            for(java.util.Map<String, Object> r : rows) {
-                                Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
-                                Object title = r.getOrDefault("title", "");
-                                try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BookItem(iid, String.valueOf(title))); } catch(Exception ignore) { }
-                            }
-                        } else {
-                            java.util.List<java.util.Map<String, Object>> rows = BookService.ReadBook().WhereTitle(q).Read();
-                            for(java.util.Map<String, Object> r : rows) {
-                                Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
-                                Object title = r.getOrDefault("title", "");
-                                try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BookItem(iid, String.valueOf(title))); } catch(Exception ignore) { }
-                            }
-                        }
-                        return out;
-                    } catch(Exception ex) { error = ex; return java.util.Collections.emptyList(); }
-                }
-                @Override protected void done() {
-                    try {
-                        java.util.List<BookItem> items = get(); listModel.clear(); for(BookItem it : items) listModel.addElement(it);
-                        if(error != null) throw error;
-                    } catch(Exception ex) { /* ignore search errors for now */ }
-                }
-            }.execute();
+            TaskScheduler.Task<java.util.List<BookItem>> previous = bookSearch.get();
+            if(previous != null) previous.cancel();
+            TaskScheduler.Task<java.util.List<BookItem>> search = TaskScheduler.get().submit(TaskScheduler.Lane.INTERACTIVE, "search books for loan", token ->
+                toBookItems(q.isEmpty() ? BookService.ReadBook().Read() : BookService.ReadBook().WhereTitle(q).Read()));
+            bookSearch.set(search);
+            search.whenDone((items, error) -> {
+                if(error != null || search.isCancelled()) return;  /* ignore search errors for now */
+                listModel.clear(); for(BookItem it : items) listModel.addElement(it);
+            });
         });
         searchTimer.setRepeats(false);
         searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
@@ -269,6 +228,10 @@ public class LoanFormDialog extends JDialog {
 
         JTextArea selectedBorrower = new JTextArea(1, 40);
         selectedBorrower.setLineWrap(true); selectedBorrower.setWrapStyleWord(true); selectedBorrower.setEditable(false); selectedBorrower.setText("(no borrower selected)");
+        if(data != null && data.borrowerId > 0) {
+            java.util.Map<String, Object> cachedBorrower = EntityCache.Borrowers().Peek(data.borrowerId);
+            if(cachedBorrower != null) selectedBorrower.setText(cachedBorrower.getOrDefault("first_name", "") + " " + cachedBorrower.getOrDefault("last_name", ""));
+        }
         gbc.gridx = 0; gbc.gridy = 7; gbc.gridwidth = 2; gbc.weightx = 1.0; gbc.weighty = 0.0; gbc.anchor = GridBagConstraints.CENTER; gbc.fill = GridBagConstraints.BOTH;
         form.add(new JScrollPane(selectedBorrower), gbc);
 
@@ -279,75 +242,39 @@ public class LoanFormDialog extends JDialog {
         borrowerBtnPanel.add(createBorrowerBtn);
         form.add(borrowerBtnPanel, gbc);
 
-        // Load borrowers in background
-        Runnable doLoadBorrowers = () -> new javax.swing.SwingWorker<java.util.List<BorrowerItem>, Void>() {
-            Exception error = null;
-            @Override protected java.util.List<BorrowerItem> doInBackground() {
-                try {
-                    java.util.List<BorrowerItem> out = new java.util.ArrayList<>();
-                    java.util.List<java.util.Map<String, Object>> rows = service.BorrowerService.ReadBorrower().Read();
-                    for(java.util.Map<String, Object> r : rows) {
-                        Object id = r.getOrDefault("id", "");
-                        Object fn = r.getOrDefault("first_name", "");
-                        Object ln = r.getOrDefault("last_name", "");
-                        try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BorrowerItem(iid, String.valueOf(fn), String.valueOf(ln))); } catch(Exception ignore) { }
-                    }
-                    return out;
-                } catch(Exception ex) { error = ex; return java.util.Collections.emptyList(); }
-            }
-            @Override protected void done() {
-                try {
-                    java.util.List<BorrowerItem> items = get();
-                    borrowerListModel.clear();
-                    for(BorrowerItem it : items) borrowerListModel.addElement(it);
-                    if(data != null && data.borrowerId > 0) {
-                        // preselect borrower if editing
-                        for(int i=0;i<borrowerListModel.getSize();i++) if(borrowerListModel.get(i).id == data.borrowerId) { borrowerResultsList.setSelectedIndex(i); selectedBorrower.setText(borrowerListModel.get(i).firstName + " " + borrowerListModel.get(i).lastName); break; }
-                    }
-                    if(error != null) throw error;
-                } catch(Exception ex) {
-                    JOptionPane.showMessageDialog(LoanFormDialog.this, "Failed to load borrowers: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        // Load borrowers in background (interactive lane)
+        Runnable doLoadBorrowers = () -> TaskScheduler.get().submit(TaskScheduler.Lane.INTERACTIVE, "load borrowers for loan",
+            token -> toBorrowerItems(service.BorrowerService.ReadBorrower().Read())
+        ).whenDone((items, error) -> {
+            if(error != null) {
+                if(!DatabaseStatusBanner.isUnavailable(error)) {
+                    JOptionPane.showMessageDialog(LoanFormDialog.this, "Failed to load borrowers: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
+                return;
+            }
+            borrowerListModel.clear();
+            for(BorrowerItem it : items) borrowerListModel.addElement(it);
+            if(data != null && data.borrowerId > 0) {
+                // preselect borrower if editing
+                for(int i=0;i<borrowerListModel.getSize();i++) if(borrowerListModel.get(i).id == data.borrowerId) { borrowerResultsList.setSelectedIndex(i); selectedBorrower.setText(borrowerListModel.get(i).firstName + " " + borrowerListModel.get(i).lastName); break; }
             }
-        }.execute();
+        });
 
         doLoadBorrowers.run();
 
-        // Debounce borrower search
+        // Debounce borrower search; a newer search cancels the one still running
+        java.util.concurrent.atomic.AtomicReference<TaskScheduler.Task<java.util.List<BorrowerItem>>> borrowerSearch = new java.util.concurrent.atomic.AtomicReference<>();
         final javax.swing.Timer borrowerSearchTimer = new javax.swing.Timer(300, ev -> {
             String q = borrowerSearchField.getText().trim();
-            new javax.swing.SwingWorker<java.util.List<BorrowerItem>, Void>() {
-                Exception error = null;
-                @Override protected java.util.List<BorrowerItem> doInBackground() {
-                    try {
-                        java.util.List<BorrowerItem> out = new java.util.ArrayList<>();
-                        if(q.isEmpty()) {
-                            java.util.List<java.util.Map<String, Object>> rows = service.BorrowerService.ReadBorrower().Read();
-                            for(java.util.Map<String, Object> r : rows) {
-                                Object id = r.getOrDefault("id", "");
-                                Object fn = r.getOrDefault("first_name", "");
-                                Object ln = r.getOrDefault("last_name", "");
-                                try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BorrowerItem(iid, String.valueOf(fn), String.valueOf(ln))); } catch(Exception ignore) { }
-                            }
-                        } else {
-                            java.util.List<java.util.Map<String, Object>> rows = service.BorrowerService.ReadBorrower().WhereLastName(q).Read();
-                            for(java.util.Map<String, Object> r : rows) {
-                                Object id = r.getOrDefault("id", "");
-                                Object fn = r.getOrDefault("first_name", "");
-                                Object ln = r.getOrDefault("last_name", "");
-                                try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BorrowerItem(iid, String.valueOf(fn), String.valueOf(ln))); } catch(Exception ignore) { }
-                            }
-                        }
-                        return out;
-                    } catch(Exception ex) { error = ex; return java.util.Collections.emptyList(); }
-                }
-                @Override protected void done() {
-                    try {
-                        java.util.List<BorrowerItem> items = get(); borrowerListModel.clear(); for(BorrowerItem it : items) borrowerListModel.addElement(it);
-                        if(error != null) throw error;
-                    } catch(Exception ex) { /* ignore search errors for now */ }
-                }
-            }.execute();
+            TaskScheduler.Task<java.util.List<BorrowerItem>> previous = borrowerSearch.get();
+            if(previous != null) previous.cancel();
+            TaskScheduler.Task<java.util.List<BorrowerItem>> search = TaskScheduler.get().submit(TaskScheduler.Lane.INTERACTIVE, "search borrowers for loan", token ->
+                toBorrowerItems(q.isEmpty() ? service.BorrowerService.ReadBorrower().Read() : service.BorrowerService.ReadBorrower().WhereLastName(q).Read()));
+            borrowerSearch.set(search);
+            search.whenDone((items, error) -> {
+                if(error != null || search.isCancelled()) return;  /* ignore search errors for now */
+                borrowerListModel.clear(); for(BorrowerItem it : items) borrowerListModel.addElement(it);
+            });
         });
         borrowerSearchTimer.setRepeats(false);
         borrowerSearchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
@@ -572,37 +499,31 @@ public class LoanFormDialog extends JDialog {
                     boolean ok;
                     BookLoanService svc = new BookLoanService();
                     if(data == null) {
-                        // If borrowed date is in the future, it will be treated as a reservation by the UI
-                        ok = svc.InsertBookLoan().SetBookID(bookId).SetBorrowerID(borrowerId).SetBorrowedAt(borrowedDate).SetDueDate(dueDate).Insert();
+                        // Checkout claims the book and inserts the loan in one transaction, so two desks
+                        // cannot lend the same copy. A future borrowed date is a reservation and does not claim it.
+                        ok = svc.CheckoutBook().SetBookID(bookId).SetBorrowerID(borrowerId).SetBorrowedAt(borrowedDate).SetDueDate(dueDate).Checkout();
+                        if(!ok) {
+                            JOptionPane.showMessageDialog(LoanFormDialog.this, "This book is not available (it may have just been lent from another desk).", "Not available", JOptionPane.WARNING_MESSAGE);
+                            return;
+                        }
                     } else {
                         var builder = svc.UpdateBookLoan();
                         if(dueDate != null) builder.SetDueDate(dueDate);
                         if(borrowedDate != null) builder.SetBorrowedAt(borrowedDate);
-                        if(returnedDate != null) builder.SetReturnedAt(returnedDate);
                         builder.WhereID(data.loanId);
                         ok = builder.Update();
-                    }
 
-                    if(ok) {
-                        // update book availability:
-                        try {
-                            if(data == null) {
-                                // Insert: if borrowed date is today or earlier, mark book unavailable
-                                if(borrowedDate != null) {
-                                    java.time.LocalDate b = new java.sql.Date(borrowedDate.getTime()).toLocalDate();
-                                    if(!b.isAfter(java.time.LocalDate.now())) {
-                                        try { BookService.UpdateBook().SetIsAvailable(false).WhereBookID(bookId).Update(); } catch(Exception ignore) {}
-                                    }
-                                }
-                            } else {
-                                // Update: if we just set a returned date, mark book available
-                                boolean didReturnNow = (returnedCheck.isEnabled() && returnedCheck.isSelected() && returnedDate != null);
-                                if(didReturnNow) {
-                                    try { BookService.UpdateBook().SetIsAvailable(true).WhereBookID(bookId).Update(); } catch(Exception ignore) {}
-                                }
+                        // Return: close the loan and make the book available again in one transaction
+                        if(ok && returnedDate != null) {
+                            ok = svc.ReturnBook().WhereID(data.loanId).SetReturnedAt(returnedDate).Return();
+                            if(!ok) {
+                                JOptionPane.showMessageDialog(LoanFormDialog.this, "This loan has already been returned.", "Already returned", JOptionPane.INFORMATION_MESSAGE);
+                                return;
                             }
-                        } catch(Exception ignore) {}
+                        }
+                    }
 
+                    if(ok) {
                         JOptionPane.showMessageDialog(LoanFormDialog.this, "Saved.", "Success", JOptionPane.INFORMATION_MESSAGE);
                         dispose(); if(onSuccess != null) onSuccess.run();
                     } else {
@@ -659,6 +580,28 @@ public class LoanFormDialog extends JDialog {
         return null;
     }
 
+    private static java.util.List<BookItem> toBookItems(java.util.List<java.util.Map<String, Object>> rows) {
+        java.util.List<BookItem> out = new java.util.ArrayList<>();
+        // Convert each database record to a BookItem (id + title)
+        for(java.util.Map<String, Object> r : rows) {
+            Object id = r.getOrDefault("id", r.getOrDefault("book_id", ""));
+            Object title = r.getOrDefault("title", "");
+            try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BookItem(iid, String.valueOf(title))); } catch(Exception ignore) { }
+        }
+        return out;
+    }
+
+    private static java.util.List<BorrowerItem> toBorrowerItems(java.util.List<java.util.Map<String, Object>> rows) {
+        java.util.List<BorrowerItem> out = new java.util.ArrayList<>();
+        for(java.util.Map<String, Object> r : rows) {
+            Object id = r.getOrDefault("id", "");
+            Object fn = r.getOrDefault("first_name", "");
+            Object ln = r.getOrDefault("last_name", "");
+            try { int iid = Integer.parseInt(String.valueOf(id)); out.add(new BorrowerItem(iid, String.valueOf(fn), String.valueOf(ln))); } catch(Exception ignore) { }
+        }
+        return out;
+    }
+
     private static class BookItem {
         final int id;
         final String title;
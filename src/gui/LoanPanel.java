@@ -3,6 +3,10 @@ package gui;
 import service.BookLoanService;
 import service.BookService;
 import service.BorrowerService;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Cache.IntLruCache;
+import lib.Query.Criteria;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
@@ -12,6 +16,9 @@ import java.awt.event.*;
 import java.util.*;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Panel for listing and managing book loans (Add, Search, Update, Delete).
@@ -30,10 +37,9 @@ public class LoanPanel extends JPanel {
     private JFrame owner;
     private BookLoanService loanService;
 
-    // cache for book titles keyed by book id to avoid repeated DB queries
-    private Map<Integer,String> bookTitleCache = new HashMap<>();
-    // cache for borrower full names keyed by borrower id
-    private Map<Integer,String> borrowerNameCache = new HashMap<>();
+    // How many book/borrower ids go into one lookup query when loading loans
+    private static final int LOOKUP_CHUNK = 500;
+    private Supplier<List<Map<String,Object>>> shownLoans;  // query of the shown search (null: all loans; UI thread only)
 
     public LoanPanel(JFrame owner) {
         super(new BorderLayout());
@@ -95,8 +101,8 @@ public class LoanPanel extends JPanel {
          * 
          * This is like a "display formatter" - the data stays as IDs, but we show titles.
          * 
-         * Performance optimization: We use bookTitleCache (loaded once at startup)
-         * instead of querying the database for every row. This is MUCH faster.
+         * Performance optimization: We peek into the shared EntityCache (filled while loading
+         * the rows) instead of querying the database for every row. This is MUCH faster.
          */
         javax.swing.table.TableCellRenderer titleRenderer = new DefaultTableCellRenderer() {
             @Override
@@ -109,8 +115,9 @@ public class LoanPanel extends JPanel {
                     try {
                         // value is a book ID (e.g., 1, 2, 3)
                         int bid = Integer.parseInt(String.valueOf(value));
-                        // Look up the title in our cache (in-memory map)
-                        String t = bookTitleCache.get(bid);
+                        // Look up the title in the shared cache (never hits the DB while painting)
+                        Map<String,Object> book = EntityCache.Books().Peek(bid);
+                        String t = (book != null) ? String.valueOf(book.getOrDefault("title", "")) : null;
                         // Show title if found, otherwise show the ID as fallback
                         text = (t != null) ? t : String.valueOf(bid);
                     } catch(Exception ex) {
@@ -127,7 +134,7 @@ public class LoanPanel extends JPanel {
          * CUSTOM CELL RENDERER for Borrower ID column:
          * 
          * Same concept as titleRenderer, but for borrowers.
-         * Converts borrower IDs to full names using the borrowerNameCache.
+         * Converts borrower IDs to full names using the shared borrower cache.
          */
         javax.swing.table.TableCellRenderer borrowerRenderer = new DefaultTableCellRenderer() {
             @Override
@@ -141,7 +148,7 @@ public class LoanPanel extends JPanel {
                         // value is a borrower ID
                         int bid = Integer.parseInt(String.valueOf(value));
                         // Look up the full name in our cache
-                        String b = borrowerNameCache.get(bid);
+                        String b = borrowerDisplayName(EntityCache.Borrowers().Peek(bid));
                         // Show name if found, otherwise show the ID
                         text = (b != null) ? b : String.valueOf(bid);
                     } catch(Exception ex) {
@@ -204,165 +211,322 @@ public class LoanPanel extends JPanel {
         loansTabs.addTab("Returned", new JScrollPane(returnedTable));
 
         add(loansTabs, BorderLayout.CENTER);
+
+        // Loans, books and borrowers changed by other clients: patch the affected rows (on the UI thread)
+        ChangeLog.AddListener(changes -> SwingUtilities.invokeLater(() -> applyRemoteChanges(changes)));
     }
 
+    /**
+     * Reloads all loans. The queries run as a BULK task on the TaskScheduler (searches and form
+     * lookups go first); only filling the table models happens on the UI thread.
+     */
     public void loadLoans() {
-        try {
-            java.util.List<Map<String,Object>> rows = loanService.ReadBookLoan().Read();
-            allModel.setRowCount(0);
-            overdueModel.setRowCount(0);
-            reservationsModel.setRowCount(0);
-            returnedModel.setRowCount(0);
-            java.time.LocalDate today = java.time.LocalDate.now();
+        loadLoans(null);
+    }
 
-            for(Map<String,Object> r : rows) {
-                Object id = r.getOrDefault("id", r.getOrDefault("loan_id", ""));
-                Object bookIdObj = r.getOrDefault("book_id", "");
-                Object borrowerIdObj = r.getOrDefault("borrower_id", "");
-                Object borrowed = r.getOrDefault("borrowed_at", "");
-                Object due = r.getOrDefault("due_date", "");
-                Object returned = r.getOrDefault("returned_at", "");
-
-                int bookIdInt = 0;
-                int borrowerIdInt = 0;
-                try { bookIdInt = Integer.parseInt(String.valueOf(bookIdObj)); } catch(Exception ignore) {}
-                try { borrowerIdInt = Integer.parseInt(String.valueOf(borrowerIdObj)); } catch(Exception ignore) {}
-
-                if(bookIdInt > 0 && !bookTitleCache.containsKey(bookIdInt)) {
-                    try { List<Map<String,Object>> brows = BookService.ReadBook().WhereBookID(bookIdInt).Read(); if(!brows.isEmpty()) bookTitleCache.put(bookIdInt, String.valueOf(brows.get(0).getOrDefault("title", ""))); } catch(Exception ignore) {}
-                }
+    /**
+     * Reloads all loans and runs the given callback on the UI thread once the rows are shown.
+     *
+     * @param onLoaded Callback to run after the tables were filled (may be null)
+     */
+    public void loadLoans(Runnable onLoaded) {
+        shownLoans = null;
+        showLoans(TaskScheduler.Lane.BULK, "load loans", () -> loanService.ReadBookLoan().Read(), "Failed to load loans: ", onLoaded);
+    }
 
-                if(borrowerIdInt > 0 && !borrowerNameCache.containsKey(borrowerIdInt)) {
-                    try {
-                        BorrowerService borrowerService = new BorrowerService();
-                        List<Map<String,Object>> brows = borrowerService.ReadBorrower().WhereID(borrowerIdInt).Read();
-                        if(!brows.isEmpty()) {
-                            Map<String,Object> brow = brows.get(0);
-                            String lastName = String.valueOf(brow.getOrDefault("last_name", ""));
-                            String firstName = String.valueOf(brow.getOrDefault("first_name", ""));
-                            String middleName = String.valueOf(brow.getOrDefault("middle_name", ""));
-                            String fullName = lastName + ", " + firstName;
-                            if(middleName != null && !middleName.isEmpty() && !"null".equalsIgnoreCase(middleName)) {
-                                fullName += " " + middleName;
-                            }
-                            borrowerNameCache.put(borrowerIdInt, fullName);
-                        }
-                    } catch(Exception ignore) {}
+    /**
+     * Reads loans on the scheduler and shows them once they and the books/borrowers they refer to are in.
+     *
+     * As soon as the loans arrive, the books and the borrowers they reference are fetched at the
+     * same time (in chunks of ids, each its own query) and land in the shared cache, so the
+     * renderers can resolve titles and names without one query per row.
+     *
+     * @param lane INTERACTIVE for searches, BULK for refreshes
+     * @param name Task name
+     * @param readLoans The loan query (runs on a background thread)
+     * @param errorPrefix Message prefix shown if something fails
+     * @param onLoaded Callback to run after the tables were filled (may be null)
+     */
+    private void showLoans(TaskScheduler.Lane lane, String name, Supplier<List<Map<String,Object>>> readLoans, String errorPrefix, Runnable onLoaded) {
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        TaskScheduler.get().submit(lane, name, token -> {
+            List<Map<String,Object>> rows = readLoans.get();
+            token.throwIfCancelled();
+            CompletableFuture.allOf(
+                readMissing(rows, "book_id", EntityCache.Books(), ids -> BookService.ReadBook().Where(Criteria.In("id", ids)).ReadAsync()),
+                readMissing(rows, "borrower_id", EntityCache.Borrowers(), ids -> BorrowerService.ReadBorrower().Where(Criteria.In("id", ids)).ReadAsync())
+            ).join();
+            return rows;
+        }).whenDone((rows, error) -> {
+            try {
+                if(error != null) {
+                    // an outage is shown by the status banner, not one dialog per refresh
+                    if(!DatabaseStatusBanner.isUnavailable(error)) {
+                        error.printStackTrace();
+                        JOptionPane.showMessageDialog(LoanPanel.this, errorPrefix + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                } else {
+                    fillLoanModels(rows);
                 }
+            } finally {
+                setCursor(Cursor.getDefaultCursor());
+                if(onLoaded != null) onLoaded.run();
+            }
+        });
+    }
 
-                Object bookModelValue = (bookIdInt != 0) ? bookIdInt : bookIdObj;
-                Object borrowerModelValue = (borrowerIdInt != 0) ? borrowerIdInt : borrowerIdObj;
-                allModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
+    /**
+     * Reads (in parallel chunks) the rows referenced by a loan column that are not cached yet.
+     * The read builders put what they fetch into the shared cache.
+     */
+    private static CompletableFuture<Void> readMissing(List<Map<String,Object>> loans, String column,
+            IntLruCache<Map<String,Object>> cache,
+            Function<List<Integer>, CompletableFuture<List<Map<String,Object>>>> read) {
+        Set<Integer> missing = new LinkedHashSet<>();
+        for(Map<String,Object> loan : loans) {
+            try {
+                int id = Integer.parseInt(String.valueOf(loan.get(column)));
+                if(id > 0 && cache.Peek(id) == null) missing.add(id);
+            } catch(Exception ignore) {}
+        }
 
-                boolean isOverdue = false;
-                if(returned == null || String.valueOf(returned).trim().isEmpty()) {
-                    String dueStr = String.valueOf(due);
-                    try { java.time.LocalDate dueDate = java.time.LocalDate.parse(dueStr); if(dueDate.isBefore(today)) isOverdue = true; }
-                    catch(Exception pe) { try { if(!dueStr.isEmpty() && dueStr.compareTo(today.toString()) < 0) isOverdue = true; } catch(Exception ignore) { } }
-                }
-                if(isOverdue) overdueModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
-
-                boolean isReservation = false;
-                try {
-                    String borrowedStr = String.valueOf(borrowed);
-                    if(borrowedStr != null && !borrowedStr.trim().isEmpty()) {
-                        java.time.LocalDate b = java.time.LocalDate.parse(borrowedStr);
-                        if(b.isAfter(today)) isReservation = true;
-                    }
-                } catch(Exception ignore) { try { if(String.valueOf(borrowed).compareTo(today.toString()) > 0) isReservation = true; } catch(Exception i) {} }
-                if(isReservation) reservationsModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
+        List<Integer> ids = new ArrayList<>(missing);
+        List<CompletableFuture<?>> reads = new ArrayList<>();
+        for(int from = 0; from < ids.size(); from += LOOKUP_CHUNK) {
+            reads.add(read.apply(ids.subList(from, Math.min(ids.size(), from + LOOKUP_CHUNK))));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]));
+    }
 
-                boolean isReturned = false;
-                if(returned != null && !String.valueOf(returned).trim().isEmpty()) isReturned = true;
-                if(isReturned) returnedModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
-            }
-        } catch(Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Failed to load loans: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    private void fillLoanModels(java.util.List<Map<String,Object>> rows) {
+        allModel.setRowCount(0);
+        overdueModel.setRowCount(0);
+        reservationsModel.setRowCount(0);
+        returnedModel.setRowCount(0);
+        java.time.LocalDate today = java.time.LocalDate.now();
+
+        for(Map<String,Object> r : rows) {
+            Object[] cells = loanCells(r);
+            allModel.addRow(cells);
+            if(isOverdue(cells, today)) overdueModel.addRow(cells.clone());
+            if(isReservation(cells, today)) reservationsModel.addRow(cells.clone());
+            if(isReturned(cells)) returnedModel.addRow(cells.clone());
         }
     }
 
-    public void performSearch(String criteria, String term) {
-        if(term == null || term.isEmpty()) { loadLoans(); return; }
+    /**
+     * Turns one loan into the cells of a table row: [ID, Book, Borrower, Borrowed, Due, Returned].
+     */
+    private static Object[] loanCells(Map<String,Object> r) {
+        Object id = r.getOrDefault("id", r.getOrDefault("loan_id", ""));
+        Object bookIdObj = r.getOrDefault("book_id", "");
+        Object borrowerIdObj = r.getOrDefault("borrower_id", "");
+        Object borrowed = r.getOrDefault("borrowed_at", "");
+        Object due = r.getOrDefault("due_date", "");
+        Object returned = r.getOrDefault("returned_at", "");
+
+        int bookIdInt = 0;
+        int borrowerIdInt = 0;
+        try { bookIdInt = Integer.parseInt(String.valueOf(bookIdObj)); } catch(Exception ignore) {}
+        try { borrowerIdInt = Integer.parseInt(String.valueOf(borrowerIdObj)); } catch(Exception ignore) {}
+
+        Object bookModelValue = (bookIdInt != 0) ? bookIdInt : bookIdObj;
+        Object borrowerModelValue = (borrowerIdInt != 0) ? borrowerIdInt : borrowerIdObj;
+        return new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned };
+    }
+
+    private static boolean isOverdue(Object[] cells, java.time.LocalDate today) {
+        Object due = cells[4];
+        Object returned = cells[5];
+        boolean isOverdue = false;
+        if(returned == null || String.valueOf(returned).trim().isEmpty()) {
+            String dueStr = String.valueOf(due);
+            try { java.time.LocalDate dueDate = java.time.LocalDate.parse(dueStr); if(dueDate.isBefore(today)) isOverdue = true; }
+            catch(Exception pe) { try { if(!dueStr.isEmpty() && dueStr.compareTo(today.toString()) < 0) isOverdue = true; } catch(Exception ignore) { } }
+        }
+        return isOverdue;
+    }
+
+    private static boolean isReservation(Object[] cells, java.time.LocalDate today) {
+        Object borrowed = cells[3];
+        boolean isReservation = false;
         try {
-            java.util.List<Map<String,Object>> rows;
-            if("BookID".equalsIgnoreCase(criteria)) {
-                int id; try { id = Integer.parseInt(term); } catch(Exception ex) { JOptionPane.showMessageDialog(this, "BookID must be a number", "Validation", JOptionPane.WARNING_MESSAGE); return; }
-                rows = loanService.ReadBookLoan().WhereBookID(id).Read();
-            } else {
-                java.util.List<Map<String,Object>> all = loanService.ReadBookLoan().Read();
-                String lower = term.toLowerCase(); rows = new java.util.ArrayList<>();
-                for(Map<String,Object> r : all) {
-                    String s = String.valueOf(r.values());
-                    if(s.toLowerCase().contains(lower)) rows.add(r);
-                }
+            String borrowedStr = String.valueOf(borrowed);
+            if(borrowedStr != null && !borrowedStr.trim().isEmpty()) {
+                java.time.LocalDate b = java.time.LocalDate.parse(borrowedStr);
+                if(b.isAfter(today)) isReservation = true;
             }
+        } catch(Exception ignore) { try { if(String.valueOf(borrowed).compareTo(today.toString()) > 0) isReservation = true; } catch(Exception i) {} }
+        return isReservation;
+    }
 
-            allModel.setRowCount(0);
-            overdueModel.setRowCount(0);
-            reservationsModel.setRowCount(0);
-            java.time.LocalDate today = java.time.LocalDate.now();
-            for(Map<String,Object> r : rows) {
-                Object id = r.getOrDefault("id", r.getOrDefault("loan_id", ""));
-                Object bookIdObj = r.getOrDefault("book_id", "");
-                Object borrowerIdObj = r.getOrDefault("borrower_id", "");
-                Object borrowed = r.getOrDefault("borrowed_at", "");
-                Object due = r.getOrDefault("due_date", "");
-                Object returned = r.getOrDefault("returned_at", "");
-
-                int bookIdInt = 0;
-                int borrowerIdInt = 0;
-                try { bookIdInt = Integer.parseInt(String.valueOf(bookIdObj)); } catch(Exception ignore) {}
-                try { borrowerIdInt = Integer.parseInt(String.valueOf(borrowerIdObj)); } catch(Exception ignore) {}
-
-                if(bookIdInt > 0 && !bookTitleCache.containsKey(bookIdInt)) {
-                    try { List<Map<String,Object>> brows = BookService.ReadBook().WhereBookID(bookIdInt).Read(); if(!brows.isEmpty()) bookTitleCache.put(bookIdInt, String.valueOf(brows.get(0).getOrDefault("title", ""))); } catch(Exception ignore) {}
-                }
+    private static boolean isReturned(Object[] cells) {
+        Object returned = cells[5];
+        return returned != null && !String.valueOf(returned).trim().isEmpty();
+    }
 
-                if(borrowerIdInt > 0 && !borrowerNameCache.containsKey(borrowerIdInt)) {
-                    try {
-                        BorrowerService borrowerService = new BorrowerService();
-                        List<Map<String,Object>> brows = borrowerService.ReadBorrower().WhereID(borrowerIdInt).Read();
-                        if(!brows.isEmpty()) {
-                            Map<String,Object> brow = brows.get(0);
-                            String lastName = String.valueOf(brow.getOrDefault("last_name", ""));
-                            String firstName = String.valueOf(brow.getOrDefault("first_name", ""));
-                            String middleName = String.valueOf(brow.getOrDefault("middle_name", ""));
-                            String fullName = lastName + ", " + firstName;
-                            if(middleName != null && !middleName.isEmpty() && !"null".equalsIgnoreCase(middleName)) {
-                                fullName += " " + middleName;
-                            }
-                            borrowerNameCache.put(borrowerIdInt, fullName);
-                        }
-                    } catch(Exception ignore) {}
-                }
+    /**
+     * Applies changes of other clients to the loan tables (call on the UI thread).
+     *
+     * Changed loans are read again (one query) and moved between the tabs they now belong to;
+     * deleted loans disappear, and new loans are appended when all loans are shown. A changed
+     * book or borrower was already dropped from the shared cache, so it is read again for the
+     * renderers and the tables repainted. Changes to loans whose IDs are not known (e.g. a
+     * deleted book took its loans along) reload what is shown.
+     */
+    private void applyRemoteChanges(List<ChangeLog.Change> changes) {
+        Set<Integer> loanIds = new HashSet<>();
+        Set<Integer> bookIds = new HashSet<>();
+        Set<Integer> borrowerIds = new HashSet<>();
+        boolean inserted = false;
+        for(ChangeLog.Change change : changes) {
+            switch(change.Entity()) {
+                case "book_loans":
+                    if(change.ID() > 0) loanIds.add(change.ID());
+                    else if(change.Op() == ChangeLog.INSERT) inserted = true;
+                    else {
+                        if(shownLoans == null) loadLoans();
+                        else showLoans(TaskScheduler.Lane.BULK, "search loans", shownLoans, "Search failed: ", null);
+                        return;
+                    }
+                    break;
+                case "books":
+                    if(change.ID() > 0) bookIds.add(change.ID());
+                    break;
+                case "borrowers":
+                    if(change.ID() > 0) borrowerIds.add(change.ID());
+                    break;
+                default:
+                    break;
+            }
+        }
+        boolean appendNew = inserted && shownLoans == null;
+
+        // Only the books and borrowers that are shown need to be read again
+        List<Map<String,Object>> shownRefs = new ArrayList<>();
+        Set<String> shownIds = new HashSet<>();
+        boolean searching = shownLoans != null;
+        int shownMax = 0;
+        for(int row = 0; row < allModel.getRowCount(); row++) {
+            shownIds.add(String.valueOf(allModel.getValueAt(row, 0)));
+            try {
+                shownMax = Math.max(shownMax, Integer.parseInt(String.valueOf(allModel.getValueAt(row, 0))));
+            } catch(NumberFormatException ignore) {}
+            Object book = allModel.getValueAt(row, 1);
+            Object borrower = allModel.getValueAt(row, 2);
+            if(bookIds.contains(book) || borrowerIds.contains(borrower)) {
+                Map<String,Object> ref = new HashMap<>();
+                ref.put("book_id", book);
+                ref.put("borrower_id", borrower);
+                shownRefs.add(ref);
+            }
+        }
+        if(loanIds.isEmpty() && !appendNew && shownRefs.isEmpty()) return;
+        final int newAbove = appendNew ? shownMax : Integer.MAX_VALUE;
+
+        TaskScheduler.get().submit(TaskScheduler.Lane.BULK, "apply loan changes", token -> {
+            List<Map<String,Object>> loans = new ArrayList<>();
+            if(!loanIds.isEmpty()) loans.addAll(loanService.ReadBookLoan().Where(Criteria.In("id", loanIds)).Read());
+            if(newAbove != Integer.MAX_VALUE) loans.addAll(loanService.ReadBookLoan().Where(Criteria.Gt("id", newAbove)).Read());
+            List<Map<String,Object>> refs = new ArrayList<>(shownRefs);
+            refs.addAll(loans);
+            CompletableFuture.allOf(
+                readMissing(refs, "book_id", EntityCache.Books(), ids -> BookService.ReadBook().Where(Criteria.In("id", ids)).ReadAsync()),
+                readMissing(refs, "borrower_id", EntityCache.Borrowers(), ids -> BorrowerService.ReadBorrower().Where(Criteria.In("id", ids)).ReadAsync())
+            ).join();
+            return loans;
+        }).whenDone((loans, error) -> {
+            if(error != null) {
+                // nothing lost: the next full load shows the changes
+                System.err.println("Failed to apply loan changes of other clients: " + error.getMessage());
+                return;
+            }
 
-                Object bookModelValue = (bookIdInt != 0) ? bookIdInt : bookIdObj;
-                Object borrowerModelValue = (borrowerIdInt != 0) ? borrowerIdInt : borrowerIdObj;
-                allModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
+            Map<String,Object[]> fresh = new LinkedHashMap<>();
+            for(Map<String,Object> loan : loans) {
+                Object[] cells = loanCells(loan);
+                // a search result only gains loans when it is run again
+                if(searching && !shownIds.contains(String.valueOf(cells[0]))) continue;
+                fresh.put(String.valueOf(cells[0]), cells);
+            }
+            Set<String> gone = new HashSet<>();
+            Set<String> read = new HashSet<>();
+            for(Map<String,Object> loan : loans) read.add(String.valueOf(loanCells(loan)[0]));
+            for(Integer id : loanIds) if(!read.contains(String.valueOf(id))) gone.add(String.valueOf(id));
 
-                boolean isOverdue = false;
-                if(returned == null || String.valueOf(returned).trim().isEmpty()) {
-                    String dueStr = String.valueOf(due);
-                    try { java.time.LocalDate dueDate = java.time.LocalDate.parse(dueStr); if(dueDate.isBefore(today)) isOverdue = true; }
-                    catch(Exception pe) { try { if(!dueStr.isEmpty() && dueStr.compareTo(today.toString()) < 0) isOverdue = true; } catch(Exception ignore) { } }
+            java.time.LocalDate today = java.time.LocalDate.now();
+            for(Object[] cells : fresh.values()) {
+                placeLoan(allModel, cells, true);
+                placeLoan(overdueModel, cells, isOverdue(cells, today));
+                placeLoan(reservationsModel, cells, isReservation(cells, today));
+                placeLoan(returnedModel, cells, isReturned(cells));
+            }
+            for(DefaultTableModel model : Arrays.asList(allModel, overdueModel, reservationsModel, returnedModel)) {
+                for(int row = model.getRowCount() - 1; row >= 0; row--) {
+                    if(gone.contains(String.valueOf(model.getValueAt(row, 0)))) model.removeRow(row);
                 }
-                if(isOverdue) overdueModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
-
-                boolean isReservation = false;
-                try {
-                    String borrowedStr = String.valueOf(borrowed);
-                    if(borrowedStr != null && !borrowedStr.trim().isEmpty()) {
-                        java.time.LocalDate b = java.time.LocalDate.parse(borrowedStr);
-                        if(b.isAfter(today)) isReservation = true;
-                    }
-                } catch(Exception ignore) { try { if(String.valueOf(borrowed).compareTo(today.toString()) > 0) isReservation = true; } catch(Exception i) {} }
-                if(isReservation) reservationsModel.addRow(new Object[] { id, bookModelValue, borrowerModelValue, borrowed, due, returned });
             }
-        } catch(Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Search failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+
+            // Titles and names come from the cache while painting
+            allTable.repaint();
+            overdueTable.repaint();
+            reservationsTable.repaint();
+            returnedTable.repaint();
+        });
+    }
+
+    /**
+     * Updates a loan's row in one tab in place, adds it if it now belongs there, or removes it if it no longer does.
+     */
+    private static void placeLoan(DefaultTableModel model, Object[] cells, boolean belongs) {
+        String id = String.valueOf(cells[0]);
+        for(int row = 0; row < model.getRowCount(); row++) {
+            if(!id.equals(String.valueOf(model.getValueAt(row, 0)))) continue;
+            if(!belongs) {
+                model.removeRow(row);
+                return;
+            }
+            for(int col = 0; col < cells.length; col++) model.setValueAt(cells[col], row, col);
+            return;
+        }
+        if(belongs) model.addRow(cells.clone());
+    }
+
+    /**
+     * Formats a borrower row as "Last, First Middle" for display.
+     *
+     * @param brow The borrower row (may be null)
+     * @return The display name, or null if the row is null
+     */
+    private static String borrowerDisplayName(Map<String,Object> brow) {
+        if(brow == null) return null;
+        String lastName = String.valueOf(brow.getOrDefault("last_name", ""));
+        String firstName = String.valueOf(brow.getOrDefault("first_name", ""));
+        String middleName = String.valueOf(brow.getOrDefault("middle_name", ""));
+        String fullName = lastName + ", " + firstName;
+        if(middleName != null && !middleName.isEmpty() && !"null".equalsIgnoreCase(middleName)) {
+            fullName += " " + middleName;
         }
+        return fullName;
+    }
+
+    public void performSearch(String criteria, String term) {
+        if(term == null || term.isEmpty()) { loadLoans(); return; }
+
+        Supplier<List<Map<String,Object>>> rows;
+        if("BookID".equalsIgnoreCase(criteria)) {
+            int id; try { id = Integer.parseInt(term); } catch(Exception ex) { JOptionPane.showMessageDialog(this, "BookID must be a number", "Validation", JOptionPane.WARNING_MESSAGE); return; }
+            rows = () -> loanService.ReadBookLoan().WhereBookID(id).Read();
+        } else {
+            // Let the database match the term against every column instead of loading all loans
+            String text = term.trim();
+            rows = () -> loanService.ReadBookLoan().Where(Criteria.Or(
+                Criteria.Contains("id", text), Criteria.Contains("book_id", text), Criteria.Contains("borrower_id", text),
+                Criteria.Contains("borrowed_at", text), Criteria.Contains("due_date", text), Criteria.Contains("returned_at", text)
+            )).Read();
+        }
+        shownLoans = rows;
+        showLoans(TaskScheduler.Lane.INTERACTIVE, "search loans", rows, "Search failed: ", null);
     }
 
     private void showRowPopup(MouseEvent e, JTable src, int row) {
@@ -410,28 +574,18 @@ public class LoanPanel extends JPanel {
     }
 
     private void exportCurrentTableToCSV() {
-        // Get the currently active table based on selected tab
-        JTabbedPane tabs = null;
-        JTable currentTable = null;
-        
-        // Find the tabbed pane by traversing the component hierarchy
+        // Find the loans tab the user is looking at
+        String tabTitle = null;
         for(Component c : this.getComponents()) {
             if(c instanceof JTabbedPane) {
-                tabs = (JTabbedPane)c;
+                JTabbedPane tabs = (JTabbedPane)c;
                 int selectedIdx = tabs.getSelectedIndex();
-                Component tab = tabs.getComponentAt(selectedIdx);
-                // Find the JTable inside the tab (wrapped in JScrollPane)
-                if(tab instanceof JScrollPane) {
-                    JScrollPane sp = (JScrollPane)tab;
-                    if(sp.getViewport().getView() instanceof JTable) {
-                        currentTable = (JTable)sp.getViewport().getView();
-                    }
-                }
+                if(selectedIdx >= 0) tabTitle = tabs.getTitleAt(selectedIdx);
                 break;
             }
         }
         
-        if(currentTable == null) {
+        if(tabTitle == null) {
             JOptionPane.showMessageDialog(this, "No table found to export.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
@@ -439,50 +593,30 @@ public class LoanPanel extends JPanel {
         // Open file chooser to save
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Export Loans to CSV");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV Files (*.csv)", "csv"));
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV Files (*.csv, *.csv.gz)", "csv", "gz"));
         int result = fileChooser.showSaveDialog(this);
         
         if(result != JFileChooser.APPROVE_OPTION) return;
         
         java.io.File file = fileChooser.getSelectedFile();
-        String filePath = file.getAbsolutePath();
-        if(!filePath.toLowerCase().endsWith(".csv")) {
-            filePath += ".csv";
+        String lowerPath = file.getName().toLowerCase();
+        if(!lowerPath.endsWith(".csv") && !lowerPath.endsWith(".csv.gz")) {
+            file = new java.io.File(file.getAbsolutePath() + ".csv");
         }
-        
-        try {
-            // Write CSV
-            java.io.PrintWriter writer = new java.io.PrintWriter(new java.io.FileWriter(filePath));
-            
-            // Write header
-            javax.swing.table.TableModel model = currentTable.getModel();
-            StringBuilder header = new StringBuilder();
-            for(int i = 0; i < model.getColumnCount(); i++) {
-                if(i > 0) header.append(",");
-                String colName = model.getColumnName(i);
-                // Escape quotes in column name
-                header.append("\"").append(colName.replace("\"", "\"\"")).append("\"");
-            }
-            writer.println(header.toString());
-            
-            // Write data rows
-            for(int row = 0; row < model.getRowCount(); row++) {
-                StringBuilder rowStr = new StringBuilder();
-                for(int col = 0; col < model.getColumnCount(); col++) {
-                    if(col > 0) rowStr.append(",");
-                    Object val = model.getValueAt(row, col);
-                    String cellStr = val == null ? "" : val.toString();
-                    // Escape quotes and wrap in quotes
-                    rowStr.append("\"").append(cellStr.replace("\"", "\"\"")).append("\"");
-                }
-                writer.println(rowStr.toString());
-            }
-            
-            writer.close();
-            JOptionPane.showMessageDialog(this, "Exported " + model.getRowCount() + " rows to:\n" + filePath, "Export Success", JOptionPane.INFORMATION_MESSAGE);
-        } catch(Exception ex) {
-            JOptionPane.showMessageDialog(this, "Failed to export: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            ex.printStackTrace();
+
+        // Same filters the tabs apply in loadLoans(), evaluated by the database so every matching
+        // loan is exported (not only the rows currently loaded) and streamed in constant memory
+        String where;
+        switch(tabTitle) {
+            case "Overdue": where = " WHERE returned_at IS NULL AND due_date < CURDATE()"; break;
+            case "Reservations": where = " WHERE borrowed_at > CURDATE()"; break;
+            case "Returned": where = " WHERE returned_at IS NOT NULL"; break;
+            default: where = ""; break;
         }
+
+        lib.Csv.CsvExport export = new lib.Csv.CsvExport(
+                "SELECT id, book_id, borrower_id, borrowed_at, due_date, returned_at FROM book_loans" + where + " ORDER BY id")
+            .Headers("ID", "BookID", "Borrower", "BorrowedAt", "DueDate", "ReturnedAt");
+        new CsvExportWorker(this, export, file, "SELECT COUNT(*) FROM book_loans" + where).start();
     }
 }
\ No newline at end of file
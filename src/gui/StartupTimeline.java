@@ -0,0 +1,50 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records named milestones during application startup (frame shown, database
+ * connected, first rows on screen) relative to the moment startup began, and
+ * prints the timeline once the first rows are visible.
+ *
+ * @author AI
+ */
+public final class StartupTimeline {
+    private static long startNanos = System.nanoTime();
+    private static final List<String> marks = new ArrayList<>();
+    private static boolean reported;
+
+    private StartupTimeline() {}
+
+    /**
+     * Resets the reference point. Call this as early as possible in main().
+     */
+    public static synchronized void begin() {
+        startNanos = System.nanoTime();
+        marks.clear();
+        reported = false;
+    }
+
+    /**
+     * Records a milestone.
+     *
+     * @param milestone Short description of what just happened
+     * @return Milliseconds elapsed since startup began
+     */
+    public static synchronized long mark(String milestone) {
+        long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000L;
+        marks.add(String.format("%6d ms  %s", elapsedMs, milestone));
+        return elapsedMs;
+    }
+
+    /**
+     * Prints the recorded timeline to the console (only the first time it is called).
+     */
+    public static synchronized void report() {
+        if(reported) return;
+        reported = true;
+        System.out.println("Startup timeline:");
+        for(String m : marks) System.out.println("  " + m);
+    }
+}
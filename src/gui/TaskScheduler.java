@@ -0,0 +1,309 @@
+package gui;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Runs the application's background work in two lanes, instead of on anonymous SwingWorkers
+ * (which all share Swing's 10-thread pool, so a long CSV import competes equally with a search):
+ * - INTERACTIVE: searches and form lookups, the user is waiting for the answer,
+ * - BULK: imports, exports, dry runs, table refreshes and cache pre-warming.
+ *
+ * Each lane has its own concurrency limit (library.tasks.interactive, default 4, and
+ * library.tasks.bulk, default 2), so bulk work can never hold the threads interactive work
+ * needs. Queued bulk tasks only start while no interactive task is waiting, and a running bulk
+ * task that calls {@link CancellationToken#checkpoint()} between steps pauses there (at most half
+ * a second per call) while interactive tasks are queued or running.
+ *
+ * Every task has a cancellation token. Cancelling a queued task drops it from the queue;
+ * a running task sees the cancellation at its next checkpoint.
+ *
+ * @author AI
+ */
+public final class TaskScheduler {
+    public enum Lane { INTERACTIVE, BULK }
+
+    /**
+     * The work of a task. Runs on a background thread, so it must not touch Swing components.
+     */
+    public interface Work<T> {
+        T run(CancellationToken token) throws Exception;
+    }
+
+    private static final long MAX_PAUSE_MS = 500;
+
+    private static final TaskScheduler instance = new TaskScheduler(
+        Math.max(1, Integer.getInteger("library.tasks.interactive", 4)),
+        Math.max(1, Integer.getInteger("library.tasks.bulk", 2)));
+
+    private final Object lock = new Object();
+    private final Map<Lane, ArrayDeque<Task<?>>> queues = new EnumMap<>(Lane.class);
+    private final int[] limits = new int[Lane.values().length];
+    private final int[] running = new int[Lane.values().length];
+    private final int[] peakQueued = new int[Lane.values().length];
+    private final long[] completed = new long[Lane.values().length];
+    // queued + running interactive tasks; read without the lock by the checkpoints
+    private volatile int interactiveActive;
+
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "app-task");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private TaskScheduler(int interactiveLimit, int bulkLimit) {
+        for(Lane lane : Lane.values()) queues.put(lane, new ArrayDeque<>());
+        limits[Lane.INTERACTIVE.ordinal()] = interactiveLimit;
+        limits[Lane.BULK.ordinal()] = bulkLimit;
+    }
+
+    /**
+     * @return The application's scheduler.
+     */
+    public static TaskScheduler get() {
+        return instance;
+    }
+
+    /**
+     * Tells a running task whether it was cancelled, and lets bulk tasks give way to interactive ones.
+     */
+    public static final class CancellationToken {
+        private final TaskScheduler scheduler;
+        private final Lane lane;
+        private volatile boolean cancelled;
+
+        private CancellationToken(TaskScheduler scheduler, Lane lane) {
+            this.scheduler = scheduler;
+            this.lane = lane;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @throws CancellationException if the task was cancelled.
+         */
+        public void throwIfCancelled() {
+            if(cancelled) throw new CancellationException("Task was cancelled");
+        }
+
+        /**
+         * Call between steps of long work. In the bulk lane this first waits while interactive
+         * tasks are queued or running (bounded, so bulk work is slowed down, never starved).
+         * Fits the builders' CancelWhen(...) hooks: {@code .CancelWhen(token::checkpoint)}.
+         *
+         * @return true if the task was cancelled and should stop.
+         */
+        public boolean checkpoint() {
+            if(lane == Lane.BULK) scheduler.pauseForInteractive(this);
+            return cancelled;
+        }
+    }
+
+    /**
+     * Handle of a submitted task.
+     */
+    public static final class Task<T> {
+        private final TaskScheduler scheduler;
+        private final Lane lane;
+        private final String name;
+        private final Work<T> work;
+        private final CancellationToken token;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Task(TaskScheduler scheduler, Lane lane, String name, Work<T> work) {
+            this.scheduler = scheduler;
+            this.lane = lane;
+            this.name = name;
+            this.work = work;
+            this.token = new CancellationToken(scheduler, lane);
+        }
+
+        public Lane lane() { return lane; }
+        public String name() { return name; }
+        public CancellationToken token() { return token; }
+        public boolean isCancelled() { return token.isCancelled(); }
+
+        /**
+         * @return A future completed with the work's result (or its exception).
+         */
+        public CompletableFuture<T> future() {
+            return result;
+        }
+
+        /**
+         * Cancels the task: a queued task is dropped (its future fails with a CancellationException),
+         * a running one sees it at its next checkpoint.
+         *
+         * @return false if the task had already finished.
+         */
+        public boolean cancel() {
+            return scheduler.cancel(this);
+        }
+
+        /**
+         * Runs the callback on the UI thread once the task is done, with either the result or the
+         * failure (unwrapped; a CancellationException if the task was cancelled before it started).
+         *
+         * @return This task.
+         */
+        public Task<T> whenDone(BiConsumer<? super T, Throwable> callback) {
+            result.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> callback.accept(value, unwrap(error))));
+            return this;
+        }
+    }
+
+    /**
+     * Queues work in a lane.
+     *
+     * @param lane INTERACTIVE for work the user waits on, BULK for everything else
+     * @param name Short description (shown in the thread name while it runs)
+     * @param work The work
+     * @return The task's handle
+     */
+    public <T> Task<T> submit(Lane lane, String name, Work<T> work) {
+        if(lane == null || work == null) throw new IllegalArgumentException("Lane and work cannot be null");
+
+        Task<T> task = new Task<>(this, lane, name == null ? "task" : name, work);
+        synchronized(lock) {
+            ArrayDeque<Task<?>> queue = queues.get(lane);
+            queue.add(task);
+            peakQueued[lane.ordinal()] = Math.max(peakQueued[lane.ordinal()], queue.size());
+            if(lane == Lane.INTERACTIVE) interactiveActive++;
+            dispatch();
+        }
+        return task;
+    }
+
+    /** @return How many tasks of the lane are waiting to start. */
+    public int queued(Lane lane) { synchronized(lock) { return queues.get(lane).size(); } }
+    /** @return How many tasks of the lane are running. */
+    public int running(Lane lane) { synchronized(lock) { return running[lane.ordinal()]; } }
+    /** @return The longest the lane's queue has been. */
+    public int peakQueued(Lane lane) { synchronized(lock) { return peakQueued[lane.ordinal()]; } }
+    /** @return How many tasks of the lane have finished. */
+    public long completed(Lane lane) { synchronized(lock) { return completed[lane.ordinal()]; } }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("tasks[");
+        synchronized(lock) {
+            for(Lane lane : Lane.values()) {
+                int i = lane.ordinal();
+                if(i > 0) sb.append(' ');
+                sb.append(lane.name().toLowerCase()).append(": queued=").append(queues.get(lane).size())
+                  .append(" peak=").append(peakQueued[i]).append(" running=").append(running[i]).append('/').append(limits[i])
+                  .append(" done=").append(completed[i]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Wraps a progress consumer so a task can call it: values are handed to the UI thread, and if
+     * several arrive before the UI thread gets to them only the newest one is shown.
+     */
+    public static <P> Consumer<P> onUiThread(Consumer<P> consumer) {
+        AtomicReference<P> latest = new AtomicReference<>();
+        return value -> {
+            if(value != null && latest.getAndSet(value) == null) {
+                SwingUtilities.invokeLater(() -> consumer.accept(latest.getAndSet(null)));
+            }
+        };
+    }
+
+    /**
+     * @return true if the failure passed to a whenDone callback means the task was cancelled.
+     */
+    public static boolean isCancellation(Throwable error) {
+        return error instanceof CancellationException;
+    }
+
+    // Starts what the limits allow; bulk only when no interactive task is waiting. Caller holds the lock.
+    private void dispatch() {
+        start(Lane.INTERACTIVE);
+        if(queues.get(Lane.INTERACTIVE).isEmpty()) start(Lane.BULK);
+    }
+
+    private void start(Lane lane) {
+        ArrayDeque<Task<?>> queue = queues.get(lane);
+        while(!queue.isEmpty() && running[lane.ordinal()] < limits[lane.ordinal()]) {
+            Task<?> task = queue.poll();
+            running[lane.ordinal()]++;
+            threads.execute(() -> run(task));
+        }
+    }
+
+    private <T> void run(Task<T> task) {
+        Thread thread = Thread.currentThread();
+        thread.setName("task-" + task.lane.name().toLowerCase() + ": " + task.name);
+        try {
+            task.result.complete(task.work.run(task.token));
+        } catch(Throwable e) {
+            task.result.completeExceptionally(e);
+        } finally {
+            thread.setName("app-task");
+            synchronized(lock) {
+                running[task.lane.ordinal()]--;
+                completed[task.lane.ordinal()]++;
+                if(task.lane == Lane.INTERACTIVE) interactiveActive--;
+                lock.notifyAll();
+                dispatch();
+            }
+        }
+    }
+
+    private boolean cancel(Task<?> task) {
+        boolean dequeued;
+        synchronized(lock) {
+            if(task.result.isDone()) return false;
+            task.token.cancelled = true;
+            dequeued = queues.get(task.lane).remove(task);
+            if(dequeued) {
+                if(task.lane == Lane.INTERACTIVE) interactiveActive--;
+                dispatch();
+            }
+            // wake a cancelled bulk task paused at a checkpoint
+            lock.notifyAll();
+        }
+        if(dequeued) task.result.completeExceptionally(new CancellationException(task.name + " was cancelled"));
+        return true;
+    }
+
+    private void pauseForInteractive(CancellationToken token) {
+        if(interactiveActive == 0) return;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_PAUSE_MS);
+        synchronized(lock) {
+            try {
+                while(interactiveActive > 0 && !token.cancelled) {
+                    long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if(left <= 0) return;
+                    lock.wait(left);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,203 @@
+package lib.Book;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import config.DatabaseConnection;
+import lib.Cache.EntityCache;
+
+/**
+ * Brings the books table up to the columns and indexes this version of the code expects.
+ *
+ * - isbn_key: the {@link Isbn#Normalize(String) normalized} ISBN-13, with a unique index.
+ *   Books whose ISBN is invalid keep a NULL key; when several existing books share one
+ *   normalized ISBN, only the oldest one gets the key so the unique index can be created.
+ * - title_key / author_key: the {@link SearchKey search keys} of title and author, indexed
+ *   so title and author searches are index range scans. They use a binary collation since
+ *   the keys are already folded.
+ *
+ * Columns are added and filled in for existing rows before their indexes are created.
+ * Every step checks the current schema first, so running it again is cheap and safe.
+ * Until an upgrade has completed, {@link #HasKeys()} is false and searches use the raw
+ * columns instead; if a key column could not be added, {@link #HasKeyColumns()} is false
+ * and writes leave the key columns out.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class BookSchema {
+    private static final int UPDATE_BATCH = 1000;
+    private static volatile boolean upgraded;
+    private static volatile boolean keyColumns = true;
+
+    private BookSchema() {}
+
+    /**
+     * Whether the key columns are filled in and indexed, so reads can match on them.
+     *
+     * @return true once {@link #Upgrade()} has completed.
+     */
+    public static boolean HasKeys() {
+        return upgraded;
+    }
+
+    /**
+     * Whether the books table has the key columns, so inserts and updates have to fill them in.
+     *
+     * @return false only if an upgrade failed to add one of them.
+     */
+    public static boolean HasKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * Same as {@link #Upgrade()}, but a failure is only logged, for callers that can work
+     * without the key columns.
+     *
+     * @return true if the schema is up to date ({@link #HasKeys()}).
+     */
+    public static boolean TryUpgrade() {
+        try {
+            Upgrade();
+        } catch(RuntimeException e) {
+            System.err.println(e.getMessage());
+        }
+        return upgraded;
+    }
+
+    /**
+     * Applies any missing schema changes (once per run of the application).
+     *
+     * @throws RuntimeException if the schema cannot be upgraded.
+     */
+    public static synchronized void Upgrade() {
+        if(upgraded) return;
+        if(DatabaseConnection.GetInstance().IsEmbedded()) {
+            // the embedded store creates the books table with these columns and indexes already
+            upgraded = true;
+            return;
+        }
+
+        try(Connection connection = DatabaseConnection.GetInstance().OpenConnection()) {
+            addColumn(connection, "isbn_key", "CHAR(13) NULL AFTER isbn");
+            addColumn(connection, "title_key", "VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NULL AFTER title");
+            addColumn(connection, "author_key", "VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NULL AFTER author");
+
+            backfillIsbnKeys(connection);
+            backfillSearchKeys(connection);
+
+            addIndex(connection, "uq_books_isbn_key", "UNIQUE KEY uq_books_isbn_key (isbn_key)");
+            addIndex(connection, "idx_books_title_key", "KEY idx_books_title_key (title_key)");
+            addIndex(connection, "idx_books_author_key", "KEY idx_books_author_key (author_key)");
+            upgraded = true;
+        } catch(SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to upgrade books schema: " + e.getMessage());
+        } finally {
+            DatabaseConnection.GetInstance().GetQueryCache().InvalidateTables(Collections.singletonList("books"));
+            EntityCache.Books().Clear();
+        }
+    }
+
+    private static void addColumn(Connection connection, String column, String definition) throws SQLException {
+        if(hasColumn(connection, "books", column)) return;
+        // until it exists, writes must not name it
+        keyColumns = false;
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE books ADD COLUMN " + column + " " + definition);
+        }
+        keyColumns = true;
+    }
+
+    private static void addIndex(Connection connection, String index, String definition) throws SQLException {
+        if(hasIndex(connection, "books", index)) return;
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE books ADD " + definition);
+        }
+    }
+
+    // Fills isbn_key for rows that do not have one yet, oldest book first.
+    private static void backfillIsbnKeys(Connection connection) throws SQLException {
+        Set<String> taken = new HashSet<>();
+        try(Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT isbn_key FROM books WHERE isbn_key IS NOT NULL")) {
+            while(rs.next()) taken.add(rs.getString(1));
+        }
+
+        backfill(connection, "SELECT id, isbn FROM books WHERE isbn_key IS NULL ORDER BY id", "UPDATE books SET isbn_key = ? WHERE id = ?", (row, update) -> {
+            String key = Isbn.Normalize(row.getString("isbn"));
+            if(key == null || !taken.add(key)) return false;
+
+            update.setString(1, key);
+            update.setInt(2, row.getInt("id"));
+            return true;
+        });
+    }
+
+    // Fills title_key/author_key for rows written before the columns existed (or by other tools).
+    private static void backfillSearchKeys(Connection connection) throws SQLException {
+        backfill(connection, "SELECT id, title, author FROM books WHERE title_key IS NULL OR author_key IS NULL",
+            "UPDATE books SET title_key = ?, author_key = ? WHERE id = ?", (row, update) -> {
+            update.setString(1, SearchKey.ForTitle(row.getString("title")));
+            update.setString(2, SearchKey.ForAuthor(row.getString("author")));
+            update.setInt(3, row.getInt("id"));
+            return true;
+        });
+    }
+
+    @FunctionalInterface
+    private interface RowUpdate {
+        // Binds the update for one row; returns false to leave the row alone.
+        boolean Bind(ResultSet row, PreparedStatement update) throws SQLException;
+    }
+
+    // Streams the rows of a query and applies a batched update to each, committing every UPDATE_BATCH rows.
+    private static void backfill(Connection connection, String query, String updateStatement, RowUpdate rowUpdate) throws SQLException {
+        // read on a streaming connection to the primary (a replica may not have the new column yet) while updating on this one
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try(PreparedStatement update = connection.prepareStatement(updateStatement)) {
+            int[] pending = { 0 };
+            DatabaseConnection.GetInstance().StreamQuery(false, query, row -> {
+                if(!rowUpdate.Bind(row, update)) return true;
+
+                update.addBatch();
+                if(++pending[0] == UPDATE_BATCH) {
+                    update.executeBatch();
+                    connection.commit();
+                    pending[0] = 0;
+                }
+                return true;
+            });
+            if(pending[0] > 0) update.executeBatch();
+            connection.commit();
+        } catch(SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        return exists(connection, "SELECT 1 FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?", table, column);
+    }
+
+    private static boolean hasIndex(Connection connection, String table, String index) throws SQLException {
+        return exists(connection, "SELECT 1 FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?", table, index);
+    }
+
+    private static boolean exists(Connection connection, String sql, String... args) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement(sql)) {
+            for(int i = 0; i < args.length; i++) statement.setString(i + 1, args[i]);
+            try(ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
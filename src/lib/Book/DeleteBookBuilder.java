@@ -1,6 +1,17 @@
 package lib.Book;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import config.DatabaseUnavailableException;
+import config.OfflineWriteLog;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Procedure.StoredProcedures;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for deleting book records from the database.
@@ -8,7 +19,13 @@ import config.DatabaseConnection;
  * @author dev-MichaelJohn
  */
 public class DeleteBookBuilder extends BookBuilder<DeleteBookBuilder> {
+    private static final List<String> CASCADE_TABLES = Arrays.asList("books", "book_genres", "book_loans");
+    private static final String DELETE_GENRES = "DELETE FROM book_genres WHERE book_id = ?";
+    private static final String DELETE_LOANS = "DELETE FROM book_loans WHERE book_id = ?";
+    private static final String DELETE_BOOK = "DELETE FROM books WHERE id = ?";
+
     private DatabaseConnection dbConnection;    
+    private boolean withGenresAndLoans;
 
     public DeleteBookBuilder() {
         super();
@@ -58,13 +75,33 @@ public class DeleteBookBuilder extends BookBuilder<DeleteBookBuilder> {
      */
     public DeleteBookBuilder WhereIsbn(String isbn) {
         if(isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN cannot be null or empty");
-        if(isbn.length() > 13) throw new IllegalArgumentException("ISBN cannot exceed 13 characters");
+        if(!Isbn.IsAccepted(isbn)) throw new IllegalArgumentException("ISBN cannot exceed 13 characters unless it is a valid hyphenated ISBN");
         if(this.isbn != null) throw new IllegalStateException("ISBN has already been set");
 
         this.isbn = isbn;
         return this.SetField("isbn", isbn);
     }
 
+    /**
+     * Sets an exact ISBN condition for deleting book records, matching every form of the
+     * same ISBN (ISBN-10/13, hyphenated or not) through the normalized key.
+     * Anything that is not a valid ISBN, or any ISBN while the key column is missing, is
+     * compared to the stored ISBN as is.
+     * 
+     * @param isbn The ISBN of the book.
+     * @return The current DeleteBookBuilder instance.
+     */
+    public DeleteBookBuilder WhereIsbnExact(String isbn) {
+        if(isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN cannot be null or empty");
+        if(isbn.length() > 17) throw new IllegalArgumentException("ISBN cannot exceed 17 characters");
+        if(this.isbn != null) throw new IllegalStateException("ISBN has already been set");
+
+        this.isbn = isbn;
+        String key = Isbn.Normalize(isbn);
+        if(key != null && BookSchema.HasKeys()) return this.SetField("isbn_key", key);
+        return this.SetField("isbn", isbn.trim());
+    }
+
     /**
      * Sets the year published condition for deleting book records.
      * 
@@ -93,28 +130,108 @@ public class DeleteBookBuilder extends BookBuilder<DeleteBookBuilder> {
         return this.SetField("id", bookID);
     }
 
+    /**
+     * Adds a criteria condition for deleting book records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current DeleteBookBuilder instance.
+     */
+    public DeleteBookBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
+    /**
+     * Also deletes the genres and loans of the book, in the same transaction. Requires the book
+     * to be selected by ID only. With stored procedures enabled this is a single round trip.
+     * While the database is unreachable, the three deletes are queued offline as one operation.
+     * 
+     * @return The current DeleteBookBuilder instance.
+     */
+    public DeleteBookBuilder WithGenresAndLoans() {
+        this.withGenresAndLoans = true;
+        return this;
+    }
+
     /**
      * Executes the delete operation to remove book records from the database.
      * 
      * @return true if the deletion was successful, false otherwise.
      */
     public boolean Delete() {
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for deletion");
+        if(this.withGenresAndLoans) return this.deleteWithGenresAndLoans();
+
+        String query = this.DeleteSql("books");
+        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        if(this.bookID != 0) {
+            EntityCache.Books().Remove(this.bookID);
+            EntityCache.Genres().Remove(this.bookID);
+        } else {
+            EntityCache.Books().Clear();
+            EntityCache.Genres().Clear();
+        }
+        if(rowsAffected > 0) ChangeLog.Record("books", this.bookID, ChangeLog.DELETE);
+        return rowsAffected > 0;
+    }
 
-        StringBuilder queryBuilder = new StringBuilder("DELETE FROM books WHERE ");
-        queryBuilder.append(String.join(" AND ", this.GetStatements()));
+    /**
+     * Same as {@link #Delete()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the delete was successful.
+     */
+    public CompletableFuture<Boolean> DeleteAsync() {
+        return AsyncExecutor.Submit(this::Delete);
+    }
+
+    private boolean deleteWithGenresAndLoans() {
+        if(this.bookID == 0 || this.GetStatements().size() != 1) throw new IllegalStateException("Only a book selected by ID can be deleted with its genres and loans");
 
-        String query = queryBuilder.toString();
-        int rowsAffected;
+        // the offline log replays to the home database only
+        boolean queueable = this.dbConnection.RoutedBranch() == null;
+        boolean deleted;
         try {
-            System.out.println("Calling Delete...");
-            rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
-        } catch (Exception e) {
-            System.out.println("Calling failed!");
-            throw e;
+            if(queueable && this.dbConnection.IsQueueingWrites()) {
+                deleted = this.queueCascade();
+            } else if(StoredProcedures.IsAvailable()) {
+                Object rows = StoredProcedures.CallForValue("lib_delete_book", CASCADE_TABLES, this.bookID);
+                deleted = rows instanceof Number && ((Number) rows).intValue() > 0;
+                if(deleted) this.recordCascade();
+            } else {
+                deleted = this.dbConnection.ExecuteTransaction(transaction -> {
+                    transaction.Update(DELETE_GENRES, this.bookID);
+                    int loans = transaction.Update(DELETE_LOANS, this.bookID);
+                    if(transaction.Update(DELETE_BOOK, this.bookID) == 0) return false;
+                    ChangeLog.Record(transaction, "books", this.bookID, ChangeLog.DELETE);
+                    ChangeLog.Record(transaction, "book_genres", this.bookID, ChangeLog.DELETE);
+                    // the loan IDs are not known here
+                    if(loans > 0) ChangeLog.Record(transaction, "book_loans", 0, ChangeLog.DELETE);
+                    return true;
+                });
+            }
+        } catch(DatabaseUnavailableException e) {
+            // rejected before anything was sent, so queueing cannot apply it twice
+            if(!queueable || this.dbConnection.GetOfflineLog() == null) throw e;
+            deleted = this.queueCascade();
+        } finally {
+            EntityCache.Books().Remove(this.bookID);
+            EntityCache.Genres().Remove(this.bookID);
         }
+        return deleted;
+    }
 
-        System.out.println("Calling sucess...");
-        return rowsAffected > 0;
+    private boolean queueCascade() {
+        this.dbConnection.QueueOffline("Delete of book " + this.bookID,
+            OfflineWriteLog.Step.Of(DELETE_GENRES, this.bookID),
+            OfflineWriteLog.Step.Of(DELETE_LOANS, this.bookID),
+            OfflineWriteLog.Step.Required(DELETE_BOOK, "the book was already deleted", this.bookID));
+        // queued behind the delete, so other clients hear of it once it is replayed
+        this.recordCascade();
+        return true;
+    }
+
+    private void recordCascade() {
+        ChangeLog.Record("books", this.bookID, ChangeLog.DELETE);
+        ChangeLog.Record("book_genres", this.bookID, ChangeLog.DELETE);
+        ChangeLog.Record("book_loans", 0, ChangeLog.DELETE);
     }
 }
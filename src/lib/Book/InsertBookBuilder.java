@@ -1,6 +1,18 @@
 package lib.Book;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import config.DatabaseUnavailableException;
+import config.OfflineWriteLog;
+import lib.Procedure.StoredProcedures;
+import lib.Query.AsyncExecutor;
+import lib.Cache.ChangeLog;
 
 /**
  * Builder class for inserting new book records into the database.
@@ -8,7 +20,14 @@ import config.DatabaseConnection;
  * @author dev-MichaelJohn
  */
 public class InsertBookBuilder extends BookBuilder<InsertBookBuilder> {
+    private static final List<String> TOUCHED_TABLES = Arrays.asList("books", "book_genres");
+
+    private static final String INSERT_BOOK = "INSERT INTO books (title, author, isbn, year_published, isbn_key, title_key, author_key) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    // used while the key columns are missing (see BookSchema.HasKeyColumns())
+    private static final String INSERT_BOOK_WITHOUT_KEYS = "INSERT INTO books (title, author, isbn, year_published) VALUES (?, ?, ?, ?)";
+
     private DatabaseConnection dbConnection;
+    private List<String> genres;
 
     public InsertBookBuilder() {
         super();
@@ -58,7 +77,7 @@ public class InsertBookBuilder extends BookBuilder<InsertBookBuilder> {
      */
     public InsertBookBuilder SetIsbn(String isbn) {
         if(isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN cannot be null or empty");
-        if(isbn.length() > 13) throw new IllegalArgumentException("ISBN cannot exceed 13 characters");
+        if(!Isbn.IsAccepted(isbn)) throw new IllegalArgumentException("ISBN cannot exceed 13 characters unless it is a valid hyphenated ISBN");
         if(this.isbn != null) throw new IllegalStateException("ISBN has already been set");
 
         this.isbn = isbn;
@@ -79,25 +98,130 @@ public class InsertBookBuilder extends BookBuilder<InsertBookBuilder> {
         return this.SetField("year_published", yearPublished);
     }
 
+    /**
+     * Sets the genres to attach to the new book; see {@link #InsertReturningID()}.
+     * 
+     * @param genres The genres (blank ones and repeats are skipped).
+     * @return The current InsertBookBuilder instance.
+     */
+    public InsertBookBuilder SetGenres(Collection<String> genres) {
+        if(genres == null) throw new IllegalArgumentException("Genres cannot be null");
+        if(this.genres != null) throw new IllegalStateException("Genres have already been set");
+
+        this.genres = StoredProcedures.CleanGenres(genres);
+        return this;
+    }
+
+    /**
+     * Inserts the book and its genres in one transaction and returns the new book's ID, so
+     * callers do not have to look the book up again. With stored procedures enabled this is
+     * a single round trip. While the database is unreachable, the book and its genres are
+     * queued offline as one operation and get their ID only when it is sent.
+     * 
+     * @return The ID of the new book, or 0 if it was queued offline.
+     * @throws RuntimeException if the insert fails.
+     */
+    public int InsertReturningID() {
+        this.checkRequired();
+        List<String> genres = this.genres != null ? this.genres : new ArrayList<>();
+
+        boolean keys = BookSchema.HasKeyColumns();
+        // the offline log replays to the home database only
+        boolean queueable = this.dbConnection.RoutedBranch() == null;
+        try {
+            if(queueable && this.dbConnection.IsQueueingWrites()) return this.queueOffline(genres, keys);
+            if(keys && StoredProcedures.IsAvailable()) {
+                Object id = StoredProcedures.CallForValue("lib_add_book", TOUCHED_TABLES, this.title, SearchKey.ForTitle(this.title),
+                    this.author, SearchKey.ForAuthor(this.author), this.isbn, Isbn.Normalize(this.isbn), this.yearPublished, StoredProcedures.JoinGenres(genres));
+                ChangeLog.Record("books", ((Number) id).intValue(), ChangeLog.INSERT);
+                return ((Number) id).intValue();
+            }
+
+            return this.dbConnection.ExecuteTransaction(transaction -> {
+                transaction.Update(keys ? INSERT_BOOK : INSERT_BOOK_WITHOUT_KEYS, this.insertValues(keys).toArray());
+                List<Map<String, Object>> created = transaction.Query("SELECT LAST_INSERT_ID() AS id");
+                int bookID = ((Number) created.get(0).get("id")).intValue();
+
+                List<Object> pairs = new ArrayList<>();
+                StringBuilder sql = new StringBuilder("INSERT INTO book_genres (book_id, genre) VALUES ");
+                for(String genre : genres) {
+                    sql.append(pairs.isEmpty() ? "(?, ?)" : ", (?, ?)");
+                    pairs.add(bookID);
+                    pairs.add(genre);
+                }
+                if(!pairs.isEmpty()) transaction.Update(sql.toString(), pairs.toArray());
+                ChangeLog.Record(transaction, "books", bookID, ChangeLog.INSERT);
+                return bookID;
+            });
+        } catch(DatabaseUnavailableException e) {
+            // rejected before anything was sent, so queueing cannot apply it twice
+            if(!queueable || this.dbConnection.GetOfflineLog() == null) throw e;
+            return this.queueOffline(genres, keys);
+        }
+    }
+
+    private int queueOffline(List<String> genres, boolean keys) {
+        OfflineWriteLog.Step book = OfflineWriteLog.Step.Required(keys ? INSERT_BOOK : INSERT_BOOK_WITHOUT_KEYS, "the book could not be added",
+            this.insertValues(keys).toArray());
+        if(genres.isEmpty()) {
+            this.dbConnection.QueueOffline("New book " + this.title, book);
+        } else {
+            // the ID is only known on replay: the genres look up the book just inserted (the newest one with this data)
+            List<Object> pairs = new ArrayList<>();
+            StringBuilder sql = new StringBuilder("INSERT INTO book_genres (book_id, genre) VALUES ");
+            for(String genre : genres) {
+                sql.append(pairs.isEmpty() ? "" : ", ").append("((SELECT MAX(id) FROM books WHERE title = ? AND author = ? AND isbn = ? AND year_published = ?), ?)");
+                pairs.addAll(Arrays.asList(this.title, this.author, this.isbn, this.yearPublished, genre));
+            }
+            this.dbConnection.QueueOffline("New book " + this.title, book, OfflineWriteLog.Step.Of(sql.toString(), pairs.toArray()));
+        }
+        // queued behind the insert, so other clients hear of it once it is replayed
+        ChangeLog.Record("books", 0, ChangeLog.INSERT);
+        return 0;
+    }
+
     /**
      * Executes the insert operation to add the new book record to the database.
      * 
      * @return true if the insert was successful, false otherwise.
      */
     public boolean Insert() {
-        if(this.title == null) throw new IllegalStateException("Title must be set before inserting");
-        if(this.author == null) throw new IllegalStateException("Author must be set before inserting");
-        if(this.isbn == null) throw new IllegalStateException("ISBN must be set before inserting");
-        if(this.yearPublished == 0) throw new IllegalStateException("Year published must be set before inserting");
+        this.checkRequired();
 
-        String baseStatement = "INSERT INTO books (title, author, isbn, year_published) VALUES (?, ?, ?, ?)";
+        boolean keys = BookSchema.HasKeyColumns();
         int rowsAffected;
         try {
-            rowsAffected = dbConnection.ExecuteUpdate(baseStatement, this.GetValues().toArray());
+            rowsAffected = dbConnection.ExecuteUpdate(keys ? INSERT_BOOK : INSERT_BOOK_WITHOUT_KEYS, this.insertValues(keys).toArray());
         } catch(Exception e) {
             throw e;
         }
 
+        if(rowsAffected > 0) ChangeLog.Record("books", 0, ChangeLog.INSERT);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Insert()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the insert was successful.
+     */
+    public CompletableFuture<Boolean> InsertAsync() {
+        return AsyncExecutor.Submit(this::Insert);
+    }
+
+    private void checkRequired() {
+        if(this.title == null) throw new IllegalStateException("Title must be set before inserting");
+        if(this.author == null) throw new IllegalStateException("Author must be set before inserting");
+        if(this.isbn == null) throw new IllegalStateException("ISBN must be set before inserting");
+        if(this.yearPublished == 0) throw new IllegalStateException("Year published must be set before inserting");
+    }
+
+    private List<Object> insertValues(boolean keys) {
+        List<Object> values = new ArrayList<>(this.GetValues());
+        if(!keys) return values;
+        values.add(Isbn.Normalize(this.isbn));
+        values.add(SearchKey.ForTitle(this.title));
+        values.add(SearchKey.ForAuthor(this.author));
+        return values;
+    }
 }
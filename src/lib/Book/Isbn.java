@@ -0,0 +1,78 @@
+package lib.Book;
+
+/**
+ * Canonical form of ISBNs.
+ *
+ * Books are matched on the ISBN-13 form of their ISBN (the isbn_key column) so that
+ * "978-0-13-468599-1", "9780134685991" and the ISBN-10 "0-13-468599-7" all find the same
+ * book. Hyphens and spaces are ignored and check digits are validated.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class Isbn {
+    private Isbn() {}
+
+    /**
+     * Converts an ISBN-10 or ISBN-13 (with or without hyphens/spaces) to its 13-digit form.
+     *
+     * @param raw The ISBN as entered.
+     * @return The 13-digit ISBN, or null if the input is not a valid ISBN.
+     */
+    public static String Normalize(String raw) {
+        if(raw == null) return null;
+
+        StringBuilder digits = new StringBuilder(13);
+        for(int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if(c == '-' || c == ' ') continue;
+            if(c == 'x') c = 'X';
+            if((c < '0' || c > '9') && c != 'X') return null;
+            if(digits.length() == 13) return null;
+            digits.append(c);
+        }
+
+        if(digits.length() == 13) {
+            if(digits.indexOf("X") >= 0) return null;
+            return checkDigit13(digits, 12) == digits.charAt(12) - '0' ? digits.toString() : null;
+        }
+
+        // X is only allowed as the ISBN-10 check digit
+        if(digits.length() != 10 || (digits.indexOf("X") >= 0 && digits.indexOf("X") < 9) || !isValid10(digits)) return null;
+
+        StringBuilder converted = new StringBuilder(13).append("978").append(digits, 0, 9);
+        return converted.append(checkDigit13(converted, 12)).toString();
+    }
+
+    /**
+     * @param raw The ISBN as entered.
+     * @return true if it is a valid ISBN-10 or ISBN-13.
+     */
+    public static boolean IsValid(String raw) {
+        return Normalize(raw) != null;
+    }
+
+    /**
+     * @param raw The ISBN as entered.
+     * @return true if a book may be stored with it: at most 13 characters, or a valid ISBN
+     *         written with hyphens or spaces (e.g. "978-0-13-468599-1").
+     */
+    public static boolean IsAccepted(String raw) {
+        return raw != null && (raw.length() <= 13 || IsValid(raw));
+    }
+
+    private static int checkDigit13(CharSequence digits, int length) {
+        int sum = 0;
+        for(int i = 0; i < length; i++) sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        return (10 - sum % 10) % 10;
+    }
+
+    private static boolean isValid10(CharSequence digits) {
+        int sum = 0;
+        for(int i = 0; i < 10; i++) {
+            char c = digits.charAt(i);
+            int value = c == 'X' ? 10 : c - '0';
+            sum += value * (10 - i);
+        }
+        return sum % 11 == 0;
+    }
+}
@@ -2,8 +2,12 @@ package lib.Book;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import config.DatabaseConnection;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for reading book records from the database.
@@ -12,6 +16,7 @@ import config.DatabaseConnection;
  */
 public class ReadBookBuilder extends BookBuilder<ReadBookBuilder> {
     private DatabaseConnection dbConnection;
+    private boolean useCache = true;
     
     public ReadBookBuilder() {
         super();
@@ -39,6 +44,9 @@ public class ReadBookBuilder extends BookBuilder<ReadBookBuilder> {
 
     /**
      * Sets the title condition for fetching book records.
+     * Matches titles starting with the given text, ignoring case, accents, punctuation and a
+     * leading article, through the indexed title_key column. Until the key columns exist
+     * (see {@link BookSchema#HasKeys()}) the raw title is matched instead.
      * 
      * @param title The title of the book.
      * @return The current ReadBookBuilder instance.
@@ -50,12 +58,17 @@ public class ReadBookBuilder extends BookBuilder<ReadBookBuilder> {
 
         this.title = title;
         // Use SQL placeholder and pass a wildcarded value so the builder
-        // composes "title LIKE ?" and the value becomes e.g. "term%".
-        return this.SetField("title LIKE ?", title + "%");
+        // composes "title_key LIKE ?" and the value becomes e.g. "term%".
+        // Keys contain no LIKE wildcards; text without letters or digits falls back to the raw column.
+        String key = SearchKey.ForTitle(title);
+        if(key.isEmpty() || !BookSchema.HasKeys()) return this.SetField("title LIKE ?", title + "%");
+        return this.SetField("title_key LIKE ?", key + "%");
     }
 
     /**
      * Sets the author condition for fetching book records.
+     * Matches authors starting with the given text, ignoring case, accents and punctuation,
+     * through the indexed author_key column (the raw author until the key columns exist).
      * 
      * @param author The author of the book.
      * @return The current ReadBookBuilder instance.
@@ -66,24 +79,73 @@ public class ReadBookBuilder extends BookBuilder<ReadBookBuilder> {
         if(this.author != null) throw new IllegalStateException("Author has already been set");
 
         this.author = author;
-        return this.SetField("author LIKE ?", author + "%");
+        String key = SearchKey.ForAuthor(author);
+        if(key.isEmpty() || !BookSchema.HasKeys()) return this.SetField("author LIKE ?", author + "%");
+        return this.SetField("author_key LIKE ?", key + "%");
     }
 
     /**
      * Sets the ISBN condition for fetching book records.
+     * This is a prefix match meant for searching; use WhereIsbnExact to look up one book.
      * 
      * @param isbn The ISBN of the book.
      * @return The current ReadBookBuilder instance.
      */
     public ReadBookBuilder WhereIsbn(String isbn) {
         if(isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN cannot be null or empty");
-        if(isbn.length() > 13) throw new IllegalArgumentException("ISBN cannot exceed 13 characters");
+        if(!Isbn.IsAccepted(isbn)) throw new IllegalArgumentException("ISBN cannot exceed 13 characters unless it is a valid hyphenated ISBN");
         if(this.isbn != null) throw new IllegalStateException("ISBN has already been set");
 
         this.isbn = isbn;
         return this.SetField("isbn LIKE ?", isbn + "%");
     }
 
+    /**
+     * Sets an exact ISBN condition for fetching book records.
+     * Valid ISBN-10 and ISBN-13 values (hyphens allowed) are matched on the unique
+     * normalized key, so every form of the same ISBN finds the same book with one index probe.
+     * Anything else, or any ISBN while the key column is missing, is compared to the stored ISBN as is.
+     * 
+     * @param isbn The ISBN of the book.
+     * @return The current ReadBookBuilder instance.
+     */
+    public ReadBookBuilder WhereIsbnExact(String isbn) {
+        if(isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN cannot be null or empty");
+        if(isbn.length() > 17) throw new IllegalArgumentException("ISBN cannot exceed 17 characters");
+        if(this.isbn != null) throw new IllegalStateException("ISBN has already been set");
+
+        this.isbn = isbn;
+        String key = Isbn.Normalize(isbn);
+        if(key != null && BookSchema.HasKeys()) return this.SetField("isbn_key", key);
+        return this.SetField("isbn", isbn.trim());
+    }
+
+    /**
+     * Matches books where the text appears anywhere in the title, author, ISBN, year or one
+     * of the genres. Title and author are compared on their search keys, so case, accents and
+     * punctuation do not matter; the matching is done by the database in one query. Until the
+     * key columns exist, the raw title and author are searched instead.
+     * 
+     * @param term The text to look for.
+     * @return The current ReadBookBuilder instance.
+     */
+    public ReadBookBuilder WhereAnyFieldContains(String term) {
+        if(term == null || term.trim().isEmpty()) throw new IllegalArgumentException("Search term cannot be null or empty");
+        if(term.length() > 255) throw new IllegalArgumentException("Search term cannot exceed 255 characters");
+
+        String raw = "%" + Criteria.EscapeLike(term.trim()) + "%";
+        boolean keys = BookSchema.HasKeys();
+        String titleKey = keys ? SearchKey.ForTitle(term) : "";
+        String authorKey = keys ? SearchKey.ForAuthor(term) : "";
+        return this.SetCondition("(" + (titleKey.isEmpty() ? "title LIKE ?" : "title_key LIKE ?")
+            + " OR " + (authorKey.isEmpty() ? "author LIKE ?" : "author_key LIKE ?")
+            + " OR isbn LIKE ? OR CAST(year_published AS CHAR) LIKE ?"
+            + " OR id IN (SELECT book_id FROM book_genres WHERE genre LIKE ?))",
+            titleKey.isEmpty() ? raw : "%" + titleKey + "%",
+            authorKey.isEmpty() ? raw : "%" + authorKey + "%",
+            raw, raw, raw);
+    }
+
     /**
      * Sets the year published condition for fetching book records.
      * 
@@ -97,29 +159,48 @@ public class ReadBookBuilder extends BookBuilder<ReadBookBuilder> {
         return this.SetField("year_published = ?", yearPublished);
     }
 
+    /**
+     * Opts this read in or out of the shared query result cache (enabled by default).
+     * Pass false for reads that must always see the latest committed data.
+     * 
+     * @param useCache true to allow cached results, false to always query the database.
+     * @return The current ReadBookBuilder instance.
+     */
+    public ReadBookBuilder UseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+
+    /**
+     * Adds a criteria condition for fetching book records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current ReadBookBuilder instance.
+     */
+    public ReadBookBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the read operation to fetch book records from the database.
      * 
      * @return A list of maps representing the fetched book records.
      */
     public List<Map<String, Object>> Read() {
-        StringBuilder queryBuilder = new StringBuilder("SELECT * FROM books");
-        if(!this.GetStatements().isEmpty()) {
-            queryBuilder.append(" WHERE ");
-            queryBuilder.append(String.join(" AND ", this.GetStatements()));
-        }
-
-        String query = queryBuilder.toString();
-        List<Map<String, Object>> results;
-        try {
-            System.out.println("Calling Read...");
-            results = this.dbConnection.ExecuteQuery(query, this.GetValues().toArray());
-        } catch(Exception e) {
-            System.out.println("Calling Failed...");
-            throw e;
-        }
-
-        System.out.println("Calling success... " + results.toString());
+        String query = this.SelectSql("books");
+        long cacheGeneration = EntityCache.Books().Generation();
+        List<Map<String, Object>> results = this.dbConnection.ExecuteQuery(this.useCache, query, this.GetValues().toArray());
+        EntityCache.PutRows(EntityCache.Books(), results, cacheGeneration);
         return results;
     }
+
+    /**
+     * Same as {@link #Read()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with the rows read.
+     */
+    public CompletableFuture<List<Map<String, Object>>> ReadAsync() {
+        return AsyncExecutor.Submit(this::Read);
+    }
 }
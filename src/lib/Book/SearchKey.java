@@ -0,0 +1,66 @@
+package lib.Book;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Search keys for titles and authors (the title_key and author_key columns).
+ *
+ * A key is the text with accents removed, case folded and every run of punctuation or
+ * whitespace turned into a single space, so "Les Mis&eacute;rables", "les miserables" and
+ * "LES MISERABLES!" all have the key "les miserables". Title keys also drop a leading
+ * English article ("The Hobbit" is found by "hobbit"). Keys only contain letters, digits
+ * and single spaces, which makes them safe to use in LIKE patterns as is.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class SearchKey {
+    /** Maximum length of a stored key (the columns are VARCHAR(255)). */
+    public static final int MAX_LENGTH = 255;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern ARTICLE = Pattern.compile("^(the|a|an) (?=.)");
+    // letters that have no decomposition but are commonly typed without their stroke/ligature
+    private static final String[][] LETTERS = {
+        { "\u00df", "ss" }, { "\u00e6", "ae" }, { "\u0153", "oe" }, { "\u00f8", "o" }, { "\u0142", "l" }, { "\u0111", "d" }, { "\u00f0", "d" }, { "\u00fe", "th" }, { "\u0131", "i" }
+    };
+
+    private SearchKey() {}
+
+    /**
+     * @param title The title as entered.
+     * @return The title search key (possibly empty).
+     */
+    public static String ForTitle(String title) {
+        return truncate(ARTICLE.matcher(fold(title)).replaceFirst(""));
+    }
+
+    /**
+     * @param author The author as entered.
+     * @return The author search key (possibly empty).
+     */
+    public static String ForAuthor(String author) {
+        return truncate(fold(author));
+    }
+
+    private static String fold(String text) {
+        if(text == null) return "";
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        String stripped = MARKS.matcher(decomposed).replaceAll("");
+        String lower = stripped.toLowerCase(Locale.ROOT);
+        for(String[] letter : LETTERS) {
+            if(lower.indexOf(letter[0]) >= 0) lower = lower.replace(letter[0], letter[1]);
+        }
+        return SEPARATORS.matcher(lower).replaceAll(" ").trim();
+    }
+
+    private static String truncate(String key) {
+        if(key.length() <= MAX_LENGTH) return key;
+        // do not cut a surrogate pair in half
+        int end = Character.isHighSurrogate(key.charAt(MAX_LENGTH - 1)) ? MAX_LENGTH - 1 : MAX_LENGTH;
+        return key.substring(0, end).trim();
+    }
+}
@@ -1,6 +1,12 @@
 package lib.Book;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
 
 /**
  * Builder class for updating book records in the database.
@@ -9,6 +15,8 @@ import config.DatabaseConnection;
  */
 public class UpdateBookBuilder extends BookBuilder<UpdateBookBuilder> {
     private DatabaseConnection dbConnection;
+    private boolean availabilitySet;
+    private boolean onlyIfChanged;
 
     public UpdateBookBuilder() {
         super();
@@ -32,6 +40,9 @@ public class UpdateBookBuilder extends BookBuilder<UpdateBookBuilder> {
         if(this.title != null) throw new IllegalStateException("Title has already been set");
 
         this.title = title;
+        // the key is derived from the value, so it only changes with it
+        if(!this.IsChanged("title", title)) return this;
+        if(BookSchema.HasKeyColumns()) this.SetField("title_key", SearchKey.ForTitle(title));
         return this.SetField("title", title);
     }
 
@@ -47,6 +58,8 @@ public class UpdateBookBuilder extends BookBuilder<UpdateBookBuilder> {
         if(this.author != null) throw new IllegalStateException("Author has already been set");
 
         this.author = author;
+        if(!this.IsChanged("author", author)) return this;
+        if(BookSchema.HasKeyColumns()) this.SetField("author_key", SearchKey.ForAuthor(author));
         return this.SetField("author", author);
     }
 
@@ -58,10 +71,12 @@ public class UpdateBookBuilder extends BookBuilder<UpdateBookBuilder> {
      */
     public UpdateBookBuilder SetIsbn(String isbn) {
         if(isbn == null || isbn.trim().isEmpty()) throw new IllegalArgumentException("ISBN cannot be null or empty");
-        if(isbn.length() > 13) throw new IllegalArgumentException("ISBN cannot exceed 13 characters");
+        if(!Isbn.IsAccepted(isbn)) throw new IllegalArgumentException("ISBN cannot exceed 13 characters unless it is a valid hyphenated ISBN");
         if(this.isbn != null) throw new IllegalStateException("ISBN has already been set");
 
         this.isbn = isbn;
+        if(!this.IsChanged("isbn", isbn)) return this;
+        if(BookSchema.HasKeyColumns()) this.SetField("isbn_key", Isbn.Normalize(isbn));
         return this.SetField("isbn", isbn);
     }
 
@@ -76,7 +91,7 @@ public class UpdateBookBuilder extends BookBuilder<UpdateBookBuilder> {
         if(this.yearPublished != 0) throw new IllegalStateException("Year published has already been set");
 
         this.yearPublished = yearPublished;
-        return this.SetField("year_published", yearPublished);
+        return this.SetChangedField("year_published", yearPublished);
     }
 
     /**
@@ -100,27 +115,60 @@ public class UpdateBookBuilder extends BookBuilder<UpdateBookBuilder> {
      * @return this builder
      */
     public UpdateBookBuilder SetIsAvailable(boolean available) {
-        if(this.GetStatements().stream().anyMatch(s -> s.startsWith("is_available"))) throw new IllegalStateException("is_available has already been set");
-        return this.SetField("is_available", available ? 1 : 0);
+        if(this.availabilitySet) throw new IllegalStateException("is_available has already been set");
+
+        this.availabilitySet = true;
+        return this.SetChangedField("is_available", available ? 1 : 0);
+    }
+
+    /**
+     * Sets the book as it was last read, so only the columns that differ from it are written
+     * and an update that changes nothing does not reach the database. Must be called before
+     * the setters.
+     *
+     * @param book The book row (e.g. from ReadBookBuilder or EntityCache); missing columns count as changed.
+     * @return The current UpdateBookBuilder instance.
+     */
+    public UpdateBookBuilder From(Map<String, Object> book) {
+        if(!this.GetStatements().isEmpty()) throw new IllegalStateException("From must be called before setting fields");
+        return this.Snapshot(book);
+    }
+
+    /**
+     * Makes the update conditional on the stored values being different, in the same statement
+     * ("... WHERE id = ? AND NOT (is_available &lt;=&gt; ?)"). A book that already has the new values
+     * is left untouched: no write, no cache invalidation, and Update() returns false.
+     *
+     * @return The current UpdateBookBuilder instance.
+     */
+    public UpdateBookBuilder OnlyIfChanged() {
+        this.onlyIfChanged = true;
+        return this;
     }
 
     /**
      * Executes the update operation to modify the book record in the database.
      * 
-     * @return true if the update was successful, false otherwise.
+     * @return true if the update was successful (or nothing differed from the snapshot given to From), false otherwise.
      */
     public boolean Update() {
         if(this.bookID == 0) throw new IllegalStateException("Book ID must be set for update");
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for update");
-
-        StringBuilder queryBuilder = new StringBuilder("UPDATE books SET ");
-        queryBuilder.append(String.join(", ", this.GetStatements()));
-        queryBuilder.append(" WHERE id = ?");
+        if(this.NothingChanged()) return true;
 
-        String query = queryBuilder.toString();
-        this.GetValues().add(this.bookID);
-        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        String query = this.UpdateByIdSql("books", this.onlyIfChanged);
+        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.UpdateByIdValues(this.bookID, this.onlyIfChanged));
+        EntityCache.Books().Remove(this.bookID);
+        if(rowsAffected > 0) ChangeLog.Record("books", this.bookID, ChangeLog.UPDATE);
         
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Update()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the update was successful.
+     */
+    public CompletableFuture<Boolean> UpdateAsync() {
+        return AsyncExecutor.Submit(this::Update);
+    }
 }
@@ -1,6 +1,13 @@
 package lib.BookGenre;
 
+import java.util.concurrent.CompletableFuture;
+
+
 import config.DatabaseConnection;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for deleting book genre records from the database.
@@ -62,28 +69,37 @@ public class DeleteBookGenreBuilder extends BookGenreBuilder<DeleteBookGenreBuil
         return this.SetField("genre", genre);
     }
 
+    /**
+     * Adds a criteria condition for deleting book genre records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current DeleteBookGenreBuilder instance.
+     */
+    public DeleteBookGenreBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the delete operation to remove book genre records from the database.
      * 
      * @return true if the deletion was successful, false otherwise.
      */
     public boolean Delete() {
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for deletion");
-
-        StringBuilder queryBuilder = new StringBuilder("DELETE FROM book_genres WHERE ");
-        queryBuilder.append(String.join(" AND ", this.GetStatements()));
-
-        String query = queryBuilder.toString();
-        int rowsAffected;
-        try {
-            System.out.println("Calling Delete...");
-            rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
-        } catch (Exception e) {
-            System.out.println("Calling failed!");
-            throw e;
-        }
-
-        System.out.println("Calling sucess...");
+        String query = this.DeleteSql("book_genres");
+        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        if(this.bookID != 0) EntityCache.Genres().Remove(this.bookID);
+        else EntityCache.Genres().Clear();
+        if(rowsAffected > 0) ChangeLog.Record("book_genres", this.bookID, ChangeLog.DELETE);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Delete()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the delete was successful.
+     */
+    public CompletableFuture<Boolean> DeleteAsync() {
+        return AsyncExecutor.Submit(this::Delete);
+    }
 }
@@ -1,6 +1,11 @@
 package lib.BookGenre;
 
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
 
 /**
  * Builder class for inserting new book records into the database.
@@ -65,6 +70,17 @@ public class InsertBookGenreBuilder extends BookGenreBuilder<InsertBookGenreBuil
             throw e;
         }
 
+        EntityCache.Genres().Remove(this.bookID);
+        if(rowsAffected > 0) ChangeLog.Record("book_genres", this.bookID, ChangeLog.INSERT);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Insert()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the insert was successful.
+     */
+    public CompletableFuture<Boolean> InsertAsync() {
+        return AsyncExecutor.Submit(this::Insert);
+    }
 }
@@ -2,8 +2,12 @@ package lib.BookGenre;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import config.DatabaseConnection;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for reading book records from the database.
@@ -12,6 +16,7 @@ import config.DatabaseConnection;
  */
 public class ReadBookGenreBuilder extends BookGenreBuilder<ReadBookGenreBuilder> {
     private DatabaseConnection dbConnection;
+    private boolean useCache = true;
     
     public ReadBookGenreBuilder() {
         super();
@@ -53,29 +58,49 @@ public class ReadBookGenreBuilder extends BookGenreBuilder<ReadBookGenreBuilder>
     }
 
 
+    /**
+     * Opts this read in or out of the shared query result cache (enabled by default).
+     * Pass false for reads that must always see the latest committed data.
+     * 
+     * @param useCache true to allow cached results, false to always query the database.
+     * @return The current ReadBookGenreBuilder instance.
+     */
+    public ReadBookGenreBuilder UseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+
+    /**
+     * Adds a criteria condition for fetching book genre records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current ReadBookGenreBuilder instance.
+     */
+    public ReadBookGenreBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the read operation to fetch book records from the database.
      * 
      * @return A list of maps representing the fetched book records.
      */
     public List<Map<String, Object>> Read() {
-        StringBuilder queryBuilder = new StringBuilder("SELECT * FROM book_genres");
-        if(!this.GetStatements().isEmpty()) {
-            queryBuilder.append(" WHERE ");
-            queryBuilder.append(String.join(" AND ", this.GetStatements()));
-        }
-
-        String query = queryBuilder.toString();
-        List<Map<String, Object>> results;
-        try {
-            System.out.println("Calling Read...");
-            results = this.dbConnection.ExecuteQuery(query, this.GetValues().toArray());
-        } catch(Exception e) {
-            System.out.println("Calling Failed...");
-            throw e;
-        }
-
-        System.out.println("Calling success... " + results.toString());
+        String query = this.SelectSql("book_genres");
+        long cacheGeneration = EntityCache.Genres().Generation();
+        List<Map<String, Object>> results = this.dbConnection.ExecuteQuery(this.useCache, query, this.GetValues().toArray());
+        // Only a plain "all genres of one book" read is a complete entry for the per-book cache.
+        if(this.bookID != 0 && this.genre == null && results != null && !EntityCache.IsRemote()) EntityCache.Genres().Put(this.bookID, results, cacheGeneration);
         return results;
     }
+
+    /**
+     * Same as {@link #Read()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with the rows read.
+     */
+    public CompletableFuture<List<Map<String, Object>>> ReadAsync() {
+        return AsyncExecutor.Submit(this::Read);
+    }
 }
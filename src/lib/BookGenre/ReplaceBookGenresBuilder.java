@@ -0,0 +1,160 @@
+package lib.BookGenre;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import config.DatabaseConnection;
+import config.DatabaseUnavailableException;
+import config.OfflineWriteLog;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Procedure.StoredProcedures;
+import lib.Query.AsyncExecutor;
+
+/**
+ * Builder class for replacing all genres of a book in one step: genres no longer in the list
+ * are deleted, new ones inserted and the ones kept are left untouched, in one transaction.
+ * With stored procedures enabled this is a single round trip. While the database is
+ * unreachable, deleting all genres and inserting the new list is queued offline as one operation.
+ *
+ * @author dev-MichaelJohn
+ */
+public class ReplaceBookGenresBuilder extends BookGenreBuilder<ReplaceBookGenresBuilder> {
+    private static final List<String> TOUCHED_TABLES = Arrays.asList("book_genres");
+
+    private DatabaseConnection dbConnection;
+    private List<String> genres;
+
+    public ReplaceBookGenresBuilder() {
+        super();
+        this.dbConnection = DatabaseConnection.GetInstance();
+    }
+
+    @Override
+    protected ReplaceBookGenresBuilder self() {
+        return this;
+    }
+
+    /**
+     * Sets the book whose genres are replaced.
+     * 
+     * @param bookID The ID of the book.
+     * @return The current ReplaceBookGenresBuilder instance.
+     */
+    public ReplaceBookGenresBuilder WhereBookID(int bookID) {
+        if(bookID <= 0) throw new IllegalArgumentException("Book ID must be positive");
+        if(this.bookID != 0) throw new IllegalStateException("Book ID has already been set");
+
+        this.bookID = bookID;
+        return this;
+    }
+
+    /**
+     * Sets the complete list of genres the book should have.
+     * 
+     * @param genres The genres (blank ones and repeats are skipped; empty removes all genres).
+     * @return The current ReplaceBookGenresBuilder instance.
+     */
+    public ReplaceBookGenresBuilder SetGenres(Collection<String> genres) {
+        if(genres == null) throw new IllegalArgumentException("Genres cannot be null");
+        if(this.genres != null) throw new IllegalStateException("Genres have already been set");
+
+        this.genres = StoredProcedures.CleanGenres(genres);
+        return this;
+    }
+
+    /**
+     * Executes the replacement.
+     * 
+     * @return true once the book has exactly the given genres (or the replacement is queued offline).
+     */
+    public boolean Replace() {
+        if(this.bookID == 0) throw new IllegalStateException("Book ID must be set before replacing genres");
+        if(this.genres == null) throw new IllegalStateException("Genres must be set before replacing genres");
+
+        // the offline log replays to the home database only
+        boolean queueable = this.dbConnection.RoutedBranch() == null;
+        try {
+            if(queueable && this.dbConnection.IsQueueingWrites()) return this.queueOffline();
+            if(StoredProcedures.IsAvailable()) {
+                StoredProcedures.CallForValue("lib_set_genres", TOUCHED_TABLES, this.bookID, String.join("\n", this.genres));
+                ChangeLog.Record("book_genres", this.bookID, ChangeLog.UPDATE);
+                return true;
+            }
+
+            return this.dbConnection.ExecuteTransaction(transaction -> {
+                List<Map<String, Object>> existing = transaction.Query("SELECT id, genre FROM book_genres WHERE book_id = ? FOR UPDATE", this.bookID);
+
+                Set<String> kept = new HashSet<>();
+                List<Object> removed = new ArrayList<>();
+                for(Map<String, Object> row : existing) {
+                    String genre = String.valueOf(row.get("genre"));
+                    if(this.genres.contains(genre) && kept.add(genre)) continue;
+                    removed.add(row.get("id"));
+                }
+                if(!removed.isEmpty()) {
+                    transaction.Update("DELETE FROM book_genres WHERE id IN (" + placeholders(removed.size(), "?") + ")", removed.toArray());
+                }
+
+                List<Object> added = new ArrayList<>();
+                for(String genre : this.genres) {
+                    if(kept.contains(genre)) continue;
+                    added.add(this.bookID);
+                    added.add(genre);
+                }
+                if(!added.isEmpty()) {
+                    transaction.Update("INSERT INTO book_genres (book_id, genre) VALUES " + placeholders(added.size() / 2, "(?, ?)"), added.toArray());
+                }
+                if(!removed.isEmpty() || !added.isEmpty()) ChangeLog.Record(transaction, "book_genres", this.bookID, ChangeLog.UPDATE);
+                return true;
+            });
+        } catch(DatabaseUnavailableException e) {
+            // rejected before anything was sent, so queueing cannot apply it twice
+            if(!queueable || this.dbConnection.GetOfflineLog() == null) throw e;
+            return this.queueOffline();
+        } finally {
+            EntityCache.Genres().Remove(this.bookID);
+        }
+    }
+
+    private boolean queueOffline() {
+        List<OfflineWriteLog.Step> steps = new ArrayList<>();
+        steps.add(OfflineWriteLog.Step.Of("DELETE FROM book_genres WHERE book_id = ?", this.bookID));
+        if(!this.genres.isEmpty()) {
+            // the book id is read from books: if the book was deleted in the meantime it is NULL,
+            // the insert fails and the operation is reported as a conflict instead of leaving stray genres
+            List<Object> added = new ArrayList<>();
+            for(String genre : this.genres) {
+                added.add(this.bookID);
+                added.add(genre);
+            }
+            steps.add(OfflineWriteLog.Step.Of("INSERT INTO book_genres (book_id, genre) VALUES "
+                + placeholders(this.genres.size(), "((SELECT id FROM books WHERE id = ?), ?)"), added.toArray()));
+        }
+        this.dbConnection.QueueOffline("Genres of book " + this.bookID, steps.toArray(new OfflineWriteLog.Step[0]));
+        // queued behind the replacement, so other clients hear of it once it is replayed
+        ChangeLog.Record("book_genres", this.bookID, ChangeLog.UPDATE);
+        return true;
+    }
+
+    /**
+     * Same as {@link #Replace()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true once the book has exactly the given genres.
+     */
+    public CompletableFuture<Boolean> ReplaceAsync() {
+        return AsyncExecutor.Submit(this::Replace);
+    }
+
+    private static String placeholders(int count, String group) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < count; i++) builder.append(i == 0 ? group : ", " + group);
+        return builder.toString();
+    }
+}
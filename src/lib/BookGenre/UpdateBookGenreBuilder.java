@@ -1,6 +1,12 @@
 package lib.BookGenre;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
 
 /**
  * Builder class for updating book records in the database.
@@ -31,7 +37,7 @@ public class UpdateBookGenreBuilder extends BookGenreBuilder<UpdateBookGenreBuil
         if(this.id != 0) throw new IllegalStateException("ID has already been set");
 
         this.id = id;
-        return this.SetField("id", id);
+        return this;
     }
 
     /**
@@ -45,7 +51,7 @@ public class UpdateBookGenreBuilder extends BookGenreBuilder<UpdateBookGenreBuil
         if(this.bookID != 0) throw new IllegalStateException("Book ID has already been set");
 
         this.bookID = bookID;
-        return this.SetField("book_id", bookID);
+        return this.SetChangedField("book_id", bookID);
     }
 
     /**
@@ -59,26 +65,46 @@ public class UpdateBookGenreBuilder extends BookGenreBuilder<UpdateBookGenreBuil
         if(this.genre != null) throw new IllegalStateException("Genre has already been set");
 
         this.genre = genre;
-        return this.SetField("genre", genre);
+        return this.SetChangedField("genre", genre);
+    }
+
+    /**
+     * Sets the genre record as it was last read, so only the columns that differ from it are written
+     * and an update that changes nothing does not reach the database. Must be called before
+     * the setters.
+     *
+     * @param genre The genre record row; missing columns count as changed.
+     * @return The current UpdateBookGenreBuilder instance.
+     */
+    public UpdateBookGenreBuilder From(Map<String, Object> genre) {
+        if(!this.GetStatements().isEmpty()) throw new IllegalStateException("From must be called before setting fields");
+        return this.Snapshot(genre);
     }
 
     /**
      * Executes the update operation to modify the book record in the database.
      * 
-     * @return true if the update was successful, false otherwise.
+     * @return true if the update was successful (or nothing differed from the snapshot given to From), false otherwise.
      */
     public boolean Update() {
         if(this.id == 0) throw new IllegalStateException("ID must be set for update");
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for update");
+        if(this.NothingChanged()) return true;
 
-        StringBuilder queryBuilder = new StringBuilder("UPDATE book_genres SET ");
-        queryBuilder.append(String.join(", ", this.GetStatements()));
-        queryBuilder.append(" WHERE id = ?");
-
-        String query = queryBuilder.toString();
-        this.GetValues().add(this.bookID);
-        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        String query = this.UpdateByIdSql("book_genres");
+        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.UpdateByIdValues(this.id, false));
+        // The record may have moved between books, so per-book entries cannot be targeted.
+        EntityCache.Genres().Clear();
+        if(rowsAffected > 0) ChangeLog.Record("book_genres", 0, ChangeLog.UPDATE);
         
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Update()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the update was successful.
+     */
+    public CompletableFuture<Boolean> UpdateAsync() {
+        return AsyncExecutor.Submit(this::Update);
+    }
 }
@@ -0,0 +1,159 @@
+package lib.BookLoan;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import config.DatabaseConnection;
+import config.DatabaseUnavailableException;
+import config.OfflineWriteLog;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
+
+/**
+ * Builder class for lending a book: claims the book and records the loan in one transaction.
+ *
+ * The book is claimed with a conditional update ("SET is_available = 0 WHERE id = ? AND
+ * is_available = 1") that only one of several concurrent checkouts can win; the others see
+ * no matching row and give up without inserting a loan. Only the book's row is locked, so
+ * checkouts of different books never wait for each other. A loan that starts in the future
+ * is a reservation and does not claim the book, as before.
+ *
+ * While the database is unreachable the checkout is queued in the offline write log and
+ * replayed later with the same conditional claim; if the book was lent in the meantime the
+ * queued checkout is dropped and reported as a conflict.
+ *
+ * @author dev-MichaelJohn
+ */
+public class CheckoutBookBuilder extends BookLoanBuilder<CheckoutBookBuilder> {
+    private static final String CLAIM_BOOK = "UPDATE books SET is_available = 0 WHERE id = ? AND is_available = 1";
+    private static final String INSERT_LOAN = "INSERT INTO book_loans (book_id, borrower_id, borrowed_at, due_date) VALUES (?, ?, ?, ?)";
+
+    private DatabaseConnection dbConnection;
+
+    public CheckoutBookBuilder() {
+        super();
+        this.dbConnection = DatabaseConnection.GetInstance();
+    }
+
+    @Override
+    protected CheckoutBookBuilder self() {
+        return this;
+    }
+
+    /**
+     * Sets the book to lend.
+     * 
+     * @param bookID The ID of the book.
+     * @return The current CheckoutBookBuilder instance.
+     */
+    public CheckoutBookBuilder SetBookID(int bookID) {
+        if(bookID <= 0) throw new IllegalArgumentException("Book ID must be positive");
+        if(this.bookID != 0) throw new IllegalStateException("Book ID has already been set");
+
+        this.bookID = bookID;
+        return this;
+    }
+
+    /**
+     * Sets the borrower.
+     * 
+     * @param borrowerID The ID of the borrower.
+     * @return The current CheckoutBookBuilder instance.
+     */
+    public CheckoutBookBuilder SetBorrowerID(int borrowerID) {
+        if(borrowerID <= 0) throw new IllegalArgumentException("Borrower ID must be positive");
+        if(this.borrowerID != 0) throw new IllegalStateException("Borrower ID has already been set");
+
+        this.borrowerID = borrowerID;
+        return this;
+    }
+
+    /**
+     * Sets when the loan starts.
+     * 
+     * @param borrowedAt The date/time when the book is borrowed.
+     * @return The current CheckoutBookBuilder instance.
+     */
+    public CheckoutBookBuilder SetBorrowedAt(Date borrowedAt) {
+        if(borrowedAt == null) throw new IllegalArgumentException("borrowedAt must be provided");
+        if(this.borrowedAt != null) throw new IllegalStateException("borrowedAt already set");
+
+        this.borrowedAt = borrowedAt;
+        return this;
+    }
+
+    /**
+     * Sets the due date of the loan.
+     * 
+     * @param dueDate The due date.
+     * @return The current CheckoutBookBuilder instance.
+     */
+    public CheckoutBookBuilder SetDueDate(Date dueDate) {
+        if(dueDate == null) throw new IllegalArgumentException("dueDate must be provided");
+        if(this.dueDate != null) throw new IllegalStateException("dueDate already set");
+
+        this.dueDate = dueDate;
+        return this;
+    }
+
+    /**
+     * Claims the book (unless the loan starts in the future) and inserts the loan, atomically.
+     * 
+     * @return true if the loan was recorded (or queued offline), false if the book is not available (nothing is written).
+     */
+    public boolean Checkout() {
+        if(this.bookID == 0) throw new IllegalStateException("Book ID must be set before checkout");
+        if(this.borrowerID == 0) throw new IllegalStateException("Borrower ID must be set before checkout");
+        if(this.borrowedAt == null) throw new IllegalStateException("borrowedAt must be set before checkout");
+        if(this.dueDate == null) throw new IllegalStateException("dueDate must be set before checkout");
+
+        boolean claims = !this.borrowedAt.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().isAfter(LocalDate.now());
+        if(this.dbConnection.IsQueueingWrites()) return this.queueOffline(claims);
+
+        boolean done;
+        try {
+            done = this.dbConnection.ExecuteTransaction(transaction -> {
+                if(claims && transaction.Update(CLAIM_BOOK, this.bookID) == 0) {
+                    // another desk lent it first, or the book does not exist
+                    transaction.RollbackOnly();
+                    return false;
+                }
+                if(transaction.Update(INSERT_LOAN, this.bookID, this.borrowerID, this.borrowedAt, this.dueDate) == 0) return false;
+                if(claims) ChangeLog.Record(transaction, "books", this.bookID, ChangeLog.UPDATE);
+                ChangeLog.Record(transaction, "book_loans", 0, ChangeLog.INSERT);
+                return true;
+            });
+        } catch(DatabaseUnavailableException e) {
+            // rejected before anything was sent, so queueing cannot apply it twice
+            if(this.dbConnection.GetOfflineLog() == null) throw e;
+            return this.queueOffline(claims);
+        }
+
+        if(done) EntityCache.Books().Remove(this.bookID);
+        return done;
+    }
+
+    private boolean queueOffline(boolean claims) {
+        String label = "Checkout of book " + this.bookID + " to borrower " + this.borrowerID;
+        OfflineWriteLog.Step insert = OfflineWriteLog.Step.Required(INSERT_LOAN, "the loan could not be recorded",
+            this.bookID, this.borrowerID, this.borrowedAt, this.dueDate);
+        if(claims) this.dbConnection.QueueOffline(label, OfflineWriteLog.Step.Required(CLAIM_BOOK, "the book was lent to someone else in the meantime", this.bookID), insert);
+        else this.dbConnection.QueueOffline(label, insert);
+        // queued behind the checkout, so other clients hear of it once it is replayed
+        if(claims) ChangeLog.Record("books", this.bookID, ChangeLog.UPDATE);
+        ChangeLog.Record("book_loans", 0, ChangeLog.INSERT);
+        return true;
+    }
+
+    /**
+     * Same as {@link #Checkout()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the loan was recorded.
+     */
+    public CompletableFuture<Boolean> CheckoutAsync() {
+        return AsyncExecutor.Submit(this::Checkout);
+    }
+}
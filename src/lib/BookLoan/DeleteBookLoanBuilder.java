@@ -1,7 +1,11 @@
 package lib.BookLoan;
 
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 import config.DatabaseConnection;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
+import lib.Cache.ChangeLog;
 
 public class DeleteBookLoanBuilder extends BookLoanBuilder<DeleteBookLoanBuilder> {
     protected DatabaseConnection databaseConnection;
@@ -98,28 +102,35 @@ public class DeleteBookLoanBuilder extends BookLoanBuilder<DeleteBookLoanBuilder
         return this.SetField("id", id);
     }
 
+    /**
+     * Adds a criteria condition for deleting book loan records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current DeleteBookLoanBuilder instance.
+     */
+    public DeleteBookLoanBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the delete operation to remove book loan records from the database.
      * 
      * @return true if the deletion was successful, false otherwise.
      */
     public boolean Delete() {
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for deletion");
-
-        StringBuilder queryBuilder = new StringBuilder("DELETE FROM book_loans WHERE ");
-        queryBuilder.append(String.join(" AND ", this.GetStatements()));
-
-        String query = queryBuilder.toString();
-        int rowsAffected;
-        try {
-            System.out.println("Calling Delete...");
-            rowsAffected = this.databaseConnection.ExecuteUpdate(query, this.GetValues().toArray());
-        } catch (Exception e) {
-            System.out.println("Calling failed!");
-            throw e;
-        }
-
-        System.out.println("Calling sucess...");
+        String query = this.DeleteSql("book_loans");
+        int rowsAffected = this.databaseConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        if(rowsAffected > 0) ChangeLog.Record("book_loans", this.id, ChangeLog.DELETE);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Delete()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the delete was successful.
+     */
+    public CompletableFuture<Boolean> DeleteAsync() {
+        return AsyncExecutor.Submit(this::Delete);
+    }
 }
@@ -1,6 +1,10 @@
 package lib.BookLoan;
 
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Query.AsyncExecutor;
+import lib.Cache.ChangeLog;
 
 /**
  * Builder class for inserting new book loan records into the database.
@@ -97,7 +101,17 @@ public class InsertBookLoanBuilder extends BookLoanBuilder<InsertBookLoanBuilder
             throw e;
         }
 
+        if(rowsAffected > 0) ChangeLog.Record("book_loans", 0, ChangeLog.INSERT);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Insert()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the insert was successful.
+     */
+    public CompletableFuture<Boolean> InsertAsync() {
+        return AsyncExecutor.Submit(this::Insert);
+    }
 }
 
@@ -3,8 +3,11 @@ package lib.BookLoan;
 import java.util.Date;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import config.DatabaseConnection;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for reading book loan records from the database.
@@ -13,6 +16,7 @@ import config.DatabaseConnection;
  */
 public class ReadBookLoanBuilder extends BookLoanBuilder<ReadBookLoanBuilder> {
     private DatabaseConnection databaseConnection;
+    private boolean useCache = true;
 
     public ReadBookLoanBuilder() {
         super();
@@ -92,29 +96,46 @@ public class ReadBookLoanBuilder extends BookLoanBuilder<ReadBookLoanBuilder> {
         return this.SetField("returned_at", returnDate);
     }
 
+    /**
+     * Opts this read in or out of the shared query result cache (enabled by default).
+     * Pass false for reads that must always see the latest committed data.
+     * 
+     * @param useCache true to allow cached results, false to always query the database.
+     * @return The current ReadBookLoanBuilder instance.
+     */
+    public ReadBookLoanBuilder UseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+
+    /**
+     * Adds a criteria condition for fetching book loan records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current ReadBookLoanBuilder instance.
+     */
+    public ReadBookLoanBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the read operation to fetch book loan records from the database.
      * 
      * @return A list of maps representing the fetched book loan records.
      */
     public List<Map<String, Object>> Read() {
-        StringBuilder queyBuilder = new StringBuilder("SELECT * FROM book_loans");
-        if(!this.GetStatements().isEmpty()) {
-            queyBuilder.append(" WHERE ");
-            queyBuilder.append(String.join(" AND ", this.GetStatements()));
-        }
-
-        String query = queyBuilder.toString();
-        List<Map<String, Object>> results;
-        try {
-            System.out.println("Calling Read...");
-            results = this.databaseConnection.ExecuteQuery(query, this.GetValues().toArray());
-        } catch(Exception e) {
-            System.out.println("Calling Failed...");
-            throw e;
-        }
-
-        System.out.println("Calling success... " + results.toString());
+        String query = this.SelectSql("book_loans");
+        List<Map<String, Object>> results = this.databaseConnection.ExecuteQuery(this.useCache, query, this.GetValues().toArray());
         return results;
     }
+
+    /**
+     * Same as {@link #Read()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with the rows read.
+     */
+    public CompletableFuture<List<Map<String, Object>>> ReadAsync() {
+        return AsyncExecutor.Submit(this::Read);
+    }
 }
@@ -0,0 +1,152 @@
+package lib.BookLoan;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import config.DatabaseConnection;
+import config.DatabaseUnavailableException;
+import config.OfflineWriteLog;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Procedure.StoredProcedures;
+import lib.Query.AsyncExecutor;
+
+/**
+ * Builder class for returning a lent book: closes the loan and makes the book available
+ * again in one transaction.
+ *
+ * The loan is closed with a conditional update ("... WHERE id = ? AND returned_at IS NULL"),
+ * so a loan can only be returned once even if two desks return it at the same moment.
+ * The book row is locked before the loan row, in the same order as a checkout, so a return
+ * and a checkout of the same book cannot deadlock each other. With stored procedures
+ * enabled the whole return is a single round trip (lib_return_loan).
+ *
+ * While the database is unreachable the return is queued in the offline write log; the book
+ * is then looked up from the loan when the return is replayed (RELEASE_LOANED_BOOK). A loan
+ * returned by another desk in the meantime is reported as a conflict.
+ *
+ * @author dev-MichaelJohn
+ */
+public class ReturnBookBuilder extends BookLoanBuilder<ReturnBookBuilder> {
+    private static final String FIND_LOAN = "SELECT book_id FROM book_loans WHERE id = ? AND returned_at IS NULL";
+    private static final String RELEASE_BOOK = "UPDATE books SET is_available = 1 WHERE id = ?";
+    private static final String RELEASE_LOANED_BOOK = "UPDATE books SET is_available = 1 WHERE id = (SELECT book_id FROM book_loans WHERE id = ? AND returned_at IS NULL)";
+    private static final String CLOSE_LOAN = "UPDATE book_loans SET returned_at = ? WHERE id = ? AND returned_at IS NULL";
+
+    private static final List<String> TOUCHED_TABLES = Arrays.asList("books", "book_loans");
+
+    private DatabaseConnection dbConnection;
+
+    public ReturnBookBuilder() {
+        super();
+        this.dbConnection = DatabaseConnection.GetInstance();
+    }
+
+    @Override
+    protected ReturnBookBuilder self() {
+        return this;
+    }
+
+    /**
+     * Sets the loan to close.
+     * 
+     * @param id The ID of the loan.
+     * @return The current ReturnBookBuilder instance.
+     */
+    public ReturnBookBuilder WhereID(int id) {
+        if(id <= 0) throw new IllegalArgumentException("ID must be positive");
+        if(this.id != 0) throw new IllegalStateException("ID has already been set");
+
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * Sets when the book was returned (defaults to now).
+     * 
+     * @param returnedAt The date/time of the return.
+     * @return The current ReturnBookBuilder instance.
+     */
+    public ReturnBookBuilder SetReturnedAt(Date returnedAt) {
+        if(returnedAt == null) throw new IllegalArgumentException("returnedAt must be provided");
+        if(this.returnedAt != null) throw new IllegalStateException("returnedAt already set");
+
+        this.returnedAt = returnedAt;
+        return this;
+    }
+
+    /**
+     * Closes the loan and releases the book, atomically.
+     * 
+     * @return true if the loan was closed (or the return queued offline), false if it does not exist or was already returned (nothing is written).
+     */
+    public boolean Return() {
+        if(this.id == 0) throw new IllegalStateException("Loan ID must be set before return");
+        Date when = this.returnedAt != null ? this.returnedAt : new Date();
+        if(this.dbConnection.IsQueueingWrites()) return this.queueOffline(when);
+
+        Integer bookID;
+        try {
+            if(StoredProcedures.IsAvailable()) {
+                Object book = StoredProcedures.CallForValue("lib_return_loan", TOUCHED_TABLES, this.id, when);
+                bookID = book instanceof Number ? ((Number) book).intValue() : null;
+                if(bookID != null) this.record(bookID);
+            } else {
+                bookID = this.returnWithStatements(when);
+            }
+        } catch(DatabaseUnavailableException e) {
+            // rejected before anything was sent, so queueing cannot apply it twice
+            if(this.dbConnection.GetOfflineLog() == null) throw e;
+            return this.queueOffline(when);
+        }
+
+        if(bookID == null) return false;
+        this.bookID = bookID;
+        EntityCache.Books().Remove(bookID);
+        return true;
+    }
+
+    /**
+     * Same as {@link #Return()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the loan was closed.
+     */
+    public CompletableFuture<Boolean> ReturnAsync() {
+        return AsyncExecutor.Submit(this::Return);
+    }
+
+    private boolean queueOffline(Date when) {
+        // release first: the lookup in RELEASE_LOANED_BOOK only finds the loan while it is still open
+        this.dbConnection.QueueOffline("Return of loan " + this.id,
+            OfflineWriteLog.Step.Of(RELEASE_LOANED_BOOK, this.id),
+            OfflineWriteLog.Step.Required(CLOSE_LOAN, "the loan was already returned", when, this.id));
+        ChangeLog.Record("book_loans", this.id, ChangeLog.UPDATE);
+        return true;
+    }
+
+    private void record(int bookID) {
+        ChangeLog.Record("book_loans", this.id, ChangeLog.UPDATE);
+        ChangeLog.Record("books", bookID, ChangeLog.UPDATE);
+    }
+
+    private Integer returnWithStatements(Date when) {
+        return this.dbConnection.ExecuteTransaction(transaction -> {
+            List<Map<String, Object>> loan = transaction.Query(FIND_LOAN, this.id);
+            if(loan.isEmpty()) return null;
+
+            int book = ((Number) loan.get(0).get("book_id")).intValue();
+            transaction.Update(RELEASE_BOOK, book);
+            if(transaction.Update(CLOSE_LOAN, when, this.id) == 0) {
+                // returned by someone else since the lookup
+                transaction.RollbackOnly();
+                return null;
+            }
+            ChangeLog.Record(transaction, "book_loans", this.id, ChangeLog.UPDATE);
+            ChangeLog.Record(transaction, "books", book, ChangeLog.UPDATE);
+            return book;
+        });
+    }
+}
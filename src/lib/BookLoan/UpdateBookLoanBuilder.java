@@ -1,7 +1,12 @@
 package lib.BookLoan;
 
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Query.AsyncExecutor;
+import lib.Cache.ChangeLog;
 
 /**
  * Builder class for updating book loan records in the database.
@@ -36,7 +41,7 @@ public class UpdateBookLoanBuilder extends BookLoanBuilder<UpdateBookLoanBuilder
         if(this.dueDate != null) throw new IllegalStateException("Due date has been already set");
 
         this.dueDate = dueDate;
-        return this.SetField("due_date", dueDate);
+        return this.SetChangedField("due_date", dueDate);
     }
 
     /**
@@ -50,7 +55,7 @@ public class UpdateBookLoanBuilder extends BookLoanBuilder<UpdateBookLoanBuilder
         if(this.borrowerID != 0) throw new IllegalStateException("Borrower ID has already been set");
 
         this.borrowerID = borrowerID;
-        return this.SetField("borrower_id", borrowerID);
+        return this.SetChangedField("borrower_id", borrowerID);
     }
 
     /**
@@ -64,7 +69,7 @@ public class UpdateBookLoanBuilder extends BookLoanBuilder<UpdateBookLoanBuilder
         if(this.borrowedAt != null) throw new IllegalStateException("Due date has been already set");
 
         this.borrowedAt = borrowDate;
-        return this.SetField("borrowed_at", borrowDate);
+        return this.SetChangedField("borrowed_at", borrowDate);
     }
 
     /**
@@ -78,7 +83,7 @@ public class UpdateBookLoanBuilder extends BookLoanBuilder<UpdateBookLoanBuilder
         if(this.returnedAt != null) throw new IllegalStateException("Due date has been already set");
 
         this.returnedAt = returnDate;
-        return this.SetField("returned_at", returnDate);
+        return this.SetChangedField("returned_at", returnDate);
     }
 
     /**
@@ -92,27 +97,44 @@ public class UpdateBookLoanBuilder extends BookLoanBuilder<UpdateBookLoanBuilder
         if(this.id != 0) throw new IllegalStateException("ID has already been set");
 
         this.id = id;
-        return this.SetField("id", id);
+        return this;
+    }
+
+    /**
+     * Sets the loan as it was last read, so only the columns that differ from it are written
+     * and an update that changes nothing does not reach the database. Must be called before
+     * the setters.
+     *
+     * @param loan The loan row; missing columns count as changed.
+     * @return The current UpdateBookLoanBuilder instance.
+     */
+    public UpdateBookLoanBuilder From(Map<String, Object> loan) {
+        if(!this.GetStatements().isEmpty()) throw new IllegalStateException("From must be called before setting fields");
+        return this.Snapshot(loan);
     }
 
     /**
      * Executes the update operation to modify the book loan record in the database.
      * 
-     * @return true if the update was successful, false otherwise.
+     * @return true if the update was successful (or nothing differed from the snapshot given to From), false otherwise.
      */
     public boolean Update() {
-        if(this.id == 0) throw new IllegalStateException("Loan :qID must be set for update");
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for update");
+        if(this.id == 0) throw new IllegalStateException("Loan ID must be set for update");
+        if(this.NothingChanged()) return true;
 
-        StringBuilder queryBuilder = new StringBuilder("UPDATE book_loans SET ");
-        queryBuilder.append(String.join(", ", this.GetStatements()));
-        queryBuilder.append(" WHERE id = ?");
-
-        String query = queryBuilder.toString();
-        System.out.println(query);
-        this.GetValues().add(this.id);
-        int rowsAffected = this.databaseConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        String query = this.UpdateByIdSql("book_loans");
+        int rowsAffected = this.databaseConnection.ExecuteUpdate(query, this.UpdateByIdValues(this.id, false));
+        if(rowsAffected > 0) ChangeLog.Record("book_loans", this.id, ChangeLog.UPDATE);
         
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Update()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the update was successful.
+     */
+    public CompletableFuture<Boolean> UpdateAsync() {
+        return AsyncExecutor.Submit(this::Update);
+    }
 }
\ No newline at end of file
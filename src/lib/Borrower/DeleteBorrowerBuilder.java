@@ -1,6 +1,13 @@
 package lib.Borrower;
 
+import java.util.concurrent.CompletableFuture;
+
+
 import config.DatabaseConnection;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for deleting borrower records from the database.
@@ -76,28 +83,37 @@ public class DeleteBorrowerBuilder extends BorrowerBuilder<DeleteBorrowerBuilder
         return this.SetField("contact_num", contactNum);
     }
 
+    /**
+     * Adds a criteria condition for deleting borrower records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current DeleteBorrowerBuilder instance.
+     */
+    public DeleteBorrowerBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the delete operation to remove borrower records from the database.
      * 
      * @return true if the deletion was successful, false otherwise.
      */
     public boolean Delete() {
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for deletion");
-
-        StringBuilder queryBuilder = new StringBuilder("DELETE FROM borrowers WHERE ");
-        queryBuilder.append(String.join(" AND ", this.GetStatements()));
-
-        String query = queryBuilder.toString();
-        int rowsAffected;
-        try {
-            System.out.println("Calling Delete...");
-            rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
-        } catch (Exception e) {
-            System.out.println("Calling failed!");
-            throw e;
-        }
-
-        System.out.println("Calling success...");
+        String query = this.DeleteSql("borrowers");
+        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        if(this.id != 0) EntityCache.Borrowers().Remove(this.id);
+        else EntityCache.Borrowers().Clear();
+        if(rowsAffected > 0) ChangeLog.Record("borrowers", this.id, ChangeLog.DELETE);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Delete()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the delete was successful.
+     */
+    public CompletableFuture<Boolean> DeleteAsync() {
+        return AsyncExecutor.Submit(this::Delete);
+    }
 }
@@ -1,6 +1,10 @@
 package lib.Borrower;
 
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Query.AsyncExecutor;
+import lib.Cache.ChangeLog;
 
 /**
  * Builder class for inserting new borrower records into the database.
@@ -100,6 +104,16 @@ public class InsertBorrowerBuilder extends BorrowerBuilder<InsertBorrowerBuilder
             throw e;
         }
 
+        if(rowsAffected > 0) ChangeLog.Record("borrowers", 0, ChangeLog.INSERT);
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Insert()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the insert was successful.
+     */
+    public CompletableFuture<Boolean> InsertAsync() {
+        return AsyncExecutor.Submit(this::Insert);
+    }
 }
@@ -2,8 +2,12 @@ package lib.Borrower;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import config.DatabaseConnection;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
+import lib.Query.Criteria;
 
 /**
  * Builder class for reading borrower records from the database.
@@ -12,6 +16,7 @@ import config.DatabaseConnection;
  */
 public class ReadBorrowerBuilder extends BorrowerBuilder<ReadBorrowerBuilder> {
     private DatabaseConnection dbConnection;
+    private boolean useCache = true;
 
     public ReadBorrowerBuilder() {
         super();
@@ -79,29 +84,48 @@ public class ReadBorrowerBuilder extends BorrowerBuilder<ReadBorrowerBuilder> {
         return this.SetField("contact_num", contactNum);
     }
 
+    /**
+     * Opts this read in or out of the shared query result cache (enabled by default).
+     * Pass false for reads that must always see the latest committed data.
+     * 
+     * @param useCache true to allow cached results, false to always query the database.
+     * @return The current ReadBorrowerBuilder instance.
+     */
+    public ReadBorrowerBuilder UseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+
+    /**
+     * Adds a criteria condition for fetching borrower records; it is combined with the
+     * other conditions using AND. Can be called more than once.
+     * 
+     * @param criteria The condition (OR, NOT, IN, ranges, NULL checks, ...).
+     * @return The current ReadBorrowerBuilder instance.
+     */
+    public ReadBorrowerBuilder Where(Criteria criteria) {
+        return this.AddCriteria(criteria);
+    }
+
     /**
      * Executes the read operation to fetch borrower records from the database.
      * 
      * @return A list of maps representing the fetched borrower records.
      */
     public List<Map<String, Object>> Read() {
-        StringBuilder queryBuilder = new StringBuilder("SELECT * FROM borrowers");
-        if(!this.GetStatements().isEmpty()) {
-            queryBuilder.append(" WHERE ");
-            queryBuilder.append(String.join(" AND ", this.GetStatements()));
-        }
-
-        String query = queryBuilder.toString();
-        List<Map<String, Object>> results;
-        try {
-            System.out.println("Calling Read...");
-            results = this.dbConnection.ExecuteQuery(query, this.GetValues().toArray());
-        } catch(Exception e) {
-            System.out.println("Calling Failed...");
-            throw e;
-        }
-
-        System.out.println("Calling success... " + results.toString());
+        String query = this.SelectSql("borrowers");
+        long cacheGeneration = EntityCache.Borrowers().Generation();
+        List<Map<String, Object>> results = this.dbConnection.ExecuteQuery(this.useCache, query, this.GetValues().toArray());
+        EntityCache.PutRows(EntityCache.Borrowers(), results, cacheGeneration);
         return results;
     }
+
+    /**
+     * Same as {@link #Read()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with the rows read.
+     */
+    public CompletableFuture<List<Map<String, Object>>> ReadAsync() {
+        return AsyncExecutor.Submit(this::Read);
+    }
 }
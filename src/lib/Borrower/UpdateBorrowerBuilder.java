@@ -1,6 +1,12 @@
 package lib.Borrower;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import config.DatabaseConnection;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+import lib.Query.AsyncExecutor;
 
 /**
  * Builder class for updating borrower records in the database.
@@ -32,7 +38,7 @@ public class UpdateBorrowerBuilder extends BorrowerBuilder<UpdateBorrowerBuilder
         if(this.firstName != null) throw new IllegalStateException("First name has already been set");
 
         this.firstName = firstName;
-        return this.SetField("first_name", firstName);
+        return this.SetChangedField("first_name", firstName);
     }
 
     /**
@@ -47,7 +53,7 @@ public class UpdateBorrowerBuilder extends BorrowerBuilder<UpdateBorrowerBuilder
         if(this.middleName != null) throw new IllegalStateException("Middle name has already been set");
 
         this.middleName = middleName;
-        return this.SetField("middle_name", middleName.isEmpty() ? "" : middleName);
+        return this.SetChangedField("middle_name", middleName.isEmpty() ? "" : middleName);
     }
 
     /**
@@ -62,7 +68,7 @@ public class UpdateBorrowerBuilder extends BorrowerBuilder<UpdateBorrowerBuilder
         if(this.lastName != null) throw new IllegalStateException("Last name has already been set");
 
         this.lastName = lastName;
-        return this.SetField("last_name", lastName);
+        return this.SetChangedField("last_name", lastName);
     }
 
     /**
@@ -78,7 +84,7 @@ public class UpdateBorrowerBuilder extends BorrowerBuilder<UpdateBorrowerBuilder
         if(this.contactNum != null) throw new IllegalStateException("Contact number has already been set");
 
         this.contactNum = contactNum;
-        return this.SetField("contact_num", contactNum);
+        return this.SetChangedField("contact_num", contactNum);
     }
 
     /**
@@ -95,23 +101,42 @@ public class UpdateBorrowerBuilder extends BorrowerBuilder<UpdateBorrowerBuilder
         return this;
     }
 
+    /**
+     * Sets the borrower as it was last read, so only the columns that differ from it are written
+     * and an update that changes nothing does not reach the database. Must be called before
+     * the setters.
+     *
+     * @param borrower The borrower row; missing columns count as changed.
+     * @return The current UpdateBorrowerBuilder instance.
+     */
+    public UpdateBorrowerBuilder From(Map<String, Object> borrower) {
+        if(!this.GetStatements().isEmpty()) throw new IllegalStateException("From must be called before setting fields");
+        return this.Snapshot(borrower);
+    }
+
     /**
      * Executes the update operation to modify the borrower record in the database.
      * 
-     * @return true if the update was successful, false otherwise.
+     * @return true if the update was successful (or nothing differed from the snapshot given to From), false otherwise.
      */
     public boolean Update() {
         if(this.id == 0) throw new IllegalStateException("Borrower ID must be set for update");
-        if(this.GetStatements().isEmpty()) throw new IllegalStateException("At least one field must be set for update");
+        if(this.NothingChanged()) return true;
 
-        StringBuilder queryBuilder = new StringBuilder("UPDATE borrowers SET ");
-        queryBuilder.append(String.join(", ", this.GetStatements()));
-        queryBuilder.append(" WHERE id = ?");
-
-        String query = queryBuilder.toString();
-        this.GetValues().add(this.id);
-        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.GetValues().toArray());
+        String query = this.UpdateByIdSql("borrowers");
+        int rowsAffected = this.dbConnection.ExecuteUpdate(query, this.UpdateByIdValues(this.id, false));
+        EntityCache.Borrowers().Remove(this.id);
+        if(rowsAffected > 0) ChangeLog.Record("borrowers", this.id, ChangeLog.UPDATE);
 
         return rowsAffected > 0;
     }
+
+    /**
+     * Same as {@link #Update()}, but runs on the {@link AsyncExecutor} without blocking the caller.
+     * 
+     * @return A future completed with true if the update was successful.
+     */
+    public CompletableFuture<Boolean> UpdateAsync() {
+        return AsyncExecutor.Submit(this::Update);
+    }
 }
@@ -0,0 +1,383 @@
+package lib.Cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import config.CircuitBreaker;
+import config.DatabaseConnection;
+
+/**
+ * Keeps the caches of many clients of one database coherent.
+ *
+ * The write builders append an entry to the change_log table for every row they change: the
+ * entity (the table name), the row ID, the operation and a version, which is an auto-increment
+ * that orders the entries. Entries written inside a transaction are committed with it; others
+ * are sent through group commit after the write. An ID of 0 means rows whose IDs are not known
+ * (an insert that does not return its ID, or a change to many rows).
+ *
+ * Delivery is best effort. An entry recorded after its write (rather than inside the write's
+ * transaction) is lost if the client stops between the two, and nothing is recorded while the
+ * table cannot be created (e.g. without the CREATE privilege). To bound how long such a miss
+ * can leave another client stale, every library.changelog.reloadMs (default 600000, 0 turns it
+ * off) each client drops its caches and has its listeners reload everything they show.
+ *
+ * Every client polls the table for entries newer than the last version it has applied, every
+ * library.changelog.pollMs (default 1000) on a connection of its own; without changes that is a
+ * primary key range scan returning nothing. Entries are applied incrementally: cached query
+ * results of the changed tables are invalidated, the changed IDs are removed from the
+ * {@link EntityCache}, and listeners (the GUI panels) update the rows they show. Entries a client
+ * wrote itself are skipped, since it updated its own caches when it wrote them.
+ *
+ * Versions can commit out of order (two clients inserting at once). When versions above a
+ * missing one are seen, the missing one is read again for up to library.changelog.gapMs
+ * (default 5000) before it is taken for a rolled back insert. The newest library.changelog.keep
+ * (default 100000) entries are kept; older ones are deleted now and then.
+ * Turned off with -Dlibrary.changelog=false.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class ChangeLog {
+    public static final char INSERT = 'I';
+    public static final char UPDATE = 'U';
+    public static final char DELETE = 'D';
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.changelog", "true"));
+    private static final long POLL_MILLIS = Long.getLong("library.changelog.pollMs", 1000);
+    private static final long GAP_MILLIS = Long.getLong("library.changelog.gapMs", 5000);
+    private static final long KEEP = Long.getLong("library.changelog.keep", 100000);
+    private static final long RELOAD_MILLIS = Long.getLong("library.changelog.reloadMs", 600000);
+    private static final long RETRY_MILLIS = 30000;
+    private static final List<String> ENTITIES = Collections.unmodifiableList(Arrays.asList("books", "borrowers", "book_loans", "book_genres"));
+    private static final int BATCH = 1000;
+    private static final int POLLS_PER_PRUNE = 600;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS change_log (version BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+        + " entity VARCHAR(32) NOT NULL, entity_id INT NOT NULL, op CHAR(1) NOT NULL, client VARCHAR(16) NOT NULL)";
+    private static final String INSERT_ENTRY = "INSERT INTO change_log (entity, entity_id, op, client) VALUES (?, ?, ?, ?)";
+    private static final String READ_ENTRIES = "SELECT version, entity, entity_id, op, client FROM change_log WHERE version > ? ORDER BY version LIMIT " + BATCH;
+    private static final String READ_MISSING = "SELECT version, entity, entity_id, op, client FROM change_log WHERE version > ? AND version < ? ORDER BY version LIMIT " + BATCH;
+
+    /** Identifies this client's own entries. */
+    private static final String CLIENT = Long.toHexString(new java.security.SecureRandom().nextLong());
+
+    // databases the table was created in ("" for the home branch, otherwise the branch name)
+    private static final Set<String> installed = ConcurrentHashMap.newKeySet();
+    private static final Set<String> unavailable = ConcurrentHashMap.newKeySet();
+    // after a failure that may pass, when to try creating the table again
+    private static final Map<String, Long> retryAt = new ConcurrentHashMap<>();
+    private static final List<Consumer<List<Change>>> listeners = new CopyOnWriteArrayList<>();
+
+    // poller state (poller thread only)
+    private static Thread poller;
+    private static Connection connection;
+    private static PreparedStatement read;
+    private static PreparedStatement readMissing;
+    private static long applied = -1;                                   // every version up to this one is applied
+    private static final TreeSet<Long> appliedAbove = new TreeSet<>();  // applied versions above a missing one
+    private static long missingSince;
+    private static long reloadedAt;
+    private static int polls;
+
+    private ChangeLog() {}
+
+    /**
+     * One entry of the change log.
+     */
+    public static final class Change {
+        private final long version;
+        private final String entity;
+        private final int id;
+        private final char op;
+
+        Change(long version, String entity, int id, char op) {
+            this.version = version;
+            this.entity = entity;
+            this.id = id;
+            this.op = op;
+        }
+
+        public long Version() { return this.version; }
+        /** @return The changed table, e.g. "books". */
+        public String Entity() { return this.entity; }
+        /** @return The changed row's ID (for book_genres: the book's ID), or 0 if not known. */
+        public int ID() { return this.id; }
+        /** @return {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}. */
+        public char Op() { return this.op; }
+
+        @Override
+        public String toString() {
+            return this.version + ":" + this.op + " " + this.entity + "#" + this.id;
+        }
+    }
+
+    /**
+     * Appends an entry after a write that was committed on its own. The entry is sent through
+     * group commit without waiting for it (and queued offline like any write while the database
+     * is unreachable). Since it is not part of the write, it is lost if this client stops before
+     * it is sent; other clients then see the change at their next periodic reload.
+     *
+     * @param entity The changed table.
+     * @param id The changed row's ID, or 0 if not known.
+     * @param op {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}.
+     */
+    public static void Record(String entity, int id, char op) {
+        if(!Install()) return;
+        DatabaseConnection.GetInstance().SubmitUpdate(INSERT_ENTRY, entity, Math.max(id, 0), String.valueOf(op), CLIENT)
+            .whenComplete((rows, error) -> {
+                if(error != null) System.err.println("Failed to record change of " + entity + " " + id + ": " + error.getMessage());
+            });
+    }
+
+    /**
+     * Appends an entry inside a transaction, so it is committed (or rolled back) with the change.
+     *
+     * @param transaction The transaction that makes the change.
+     * @param entity The changed table.
+     * @param id The changed row's ID, or 0 if not known.
+     * @param op {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}.
+     * @throws SQLException if the entry cannot be written.
+     */
+    public static void Record(DatabaseConnection.Transaction transaction, String entity, int id, char op) throws SQLException {
+        if(!Install()) return;
+        transaction.Update(INSERT_ENTRY, entity, Math.max(id, 0), String.valueOf(op), CLIENT);
+    }
+
+    /**
+     * Registers a callback for changes made by other clients. It runs on the poller thread,
+     * after the caches were updated, with the entries of one poll in version order.
+     *
+     * @param listener The callback.
+     */
+    public static void AddListener(Consumer<List<Change>> listener) {
+        if(listener == null) throw new IllegalArgumentException("Listener cannot be null");
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts polling for changes of other clients (once per run of the application).
+     */
+    public static synchronized void Start() {
+        if(!ENABLED || poller != null) return;
+
+        poller = new Thread(() -> {
+            while(!Thread.currentThread().isInterrupted()) {
+                boolean more = false;
+                try {
+                    more = Poll();
+                } catch(RuntimeException e) {
+                    System.err.println("Change log poll failed: " + e.getMessage());
+                }
+                if(more) continue;
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch(InterruptedException e) {
+                    return;
+                }
+            }
+        }, "change-log");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * @return The version up to which changes of other clients are applied (-1 before the first poll).
+     */
+    public static synchronized long AppliedVersion() {
+        return applied;
+    }
+
+    // Creates the table in the database the current thread writes to, once per database.
+    // While the database is unreachable this returns true without trying, so the entry is queued with the change.
+    private static boolean Install() {
+        if(!ENABLED) return false;
+        DatabaseConnection database = DatabaseConnection.GetInstance();
+        String branch = database.RoutedBranch() == null ? "" : database.RoutedBranch();
+        if(installed.contains(branch)) return true;
+        if(unavailable.contains(branch)) return false;
+        if(branch.isEmpty() && database.GetCircuitBreaker().GetState() != CircuitBreaker.State.CLOSED) return true;
+        Long retry = retryAt.get(branch);
+        if(retry != null && System.currentTimeMillis() < retry) return true;
+
+        try(Connection target = database.OpenConnection(); Statement statement = target.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            installed.add(branch);
+            retryAt.remove(branch);
+            return true;
+        } catch(SQLException e) {
+            if(IsPrivilegeError(e)) {
+                // other clients simply do not hear about this client's changes
+                System.err.println("Change log unavailable, not recording changes: " + e.getMessage());
+                unavailable.add(branch);
+            } else {
+                System.err.println("Failed to create change log, trying again later: " + e.getMessage());
+                retryAt.put(branch, System.currentTimeMillis() + RETRY_MILLIS);
+            }
+            return false;
+        } catch(RuntimeException e) {
+            // the database is unreachable: record anyway (the entry is queued with the change), try again later
+            retryAt.put(branch, System.currentTimeMillis() + RETRY_MILLIS);
+            return true;
+        }
+    }
+
+    // No CREATE privilege on the database (or the table): trying again cannot help.
+    private static boolean IsPrivilegeError(SQLException e) {
+        int code = e.getErrorCode();
+        return e instanceof java.sql.SQLInvalidAuthorizationSpecException || code == 1044 || code == 1045 || code == 1142 || code == 1227;
+    }
+
+    // Reads and applies the next entries. Returns true if there may be more right away.
+    private static synchronized boolean Poll() {
+        DatabaseConnection database = DatabaseConnection.GetExistingInstance();
+        if(database == null || database.GetCircuitBreaker().GetState() != CircuitBreaker.State.CLOSED) return false;
+        if(!Install()) return false;
+
+        List<Change> changes = new ArrayList<>();
+        boolean more;
+        try {
+            if(read == null) Open(database);
+            if(applied < 0) {
+                // changes from before this client started are in nothing it has cached
+                try(Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM change_log")) {
+                    applied = rs.next() ? rs.getLong(1) : 0;
+                }
+                return false;
+            }
+
+            if(appliedAbove.isEmpty()) {
+                read.setLong(1, applied);
+                more = Read(read, changes);
+            } else {
+                // Waiting for a missing version: look for it below the versions already seen,
+                // and for new entries only above them (the seen ones are not read again)
+                readMissing.setLong(1, applied);
+                readMissing.setLong(2, appliedAbove.first());
+                more = Read(readMissing, changes);
+                read.setLong(1, appliedAbove.last());
+                more |= Read(read, changes);
+            }
+        } catch(SQLException e) {
+            Close();
+            throw new RuntimeException("Failed to read change log: " + e.getMessage(), e);
+        }
+
+        Advance();
+        long now = System.currentTimeMillis();
+        if(RELOAD_MILLIS > 0 && reloadedAt == 0) reloadedAt = now;
+        if(RELOAD_MILLIS > 0 && now - reloadedAt >= RELOAD_MILLIS) {
+            // catches changes whose entries never made it into the log
+            reloadedAt = now;
+            for(String entity : ENTITIES) changes.add(new Change(0, entity, 0, UPDATE));
+        }
+        if(!changes.isEmpty()) Apply(database, changes);
+        if(++polls % POLLS_PER_PRUNE == 0 && applied > KEEP) Prune();
+        return more;
+    }
+
+    // Collects the entries of one query. Returns true if it filled a page with versions not seen before.
+    private static boolean Read(PreparedStatement query, List<Change> changes) throws SQLException {
+        int rows = 0;
+        boolean unseen = false;
+        try(ResultSet rs = query.executeQuery()) {
+            while(rs.next()) {
+                rows++;
+                long version = rs.getLong("version");
+                if(version <= applied || !appliedAbove.add(version)) continue;
+                unseen = true;
+                if(CLIENT.equals(rs.getString("client"))) continue;
+                String op = rs.getString("op");
+                changes.add(new Change(version, rs.getString("entity"), rs.getInt("entity_id"), op == null || op.isEmpty() ? UPDATE : op.charAt(0)));
+            }
+        }
+        return unseen && rows == BATCH;
+    }
+
+    // Moves the applied version past every version seen, waiting a while at missing ones.
+    private static void Advance() {
+        while(!appliedAbove.isEmpty()) {
+            if(appliedAbove.first() <= applied) {
+                appliedAbove.pollFirst();
+            } else if(appliedAbove.first() == applied + 1) {
+                applied = appliedAbove.pollFirst();
+                missingSince = 0;
+            } else {
+                // an entry below was not committed yet, or was rolled back
+                long now = System.currentTimeMillis();
+                if(missingSince == 0) missingSince = now;
+                if(now - missingSince < GAP_MILLIS) return;
+                applied = appliedAbove.first() - 1;
+                missingSince = 0;
+            }
+        }
+    }
+
+    private static void Apply(DatabaseConnection database, List<Change> changes) {
+        Set<String> tables = new HashSet<>();
+        for(Change change : changes) {
+            tables.add(change.Entity());
+            IntLruCache<?> cache = CacheOf(change.Entity());
+            if(cache == null || change.Op() == INSERT && change.ID() == 0) continue;  // new rows are in no cache yet
+            if(change.ID() > 0) cache.Remove(change.ID());
+            else cache.Clear();
+        }
+        database.GetQueryCache().InvalidateExternal(tables);
+
+        List<Change> applied = Collections.unmodifiableList(changes);
+        for(Consumer<List<Change>> listener : listeners) {
+            try {
+                listener.accept(applied);
+            } catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static IntLruCache<?> CacheOf(String entity) {
+        switch(entity) {
+            case "books": return EntityCache.Books();
+            case "borrowers": return EntityCache.Borrowers();
+            case "book_genres": return EntityCache.Genres();
+            default: return null;
+        }
+    }
+
+    private static void Prune() {
+        try(PreparedStatement prune = connection.prepareStatement("DELETE FROM change_log WHERE version <= ?")) {
+            prune.setLong(1, applied - KEEP);
+            prune.executeUpdate();
+        } catch(SQLException e) {
+            System.err.println("Failed to prune change log: " + e.getMessage());
+        }
+    }
+
+    private static void Open(DatabaseConnection database) throws SQLException {
+        connection = database.OpenConnection();
+        read = connection.prepareStatement(READ_ENTRIES);
+        readMissing = connection.prepareStatement(READ_MISSING);
+    }
+
+    private static void Close() {
+        try {
+            if(connection != null) connection.close();
+        } catch(SQLException ignore) {
+            // already broken
+        }
+        connection = null;
+        read = null;
+        readMissing = null;
+    }
+}
@@ -0,0 +1,163 @@
+package lib.Cache;
+
+import java.util.List;
+import java.util.Map;
+
+import config.DatabaseConnection;
+import config.LastKnownResults;
+import lib.Book.ReadBookBuilder;
+import lib.BookGenre.ReadBookGenreBuilder;
+import lib.Borrower.ReadBorrowerBuilder;
+
+/**
+ * Application-wide cache of book, borrower and genre records keyed by their integer IDs.
+ *
+ * Read builders populate it with every row they fetch and the Insert/Update/Delete
+ * builders invalidate the affected IDs, so panels and dialogs can look records up
+ * without hitting the database and without showing stale data after an edit.
+ * Capacities can be tuned with the library.cache.books, library.cache.borrowers and
+ * library.cache.genres system properties.
+ * IDs are only unique within a branch, so rows read for another branch (inside
+ * DatabaseConnection.OnBranch) are never cached.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class EntityCache {
+    private static final IntLruCache<Map<String, Object>> books =
+        new IntLruCache<>("books", Integer.getInteger("library.cache.books", 4096));
+    private static final IntLruCache<Map<String, Object>> borrowers =
+        new IntLruCache<>("borrowers", Integer.getInteger("library.cache.borrowers", 2048));
+    private static final IntLruCache<List<Map<String, Object>>> genres =
+        new IntLruCache<>("genres", Integer.getInteger("library.cache.genres", 4096));
+
+    private EntityCache() {}
+
+    /**
+     * @return The cache of book rows keyed by book ID.
+     */
+    public static IntLruCache<Map<String, Object>> Books() { return books; }
+
+    /**
+     * @return The cache of borrower rows keyed by borrower ID.
+     */
+    public static IntLruCache<Map<String, Object>> Borrowers() { return borrowers; }
+
+    /**
+     * @return The cache of genre rows keyed by the book ID they belong to.
+     */
+    public static IntLruCache<List<Map<String, Object>>> Genres() { return genres; }
+
+    /**
+     * Retrieves a book row, loading it from the database on a cache miss.
+     *
+     * @param bookID The ID of the book.
+     * @return The book row, or null if it does not exist.
+     */
+    public static Map<String, Object> GetBook(int bookID) {
+        if(bookID <= 0) return null;
+        if(IsRemote()) return First(new ReadBookBuilder().WhereBookID(bookID).Read());
+        return books.GetOrLoad(bookID, id -> First(new ReadBookBuilder().WhereBookID(id).Read()));
+    }
+
+    /**
+     * Retrieves a borrower row, loading it from the database on a cache miss.
+     *
+     * @param borrowerID The ID of the borrower.
+     * @return The borrower row, or null if it does not exist.
+     */
+    public static Map<String, Object> GetBorrower(int borrowerID) {
+        if(borrowerID <= 0) return null;
+        if(IsRemote()) return First(new ReadBorrowerBuilder().WhereID(borrowerID).Read());
+        return borrowers.GetOrLoad(borrowerID, id -> First(new ReadBorrowerBuilder().WhereID(id).Read()));
+    }
+
+    /**
+     * Retrieves the genre rows of a book, loading them from the database on a cache miss.
+     *
+     * @param bookID The ID of the book.
+     * @return The genre rows of the book (possibly empty, never null).
+     */
+    public static List<Map<String, Object>> GetGenres(int bookID) {
+        if(bookID <= 0) return java.util.Collections.emptyList();
+        List<Map<String, Object>> rows = IsRemote()
+            ? new ReadBookGenreBuilder().WhereBookID(bookID).Read()
+            : genres.GetOrLoad(bookID, id -> new ReadBookGenreBuilder().WhereBookID(id).Read());
+        return rows == null ? java.util.Collections.emptyList() : rows;
+    }
+
+    /**
+     * Loads the genres of many books with a single query and caches them per book.
+     * Books without any genre get an empty entry so later lookups do not hit the database.
+     *
+     * @param bookRows The book rows whose genres should be cached.
+     */
+    public static void WarmGenres(List<Map<String, Object>> bookRows) {
+        if(bookRows == null || bookRows.isEmpty() || IsRemote()) return;
+
+        long generation = genres.Generation();
+        Map<Integer, List<Map<String, Object>>> byBook = new java.util.HashMap<>();
+        for(Map<String, Object> book : bookRows) {
+            Object id = book.get("id");
+            if(id instanceof Number) byBook.put(((Number) id).intValue(), new java.util.ArrayList<>());
+        }
+
+        List<Map<String, Object>> genreRows = new ReadBookGenreBuilder().Read();
+        // rows from before a database outage are shown, but not cached as current
+        if(genreRows instanceof LastKnownResults.StaleRows) return;
+        for(Map<String, Object> genre : genreRows) {
+            Object bookID = genre.get("book_id");
+            if(!(bookID instanceof Number)) continue;
+            List<Map<String, Object>> list = byBook.get(((Number) bookID).intValue());
+            if(list != null) list.add(genre);
+        }
+
+        for(Map.Entry<Integer, List<Map<String, Object>>> entry : byBook.entrySet()) {
+            genres.Put(entry.getKey(), entry.getValue(), generation);
+        }
+    }
+
+    /**
+     * Caches every row of a result set under its "id" column. Rows answered from the last known
+     * results while the database is unreachable are not cached.
+     *
+     * @param cache The cache to populate.
+     * @param rows The rows to cache.
+     * @param expectedGeneration The cache generation observed before the rows were read.
+     */
+    public static void PutRows(IntLruCache<Map<String, Object>> cache, List<Map<String, Object>> rows, long expectedGeneration) {
+        if(rows == null || rows instanceof LastKnownResults.StaleRows || IsRemote()) return;
+        for(Map<String, Object> row : rows) {
+            Object id = row.get("id");
+            // a row invalidated while it was read is skipped, the others are still cached
+            if(id instanceof Number) cache.Put(((Number) id).intValue(), row, expectedGeneration);
+        }
+    }
+
+    /**
+     * Drops every cached entry of every entity.
+     */
+    public static void ClearAll() {
+        books.Clear();
+        borrowers.Clear();
+        genres.Clear();
+    }
+
+    /**
+     * @return A one-line summary of size and hit-rate metrics for all entity caches.
+     */
+    public static String Stats() {
+        return books + " " + borrowers + " " + genres;
+    }
+
+    /**
+     * @return true while the current thread works on another branch's database, whose rows must not be cached.
+     */
+    public static boolean IsRemote() {
+        DatabaseConnection database = DatabaseConnection.GetExistingInstance();
+        return database != null && database.RoutedBranch() != null;
+    }
+
+    private static Map<String, Object> First(List<Map<String, Object>> rows) {
+        return (rows == null || rows.isEmpty()) ? null : rows.get(0);
+    }
+}
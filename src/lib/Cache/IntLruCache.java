@@ -0,0 +1,279 @@
+package lib.Cache;
+
+import java.util.function.IntFunction;
+
+/**
+ * Thread-safe, size-bounded LRU cache keyed by primitive ints.
+ *
+ * Entries live in preallocated parallel arrays (no boxing of keys, no per-entry nodes).
+ * Hash buckets are chained through slot indexes and recency is tracked with a
+ * doubly-linked list of slot indexes, so get/put/remove are all O(1).
+ *
+ * Every invalidation bumps a generation and stamps it on the key's hash bucket, so a load
+ * started before the invalidation is rejected only for keys of that bucket (or after a Clear).
+ *
+ * @param <V> The type of the cached values.
+ *
+ * @author dev-MichaelJohn
+ */
+public class IntLruCache<V> {
+    private static final int NIL = -1;
+
+    private final String name;
+    private final int capacity;
+    private final int[] buckets;
+    private final long[] bucketInvalidated;  // generation of the last Remove per bucket
+    private final int[] keys;
+    private final Object[] values;
+    private final int[] chain;
+    private final int[] newer;
+    private final int[] older;
+    private final int mask;
+
+    private int newest = NIL;
+    private int oldest = NIL;
+    private int freeSlot;
+    private int size;
+    private long generation;
+    private long cleared;  // generation of the last Clear
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public IntLruCache(String name, int capacity) {
+        if(capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+
+        this.name = name;
+        this.capacity = capacity;
+
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buckets = new int[tableSize];
+        this.bucketInvalidated = new long[tableSize];
+        this.mask = tableSize - 1;
+        java.util.Arrays.fill(this.buckets, NIL);
+
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.chain = new int[capacity];
+        this.newer = new int[capacity];
+        this.older = new int[capacity];
+
+        // Free slots are linked through the chain array.
+        for(int i = 0; i < capacity; i++) this.chain[i] = (i + 1 < capacity) ? i + 1 : NIL;
+        this.freeSlot = 0;
+    }
+
+    private int bucketOf(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    private int find(int key) {
+        for(int slot = this.buckets[bucketOf(key)]; slot != NIL; slot = this.chain[slot]) {
+            if(this.keys[slot] == key) return slot;
+        }
+        return NIL;
+    }
+
+    private void unlinkRecency(int slot) {
+        if(this.newer[slot] != NIL) this.older[this.newer[slot]] = this.older[slot];
+        else this.newest = this.older[slot];
+
+        if(this.older[slot] != NIL) this.newer[this.older[slot]] = this.newer[slot];
+        else this.oldest = this.newer[slot];
+    }
+
+    private void linkNewest(int slot) {
+        this.newer[slot] = NIL;
+        this.older[slot] = this.newest;
+        if(this.newest != NIL) this.newer[this.newest] = slot;
+        this.newest = slot;
+        if(this.oldest == NIL) this.oldest = slot;
+    }
+
+    private void unlinkBucket(int slot) {
+        int bucket = bucketOf(this.keys[slot]);
+        int current = this.buckets[bucket];
+        if(current == slot) {
+            this.buckets[bucket] = this.chain[slot];
+            return;
+        }
+
+        while(current != NIL) {
+            if(this.chain[current] == slot) {
+                this.chain[current] = this.chain[slot];
+                return;
+            }
+            current = this.chain[current];
+        }
+    }
+
+    private void release(int slot) {
+        unlinkBucket(slot);
+        unlinkRecency(slot);
+        this.values[slot] = null;
+        this.chain[slot] = this.freeSlot;
+        this.freeSlot = slot;
+        this.size--;
+    }
+
+    /**
+     * Retrieves a cached value and marks it as most recently used.
+     *
+     * @param key The key to look up.
+     * @return The cached value, or null if absent.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V Get(int key) {
+        int slot = find(key);
+        if(slot == NIL) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        if(slot != this.newest) {
+            unlinkRecency(slot);
+            linkNewest(slot);
+        }
+        return (V) this.values[slot];
+    }
+
+    /**
+     * Retrieves a cached value without touching recency or hit/miss counters.
+     * Intended for hot UI paths such as table cell renderers.
+     *
+     * @param key The key to look up.
+     * @return The cached value, or null if absent.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V Peek(int key) {
+        int slot = find(key);
+        return slot == NIL ? null : (V) this.values[slot];
+    }
+
+    /**
+     * Stores a value, evicting the least recently used entry when full.
+     *
+     * @param key The key to store under.
+     * @param value The value to cache (null values are ignored).
+     */
+    public synchronized void Put(int key, V value) {
+        if(value == null) return;
+
+        int slot = find(key);
+        if(slot != NIL) {
+            this.values[slot] = value;
+            if(slot != this.newest) {
+                unlinkRecency(slot);
+                linkNewest(slot);
+            }
+            return;
+        }
+
+        if(this.freeSlot == NIL) {
+            release(this.oldest);
+            this.evictions++;
+        }
+
+        slot = this.freeSlot;
+        this.freeSlot = this.chain[slot];
+
+        int bucket = bucketOf(key);
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.chain[slot] = this.buckets[bucket];
+        this.buckets[bucket] = slot;
+        linkNewest(slot);
+        this.size++;
+    }
+
+    /**
+     * Stores a value only if the key was not invalidated since the given generation (a removal
+     * of another key in the same bucket, or a Clear, counts too). Prevents a slow read from
+     * re-caching a row that a concurrent write already invalidated.
+     *
+     * @param key The key to store under.
+     * @param value The value to cache.
+     * @param expectedGeneration The generation observed before the value was loaded.
+     * @return true if the value was stored, false if it was discarded as possibly stale.
+     */
+    public synchronized boolean Put(int key, V value, long expectedGeneration) {
+        if(this.cleared > expectedGeneration || this.bucketInvalidated[bucketOf(key)] > expectedGeneration) return false;
+        Put(key, value);
+        return true;
+    }
+
+    /**
+     * Returns the cached value or loads it with the given loader on a miss.
+     * The loader runs outside the cache lock so slow database reads do not block other callers.
+     *
+     * @param key The key to look up.
+     * @param loader Function that loads the value for a key (may return null).
+     * @return The cached or freshly loaded value, or null if the loader found nothing.
+     */
+    public V GetOrLoad(int key, IntFunction<V> loader) {
+        long observed;
+        synchronized(this) {
+            V cached = Get(key);
+            if(cached != null) return cached;
+            observed = this.generation;
+        }
+
+        V loaded = loader.apply(key);
+        if(loaded != null) Put(key, loaded, observed);
+        return loaded;
+    }
+
+    /**
+     * Removes a single entry.
+     *
+     * @param key The key to invalidate.
+     */
+    public synchronized void Remove(int key) {
+        this.generation++;
+        this.invalidations++;
+        this.bucketInvalidated[bucketOf(key)] = this.generation;
+
+        int slot = find(key);
+        if(slot != NIL) release(slot);
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void Clear() {
+        this.generation++;
+        this.invalidations++;
+        this.cleared = this.generation;
+
+        while(this.oldest != NIL) release(this.oldest);
+    }
+
+    public synchronized long Generation() { return this.generation; }
+    public synchronized int Size() { return this.size; }
+    public int Capacity() { return this.capacity; }
+    public String Name() { return this.name; }
+    public synchronized long Hits() { return this.hits; }
+    public synchronized long Misses() { return this.misses; }
+    public synchronized long Evictions() { return this.evictions; }
+    public synchronized long Invalidations() { return this.invalidations; }
+
+    /**
+     * Ratio of hits to lookups since creation.
+     *
+     * @return The hit rate between 0.0 and 1.0 (0.0 if nothing was looked up yet).
+     */
+    public synchronized double HitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s[size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, invalidations=%d]",
+            this.name, this.size, this.capacity, this.hits, this.misses, HitRate() * 100, this.evictions, this.invalidations);
+    }
+}
@@ -0,0 +1,68 @@
+package lib.Csv;
+
+/**
+ * Bloom filter over 64-bit key hashes.
+ *
+ * Answers "definitely absent" or "maybe present" from a bit array a fraction of the size of
+ * a {@link KeyIndex}, so lookups of keys that are mostly absent (new rows of a vendor file)
+ * touch a small, cache-friendly structure instead of the full index.
+ *
+ * @author dev-MichaelJohn
+ */
+final class BloomFilter {
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashes;
+
+    /**
+     * @param expected Number of keys that will be added.
+     * @param falsePositiveRate Wanted rate of "maybe present" answers for absent keys (0 to 1).
+     */
+    BloomFilter(long expected, double falsePositiveRate) {
+        if(expected < 0) throw new IllegalArgumentException("Expected size cannot be negative");
+        if(falsePositiveRate <= 0 || falsePositiveRate >= 1) throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+
+        long n = Math.max(1, expected);
+        double ln2 = Math.log(2);
+        long m = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6)];
+        this.bitCount = 64L * this.bits.length;
+        this.hashes = (int) Math.max(1, Math.min(16, Math.round((double) this.bitCount / n * ln2)));
+    }
+
+    /**
+     * @param hash A key hash from {@link KeyIndex#Hash(CharSequence)}.
+     */
+    void Add(long hash) {
+        long h2 = second(hash);
+        for(int i = 0; i < this.hashes; i++) {
+            long bit = Long.remainderUnsigned(hash + i * h2, this.bitCount);
+            this.bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param hash A key hash from {@link KeyIndex#Hash(CharSequence)}.
+     * @return false if the key was definitely never added.
+     */
+    boolean MightContain(long hash) {
+        long h2 = second(hash);
+        for(int i = 0; i < this.hashes; i++) {
+            long bit = Long.remainderUnsigned(hash + i * h2, this.bitCount);
+            if((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Memory used by the bit array, in bytes.
+     */
+    long Bytes() {
+        return 8L * this.bits.length;
+    }
+
+    // second hash for double hashing, derived from the upper bits and kept odd
+    private static long second(long hash) {
+        return (Long.rotateLeft(hash, 32) * 0x9e3779b97f4a7c15L) | 1;
+    }
+}
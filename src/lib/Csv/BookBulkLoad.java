@@ -0,0 +1,435 @@
+package lib.Csv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+
+import config.DatabaseConnection;
+import lib.Book.BookSchema;
+import lib.Book.Isbn;
+import lib.Book.SearchKey;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+
+/**
+ * Bulk-loads a book CSV file (title,author,isbn,year[,genres]) for large initial migrations.
+ *
+ * Instead of inserting rows, the file is normalized on the fly into tab-separated rows and
+ * streamed into a staging table with LOAD DATA LOCAL INFILE (through the driver's
+ * setLocalInfileInputStream, so no temporary file is written). Genres go into a second
+ * staging table the same way. The staged rows are then merged into books and book_genres
+ * with a fixed number of set-based statements, all in one transaction.
+ *
+ * Rows are classified like {@link BookCsvImport} does: an existing book with the same (normalized) ISBN
+ * (identical data is a duplicate, different data counts as imported), else an existing book
+ * with the same title/author/year (duplicate), else an earlier row of the file with the same
+ * ISBN or title/author/year, else a new book; rows that cannot become a new book are skipped.
+ * If the books schema cannot be upgraded (see {@link BookSchema}), existing books are matched
+ * on the stored ISBN as is and new books are written without the key columns.
+ *
+ * Requires local_infile to be enabled on the MySQL server.
+ *
+ * @author dev-MichaelJohn
+ */
+public class BookBulkLoad {
+    private static final int PIPE_BUFFER = 1 << 16;
+    private static final int SAMPLE_FAILURES = 20;
+    private static final List<String> TOUCHED_TABLES = Arrays.asList("books", "book_genres");
+
+    // outcome column of the staging table
+    private static final int IMPORTED = 0;
+    private static final int DUPLICATE = 1;
+    private static final int SKIPPED = 2;
+
+    private final Path source;
+    private Path errorReport;
+    private BookCsvImport.Progress onProgress;
+    private BooleanSupplier isCancelled;
+    private boolean isbnKeys;
+
+    private long failureCount;
+    private final List<String> sampleFailures = new ArrayList<>();
+    private BufferedWriter reportWriter;
+
+    /**
+     * @param source The CSV file to load.
+     */
+    public BookBulkLoad(Path source) {
+        if(source == null) throw new IllegalArgumentException("Source file cannot be null");
+
+        this.source = source;
+        this.errorReport = source.resolveSibling(source.getFileName() + ".errors.txt");
+    }
+
+    /**
+     * Sets where failures are written (defaults to "&lt;source&gt;.errors.txt").
+     *
+     * @param errorReport The report file.
+     * @return The current BookBulkLoad instance.
+     */
+    public BookBulkLoad ErrorReport(Path errorReport) {
+        if(errorReport == null) throw new IllegalArgumentException("Error report cannot be null");
+
+        this.errorReport = errorReport;
+        return this;
+    }
+
+    /**
+     * Sets a callback invoked while the file is streamed to the server.
+     *
+     * @param onProgress The progress callback (called on the loading thread).
+     * @return The current BookBulkLoad instance.
+     */
+    public BookBulkLoad OnProgress(BookCsvImport.Progress onProgress) {
+        this.onProgress = onProgress;
+        return this;
+    }
+
+    /**
+     * Sets a condition checked while streaming; when it returns true the load is rolled back.
+     *
+     * @param isCancelled The cancellation check.
+     * @return The current BookBulkLoad instance.
+     */
+    public BookBulkLoad CancelWhen(BooleanSupplier isCancelled) {
+        this.isCancelled = isCancelled;
+        return this;
+    }
+
+    /**
+     * Runs the bulk load.
+     *
+     * @return The import result (nothing is imported if it was cancelled).
+     * @throws IOException if the file cannot be read or the report cannot be written.
+     * @throws RuntimeException if a database statement fails.
+     */
+    public BookCsvImport.Result Run() throws IOException {
+        // matching prefers the isbn_key column, but can do without it
+        this.isbnKeys = BookSchema.TryUpgrade();
+        Files.deleteIfExists(this.errorReport);
+        ExecutorService producer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "csv-bulk-normalize");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try(Connection connection = DatabaseConnection.GetInstance().OpenConnection("allowLoadLocalInfile=true")) {
+            String stage = "book_import_stage_" + connectionId(connection);
+            String genreStage = stage + "_genres";
+            createStagingTables(connection, stage, genreStage);
+
+            try {
+                connection.setAutoCommit(false);
+                long[] counts = new long[3];
+                boolean cancelled = !load(connection, producer, stage, genreStage, counts);
+
+                if(cancelled) {
+                    connection.rollback();
+                    return result(0, 0, 0, true);
+                }
+
+                merge(connection, stage, genreStage, counts);
+                connection.commit();
+                return result(counts[IMPORTED], counts[SKIPPED], counts[DUPLICATE], false);
+            } catch(SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+                try(Statement statement = connection.createStatement()) {
+                    statement.execute("DROP TABLE IF EXISTS " + stage + ", " + genreStage);
+                }
+            }
+        } catch(SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to bulk load books: " + e.getMessage());
+        } finally {
+            producer.shutdownNow();
+            if(this.reportWriter != null) this.reportWriter.close();
+
+            // rows were written on a separate connection, so drop what the caches know about these tables
+            DatabaseConnection.GetInstance().GetQueryCache().InvalidateTables(TOUCHED_TABLES);
+            EntityCache.Genres().Clear();
+            ChangeLog.Record("books", 0, ChangeLog.INSERT);
+            ChangeLog.Record("book_genres", 0, ChangeLog.UPDATE);
+        }
+    }
+
+    // ===== staging =====
+
+    private static void createStagingTables(Connection connection, String stage, String genreStage) throws SQLException {
+        try(Statement statement = connection.createStatement()) {
+            // regular tables rather than TEMPORARY ones: MySQL cannot reference a temporary table twice in one statement
+            statement.execute("DROP TABLE IF EXISTS " + stage + ", " + genreStage);
+            statement.execute("CREATE TABLE " + stage + " ("
+                + "line_no BIGINT PRIMARY KEY, title VARCHAR(255) NOT NULL, author VARCHAR(255) NOT NULL, "
+                + "title_key VARCHAR(255) NOT NULL, author_key VARCHAR(255) NOT NULL, "
+                + "isbn VARCHAR(255) NOT NULL, isbn_key CHAR(13) NULL, match_key VARCHAR(255) NOT NULL, year_published INT NOT NULL, "
+                + "insertable TINYINT NOT NULL DEFAULT 0, book_id INT NULL, ref_line BIGINT NULL, outcome TINYINT NULL, "
+                + "KEY (isbn_key), KEY (match_key), KEY (title, author, year_published), KEY (book_id))");
+            statement.execute("CREATE TABLE " + genreStage + " (line_no BIGINT NOT NULL, genre VARCHAR(255) NOT NULL, KEY (line_no))");
+        }
+    }
+
+    // Streams the file into both staging tables. Returns false if cancelled.
+    private boolean load(Connection connection, ExecutorService producer, String stage, String genreStage, long[] counts) throws IOException, SQLException {
+        String books = "LOAD DATA LOCAL INFILE 'books.tsv' INTO TABLE " + stage
+            + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+            + " (line_no, title, author, title_key, author_key, isbn, isbn_key, match_key, year_published)";
+        if(!stream(connection, producer, books, false, counts)) return false;
+
+        String genres = "LOAD DATA LOCAL INFILE 'genres.tsv' INTO TABLE " + genreStage
+            + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+            + " (line_no, genre)";
+        return stream(connection, producer, genres, true, null);
+    }
+
+    private boolean stream(Connection connection, ExecutorService producer, String sql, boolean genres, long[] counts) throws IOException, SQLException {
+        PipedInputStream in = new PipedInputStream(PIPE_BUFFER);
+        PipedOutputStream out = new PipedOutputStream(in);
+        Future<Boolean> normalizing = producer.submit(() -> normalize(out, genres, counts));
+
+        try(Statement statement = connection.createStatement()) {
+            statement.unwrap(JdbcStatement.class).setLocalInfileInputStream(in);
+            statement.execute(sql);
+        } finally {
+            // unblocks the producer if the server stopped reading early
+            in.close();
+        }
+
+        try {
+            return normalizing.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException("Failed to bulk load books: " + cause.getMessage());
+        }
+    }
+
+    // Parses the CSV and writes staging rows as LOAD DATA text. Returns false if cancelled.
+    private boolean normalize(PipedOutputStream out, boolean genres, long[] counts) throws IOException {
+        long totalBytes = Files.size(this.source);
+        try(FileChannel channel = FileChannel.open(this.source, StandardOpenOption.READ);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), PIPE_BUFFER)) {
+            CsvReader reader = new CsvReader(channel, PIPE_BUFFER);
+            boolean lookForHeader = true;
+            long lineNo = 0;
+            StringBuilder record = new StringBuilder(256);
+
+            while(reader.Next()) {
+                if(reader.IsBlank()) continue;
+
+                String[] fields = reader.Fields();
+                if(lookForHeader) {
+                    lookForHeader = false;
+                    if(BookCsvRow.IsHeader(fields)) continue;
+                }
+
+                lineNo++;
+                BookCsvRow row = BookCsvRow.Parse(fields, reader.Line());
+                if(row.error != null) {
+                    // only report once, during the first pass
+                    if(!genres) {
+                        report(row.error);
+                        counts[SKIPPED]++;
+                    }
+                    continue;
+                }
+
+                if(genres) {
+                    for(String genre : row.genres) {
+                        record.setLength(0);
+                        record.append(lineNo).append('\t');
+                        escape(record, genre.length() > 255 ? genre.substring(0, 255) : genre);
+                        writer.append(record).append('\n');
+                    }
+                } else {
+                    record.setLength(0);
+                    record.append(lineNo).append('\t');
+                    escape(record, row.title);
+                    record.append('\t');
+                    escape(record, row.author);
+                    record.append('\t');
+                    escape(record, SearchKey.ForTitle(row.title));
+                    record.append('\t');
+                    escape(record, SearchKey.ForAuthor(row.author));
+                    record.append('\t');
+                    escape(record, row.isbn);
+                    record.append('\t');
+                    if(row.isbnKey == null) record.append("\\N");
+                    else record.append(row.isbnKey);
+                    record.append('\t');
+                    escape(record, row.MatchIsbn());
+                    record.append('\t').append(row.year);
+                    writer.append(record).append('\n');
+                }
+
+                if((lineNo & 0x3FF) == 0) {
+                    if(this.isCancelled != null && this.isCancelled.getAsBoolean()) return false;
+                    if(this.onProgress != null && !genres) this.onProgress.Update(lineNo, channel.position(), totalBytes);
+                }
+            }
+
+            if(this.onProgress != null && !genres) this.onProgress.Update(lineNo, totalBytes, totalBytes);
+            return true;
+        }
+    }
+
+    // LOAD DATA escaping with ESCAPED BY '\\'.
+    private static void escape(StringBuilder out, String value) {
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '\\': out.append("\\\\"); break;
+                case '\t': out.append("\\t"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\0': out.append("\\0"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    // ===== merging =====
+
+    private void merge(Connection connection, String stage, String genreStage, long[] counts) throws SQLException, IOException {
+        try(Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE " + stage + " SET insertable = (isbn <> '' AND (CHAR_LENGTH(isbn) <= 13 OR isbn_key IS NOT NULL) AND year_published > 0)");
+
+            // 1) existing book with the same ISBN (valid ISBNs through the normalized key): identical data is a duplicate, otherwise imported
+            if(this.isbnKeys) statement.executeUpdate("UPDATE " + stage + " s SET s.book_id = (SELECT b.id FROM books b WHERE b.isbn_key = s.isbn_key) WHERE s.isbn_key IS NOT NULL");
+            statement.executeUpdate("UPDATE " + stage + " s SET s.book_id = (SELECT MIN(b.id) FROM books b WHERE b.isbn = s.isbn) WHERE "
+                + (this.isbnKeys ? "s.isbn_key IS NULL AND " : "") + "s.isbn <> ''");
+            statement.executeUpdate("UPDATE " + stage + " s JOIN books b ON b.id = s.book_id"
+                + " SET s.outcome = IF(b.title = s.title AND b.author = s.author AND b.year_published = s.year_published, " + DUPLICATE + ", " + IMPORTED + ")");
+
+            // 2) existing book with the same title/author/year: duplicate
+            statement.executeUpdate("UPDATE " + stage + " s SET s.book_id = (SELECT MIN(b.id) FROM books b"
+                + " WHERE b.title = s.title AND b.author = s.author AND b.year_published = s.year_published) WHERE s.book_id IS NULL");
+            statement.executeUpdate("UPDATE " + stage + " SET outcome = " + DUPLICATE + " WHERE outcome IS NULL AND book_id IS NOT NULL");
+
+            // 3) earlier insertable row of the file with the same ISBN (GROUP BY keeps the derived table materialized)
+            statement.executeUpdate("UPDATE " + stage + " s JOIN (SELECT match_key, MIN(line_no) AS first_line FROM " + stage
+                + " WHERE book_id IS NULL AND insertable = 1 GROUP BY match_key) f ON f.match_key = s.match_key"
+                + " SET s.ref_line = f.first_line WHERE s.book_id IS NULL AND s.isbn <> '' AND s.line_no > f.first_line");
+            statement.executeUpdate("UPDATE " + stage + " s JOIN " + stage + " f ON f.line_no = s.ref_line"
+                + " SET s.outcome = IF(f.title = s.title AND f.author = s.author AND f.year_published = s.year_published, " + DUPLICATE + ", " + IMPORTED + ")");
+
+            // 4) earlier insertable row of the file with the same title/author/year: duplicate
+            statement.executeUpdate("UPDATE " + stage + " s JOIN (SELECT title, author, year_published, MIN(line_no) AS first_line FROM " + stage
+                + " WHERE book_id IS NULL AND ref_line IS NULL AND insertable = 1 GROUP BY title, author, year_published) f"
+                + " ON f.title = s.title AND f.author = s.author AND f.year_published = s.year_published"
+                + " SET s.ref_line = f.first_line, s.outcome = " + DUPLICATE
+                + " WHERE s.book_id IS NULL AND s.ref_line IS NULL AND s.line_no > f.first_line");
+
+            // 5) the rest is either a new book or cannot be imported
+            statement.executeUpdate("UPDATE " + stage + " SET outcome = IF(insertable = 1, " + IMPORTED + ", " + SKIPPED + ")"
+                + " WHERE book_id IS NULL AND ref_line IS NULL");
+        }
+
+        long firstNewId = nextBookId(connection);
+        try(Statement statement = connection.createStatement()) {
+            String columns = BookSchema.HasKeyColumns() ? "title, author, title_key, author_key, isbn, isbn_key, year_published" : "title, author, isbn, year_published";
+            statement.executeUpdate("INSERT INTO books (" + columns + ") SELECT " + columns + " FROM " + stage
+                + " WHERE book_id IS NULL AND ref_line IS NULL AND insertable = 1 ORDER BY line_no");
+        }
+
+        try(PreparedStatement statement = connection.prepareStatement("UPDATE " + stage + " s SET s.book_id ="
+            + " (SELECT MIN(b.id) FROM books b WHERE b.isbn = s.isbn AND b.id >= ?)"
+            + " WHERE s.book_id IS NULL AND s.ref_line IS NULL AND s.insertable = 1" + (this.isbnKeys ? " AND s.isbn_key IS NULL" : ""))) {
+            statement.setLong(1, firstNewId);
+            statement.executeUpdate();
+        }
+        if(this.isbnKeys) {
+            try(Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE " + stage + " s JOIN books b ON b.isbn_key = s.isbn_key SET s.book_id = b.id"
+                    + " WHERE s.book_id IS NULL AND s.ref_line IS NULL AND s.insertable = 1");
+            }
+        }
+
+        try(Statement statement = connection.createStatement()) {
+            // rows pointing at earlier rows take their book id (a reference can point at a row that is itself a reference)
+            while(statement.executeUpdate("UPDATE " + stage + " s JOIN " + stage + " f ON f.line_no = s.ref_line"
+                + " SET s.book_id = f.book_id WHERE s.book_id IS NULL AND f.book_id IS NOT NULL") > 0) { }
+
+            // genres: one row per book and genre (case-insensitive), skipping genres the book already has
+            statement.executeUpdate("INSERT INTO book_genres (book_id, genre)"
+                + " SELECT s.book_id, MIN(g.genre) FROM " + genreStage + " g JOIN " + stage + " s ON s.line_no = g.line_no"
+                + " WHERE s.book_id IS NOT NULL"
+                + " AND NOT EXISTS (SELECT 1 FROM book_genres e WHERE e.book_id = s.book_id AND e.genre = g.genre)"
+                + " GROUP BY s.book_id, g.genre");
+
+            try(ResultSet rs = statement.executeQuery("SELECT outcome, COUNT(*) FROM " + stage + " GROUP BY outcome")) {
+                while(rs.next()) {
+                    int outcome = rs.getInt(1);
+                    if(outcome >= IMPORTED && outcome <= SKIPPED) counts[outcome] += rs.getLong(2);
+                }
+            }
+
+            try(ResultSet rs = statement.executeQuery("SELECT title, isbn, year_published FROM " + stage
+                + " WHERE outcome = " + SKIPPED + " ORDER BY line_no")) {
+                while(rs.next()) {
+                    String isbn = rs.getString(2);
+                    boolean badIsbn = isbn.isEmpty() || !Isbn.IsAccepted(isbn);
+                    report((badIsbn ? "Invalid ISBN for: " : "Invalid year for: ") + rs.getString(1));
+                }
+            }
+        }
+    }
+
+    private static long nextBookId(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM books")) {
+            return rs.next() ? rs.getLong(1) : 1;
+        }
+    }
+
+    private static long connectionId(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT CONNECTION_ID()")) {
+            return rs.next() ? rs.getLong(1) : System.nanoTime();
+        }
+    }
+
+    // ===== helpers =====
+
+    private synchronized void report(String failure) throws IOException {
+        if(this.reportWriter == null) this.reportWriter = Files.newBufferedWriter(this.errorReport, StandardCharsets.UTF_8);
+        this.reportWriter.write(failure);
+        this.reportWriter.newLine();
+        this.failureCount++;
+        if(this.sampleFailures.size() < SAMPLE_FAILURES) this.sampleFailures.add(failure);
+    }
+
+    private synchronized BookCsvImport.Result result(long imported, long skipped, long duplicates, boolean cancelled) {
+        return new BookCsvImport.Result(imported, skipped, duplicates, this.failureCount, this.sampleFailures,
+            this.failureCount > 0 ? this.errorReport : null, cancelled);
+    }
+}
@@ -0,0 +1,302 @@
+package lib.Csv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import config.DatabaseConnection;
+import lib.Book.BookSchema;
+import lib.Book.Isbn;
+
+/**
+ * Dry run of a book CSV import: reports what {@link BookCsvImport} would do with a file
+ * without writing anything to the database.
+ *
+ * The keys of the existing catalog (ISBN, and title/author/year for books found without an
+ * ISBN match) are streamed from the database once into compact hash indexes
+ * ({@link KeyIndex}), each optionally fronted by a {@link BloomFilter}. The file is then
+ * streamed and every row is classified against those indexes plus the keys of earlier new
+ * rows of the same file, following the importer's rules:
+ * - new: the row would create a book,
+ * - identical: the book is already in the catalog (or earlier in the file) with the same data,
+ * - conflicting: a book with the same ISBN exists but title, author or year differ,
+ * - invalid: the row cannot be parsed or cannot become a new book.
+ *
+ * Memory is bounded by the number of distinct keys (about 16 bytes per index slot), not by
+ * the size of the rows. Conflicting and invalid rows are streamed to a report file.
+ *
+ * @author dev-MichaelJohn
+ */
+public class BookCsvDiff {
+    private static final int READ_BUFFER = 1 << 16;
+    private static final int SAMPLES = 20;
+    private static final double BLOOM_FALSE_POSITIVES = 0.01;
+
+    /**
+     * Outcome of a dry run.
+     */
+    public static final class Result {
+        private final long newRows;
+        private final long identical;
+        private final long conflicting;
+        private final long invalid;
+        private final List<String> samples;
+        private final Path report;
+        private final long indexBytes;
+        private final boolean cancelled;
+
+        private Result(long newRows, long identical, long conflicting, long invalid, List<String> samples, Path report, long indexBytes, boolean cancelled) {
+            this.newRows = newRows;
+            this.identical = identical;
+            this.conflicting = conflicting;
+            this.invalid = invalid;
+            this.samples = Collections.unmodifiableList(samples);
+            this.report = report;
+            this.indexBytes = indexBytes;
+            this.cancelled = cancelled;
+        }
+
+        /** @return Rows that would create a book. */
+        public long NewRows() { return this.newRows; }
+        /** @return Rows whose book is already present with the same data. */
+        public long Identical() { return this.identical; }
+        /** @return Rows matching an existing book by ISBN but with different data. */
+        public long Conflicting() { return this.conflicting; }
+        /** @return Rows that would be skipped. */
+        public long Invalid() { return this.invalid; }
+        /** @return The first few conflicting or invalid rows, for display. */
+        public List<String> Samples() { return this.samples; }
+        /** @return The report file, or null if there were no conflicting or invalid rows. */
+        public Path Report() { return this.report; }
+        /** @return Memory used by the key indexes and filters, in bytes. */
+        public long IndexBytes() { return this.indexBytes; }
+        /** @return true if the dry run was stopped before the end of the file. */
+        public boolean Cancelled() { return this.cancelled; }
+    }
+
+    private final Path source;
+    private Path report;
+    private boolean useBloomFilter = true;
+    private BookCsvImport.Progress onProgress;
+    private BooleanSupplier isCancelled;
+
+    // existing catalog: ISBN hash -> fields key hash, and the set of fields key hashes
+    private KeyIndex catalogIsbns;
+    private KeyIndex catalogFields;
+    private BloomFilter isbnFilter;
+    private BloomFilter fieldsFilter;
+
+    // new rows seen earlier in the file
+    private KeyIndex fileIsbns;
+    private KeyIndex fileFields;
+
+    private final List<String> samples = new ArrayList<>();
+    private BufferedWriter reportWriter;
+
+    /**
+     * @param source The CSV file to check.
+     */
+    public BookCsvDiff(Path source) {
+        if(source == null) throw new IllegalArgumentException("Source file cannot be null");
+
+        this.source = source;
+        this.report = source.resolveSibling(source.getFileName() + ".diff.txt");
+    }
+
+    /**
+     * Sets where conflicting and invalid rows are written (defaults to "&lt;source&gt;.diff.txt").
+     *
+     * @param report The report file.
+     * @return The current BookCsvDiff instance.
+     */
+    public BookCsvDiff Report(Path report) {
+        if(report == null) throw new IllegalArgumentException("Report cannot be null");
+
+        this.report = report;
+        return this;
+    }
+
+    /**
+     * Sets whether lookups go through a Bloom filter first (default true). Worth it when most
+     * rows are new; costs about 1.2 bytes per catalog key.
+     *
+     * @param useBloomFilter true to use the filters.
+     * @return The current BookCsvDiff instance.
+     */
+    public BookCsvDiff BloomFilter(boolean useBloomFilter) {
+        this.useBloomFilter = useBloomFilter;
+        return this;
+    }
+
+    /**
+     * Sets a callback invoked while the file is checked.
+     *
+     * @param onProgress The progress callback (called on the checking thread).
+     * @return The current BookCsvDiff instance.
+     */
+    public BookCsvDiff OnProgress(BookCsvImport.Progress onProgress) {
+        this.onProgress = onProgress;
+        return this;
+    }
+
+    /**
+     * Sets a condition checked while running; when it returns true the dry run stops.
+     *
+     * @param isCancelled The cancellation check.
+     * @return The current BookCsvDiff instance.
+     */
+    public BookCsvDiff CancelWhen(BooleanSupplier isCancelled) {
+        this.isCancelled = isCancelled;
+        return this;
+    }
+
+    /**
+     * Runs the dry run. Nothing is written to the database.
+     *
+     * @return The classification of the file's rows.
+     * @throws IOException if the file cannot be read or the report cannot be written.
+     * @throws RuntimeException if the catalog cannot be read.
+     */
+    public Result Run() throws IOException {
+        // without the isbn_key column the catalog ISBNs are normalized here instead
+        boolean isbnKeys = BookSchema.TryUpgrade();
+        Files.deleteIfExists(this.report);
+        try {
+            loadCatalog(isbnKeys);
+            return checkFile();
+        } finally {
+            if(this.reportWriter != null) this.reportWriter.close();
+        }
+    }
+
+    private void loadCatalog(boolean isbnKeys) {
+        DatabaseConnection db = DatabaseConnection.GetInstance();
+        List<Map<String, Object>> count = db.ExecuteQuery(false, "SELECT COUNT(*) AS total FROM books");
+        long books = count.isEmpty() ? 0 : ((Number) count.get(0).get("total")).longValue();
+
+        this.catalogIsbns = new KeyIndex(books);
+        this.catalogFields = new KeyIndex(books);
+        this.fileIsbns = new KeyIndex(1024);
+        this.fileFields = new KeyIndex(1024);
+        if(this.useBloomFilter) {
+            this.isbnFilter = new BloomFilter(books, BLOOM_FALSE_POSITIVES);
+            this.fieldsFilter = new BloomFilter(books, BLOOM_FALSE_POSITIVES);
+        }
+
+        // ordered by id so the first book per key wins, as in the importer
+        db.StreamQuery("SELECT title, author, isbn, " + (isbnKeys ? "isbn_key" : "NULL AS isbn_key") + ", year_published FROM books ORDER BY id", row -> {
+            // same matching value as BookCsvRow.MatchIsbn(): the normalized key if there is one
+            String key = isbnKeys ? row.getString("isbn_key") : Isbn.Normalize(row.getString("isbn"));
+            String isbn = key != null ? key : nullToEmpty(row.getString("isbn"));
+            long fields = KeyIndex.Hash(BookCsvRow.FieldsKey(nullToEmpty(row.getString("title")),
+                nullToEmpty(row.getString("author")), nullToEmpty(row.getString("year_published"))));
+
+            if(!isbn.isEmpty()) {
+                long hash = KeyIndex.Hash(isbn);
+                this.catalogIsbns.PutIfAbsent(hash, fields);
+                if(this.isbnFilter != null) this.isbnFilter.Add(hash);
+            }
+            this.catalogFields.PutIfAbsent(fields, 1);
+            if(this.fieldsFilter != null) this.fieldsFilter.Add(fields);
+            return this.isCancelled == null || !this.isCancelled.getAsBoolean();
+        });
+    }
+
+    private Result checkFile() throws IOException {
+        long newRows = 0, identical = 0, conflicting = 0, invalid = 0;
+        long rows = 0;
+        long totalBytes = Files.size(this.source);
+        boolean cancelled = this.isCancelled != null && this.isCancelled.getAsBoolean();
+
+        try(FileChannel channel = FileChannel.open(this.source, StandardOpenOption.READ)) {
+            CsvReader reader = new CsvReader(channel, READ_BUFFER);
+            boolean lookForHeader = true;
+
+            while(!cancelled && reader.Next()) {
+                if(reader.IsBlank()) continue;
+
+                String[] fields = reader.Fields();
+                if(lookForHeader) {
+                    lookForHeader = false;
+                    if(BookCsvRow.IsHeader(fields)) continue;
+                }
+
+                rows++;
+                BookCsvRow row = BookCsvRow.Parse(fields, reader.Line());
+                if(row.error != null) {
+                    invalid++;
+                    report("INVALID record " + reader.Records() + ": " + row.error);
+                } else {
+                    switch(classify(row)) {
+                        case NEW: newRows++; break;
+                        case IDENTICAL: identical++; break;
+                        case CONFLICTING:
+                            conflicting++;
+                            report("CONFLICT record " + reader.Records() + ": ISBN " + row.isbn + " exists with a different title/author/year: " + row.line);
+                            break;
+                        default:
+                            invalid++;
+                            report("INVALID record " + reader.Records() + ": " + row.InsertError());
+                    }
+                }
+
+                if((rows & 0xFFF) == 0) {
+                    if(this.isCancelled != null && this.isCancelled.getAsBoolean()) cancelled = true;
+                    if(this.onProgress != null) this.onProgress.Update(rows, channel.position(), totalBytes);
+                }
+            }
+            if(this.onProgress != null && !cancelled) this.onProgress.Update(rows, totalBytes, totalBytes);
+        }
+
+        long indexBytes = this.catalogIsbns.Bytes() + this.catalogFields.Bytes() + this.fileIsbns.Bytes() + this.fileFields.Bytes()
+            + (this.isbnFilter != null ? this.isbnFilter.Bytes() + this.fieldsFilter.Bytes() : 0);
+        return new Result(newRows, identical, conflicting, invalid, this.samples,
+            conflicting + invalid > 0 ? this.report : null, indexBytes, cancelled);
+    }
+
+    private enum Kind { NEW, IDENTICAL, CONFLICTING, INVALID }
+
+    // Same decision order as BookCsvImport: ISBN first, then title/author/year, then new.
+    private Kind classify(BookCsvRow row) {
+        long fields = KeyIndex.Hash(row.FieldsKey());
+        long isbn = 0;
+
+        if(!row.isbn.isEmpty()) {
+            isbn = KeyIndex.Hash(row.MatchIsbn());
+            // fields key hashes are never 0 in practice, so 0 means "absent"
+            long existing = (this.isbnFilter == null || this.isbnFilter.MightContain(isbn)) ? this.catalogIsbns.Get(isbn, 0) : 0;
+            if(existing == 0) existing = this.fileIsbns.Get(isbn, 0);
+            if(existing != 0) return existing == fields ? Kind.IDENTICAL : Kind.CONFLICTING;
+        }
+
+        boolean known = ((this.fieldsFilter == null || this.fieldsFilter.MightContain(fields)) && this.catalogFields.Contains(fields))
+            || this.fileFields.Contains(fields);
+        if(known) return Kind.IDENTICAL;
+
+        if(!row.Insertable()) return Kind.INVALID;
+
+        this.fileIsbns.PutIfAbsent(isbn, fields);
+        this.fileFields.PutIfAbsent(fields, 1);
+        return Kind.NEW;
+    }
+
+    private void report(String line) throws IOException {
+        if(this.reportWriter == null) this.reportWriter = Files.newBufferedWriter(this.report, StandardCharsets.UTF_8);
+        this.reportWriter.write(line);
+        this.reportWriter.newLine();
+        if(this.samples.size() < SAMPLES) this.samples.add(line);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,662 @@
+package lib.Csv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import config.DatabaseConnection;
+import lib.Book.BookSchema;
+import lib.Book.Isbn;
+import lib.Book.SearchKey;
+import lib.Cache.ChangeLog;
+import lib.Cache.EntityCache;
+
+/**
+ * Imports books (and their genres) from a CSV file with columns title,author,isbn,year[,genres].
+ *
+ * The file goes through three stages:
+ * - a reader thread memory-maps it and cuts it into record-aligned chunks ({@link CsvChunks}),
+ * - a pool of parser threads parses ({@link CsvReader}) and validates chunks in parallel,
+ * - a single writer applies the rows in file order, one transaction per batch.
+ * Parsed chunks wait in a bounded queue, so a slow database holds the reader back instead
+ * of filling memory.
+ *
+ * Per batch the writer needs a handful of statements: one ISBN lookup, one title/author/year
+ * lookup, multi-row inserts for new books, one lookup of existing genres and multi-row
+ * inserts for new genres. If a batch fails, it is rolled back and retried row by row so one
+ * bad row does not sink the whole batch.
+ *
+ * Failures are streamed to a report file instead of being kept in memory.
+ *
+ * If the books schema cannot be upgraded (see {@link BookSchema}), ISBNs are matched on
+ * the stored ISBN as is and new books are written without the key columns.
+ *
+ * @author dev-MichaelJohn
+ */
+public class BookCsvImport {
+    private static final int INSERT_SLICE = 500;
+    private static final int SAMPLE_FAILURES = 20;
+    private static final List<String> TOUCHED_TABLES = Arrays.asList("books", "book_genres");
+
+    /**
+     * Receives progress updates from the writer thread.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * @param rowsProcessed Number of data rows applied so far.
+         * @param bytesProcessed Approximate number of bytes of the file those rows covered.
+         * @param totalBytes Size of the file.
+         */
+        void Update(long rowsProcessed, long bytesProcessed, long totalBytes);
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        private final long imported;
+        private final long skipped;
+        private final long duplicates;
+        private final long failures;
+        private final List<String> sampleFailures;
+        private final Path errorReport;
+        private final boolean cancelled;
+
+        Result(long imported, long skipped, long duplicates, long failures, List<String> sampleFailures, Path errorReport, boolean cancelled) {
+            this.imported = imported;
+            this.skipped = skipped;
+            this.duplicates = duplicates;
+            this.failures = failures;
+            this.sampleFailures = Collections.unmodifiableList(sampleFailures);
+            this.errorReport = errorReport;
+            this.cancelled = cancelled;
+        }
+
+        /** @return Rows that created a book or were merged into a book found by ISBN. */
+        public long Imported() { return this.imported; }
+        /** @return Rows that could not be imported. */
+        public long Skipped() { return this.skipped; }
+        /** @return Rows whose data was already present. */
+        public long Duplicates() { return this.duplicates; }
+        /** @return Number of failure messages written to the error report. */
+        public long Failures() { return this.failures; }
+        /** @return The first few failure messages, for display. */
+        public List<String> SampleFailures() { return this.sampleFailures; }
+        /** @return The error report file, or null if nothing failed. */
+        public Path ErrorReport() { return this.errorReport; }
+        /** @return true if the import was stopped before the end of the file. */
+        public boolean Cancelled() { return this.cancelled; }
+    }
+
+    // A book referenced by one or more rows of a batch; id is 0 until a new book is inserted.
+    private static final class BookRef {
+        int id;
+        final boolean existing;
+        final String title;
+        final String author;
+        final String isbn;
+        final String year;
+        final Map<String, String> genres = new LinkedHashMap<>();
+
+        BookRef(int id, boolean existing, String title, String author, String isbn, String year) {
+            this.id = id;
+            this.existing = existing;
+            this.title = title;
+            this.author = author;
+            this.isbn = isbn;
+            this.year = year;
+        }
+
+        boolean sameData(BookCsvRow row) {
+            return this.title.trim().equalsIgnoreCase(row.title)
+                && this.author.trim().equalsIgnoreCase(row.author)
+                && this.year.trim().equals(String.valueOf(row.year));
+        }
+    }
+
+    // Counters and messages of one batch; only added to the totals once the batch committed.
+    private static final class Outcome {
+        long imported;
+        long skipped;
+        long duplicates;
+        final List<String> failures = new ArrayList<>();
+
+        void fail(String message) {
+            this.skipped++;
+            this.failures.add(message);
+        }
+    }
+
+    // The parsed records of one record-aligned region of the file.
+    private static final class Chunk {
+        final List<BookCsvRow> rows;
+        final long bytes;
+
+        Chunk(List<BookCsvRow> rows, long bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Chunk END = new Chunk(Collections.emptyList(), 0);
+
+    private final Path source;
+    private long chunkBytes = 4L * 1024 * 1024;
+    private int batchSize = 1000;
+    private int parserThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private Path errorReport;
+    private Progress onProgress;
+    private BooleanSupplier isCancelled;
+
+    private volatile boolean stop;
+    private boolean isbnKeys;
+    private long imported;
+    private long skipped;
+    private long duplicates;
+    private long failureCount;
+    private final List<String> sampleFailures = new ArrayList<>();
+    private BufferedWriter reportWriter;
+
+    /**
+     * @param source The CSV file to import.
+     */
+    public BookCsvImport(Path source) {
+        if(source == null) throw new IllegalArgumentException("Source file cannot be null");
+
+        this.source = source;
+        this.errorReport = source.resolveSibling(source.getFileName() + ".errors.txt");
+    }
+
+    /**
+     * Sets the approximate number of bytes of the file parsed as one unit by a parser thread.
+     *
+     * @param chunkBytes The chunk size in bytes.
+     * @return The current BookCsvImport instance.
+     */
+    public BookCsvImport ChunkBytes(long chunkBytes) {
+        if(chunkBytes <= 0) throw new IllegalArgumentException("Chunk size must be greater than 0");
+
+        this.chunkBytes = chunkBytes;
+        return this;
+    }
+
+    /**
+     * Sets the number of rows written per transaction.
+     *
+     * @param batchSize The batch size.
+     * @return The current BookCsvImport instance.
+     */
+    public BookCsvImport BatchSize(int batchSize) {
+        if(batchSize <= 0) throw new IllegalArgumentException("Batch size must be greater than 0");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads parsing chunks in parallel.
+     *
+     * @param parserThreads The number of parser threads.
+     * @return The current BookCsvImport instance.
+     */
+    public BookCsvImport ParserThreads(int parserThreads) {
+        if(parserThreads <= 0) throw new IllegalArgumentException("Parser threads must be greater than 0");
+
+        this.parserThreads = parserThreads;
+        return this;
+    }
+
+    /**
+     * Sets where failures are written (defaults to "&lt;source&gt;.errors.txt").
+     *
+     * @param errorReport The report file.
+     * @return The current BookCsvImport instance.
+     */
+    public BookCsvImport ErrorReport(Path errorReport) {
+        if(errorReport == null) throw new IllegalArgumentException("Error report cannot be null");
+
+        this.errorReport = errorReport;
+        return this;
+    }
+
+    /**
+     * Sets a callback invoked after every committed batch.
+     *
+     * @param onProgress The progress callback (called on the importing thread).
+     * @return The current BookCsvImport instance.
+     */
+    public BookCsvImport OnProgress(Progress onProgress) {
+        this.onProgress = onProgress;
+        return this;
+    }
+
+    /**
+     * Sets a condition checked between batches; when it returns true the import stops.
+     * Batches committed before that stay imported.
+     *
+     * @param isCancelled The cancellation check.
+     * @return The current BookCsvImport instance.
+     */
+    public BookCsvImport CancelWhen(BooleanSupplier isCancelled) {
+        this.isCancelled = isCancelled;
+        return this;
+    }
+
+    /**
+     * Runs the import on the calling thread (plus the reader and parser threads).
+     *
+     * @return The import result.
+     * @throws IOException if the file cannot be read or the report cannot be written.
+     * @throws RuntimeException if the database cannot be reached.
+     */
+    public Result Run() throws IOException {
+        // matching prefers the isbn_key column, but can do without it
+        this.isbnKeys = BookSchema.TryUpgrade();
+        long totalBytes = Files.size(this.source);
+        Files.deleteIfExists(this.errorReport);
+
+        ExecutorService parsers = Executors.newFixedThreadPool(this.parserThreads, daemon("csv-parse"));
+        ExecutorService reader = Executors.newSingleThreadExecutor(daemon("csv-read"));
+        BlockingQueue<Future<Chunk>> queue = new ArrayBlockingQueue<>(this.parserThreads * 2);
+        boolean cancelled = false;
+
+        try(Connection connection = DatabaseConnection.GetInstance().OpenConnection()) {
+            connection.setAutoCommit(false);
+            Future<?> reading = reader.submit(() -> { read(parsers, queue); return null; });
+
+            long rowsDone = 0;
+            long bytesDone = 0;
+            reading:
+            while(true) {
+                Chunk chunk = await(queue.take());
+                if(chunk == END) break;
+
+                List<BookCsvRow> rows = chunk.rows;
+                for(int from = 0; from < rows.size(); from += this.batchSize) {
+                    if(this.isCancelled != null && this.isCancelled.getAsBoolean()) {
+                        cancelled = true;
+                        break reading;
+                    }
+
+                    int to = Math.min(rows.size(), from + this.batchSize);
+                    write(connection, rows.subList(from, to));
+                    rowsDone += to - from;
+                    // bytes are only known per chunk, spread them over its batches
+                    long chunkDone = rows.isEmpty() ? chunk.bytes : chunk.bytes * to / rows.size();
+                    if(this.onProgress != null) this.onProgress.Update(rowsDone, bytesDone + chunkDone, totalBytes);
+                }
+                bytesDone += chunk.bytes;
+            }
+
+            this.stop = true;
+            await(reading);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } catch(SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to import books: " + e.getMessage());
+        } finally {
+            this.stop = true;
+            queue.clear();
+            reader.shutdownNow();
+            parsers.shutdownNow();
+            if(this.reportWriter != null) this.reportWriter.close();
+
+            // rows were written on a separate connection, so drop what the caches know about these tables
+            DatabaseConnection.GetInstance().GetQueryCache().InvalidateTables(TOUCHED_TABLES);
+            EntityCache.Genres().Clear();
+            ChangeLog.Record("books", 0, ChangeLog.INSERT);
+            ChangeLog.Record("book_genres", 0, ChangeLog.UPDATE);
+        }
+
+        return new Result(this.imported, this.skipped, this.duplicates, this.failureCount, this.sampleFailures,
+            this.failureCount > 0 ? this.errorReport : null, cancelled);
+    }
+
+    // ===== Stage 1: splitting =====
+
+    private void read(ExecutorService parsers, BlockingQueue<Future<Chunk>> queue) throws IOException, InterruptedException {
+        try(FileChannel channel = FileChannel.open(this.source, StandardOpenOption.READ)) {
+            long[] boundaries = CsvChunks.Split(channel, this.chunkBytes, parsers);
+            for(int i = 0; i + 1 < boundaries.length && !this.stop; i++) {
+                // a mapping stays valid after the channel is closed, so map here and parse on the pool
+                ByteBuffer region = CsvChunks.Map(channel, boundaries[i], boundaries[i + 1]);
+                boolean first = i == 0;
+                offer(queue, parsers.submit(() -> parse(region, first)));
+            }
+            offer(queue, CompletableFuture.completedFuture(END));
+        } catch(IOException | RuntimeException e) {
+            offer(queue, CompletableFuture.failedFuture(e));
+            throw e;
+        }
+    }
+
+    // Blocks while the queue is full: this is what keeps the reader from running ahead of the writer.
+    private void offer(BlockingQueue<Future<Chunk>> queue, Future<Chunk> chunk) throws InterruptedException {
+        while(!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            if(this.stop) return;
+        }
+    }
+
+    // ===== Stage 2: parsing and validation =====
+
+    private static Chunk parse(ByteBuffer region, boolean firstChunk) throws IOException {
+        long bytes = region.remaining();
+        CsvReader reader = new CsvReader(region, firstChunk);
+        List<BookCsvRow> rows = new ArrayList<>();
+        boolean lookForHeader = firstChunk;
+
+        while(reader.Next()) {
+            if(reader.IsBlank()) continue;
+
+            String[] fields = reader.Fields();
+            // the first non-empty record is a header if it names one of the columns
+            if(lookForHeader) {
+                lookForHeader = false;
+                if(BookCsvRow.IsHeader(fields)) continue;
+            }
+
+            rows.add(BookCsvRow.Parse(fields, reader.Line()));
+        }
+        return new Chunk(rows, bytes);
+    }
+
+    // ===== Stage 3: writing =====
+
+    private void write(Connection connection, List<BookCsvRow> rows) throws IOException, SQLException {
+        if(rows.isEmpty()) return;
+
+        Outcome outcome;
+        try {
+            outcome = apply(connection, rows);
+            connection.commit();
+        } catch(SQLException e) {
+            connection.rollback();
+            if(rows.size() == 1) {
+                outcome = new Outcome();
+                outcome.fail("Error inserting: " + rows.get(0).title + " -> " + e.getMessage());
+            } else {
+                // isolate the offending row(s): retry each row in its own transaction
+                for(BookCsvRow row : rows) write(connection, Collections.singletonList(row));
+                return;
+            }
+        }
+
+        this.imported += outcome.imported;
+        this.skipped += outcome.skipped;
+        this.duplicates += outcome.duplicates;
+        for(String failure : outcome.failures) report(failure);
+        DatabaseConnection.GetInstance().GetQueryCache().InvalidateTables(TOUCHED_TABLES);
+    }
+
+    private Outcome apply(Connection connection, List<BookCsvRow> rows) throws SQLException {
+        Outcome outcome = new Outcome();
+
+        List<BookCsvRow> valid = new ArrayList<>(rows.size());
+        for(BookCsvRow row : rows) {
+            if(row.error != null) outcome.fail(row.error);
+            else valid.add(row);
+        }
+        if(valid.isEmpty()) return outcome;
+
+        Map<String, BookRef> byIsbn = findByIsbn(connection, valid, this.isbnKeys);
+        Map<String, BookRef> byFields = findByFields(connection, valid, byIsbn);
+
+        Map<String, BookRef> pendingByIsbn = new HashMap<>();
+        Map<String, BookRef> pendingByFields = new HashMap<>();
+        List<BookRef> toInsert = new ArrayList<>();
+        Set<BookRef> withGenres = new LinkedHashSet<>();
+
+        for(BookCsvRow row : valid) {
+            String fieldsKey = row.FieldsKey();
+            BookRef ref = null;
+            boolean exact = false;
+
+            if(!row.isbn.isEmpty()) {
+                ref = byIsbn.get(row.MatchIsbn());
+                if(ref == null) ref = pendingByIsbn.get(row.MatchIsbn());
+                // found by ISBN but data differs: counted as imported, genres still merged into it
+                if(ref != null) exact = ref.sameData(row);
+            }
+            if(ref == null) {
+                ref = byFields.get(fieldsKey);
+                if(ref == null) ref = pendingByFields.get(fieldsKey);
+                exact = ref != null;
+            }
+            if(ref == null) {
+                if(!row.Insertable()) { outcome.fail(row.InsertError()); continue; }
+
+                ref = new BookRef(0, false, row.title, row.author, row.isbn, String.valueOf(row.year));
+                toInsert.add(ref);
+                pendingByIsbn.put(row.MatchIsbn(), ref);
+                pendingByFields.put(fieldsKey, ref);
+            }
+
+            if(exact) outcome.duplicates++;
+            else outcome.imported++;
+
+            for(String genre : row.genres) ref.genres.putIfAbsent(genre.toLowerCase(Locale.ROOT), genre);
+            if(!row.genres.isEmpty()) withGenres.add(ref);
+        }
+
+        insertBooks(connection, toInsert, BookSchema.HasKeyColumns());
+        insertGenres(connection, new ArrayList<>(withGenres));
+        return outcome;
+    }
+
+    // Keyed by BookCsvRow.MatchIsbn(): valid ISBNs are probed on the unique isbn_key index, others on the raw column
+    // (all of them without the key column).
+    private static Map<String, BookRef> findByIsbn(Connection connection, List<BookCsvRow> rows, boolean useKeys) throws SQLException {
+        Set<String> keys = new LinkedHashSet<>();
+        Map<String, String> raw = new LinkedHashMap<>();
+        for(BookCsvRow row : rows) {
+            if(row.isbnKey != null && useKeys) keys.add(row.isbnKey);
+            else if(!row.isbn.isEmpty()) raw.putIfAbsent(row.isbn, row.MatchIsbn());
+        }
+
+        Map<String, BookRef> found = new HashMap<>();
+        if(keys.isEmpty() && raw.isEmpty()) return found;
+
+        List<String> conditions = new ArrayList<>(2);
+        if(!keys.isEmpty()) conditions.add("isbn_key IN (" + placeholders(keys.size(), "?") + ")");
+        if(!raw.isEmpty()) conditions.add("isbn IN (" + placeholders(raw.size(), "?") + ")");
+        String sql = "SELECT id, title, author, isbn, " + (useKeys ? "isbn_key" : "NULL AS isbn_key") + ", year_published FROM books WHERE "
+            + String.join(" OR ", conditions) + " ORDER BY id";
+        try(PreparedStatement statement = connection.prepareStatement(sql)) {
+            int i = 1;
+            for(String key : keys) statement.setString(i++, key);
+            for(String isbn : raw.keySet()) statement.setString(i++, isbn);
+            try(ResultSet rs = statement.executeQuery()) {
+                while(rs.next()) {
+                    String key = rs.getString("isbn_key");
+                    String isbn = rs.getString("isbn");
+                    if(key != null && keys.contains(key)) found.putIfAbsent(key, existing(rs));
+                    if(isbn != null && raw.containsKey(isbn)) found.putIfAbsent(raw.get(isbn), existing(rs));
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Map<String, BookRef> findByFields(Connection connection, List<BookCsvRow> rows, Map<String, BookRef> byIsbn) throws SQLException {
+        Map<String, BookCsvRow> keys = new LinkedHashMap<>();
+        for(BookCsvRow row : rows) {
+            if(!row.isbn.isEmpty() && byIsbn.containsKey(row.MatchIsbn())) continue;
+            keys.putIfAbsent(row.FieldsKey(), row);
+        }
+
+        Map<String, BookRef> found = new HashMap<>();
+        if(keys.isEmpty()) return found;
+
+        String sql = "SELECT id, title, author, isbn, year_published FROM books WHERE (title, author, year_published) IN ("
+            + placeholders(keys.size(), "(?, ?, ?)") + ") ORDER BY id";
+        try(PreparedStatement statement = connection.prepareStatement(sql)) {
+            int i = 1;
+            for(BookCsvRow row : keys.values()) {
+                statement.setString(i++, row.title);
+                statement.setString(i++, row.author);
+                statement.setInt(i++, row.year);
+            }
+            try(ResultSet rs = statement.executeQuery()) {
+                while(rs.next()) {
+                    BookRef ref = existing(rs);
+                    found.putIfAbsent(BookCsvRow.FieldsKey(ref.title, ref.author, ref.year), ref);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static BookRef existing(ResultSet rs) throws SQLException {
+        return new BookRef(rs.getInt("id"), true, nullToEmpty(rs.getString("title")), nullToEmpty(rs.getString("author")),
+            nullToEmpty(rs.getString("isbn")), nullToEmpty(rs.getString("year_published")));
+    }
+
+    private static void insertBooks(Connection connection, List<BookRef> books, boolean withKeys) throws SQLException {
+        for(int from = 0; from < books.size(); from += INSERT_SLICE) {
+            List<BookRef> slice = books.subList(from, Math.min(books.size(), from + INSERT_SLICE));
+            String sql = withKeys
+                ? "INSERT INTO books (title, author, isbn, year_published, isbn_key, title_key, author_key) VALUES "
+                    + placeholders(slice.size(), "(?, ?, ?, ?, ?, ?, ?)")
+                : "INSERT INTO books (title, author, isbn, year_published) VALUES " + placeholders(slice.size(), "(?, ?, ?, ?)");
+
+            try(PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                int i = 1;
+                for(BookRef book : slice) {
+                    statement.setString(i++, book.title);
+                    statement.setString(i++, book.author);
+                    statement.setString(i++, book.isbn);
+                    statement.setInt(i++, Integer.parseInt(book.year));
+                    if(!withKeys) continue;
+                    statement.setString(i++, Isbn.Normalize(book.isbn));
+                    statement.setString(i++, SearchKey.ForTitle(book.title));
+                    statement.setString(i++, SearchKey.ForAuthor(book.author));
+                }
+                statement.executeUpdate();
+
+                try(ResultSet keys = statement.getGeneratedKeys()) {
+                    for(BookRef book : slice) {
+                        if(!keys.next()) throw new SQLException("Missing generated key for: " + book.title);
+                        book.id = keys.getInt(1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void insertGenres(Connection connection, List<BookRef> books) throws SQLException {
+        if(books.isEmpty()) return;
+
+        // existing books may already have some of the genres
+        List<BookRef> existingBooks = new ArrayList<>();
+        for(BookRef book : books) if(book.existing) existingBooks.add(book);
+        if(!existingBooks.isEmpty()) {
+            Map<Integer, BookRef> byId = new HashMap<>();
+            for(BookRef book : existingBooks) byId.put(book.id, book);
+
+            String sql = "SELECT book_id, genre FROM book_genres WHERE book_id IN (" + placeholders(byId.size(), "?") + ")";
+            try(PreparedStatement statement = connection.prepareStatement(sql)) {
+                int i = 1;
+                for(int id : byId.keySet()) statement.setInt(i++, id);
+                try(ResultSet rs = statement.executeQuery()) {
+                    while(rs.next()) {
+                        BookRef book = byId.get(rs.getInt("book_id"));
+                        String genre = rs.getString("genre");
+                        if(book != null && genre != null) book.genres.remove(genre.trim().toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+
+        List<Object[]> pairs = new ArrayList<>();
+        for(BookRef book : books) {
+            for(String genre : book.genres.values()) pairs.add(new Object[] { book.id, genre });
+        }
+
+        for(int from = 0; from < pairs.size(); from += INSERT_SLICE) {
+            List<Object[]> slice = pairs.subList(from, Math.min(pairs.size(), from + INSERT_SLICE));
+            String sql = "INSERT INTO book_genres (book_id, genre) VALUES " + placeholders(slice.size(), "(?, ?)");
+            try(PreparedStatement statement = connection.prepareStatement(sql)) {
+                int i = 1;
+                for(Object[] pair : slice) {
+                    statement.setInt(i++, (Integer) pair[0]);
+                    statement.setString(i++, (String) pair[1]);
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    // ===== helpers =====
+
+    private void report(String failure) throws IOException {
+        if(this.reportWriter == null) this.reportWriter = Files.newBufferedWriter(this.errorReport, StandardCharsets.UTF_8);
+        this.reportWriter.write(failure);
+        this.reportWriter.newLine();
+        this.failureCount++;
+        if(this.sampleFailures.size() < SAMPLE_FAILURES) this.sampleFailures.add(failure);
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException, IOException {
+        try {
+            return future.get();
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException("Failed to import books: " + cause.getMessage());
+        }
+    }
+
+    private static String placeholders(int count, String group) {
+        StringBuilder sb = new StringBuilder(count * (group.length() + 2));
+        for(int i = 0; i < count; i++) {
+            if(i > 0) sb.append(", ");
+            sb.append(group);
+        }
+        return sb.toString();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
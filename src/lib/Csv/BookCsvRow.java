@@ -0,0 +1,111 @@
+package lib.Csv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import lib.Book.Isbn;
+
+/**
+ * One data record of a book CSV file (title,author,isbn,year[,genres]) after validation.
+ * Shared by the importers so they accept, reject and report rows the same way.
+ *
+ * @author dev-MichaelJohn
+ */
+final class BookCsvRow {
+    final String line;
+    String title;
+    String author;
+    String isbn;
+    String isbnKey;
+    int year;
+    List<String> genres = Collections.emptyList();
+    String error;
+
+    private BookCsvRow(String line) {
+        this.line = line;
+    }
+
+    /**
+     * @param fields The fields of the first non-empty record of a file.
+     * @return true if the record is a header naming one of the columns.
+     */
+    static boolean IsHeader(String[] fields) {
+        String low = String.join("|", fields).toLowerCase(Locale.ROOT);
+        return low.contains("title") || low.contains("author") || low.contains("isbn");
+    }
+
+    /**
+     * Parses and validates a record. Invalid records come back with {@link #error} set.
+     *
+     * @param fields The fields of the record.
+     * @param line The record text, used in error messages.
+     * @return The parsed row.
+     */
+    static BookCsvRow Parse(String[] fields, String line) {
+        BookCsvRow row = new BookCsvRow(line);
+        if(fields.length < 4) { row.error = "Too few columns: " + line; return row; }
+
+        row.title = fields[0].trim();
+        row.author = fields[1].trim();
+        row.isbn = fields[2].trim();
+        row.isbnKey = Isbn.Normalize(row.isbn);
+
+        try { row.year = Integer.parseInt(fields[3].trim()); }
+        catch(NumberFormatException ex) { row.error = "Invalid year for: " + row.title; return row; }
+
+        if(row.title.isEmpty() || row.title.length() > 255) { row.error = "Invalid title: " + line; return row; }
+        if(row.author.isEmpty() || row.author.length() > 255) { row.error = "Invalid author for: " + row.title; return row; }
+        if(row.isbn.length() > 255) { row.error = "Invalid ISBN for: " + row.title; return row; }
+
+        if(fields.length >= 5 && !fields[4].trim().isEmpty()) {
+            List<String> genres = new ArrayList<>();
+            for(String genre : fields[4].split("[;,]")) {
+                String trimmed = genre.trim();
+                if(!trimmed.isEmpty()) genres.add(trimmed);
+            }
+            row.genres = genres;
+        }
+        return row;
+    }
+
+    /**
+     * @return true if the row has everything a new book needs (ISBN of at most 13 characters or a valid hyphenated one, positive year).
+     */
+    boolean Insertable() {
+        return !this.isbn.isEmpty() && Isbn.IsAccepted(this.isbn) && this.year > 0;
+    }
+
+    /**
+     * @return Why the row cannot be inserted as a new book (only meaningful if {@link #Insertable()} is false).
+     */
+    String InsertError() {
+        if(this.isbn.isEmpty() || !Isbn.IsAccepted(this.isbn)) return "Invalid ISBN for: " + this.title;
+        return "Invalid year for: " + this.title;
+    }
+
+    /**
+     * @return The value ISBN matches are made on: the normalized ISBN-13 if the ISBN is valid, else the ISBN as written.
+     */
+    String MatchIsbn() {
+        return this.isbnKey != null ? this.isbnKey : this.isbn;
+    }
+
+    /**
+     * @return The case-insensitive title/author/year key used to detect duplicates.
+     */
+    String FieldsKey() {
+        return FieldsKey(this.title, this.author, String.valueOf(this.year));
+    }
+
+    /**
+     * @param title Title as stored (trimmed here).
+     * @param author Author as stored (trimmed here).
+     * @param year Year as stored (trimmed here).
+     * @return The same key as {@link #FieldsKey()} for a book read from the database.
+     */
+    static String FieldsKey(String title, String author, String year) {
+        return title.trim().toLowerCase(Locale.ROOT) + '\u0000' + author.trim().toLowerCase(Locale.ROOT) + '\u0000' + year.trim();
+    }
+}
@@ -0,0 +1,135 @@
+package lib.Csv;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a CSV file into record-aligned chunks that can be parsed independently.
+ *
+ * The file is cut into segments of roughly equal size and the double quotes of every segment
+ * are counted in parallel over memory-mapped regions. A prefix sum of those counts gives the
+ * quote parity at each segment start, and each cut is then moved forward to the first line
+ * feed preceded by an even number of quotes. Such a line feed always ends a record for
+ * {@link CsvReader}, so parsing the chunks separately and concatenating the results gives
+ * exactly the records of a sequential parse.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class CsvChunks {
+    private static final int SCAN_WINDOW = 1 << 20;
+    // single mappings are limited to Integer.MAX_VALUE bytes
+    private static final long MAX_CHUNK = Integer.MAX_VALUE;
+
+    private CsvChunks() {}
+
+    /**
+     * Computes the chunk boundaries of a file.
+     *
+     * @param channel The file to split.
+     * @param chunkBytes The approximate size of a chunk.
+     * @param pool Executor used to scan segments in parallel.
+     * @return Ascending offsets starting with 0 and ending with the file size; chunk i spans [b[i], b[i + 1]).
+     * @throws IOException if the file cannot be read.
+     */
+    public static long[] Split(FileChannel channel, long chunkBytes, ExecutorService pool) throws IOException {
+        if(chunkBytes <= 0) throw new IllegalArgumentException("Chunk size must be greater than 0");
+
+        long size = channel.size();
+        chunkBytes = Math.min(chunkBytes, MAX_CHUNK / 2);
+        int segments = (int) Math.max(1, (size + chunkBytes - 1) / chunkBytes);
+        if(segments == 1) return new long[] { 0, size };
+
+        // 1) count quotes per segment in parallel
+        List<Future<Long>> counts = new ArrayList<>(segments);
+        for(int i = 0; i < segments; i++) {
+            long start = i * chunkBytes;
+            long end = Math.min(size, start + chunkBytes);
+            counts.add(pool.submit(() -> countQuotes(channel, start, end)));
+        }
+
+        // 2) prefix parity: is the start of segment i inside quotes?
+        boolean[] oddAtStart = new boolean[segments];
+        long quotes = 0;
+        for(int i = 0; i < segments; i++) {
+            oddAtStart[i] = (quotes & 1) == 1;
+            quotes += await(counts.get(i));
+        }
+
+        // 3) move every cut to the next record boundary, in parallel
+        List<Future<Long>> cuts = new ArrayList<>(segments - 1);
+        for(int i = 1; i < segments; i++) {
+            long start = i * chunkBytes;
+            boolean odd = oddAtStart[i];
+            cuts.add(pool.submit(() -> nextRecordStart(channel, start, odd, size)));
+        }
+
+        List<Long> boundaries = new ArrayList<>(segments + 1);
+        boundaries.add(0L);
+        for(Future<Long> cut : cuts) {
+            long boundary = await(cut);
+            // a record longer than a segment swallows the following cut(s)
+            if(boundary > boundaries.get(boundaries.size() - 1) && boundary < size) boundaries.add(boundary);
+        }
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+        for(int i = 0; i < result.length; i++) result[i] = boundaries.get(i);
+        return result;
+    }
+
+    /**
+     * Maps a chunk of the file read-only.
+     *
+     * @param channel The file.
+     * @param start The chunk start offset.
+     * @param end The chunk end offset (exclusive).
+     * @return The mapped region.
+     * @throws IOException if the region cannot be mapped.
+     */
+    public static MappedByteBuffer Map(FileChannel channel, long start, long end) throws IOException {
+        if(end - start > MAX_CHUNK) throw new IllegalArgumentException("Chunk too large to map: " + (end - start) + " bytes");
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    private static long countQuotes(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer region = Map(channel, start, end);
+        long quotes = 0;
+        while(region.hasRemaining()) {
+            if(region.get() == '"') quotes++;
+        }
+        return quotes;
+    }
+
+    private static long nextRecordStart(FileChannel channel, long from, boolean odd, long size) throws IOException {
+        long position = from;
+        while(position < size) {
+            long end = Math.min(size, position + SCAN_WINDOW);
+            MappedByteBuffer window = Map(channel, position, end);
+            while(window.hasRemaining()) {
+                byte b = window.get();
+                if(b == '"') odd = !odd;
+                else if(b == '\n' && !odd) return position + window.position();
+            }
+            position = end;
+        }
+        return size;
+    }
+
+    private static long await(Future<Long> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while splitting file", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Failed to split file: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
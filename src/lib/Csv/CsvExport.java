@@ -0,0 +1,138 @@
+package lib.Csv;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+import config.DatabaseConnection;
+
+/**
+ * Streams the result of a query straight into a CSV file.
+ *
+ * Rows are read from a streaming database cursor and written through a {@link CsvWriter}
+ * one at a time, so exports run in constant memory regardless of the number of rows.
+ * Meant to be run off the UI thread; progress is reported through a callback and the
+ * export can be cancelled between rows.
+ *
+ * @author dev-MichaelJohn
+ */
+public class CsvExport {
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private final String statement;
+    private final Object[] args;
+    private String[] headers;
+    private boolean gzip;
+    private LongConsumer onProgress;
+    private BooleanSupplier isCancelled;
+
+    /**
+     * @param statement The SELECT statement whose columns become the CSV columns, in order.
+     * @param args The parameters for the SQL statement.
+     */
+    public CsvExport(String statement, Object... args) {
+        if(statement == null || statement.trim().isEmpty()) throw new IllegalArgumentException("Statement cannot be null or empty");
+
+        this.statement = statement;
+        this.args = args;
+    }
+
+    /**
+     * Sets the header row written before the data.
+     *
+     * @param headers The column names.
+     * @return The current CsvExport instance.
+     */
+    public CsvExport Headers(String... headers) {
+        this.headers = headers;
+        return this;
+    }
+
+    /**
+     * Enables or disables gzip compression of the output file.
+     *
+     * @param gzip true to gzip-compress the output.
+     * @return The current CsvExport instance.
+     */
+    public CsvExport Gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Sets a callback receiving the number of rows written so far, every
+     * {@value #PROGRESS_INTERVAL} rows and once at the end.
+     *
+     * @param onProgress The progress callback (called on the exporting thread).
+     * @return The current CsvExport instance.
+     */
+    public CsvExport OnProgress(LongConsumer onProgress) {
+        this.onProgress = onProgress;
+        return this;
+    }
+
+    /**
+     * Sets a condition checked between rows; when it returns true the export stops
+     * and the partially written file is deleted.
+     *
+     * @param isCancelled The cancellation check.
+     * @return The current CsvExport instance.
+     */
+    public CsvExport CancelWhen(BooleanSupplier isCancelled) {
+        this.isCancelled = isCancelled;
+        return this;
+    }
+
+    /**
+     * Runs the export.
+     *
+     * @param target The file to write.
+     * @return The number of data rows written.
+     * @throws IOException if the file cannot be written.
+     * @throws CancellationException if the export was cancelled.
+     */
+    public long WriteTo(Path target) throws IOException {
+        boolean completed = false;
+        boolean[] cancelled = new boolean[1];
+        int[] columns = new int[1];
+
+        try(CsvWriter writer = new CsvWriter(target, this.gzip)) {
+            if(this.headers != null) writer.Row((Object[]) this.headers);
+
+            try {
+                DatabaseConnection.GetInstance().StreamQuery(this.statement, (ResultSet row) -> {
+                    if(this.isCancelled != null && this.isCancelled.getAsBoolean()) {
+                        cancelled[0] = true;
+                        return false;
+                    }
+
+                    if(columns[0] == 0) columns[0] = row.getMetaData().getColumnCount();
+                    for(int i = 1; i <= columns[0]; i++) writer.Field(row.getString(i));
+                    writer.EndRow();
+
+                    long written = dataRows(writer);
+                    if(this.onProgress != null && written % PROGRESS_INTERVAL == 0) this.onProgress.accept(written);
+                    return true;
+                }, this.args);
+            } catch(RuntimeException e) {
+                if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+
+            if(cancelled[0]) throw new CancellationException("Export cancelled");
+            if(this.onProgress != null) this.onProgress.accept(dataRows(writer));
+            completed = true;
+            return dataRows(writer);
+        } finally {
+            if(!completed) Files.deleteIfExists(target);
+        }
+    }
+
+    private long dataRows(CsvWriter writer) {
+        return this.headers != null ? writer.Rows() - 1 : writer.Rows();
+    }
+}
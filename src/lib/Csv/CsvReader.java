@@ -0,0 +1,211 @@
+package lib.Csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming RFC 4180 CSV reader working directly on UTF-8 bytes.
+ *
+ * A small state machine walks the input once: commas end fields, line breaks (LF, CRLF or
+ * a lone CR) end records, double quotes switch quoting on and off and a doubled quote inside
+ * a quoted field yields a literal quote. Quoted fields may contain commas and line breaks.
+ * Field bytes are collected in one reusable buffer and the field array is reused between
+ * records, so the only allocation per field is the resulting String.
+ *
+ * Quotes switch quoting wherever they appear (not only at the start of a field). For valid
+ * RFC 4180 input that is exactly the standard; for sloppy input it means a line break ends a
+ * record if and only if an even number of quotes precedes it in the file, which is what lets
+ * {@link CsvChunks} split a file at record boundaries without parsing it.
+ *
+ * A UTF-8 byte order mark at the start of a file is skipped.
+ *
+ * @author dev-MichaelJohn
+ */
+public class CsvReader {
+    private static final int EOF = -1;
+
+    private final ByteBuffer buffer;
+    private final ReadableByteChannel channel;
+
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    private String[] fields = new String[8];
+    private int fieldCount;
+    private long records;
+    private boolean started;
+
+    /**
+     * Reads from an in-memory or memory-mapped region (from its position to its limit).
+     *
+     * @param region The bytes to parse.
+     * @param fileStart true if the region starts at the beginning of the file (a byte order mark is skipped).
+     */
+    public CsvReader(ByteBuffer region, boolean fileStart) {
+        if(region == null) throw new IllegalArgumentException("Region cannot be null");
+
+        this.buffer = region;
+        this.channel = null;
+        this.started = !fileStart;
+    }
+
+    /**
+     * Reads from a channel (positioned at the beginning of the file) through a reusable buffer.
+     *
+     * @param channel The channel to read from.
+     * @param bufferSize The size of the read buffer in bytes.
+     */
+    public CsvReader(ReadableByteChannel channel, int bufferSize) {
+        if(channel == null) throw new IllegalArgumentException("Channel cannot be null");
+        if(bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be greater than 0");
+
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+        this.channel = channel;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if a record was read, false at the end of the input.
+     * @throws IOException if reading from the channel fails.
+     */
+    public boolean Next() throws IOException {
+        if(!this.started) {
+            this.started = true;
+            skipByteOrderMark();
+        }
+
+        this.fieldCount = 0;
+        this.fieldLength = 0;
+
+        int b = read();
+        if(b == EOF) return false;
+
+        boolean quoted = false;
+        boolean justClosed = false;
+        while(true) {
+            if(quoted) {
+                if(b == EOF) break;
+                if(b == '"') {
+                    quoted = false;
+                    justClosed = true;
+                } else {
+                    append(b);
+                }
+            } else {
+                if(b == EOF) break;
+                if(b == '"') {
+                    // a quote right after a closing quote is an escaped quote
+                    if(justClosed) append('"');
+                    quoted = true;
+                } else if(b == ',') {
+                    endField();
+                } else if(b == '\n') {
+                    break;
+                } else if(b == '\r') {
+                    if(peek() == '\n') read();
+                    break;
+                } else {
+                    append(b);
+                }
+                justClosed = false;
+            }
+            b = read();
+        }
+
+        endField();
+        this.records++;
+        return true;
+    }
+
+    /**
+     * @return The number of fields in the current record.
+     */
+    public int Size() {
+        return this.fieldCount;
+    }
+
+    /**
+     * @param index The zero-based field index.
+     * @return The field value.
+     */
+    public String Get(int index) {
+        if(index < 0 || index >= this.fieldCount) throw new IndexOutOfBoundsException("Field " + index + " of " + this.fieldCount);
+        return this.fields[index];
+    }
+
+    /**
+     * @return A copy of the fields of the current record.
+     */
+    public String[] Fields() {
+        return Arrays.copyOf(this.fields, this.fieldCount);
+    }
+
+    /**
+     * @return true if the current record is an empty or whitespace-only line.
+     */
+    public boolean IsBlank() {
+        return this.fieldCount == 1 && this.fields[0].trim().isEmpty();
+    }
+
+    /**
+     * @return The number of records read so far.
+     */
+    public long Records() {
+        return this.records;
+    }
+
+    /**
+     * @return The current record joined back with commas, for messages.
+     */
+    public String Line() {
+        return String.join(",", Fields());
+    }
+
+    private void endField() {
+        if(this.fieldCount == this.fields.length) this.fields = Arrays.copyOf(this.fields, this.fields.length * 2);
+        this.fields[this.fieldCount++] = new String(this.field, 0, this.fieldLength, StandardCharsets.UTF_8);
+        this.fieldLength = 0;
+    }
+
+    private void append(int b) {
+        if(this.fieldLength == this.field.length) this.field = Arrays.copyOf(this.field, this.field.length * 2);
+        this.field[this.fieldLength++] = (byte) b;
+    }
+
+    private int read() throws IOException {
+        if(!this.buffer.hasRemaining() && !fill()) return EOF;
+        return this.buffer.get() & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if(!this.buffer.hasRemaining() && !fill()) return EOF;
+        return this.buffer.get(this.buffer.position()) & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if(this.channel == null) return false;
+
+        this.buffer.clear();
+        int n;
+        do {
+            n = this.channel.read(this.buffer);
+        } while(n == 0);
+        this.buffer.flip();
+        return n > 0;
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        if(peek() != 0xEF) return;
+        // only skip when the full mark is available in the buffer
+        int position = this.buffer.position();
+        if(this.buffer.remaining() >= 3
+            && (this.buffer.get(position + 1) & 0xFF) == 0xBB
+            && (this.buffer.get(position + 2) & 0xFF) == 0xBF) {
+            this.buffer.position(position + 3);
+        }
+    }
+}
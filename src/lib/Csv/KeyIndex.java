@@ -0,0 +1,136 @@
+package lib.Csv;
+
+/**
+ * Compact hash index from 64-bit key hashes to 64-bit values.
+ *
+ * Keys are stored as hashes ({@link #Hash(CharSequence)}) in two primitive arrays with open
+ * addressing and linear probing, so an entry costs 16 bytes per slot and no objects at all.
+ * Two different keys with the same 64-bit hash are treated as the same key; with a
+ * well-mixed hash that is practically never the case for catalog-sized inputs.
+ *
+ * @author dev-MichaelJohn
+ */
+final class KeyIndex {
+    private static final long EMPTY = 0;
+    private static final double MAX_LOAD = 0.7;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * @param expected Number of keys expected (the index grows beyond it if needed).
+     */
+    KeyIndex(long expected) {
+        if(expected < 0) throw new IllegalArgumentException("Expected size cannot be negative");
+
+        long wanted = Math.max(16, (long) (expected / MAX_LOAD) + 1);
+        if(wanted > (1 << 30)) throw new IllegalArgumentException("Too many keys for one index: " + expected);
+        allocate(Integer.highestOneBit((int) wanted - 1) << 1);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, followed by a final avalanche step.
+     *
+     * @param value The key text.
+     * @return The key hash.
+     */
+    static long Hash(CharSequence value) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @param key The key hash.
+     * @return true if the key is present.
+     */
+    boolean Contains(long key) {
+        return this.keys[slot(stored(key))] != EMPTY;
+    }
+
+    /**
+     * @param key The key hash.
+     * @param missing Value returned if the key is absent.
+     * @return The value stored for the key.
+     */
+    long Get(long key, long missing) {
+        int slot = slot(stored(key));
+        return this.keys[slot] == EMPTY ? missing : this.values[slot];
+    }
+
+    /**
+     * Stores a value unless the key is already present (the first value wins).
+     *
+     * @param key The key hash.
+     * @param value The value.
+     * @return true if the key was added.
+     */
+    boolean PutIfAbsent(long key, long value) {
+        long stored = stored(key);
+        int slot = slot(stored);
+        if(this.keys[slot] != EMPTY) return false;
+
+        this.keys[slot] = stored;
+        this.values[slot] = value;
+        if(++this.size > this.resizeAt) grow();
+        return true;
+    }
+
+    /**
+     * @return Number of keys in the index.
+     */
+    int Size() {
+        return this.size;
+    }
+
+    /**
+     * @return Memory used by the slot arrays, in bytes.
+     */
+    long Bytes() {
+        return 16L * this.keys.length;
+    }
+
+    // 0 marks an empty slot, so a key hashing to 0 is stored as 1
+    private static long stored(long key) {
+        return key == EMPTY ? 1 : key;
+    }
+
+    // The slot holding the key, or the empty slot where it would go.
+    private int slot(long stored) {
+        int slot = (int) (stored ^ (stored >>> 32)) & this.mask;
+        while(this.keys[slot] != EMPTY && this.keys[slot] != stored) slot = (slot + 1) & this.mask;
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * MAX_LOAD);
+    }
+
+    private void grow() {
+        if(this.keys.length >= (1 << 30)) throw new IllegalStateException("Key index is full");
+
+        long[] oldKeys = this.keys;
+        long[] oldValues = this.values;
+        allocate(oldKeys.length << 1);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] == EMPTY) continue;
+            int slot = slot(oldKeys[i]);
+            this.keys[slot] = oldKeys[i];
+            this.values[slot] = oldValues[i];
+        }
+    }
+}
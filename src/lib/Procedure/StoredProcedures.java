@@ -0,0 +1,221 @@
+package lib.Procedure;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import config.CircuitBreaker;
+import config.DatabaseConnection;
+
+/**
+ * Optional server-side versions of the multi-step operations, so each one costs a single
+ * round trip instead of one per statement (worth it on a high-latency link to the database):
+ * - lib_delete_book: deletes a book together with its genres and loans,
+ * - lib_add_book: inserts a book and attaches its genres, returning the new ID,
+ * - lib_set_genres: replaces the genres of a book,
+ * - lib_return_loan: closes an open loan and makes its book available again.
+ *
+ * Each procedure runs in its own transaction. The mode is off by default and turned on with
+ * the library.procedures=true system property; the procedures are then installed (or
+ * replaced when their version changed) on first use. If they cannot be installed, e.g. the
+ * user lacks the CREATE ROUTINE privilege or the server does not support them,
+ * {@link #IsAvailable()} returns false for the rest of the run and the builders keep using
+ * their plain SQL implementation. Other failures (the database is unreachable, a lock wait
+ * timed out) only skip the procedures until the installation is tried again a little later.
+ *
+ * Genre lists are passed as a single newline-separated string.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class StoredProcedures {
+    /** Bumped whenever a procedure body changes, so installed copies get replaced. */
+    private static final String VERSION = "library-procedures v1";
+    private static final boolean ENABLED = Boolean.getBoolean("library.procedures");
+
+    // SQL fragment: attach every genre of p_genres to v_book that it does not have yet
+    private static final String ATTACH_GENRES =
+        "  WHILE p_genres IS NOT NULL AND p_genres <> '' DO\n" +
+        "    SET v_genre = TRIM(SUBSTRING_INDEX(p_genres, '\\n', 1));\n" +
+        "    SET p_genres = IF(LOCATE('\\n', p_genres) > 0, SUBSTRING(p_genres, LOCATE('\\n', p_genres) + 1), '');\n" +
+        "    IF v_genre <> '' AND NOT EXISTS (SELECT 1 FROM book_genres WHERE book_id = v_book AND genre = v_genre) THEN\n" +
+        "      INSERT INTO book_genres (book_id, genre) VALUES (v_book, v_genre);\n" +
+        "    END IF;\n" +
+        "  END WHILE;\n";
+
+    private static final String[][] PROCEDURES = {
+        { "lib_delete_book",
+            "CREATE PROCEDURE lib_delete_book(IN p_book_id INT) COMMENT '" + VERSION + "'\n" +
+            "BEGIN\n" +
+            "  DECLARE v_deleted INT DEFAULT 0;\n" +
+            "  DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END;\n" +
+            "  START TRANSACTION;\n" +
+            "  DELETE FROM book_genres WHERE book_id = p_book_id;\n" +
+            "  DELETE FROM book_loans WHERE book_id = p_book_id;\n" +
+            "  DELETE FROM books WHERE id = p_book_id;\n" +
+            "  SET v_deleted = ROW_COUNT();\n" +
+            "  COMMIT;\n" +
+            "  SELECT v_deleted AS deleted;\n" +
+            "END" },
+        { "lib_add_book",
+            "CREATE PROCEDURE lib_add_book(IN p_title VARCHAR(255), IN p_title_key VARCHAR(255), IN p_author VARCHAR(255),\n" +
+            "    IN p_author_key VARCHAR(255), IN p_isbn VARCHAR(32), IN p_isbn_key CHAR(13), IN p_year INT, IN p_genres TEXT)\n" +
+            "    COMMENT '" + VERSION + "'\n" +
+            "BEGIN\n" +
+            "  DECLARE v_book INT;\n" +
+            "  DECLARE v_genre VARCHAR(255);\n" +
+            "  DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END;\n" +
+            "  START TRANSACTION;\n" +
+            "  INSERT INTO books (title, author, isbn, year_published, isbn_key, title_key, author_key)\n" +
+            "    VALUES (p_title, p_author, p_isbn, p_year, p_isbn_key, p_title_key, p_author_key);\n" +
+            "  SET v_book = LAST_INSERT_ID();\n" +
+            ATTACH_GENRES +
+            "  COMMIT;\n" +
+            "  SELECT v_book AS id;\n" +
+            "END" },
+        { "lib_set_genres",
+            "CREATE PROCEDURE lib_set_genres(IN p_book_id INT, IN p_genres TEXT) COMMENT '" + VERSION + "'\n" +
+            "BEGIN\n" +
+            "  DECLARE v_book INT DEFAULT p_book_id;\n" +
+            "  DECLARE v_genre VARCHAR(255);\n" +
+            "  DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END;\n" +
+            "  START TRANSACTION;\n" +
+            "  DELETE FROM book_genres WHERE book_id = v_book\n" +
+            "    AND LOCATE(CONCAT('\\n', genre, '\\n'), CONCAT('\\n', IFNULL(p_genres, ''), '\\n')) = 0;\n" +
+            ATTACH_GENRES +
+            "  COMMIT;\n" +
+            "  SELECT 1 AS done;\n" +
+            "END" },
+        { "lib_return_loan",
+            "CREATE PROCEDURE lib_return_loan(IN p_loan_id INT, IN p_returned_at DATETIME) COMMENT '" + VERSION + "'\n" +
+            "BEGIN\n" +
+            "  DECLARE v_book INT DEFAULT NULL;\n" +
+            "  DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END;\n" +
+            "  START TRANSACTION;\n" +
+            "  SELECT book_id INTO v_book FROM book_loans WHERE id = p_loan_id AND returned_at IS NULL;\n" +
+            "  IF v_book IS NOT NULL THEN\n" +
+            // book row before loan row, the same lock order as a checkout
+            "    UPDATE books SET is_available = 1 WHERE id = v_book;\n" +
+            "    UPDATE book_loans SET returned_at = p_returned_at WHERE id = p_loan_id AND returned_at IS NULL;\n" +
+            "    IF ROW_COUNT() = 0 THEN SET v_book = NULL; END IF;\n" +
+            "  END IF;\n" +
+            "  IF v_book IS NULL THEN ROLLBACK; ELSE COMMIT; END IF;\n" +
+            "  SELECT v_book AS book_id;\n" +
+            "END" },
+    };
+
+    private static final long RETRY_MILLIS = 30000;
+
+    private static Boolean installed;
+    private static long retryAt;  // after a failure that may pass, when to try installing again
+
+    private StoredProcedures() {}
+
+    /**
+     * @return true if the procedure mode is on and the procedures are installed (installing them on first call).
+     *         Always false for work routed to another branch: the procedures are only installed on the home database.
+     */
+    public static boolean IsAvailable() {
+        if(!ENABLED || DatabaseConnection.GetInstance().RoutedBranch() != null) return false;
+        return Install();
+    }
+
+    /**
+     * Installs any missing or outdated procedures (once per run of the application).
+     *
+     * @return true if all procedures are installed, false if they could not be (the plain SQL paths are used then).
+     */
+    public static synchronized boolean Install() {
+        if(installed != null) return installed;
+        if(System.currentTimeMillis() < retryAt) return false;
+        DatabaseConnection database = DatabaseConnection.GetInstance();
+        if(database.GetCircuitBreaker().GetState() != CircuitBreaker.State.CLOSED) return false;
+
+        try(Connection connection = database.OpenConnection()) {
+            for(String[] procedure : PROCEDURES) {
+                if(isCurrent(connection, procedure[0])) continue;
+                try(Statement statement = connection.createStatement()) {
+                    statement.execute("DROP PROCEDURE IF EXISTS " + procedure[0]);
+                    statement.execute(procedure[1]);
+                }
+            }
+            installed = true;
+        } catch(SQLException | RuntimeException e) {
+            if(!isPermanent(e)) {
+                System.err.println("Stored procedures not installed yet, using plain SQL for now: " + e.getMessage());
+                retryAt = System.currentTimeMillis() + RETRY_MILLIS;
+                return false;
+            }
+            System.err.println("Stored procedures unavailable, using plain SQL: " + e.getMessage());
+            installed = false;
+        }
+        return installed;
+    }
+
+    // A missing privilege or a server without procedures: trying again cannot help.
+    private static boolean isPermanent(Exception error) {
+        if(CircuitBreaker.IsOutage(error) || !(error instanceof SQLException)) return false;
+        if(error instanceof java.sql.SQLFeatureNotSupportedException) return true;
+        SQLException e = (SQLException) error;
+        // 42xxx: syntax error or access rule violation (e.g. 1044/1142/1370: command or routine denied)
+        if(e.getSQLState() != null && e.getSQLState().startsWith("42")) return true;
+        int code = e.getErrorCode();
+        return code == 1044 || code == 1045 || code == 1142 || code == 1227 || code == 1370 || code == 1419;
+    }
+
+    /**
+     * Calls a procedure and returns the first column of its first row.
+     *
+     * @param procedure The procedure name.
+     * @param tables The tables the procedure may change.
+     * @param args The procedure's parameters.
+     * @return The value, or null if the procedure returned no row or NULL.
+     */
+    public static Object CallForValue(String procedure, Collection<String> tables, Object... args) {
+        List<Map<String, Object>> rows = DatabaseConnection.GetInstance().ExecuteCall(procedure, tables, args);
+        if(rows == null || rows.isEmpty() || rows.get(0).isEmpty()) return null;
+        return rows.get(0).values().iterator().next();
+    }
+
+    /**
+     * Cleans a genre list the way both the procedures and the plain SQL paths store it: genres
+     * are trimmed, line breaks inside a genre become spaces, and blank ones and repeats are dropped.
+     *
+     * @param genres The genres as entered.
+     * @return The cleaned genres, in their original order.
+     */
+    public static List<String> CleanGenres(Collection<String> genres) {
+        Set<String> clean = new LinkedHashSet<>();
+        for(String genre : genres) {
+            if(genre == null) continue;
+            String trimmed = genre.replace('\r', ' ').replace('\n', ' ').trim();
+            if(!trimmed.isEmpty()) clean.add(trimmed);
+        }
+        return new ArrayList<>(clean);
+    }
+
+    /**
+     * @param genres The genres.
+     * @return The cleaned genres joined into the newline-separated form the procedures take.
+     */
+    public static String JoinGenres(Collection<String> genres) {
+        return String.join("\n", CleanGenres(genres));
+    }
+
+    private static boolean isCurrent(Connection connection, String name) throws SQLException {
+        String sql = "SELECT ROUTINE_COMMENT FROM information_schema.ROUTINES WHERE ROUTINE_SCHEMA = DATABASE() AND ROUTINE_NAME = ? AND ROUTINE_TYPE = 'PROCEDURE'";
+        try(PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, name);
+            try(ResultSet rs = statement.executeQuery()) {
+                return rs.next() && VERSION.equals(rs.getString(1));
+            }
+        }
+    }
+}
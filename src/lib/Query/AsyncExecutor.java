@@ -0,0 +1,78 @@
+package lib.Query;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Runs the builders' async terminal operations (ReadAsync, InsertAsync, ...).
+ *
+ * Each operation gets its own virtual thread when the runtime has them (Java 21+), so
+ * waiting on the database does not tie up a platform thread; older runtimes fall back to
+ * a fixed pool with one daemon thread per permit, so queued operations wait in the pool's
+ * queue instead of each holding a parked thread. A semaphore caps how many operations talk
+ * to the database at once (library.async.maxConcurrency, default 4: the shared connection,
+ * the read replicas and the transaction connections only serve a handful of statements at
+ * a time, so more in flight would just queue inside the driver).
+ *
+ * Futures complete on the executing thread; UI code must hop back to the event thread
+ * before touching components.
+ *
+ * @author dev-MichaelJohn
+ */
+public final class AsyncExecutor {
+    private static final int MAX_CONCURRENCY = Math.max(1, Integer.getInteger("library.async.maxConcurrency", 4));
+    private static final Semaphore permits = new Semaphore(MAX_CONCURRENCY, true);
+    private static final ExecutorService executor = createExecutor();
+
+    private AsyncExecutor() {}
+
+    /**
+     * Runs a blocking database operation asynchronously.
+     *
+     * @param operation The operation (typically a builder's blocking terminal method).
+     * @param <R> The result type.
+     * @return A future completed with the operation's result, or exceptionally with its exception.
+     */
+    public static <R> CompletableFuture<R> Submit(Supplier<R> operation) {
+        if(operation == null) throw new IllegalArgumentException("Operation cannot be null");
+
+        return CompletableFuture.supplyAsync(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                return operation.get();
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * @return The maximum number of operations running against the database at once.
+     */
+    public static int MaxConcurrency() {
+        return MAX_CONCURRENCY;
+    }
+
+    /**
+     * @return true if operations run on virtual threads.
+     */
+    public static boolean UsesVirtualThreads() {
+        return !(executor instanceof java.util.concurrent.ThreadPoolExecutor);
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // Executors.newVirtualThreadPerTaskExecutor() exists from Java 21 on
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(MAX_CONCURRENCY, runnable -> {
+                Thread thread = new Thread(runnable, "db-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
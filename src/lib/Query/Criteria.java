@@ -0,0 +1,369 @@
+package lib.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A filter condition that compiles to a parameterized SQL WHERE clause.
+ *
+ * Conditions are built with the static factories and combined with {@link #And(Criteria...)},
+ * {@link #Or(Criteria...)} and {@link #Not(Criteria)}:
+ *
+ * <pre>
+ * Criteria.And(
+ *     Criteria.Between("year_published", 1990, 1999),
+ *     Criteria.Or(Criteria.StartsWith("author_key", "tolkien"), Criteria.In("id", 3, 5, 8)),
+ *     Criteria.Not(Criteria.IsNull("isbn_key")))
+ * </pre>
+ *
+ * Values are always bound as parameters; column names must be plain identifiers
+ * (optionally qualified, e.g. "b.title") and are checked when the condition is created.
+ * Criteria are immutable and can be shared and reused.
+ *
+ * @author dev-MichaelJohn
+ */
+public abstract class Criteria {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+    private static final Criteria ALWAYS = new Constant(true);
+    private static final Criteria NEVER = new Constant(false);
+
+    Criteria() {}
+
+    /**
+     * Appends the SQL for this condition and collects its parameter values.
+     *
+     * @param sql Receives the SQL text.
+     * @param values Receives the parameter values, in placeholder order.
+     */
+    protected abstract void AppendTo(StringBuilder sql, List<Object> values);
+
+    /**
+     * Compiles the condition.
+     *
+     * @param values Receives the parameter values, in placeholder order.
+     * @return The SQL condition (without "WHERE").
+     */
+    public String Compile(List<Object> values) {
+        if(values == null) throw new IllegalArgumentException("Values list cannot be null");
+
+        StringBuilder sql = new StringBuilder();
+        AppendTo(sql, values);
+        return sql.toString();
+    }
+
+    @Override
+    public String toString() {
+        List<Object> values = new ArrayList<>();
+        return Compile(values) + " " + values;
+    }
+
+    // ===== comparisons =====
+
+    /**
+     * @param column The column.
+     * @param value The value (null compiles to IS NULL).
+     * @return column = value
+     */
+    public static Criteria Eq(String column, Object value) {
+        return value == null ? IsNull(column) : new Comparison(column, "=", value);
+    }
+
+    /**
+     * @param column The column.
+     * @param value The value (null compiles to IS NOT NULL).
+     * @return column &lt;&gt; value
+     */
+    public static Criteria Ne(String column, Object value) {
+        return value == null ? IsNotNull(column) : new Comparison(column, "<>", value);
+    }
+
+    /** @return column &lt; value */
+    public static Criteria Lt(String column, Object value) { return new Comparison(column, "<", required(value)); }
+    /** @return column &lt;= value */
+    public static Criteria Le(String column, Object value) { return new Comparison(column, "<=", required(value)); }
+    /** @return column &gt; value */
+    public static Criteria Gt(String column, Object value) { return new Comparison(column, ">", required(value)); }
+    /** @return column &gt;= value */
+    public static Criteria Ge(String column, Object value) { return new Comparison(column, ">=", required(value)); }
+
+    /**
+     * @param column The column.
+     * @param low The lower bound (inclusive).
+     * @param high The upper bound (inclusive).
+     * @return column BETWEEN low AND high
+     */
+    public static Criteria Between(String column, Object low, Object high) {
+        return new Range(column, required(low), required(high));
+    }
+
+    /**
+     * @param column The column.
+     * @param pattern A LIKE pattern (% and _ are wildcards).
+     * @return column LIKE pattern
+     */
+    public static Criteria Like(String column, String pattern) {
+        return new Comparison(column, "LIKE", required(pattern));
+    }
+
+    /**
+     * @param column The column.
+     * @param prefix Literal text the value must start with (wildcards are escaped).
+     * @return column LIKE 'prefix%'
+     */
+    public static Criteria StartsWith(String column, String prefix) {
+        return Like(column, EscapeLike((String) required(prefix)) + "%");
+    }
+
+    /**
+     * @param column The column.
+     * @param text Literal text the value must contain (wildcards are escaped).
+     * @return column LIKE '%text%'
+     */
+    public static Criteria Contains(String column, String text) {
+        return Like(column, "%" + EscapeLike((String) required(text)) + "%");
+    }
+
+    /**
+     * @param column The column.
+     * @param values The allowed values (an empty list matches nothing).
+     * @return column IN (values)
+     */
+    public static Criteria In(String column, Collection<?> values) {
+        if(values == null) throw new IllegalArgumentException("Values cannot be null");
+        for(Object value : values) required(value);
+        if(values.isEmpty()) {
+            checkColumn(column);
+            return NEVER;
+        }
+        return new Membership(column, new ArrayList<>(values));
+    }
+
+    /**
+     * @param column The column.
+     * @param values The allowed values (none matches nothing).
+     * @return column IN (values)
+     */
+    public static Criteria In(String column, Object... values) {
+        return In(column, Arrays.asList(values));
+    }
+
+    /**
+     * @param column The column.
+     * @return column IS NULL
+     */
+    public static Criteria IsNull(String column) {
+        return new NullCheck(column, true);
+    }
+
+    /**
+     * @param column The column.
+     * @return column IS NOT NULL
+     */
+    public static Criteria IsNotNull(String column) {
+        return new NullCheck(column, false);
+    }
+
+    // ===== combinations =====
+
+    /**
+     * @param criteria The conditions (none matches everything).
+     * @return All conditions hold.
+     */
+    public static Criteria And(Criteria... criteria) {
+        return combine("AND", ALWAYS, criteria);
+    }
+
+    /**
+     * @param criteria The conditions (none matches nothing).
+     * @return At least one condition holds.
+     */
+    public static Criteria Or(Criteria... criteria) {
+        return combine("OR", NEVER, criteria);
+    }
+
+    /**
+     * @param criteria The condition.
+     * @return The condition does not hold.
+     */
+    public static Criteria Not(Criteria criteria) {
+        if(criteria == null) throw new IllegalArgumentException("Criteria cannot be null");
+        if(criteria == ALWAYS) return NEVER;
+        if(criteria == NEVER) return ALWAYS;
+        return new Negation(criteria);
+    }
+
+    /**
+     * @param other Another condition.
+     * @return this AND other
+     */
+    public Criteria And(Criteria other) {
+        return And(this, other);
+    }
+
+    /**
+     * @param other Another condition.
+     * @return this OR other
+     */
+    public Criteria Or(Criteria other) {
+        return Or(this, other);
+    }
+
+    /**
+     * Escapes the LIKE wildcards (% and _) and the escape character of a literal text.
+     *
+     * @param text The literal text.
+     * @return The escaped text.
+     */
+    public static String EscapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static Criteria combine(String operator, Criteria identity, Criteria[] criteria) {
+        if(criteria == null) throw new IllegalArgumentException("Criteria cannot be null");
+
+        List<Criteria> parts = new ArrayList<>(criteria.length);
+        for(Criteria part : criteria) {
+            if(part == null) throw new IllegalArgumentException("Criteria cannot be null");
+            if(part == identity) continue;
+            // AND with NEVER is NEVER, OR with ALWAYS is ALWAYS
+            if(part == (identity == ALWAYS ? NEVER : ALWAYS)) return part;
+            // flatten nested groups of the same operator
+            if(part instanceof Group && ((Group) part).operator.equals(operator)) parts.addAll(((Group) part).parts);
+            else parts.add(part);
+        }
+
+        if(parts.isEmpty()) return identity;
+        if(parts.size() == 1) return parts.get(0);
+        return new Group(operator, parts);
+    }
+
+    private static String checkColumn(String column) {
+        if(column == null || !IDENTIFIER.matcher(column).matches()) throw new IllegalArgumentException("Invalid column name: " + column);
+        return column;
+    }
+
+    private static Object required(Object value) {
+        if(value == null) throw new IllegalArgumentException("Value cannot be null");
+        return value;
+    }
+
+    // ===== node types =====
+
+    private static final class Constant extends Criteria {
+        private final boolean value;
+
+        Constant(boolean value) { this.value = value; }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append(this.value ? "1 = 1" : "1 = 0");
+        }
+    }
+
+    private static final class Comparison extends Criteria {
+        private final String column;
+        private final String operator;
+        private final Object value;
+
+        Comparison(String column, String operator, Object value) {
+            this.column = checkColumn(column);
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append(this.column).append(' ').append(this.operator).append(" ?");
+            values.add(this.value);
+        }
+    }
+
+    private static final class Range extends Criteria {
+        private final String column;
+        private final Object low;
+        private final Object high;
+
+        Range(String column, Object low, Object high) {
+            this.column = checkColumn(column);
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append(this.column).append(" BETWEEN ? AND ?");
+            values.add(this.low);
+            values.add(this.high);
+        }
+    }
+
+    private static final class Membership extends Criteria {
+        private final String column;
+        private final List<Object> members;
+
+        Membership(String column, List<Object> members) {
+            this.column = checkColumn(column);
+            this.members = Collections.unmodifiableList(members);
+        }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append(this.column).append(" IN (");
+            for(int i = 0; i < this.members.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+            sql.append(')');
+            values.addAll(this.members);
+        }
+    }
+
+    private static final class NullCheck extends Criteria {
+        private final String column;
+        private final boolean isNull;
+
+        NullCheck(String column, boolean isNull) {
+            this.column = checkColumn(column);
+            this.isNull = isNull;
+        }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append(this.column).append(this.isNull ? " IS NULL" : " IS NOT NULL");
+        }
+    }
+
+    private static final class Group extends Criteria {
+        private final String operator;
+        private final List<Criteria> parts;
+
+        Group(String operator, List<Criteria> parts) {
+            this.operator = operator;
+            this.parts = Collections.unmodifiableList(parts);
+        }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append('(');
+            for(int i = 0; i < this.parts.size(); i++) {
+                if(i > 0) sql.append(' ').append(this.operator).append(' ');
+                this.parts.get(i).AppendTo(sql, values);
+            }
+            sql.append(')');
+        }
+    }
+
+    private static final class Negation extends Criteria {
+        private final Criteria inner;
+
+        Negation(Criteria inner) { this.inner = inner; }
+
+        @Override
+        protected void AppendTo(StringBuilder sql, List<Object> values) {
+            sql.append("NOT (");
+            this.inner.AppendTo(sql, values);
+            sql.append(')');
+        }
+    }
+}
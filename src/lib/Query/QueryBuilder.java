@@ -0,0 +1,268 @@
+package lib.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared base of the entity builders (books, genres, loans, borrowers).
+ *
+ * Collects conditions (or assignments) and their values, and turns them into SQL through
+ * memoized templates: the SQL for a given table and combination of conditions is built once
+ * and reused by every later builder with the same combination, so a repeated query costs a
+ * map lookup instead of string building. The same SQL text also lets the query result cache
+ * and the driver's statement handling recognize repeated queries.
+ *
+ * Update builders can be given a snapshot of the row being edited (see {@link #Snapshot(Map)});
+ * assignments whose value equals the snapshot are then dropped, so only changed columns are
+ * sent and an update that changes nothing skips the database entirely.
+ *
+ * @param <T> The type of the concrete builder extending this class.
+ *
+ * @author dev-MichaelJohn
+ */
+public abstract class QueryBuilder<T extends QueryBuilder<T>> {
+    // criteria with long IN lists make many distinct combinations; stop memoizing past this
+    private static final int MAX_TEMPLATES = 4096;
+    private static final Map<TemplateKey, String> templates = new ConcurrentHashMap<>();
+    private static final Map<String, String> assignments = new ConcurrentHashMap<>();
+
+    private final List<String> statements = new ArrayList<>(4);
+    private final List<Object> values = new ArrayList<>(4);
+    private Map<String, Object> snapshot;
+
+    protected abstract T self();
+
+    /**
+     * Adds a field and its corresponding value to the builder.
+     *
+     * @param parameter The field name, or a full condition containing a '?' placeholder (e.g. "title LIKE ?").
+     * @param value The value to be set for the field.
+     * @return The current builder instance.
+     */
+    protected T SetField(String parameter, Object value) {
+        // If the parameter string already contains a SQL placeholder ('?'),
+        // assume the caller provided the full condition (e.g. "title LIKE ?").
+        // In that case do not append " = ?" again (that caused "... = ? = ?").
+        if(parameter != null && parameter.indexOf('?') >= 0) this.statements.add(parameter);
+        else this.statements.add(assignments.computeIfAbsent(String.valueOf(parameter), p -> p + " = ?"));
+
+        this.values.add(value);
+        return self();
+    }
+
+    /**
+     * Adds a complete condition with several placeholders (e.g. "(a LIKE ? OR b LIKE ?)").
+     *
+     * @param condition The SQL condition.
+     * @param values The values for the placeholders, in order.
+     * @return The current builder instance.
+     */
+    protected T SetCondition(String condition, Object... values) {
+        this.statements.add(condition);
+        for(Object value : values) this.values.add(value);
+
+        return self();
+    }
+
+    /**
+     * Adds a criteria condition; it is combined with the other conditions using AND.
+     *
+     * @param criteria The condition.
+     * @return The current builder instance.
+     */
+    protected T AddCriteria(Criteria criteria) {
+        if(criteria == null) throw new IllegalArgumentException("Criteria cannot be null");
+
+        this.statements.add(criteria.Compile(this.values));
+        return self();
+    }
+
+    /**
+     * Sets the current values of the row being updated. Later {@link #SetChangedField(String, Object)}
+     * calls only record columns whose value differs from the snapshot.
+     *
+     * @param row The row as last read (column name to value); columns missing from it count as changed.
+     * @return The current builder instance.
+     */
+    protected T Snapshot(Map<String, Object> row) {
+        if(row == null) throw new IllegalArgumentException("Snapshot cannot be null");
+        if(this.snapshot != null) throw new IllegalStateException("Snapshot has already been set");
+
+        this.snapshot = new HashMap<>(row);
+        return self();
+    }
+
+    /**
+     * Adds an assignment unless the snapshot already holds the same value for the column.
+     *
+     * @param column The column name.
+     * @param value The new value.
+     * @return The current builder instance.
+     */
+    protected T SetChangedField(String column, Object value) {
+        return IsChanged(column, value) ? SetField(column, value) : self();
+    }
+
+    /**
+     * @param column The column name.
+     * @param value The new value.
+     * @return false if the snapshot holds the same value for the column, true otherwise (including without a snapshot).
+     */
+    protected boolean IsChanged(String column, Object value) {
+        return this.snapshot == null || !this.snapshot.containsKey(column) || !sameValue(this.snapshot.get(column), value);
+    }
+
+    /**
+     * @return true if a snapshot was set and no assignment differs from it, i.e. an update would be a no-op.
+     */
+    protected boolean NothingChanged() {
+        return this.snapshot != null && this.statements.isEmpty();
+    }
+
+    /**
+     * Compares a column value as read from the database with a value about to be written.
+     * Numbers compare by value whatever their boxed type, booleans match 1/0 and dates compare
+     * by instant, since the driver rarely returns the exact type the builders bind.
+     *
+     * @param current The value read from the database.
+     * @param next The value to write.
+     * @return true if writing next would not change the column.
+     */
+    private static boolean sameValue(Object current, Object next) {
+        if(current == null || next == null) return current == next;
+        if(current instanceof Boolean) current = (Boolean) current ? 1 : 0;
+        if(next instanceof Boolean) next = (Boolean) next ? 1 : 0;
+        if(current instanceof Number && next instanceof Number) {
+            Number a = (Number) current, b = (Number) next;
+            if(isIntegral(a) && isIntegral(b)) return a.longValue() == b.longValue();
+            return new java.math.BigDecimal(a.toString()).compareTo(new java.math.BigDecimal(b.toString())) == 0;
+        }
+        if(current instanceof Date && next instanceof Date) return ((Date) current).getTime() == ((Date) next).getTime();
+        if(current instanceof java.time.LocalDate && next instanceof java.sql.Date) return current.equals(((java.sql.Date) next).toLocalDate());
+        return current.equals(next);
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+    }
+
+    protected List<String> GetStatements() { return this.statements; }
+    protected List<Object> GetValues() { return this.values; }
+
+    /**
+     * @param table The table to read.
+     * @return "SELECT * FROM table [WHERE c1 AND c2 ...]" for the current conditions.
+     */
+    protected String SelectSql(String table) {
+        return template("SELECT * FROM ", table, " WHERE ", " AND ", "");
+    }
+
+    /**
+     * @param table The table to delete from (at least one condition must be set).
+     * @return "DELETE FROM table WHERE c1 AND c2 ..." for the current conditions.
+     */
+    protected String DeleteSql(String table) {
+        if(this.statements.isEmpty()) throw new IllegalStateException("At least one field must be set for deletion");
+        return template("DELETE FROM ", table, " WHERE ", " AND ", "");
+    }
+
+    /**
+     * @param table The table to update (at least one assignment must be set).
+     * @return "UPDATE table SET a = ?, b = ? WHERE id = ?" for the current assignments.
+     */
+    protected String UpdateByIdSql(String table) {
+        if(this.statements.isEmpty()) throw new IllegalStateException("At least one field must be set for update");
+        return template("UPDATE ", table, " SET ", ", ", " WHERE id = ?");
+    }
+
+    /**
+     * Same as {@link #UpdateByIdSql(String)} but only touches the row if at least one column
+     * actually differs, using MySQL's null-safe equality:
+     * "UPDATE table SET a = ?, b = ? WHERE id = ? AND NOT (a &lt;=&gt; ? AND b &lt;=&gt; ?)".
+     * Use {@link #UpdateByIdValues(Object, boolean)} for the matching parameter values.
+     *
+     * @param table The table to update (at least one plain column assignment must be set).
+     * @param onlyIfChanged true to add the "differs" condition.
+     * @return The UPDATE statement.
+     */
+    protected String UpdateByIdSql(String table, boolean onlyIfChanged) {
+        if(!onlyIfChanged) return UpdateByIdSql(table);
+        if(this.statements.isEmpty()) throw new IllegalStateException("At least one field must be set for update");
+
+        TemplateKey lookup = new TemplateKey("UPDATE IF CHANGED ", table, this.statements);
+        String sql = templates.get(lookup);
+        if(sql != null) return sql;
+
+        StringBuilder unchanged = new StringBuilder();
+        for(String assignment : this.statements) {
+            if(!assignment.endsWith(" = ?")) throw new IllegalStateException("Not a plain column assignment: " + assignment);
+            if(unchanged.length() > 0) unchanged.append(" AND ");
+            unchanged.append(assignment, 0, assignment.length() - 4).append(" <=> ?");
+        }
+        sql = UpdateByIdSql(table) + " AND NOT (" + unchanged + ")";
+
+        if(templates.size() < MAX_TEMPLATES) templates.putIfAbsent(new TemplateKey("UPDATE IF CHANGED ", table, new ArrayList<>(this.statements)), sql);
+        return sql;
+    }
+
+    /**
+     * @param id The ID of the row to update.
+     * @param onlyIfChanged Must match the flag passed to {@link #UpdateByIdSql(String, boolean)}.
+     * @return The parameter values for the UPDATE statement.
+     */
+    protected Object[] UpdateByIdValues(Object id, boolean onlyIfChanged) {
+        int assignments = this.values.size();
+        Object[] args = new Object[onlyIfChanged ? 2 * assignments + 1 : assignments + 1];
+        for(int i = 0; i < assignments; i++) args[i] = this.values.get(i);
+        args[assignments] = id;
+        if(onlyIfChanged) {
+            for(int i = 0; i < assignments; i++) args[assignments + 1 + i] = this.values.get(i);
+        }
+        return args;
+    }
+
+    private String template(String head, String table, String separator, String joiner, String tail) {
+        // the key wraps the live list for the lookup and is copied only when a new template is stored
+        TemplateKey lookup = new TemplateKey(head, table, this.statements);
+        String sql = templates.get(lookup);
+        if(sql != null) return sql;
+
+        StringBuilder builder = new StringBuilder(head).append(table);
+        if(!this.statements.isEmpty()) builder.append(separator).append(String.join(joiner, this.statements));
+        sql = builder.append(tail).toString();
+
+        if(templates.size() < MAX_TEMPLATES) templates.putIfAbsent(new TemplateKey(head, table, new ArrayList<>(this.statements)), sql);
+        return sql;
+    }
+
+    private static final class TemplateKey {
+        private final String kind;
+        private final String table;
+        private final List<String> statements;
+        private final int hash;
+
+        TemplateKey(String kind, String table, List<String> statements) {
+            this.kind = kind;
+            this.table = table;
+            this.statements = statements;
+            this.hash = 31 * (31 * kind.hashCode() + table.hashCode()) + statements.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(this == other) return true;
+            if(!(other instanceof TemplateKey)) return false;
+            TemplateKey key = (TemplateKey) other;
+            return this.hash == key.hash && this.kind.equals(key.kind) && this.table.equals(key.table) && this.statements.equals(key.statements);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package service;
 import lib.BookGenre.DeleteBookGenreBuilder;
 import lib.BookGenre.InsertBookGenreBuilder;
 import lib.BookGenre.ReadBookGenreBuilder;
+import lib.BookGenre.ReplaceBookGenresBuilder;
 import lib.BookGenre.UpdateBookGenreBuilder;
 
 /**
@@ -46,4 +47,13 @@ public class BookGenreService {
     public static DeleteBookGenreBuilder DeleteBookGenre() {
         return new DeleteBookGenreBuilder();
     }
+
+    /**
+     * Method that returns a builder to replace all genres of a book in one step.
+     * 
+     * @return ReplaceBookGenresBuilder instance
+     */
+    public static ReplaceBookGenresBuilder ReplaceBookGenres() {
+        return new ReplaceBookGenresBuilder();
+    }
 }
@@ -1,8 +1,10 @@
 package service;
 
+import lib.BookLoan.CheckoutBookBuilder;
 import lib.BookLoan.DeleteBookLoanBuilder;
 import lib.BookLoan.InsertBookLoanBuilder;
 import lib.BookLoan.ReadBookLoanBuilder;
+import lib.BookLoan.ReturnBookBuilder;
 import lib.BookLoan.UpdateBookLoanBuilder;
 
 
@@ -45,4 +47,24 @@ public class BookLoanService {
     public DeleteBookLoanBuilder DeleteBookLoan() {
         return new DeleteBookLoanBuilder();
     }
+
+    /**
+     * Method that returns a builder to lend a book: the book is claimed and the loan
+     * recorded in one transaction, so the same copy cannot be lent twice.
+     * 
+     * @return CheckoutBookBuilder instance
+     */
+    public CheckoutBookBuilder CheckoutBook() {
+        return new CheckoutBookBuilder();
+    }
+
+    /**
+     * Method that returns a builder to return a lent book: the loan is closed and the
+     * book made available in one transaction.
+     * 
+     * @return ReturnBookBuilder instance
+     */
+    public ReturnBookBuilder ReturnBook() {
+        return new ReturnBookBuilder();
+    }
 }